@@ -0,0 +1,33 @@
+package com.afollestad.bridge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * URL encoding of a {@link Form} body.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@State(Scope.Benchmark)
+public class FormBenchmark extends BaseBenchmark {
+
+    @Param({"4", "32"})
+    public int fieldCount;
+
+    private Form mForm;
+
+    @Setup
+    public void setup() {
+        mForm = new Form();
+        for (int i = 0; i < fieldCount; i++)
+            mForm.add("field" + i, i % 2 == 0 ? "a value with spaces & symbols" : i);
+    }
+
+    @Benchmark
+    public String encode() {
+        return mForm.toString();
+    }
+}
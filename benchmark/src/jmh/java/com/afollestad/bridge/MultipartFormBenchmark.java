@@ -0,0 +1,69 @@
+package com.afollestad.bridge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Assembling a {@link MultipartForm} with a few fields and one file part, either into a single array or
+ * streamed through its Pipe.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@State(Scope.Benchmark)
+public class MultipartFormBenchmark extends BaseBenchmark {
+
+    private static final class NullOutputStream extends OutputStream {
+
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+    @Param({"1024", "262144"})
+    public int fileSize;
+
+    private byte[] mFile;
+
+    @Setup
+    public void setup() {
+        mFile = new byte[fileSize];
+        for (int i = 0; i < mFile.length; i++)
+            mFile[i] = (byte) i;
+    }
+
+    private MultipartForm createForm() throws IOException {
+        return new MultipartForm()
+                .add("Subject", "Hello")
+                .add("Message", "A message that's a bit longer than the subject.")
+                .add("Count", 42)
+                .add("Attachment", "attachment.bin",
+                        Pipe.forStream(new ByteArrayInputStream(mFile), "application/octet-stream", mFile.length));
+    }
+
+    @Benchmark
+    public byte[] assemble() throws IOException {
+        return createForm().data();
+    }
+
+    @Benchmark
+    public long stream() throws IOException {
+        final NullOutputStream os = new NullOutputStream();
+        createForm().pipe().writeTo(os);
+        return os.count;
+    }
+}
@@ -0,0 +1,29 @@
+package com.afollestad.bridge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * URL templating in {@link Bridge#processUrl(String, Object...)}, and creating a RequestBuilder on top of it.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@State(Scope.Benchmark)
+public class ProcessUrlBenchmark extends BaseBenchmark {
+
+    @Benchmark
+    public String noArgs() {
+        return Bridge.client().processUrl("http://someurl.com/users/profile", (Object[]) null);
+    }
+
+    @Benchmark
+    public String formatArgs() {
+        return Bridge.client().processUrl("http://someurl.com/search?q=%s&page=%d", "a query with spaces", 2);
+    }
+
+    @Benchmark
+    public RequestBuilder requestBuilder() {
+        return Bridge.client().get("http://someurl.com/search?q=%s&page=%d", "a query with spaces", 2);
+    }
+}
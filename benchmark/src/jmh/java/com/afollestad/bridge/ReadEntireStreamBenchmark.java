@@ -0,0 +1,39 @@
+package com.afollestad.bridge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * {@link Util#readEntireStream(java.io.InputStream)}, with and without knowing the length up front.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@State(Scope.Benchmark)
+public class ReadEntireStreamBenchmark extends BaseBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    public int size;
+
+    private byte[] mData;
+
+    @Setup
+    public void setup() {
+        mData = new byte[size];
+    }
+
+    @Benchmark
+    public byte[] unknownLength() throws IOException {
+        return Util.readEntireStream(new ByteArrayInputStream(mData));
+    }
+
+    @Benchmark
+    public byte[] knownLength() throws IOException {
+        return Util.readEntireStream(new ByteArrayInputStream(mData), mData.length);
+    }
+}
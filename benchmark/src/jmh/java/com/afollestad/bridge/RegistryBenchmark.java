@@ -0,0 +1,85 @@
+package com.afollestad.bridge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Contention in the in-flight request registry: every thread reports progress for its own request, the way
+ * parallel downloads do on each buffer read. {@link #globalLock()} reproduces the old registry, a HashMap
+ * guarded by one static lock with a String.format() key, for comparison.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@Threads(8)
+public class RegistryBenchmark extends BaseBenchmark {
+
+    private static final AtomicInteger ID = new AtomicInteger();
+    private static final Object LEGACY_LOCK = new Object();
+    private static final Map<String, CallbackStack> LEGACY_MAP = new HashMap<>();
+
+    @State(Scope.Thread)
+    public static class InFlight {
+
+        Request request;
+        String legacyKey;
+        CallbackStack legacyStack;
+        int current;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            final Bridge bridge = Bridge.client();
+            request = new Request(bridge.get("http://someurl.com/downloads/%d", ID.getAndIncrement()));
+            bridge.pushCallback(request, new Callback() {
+                @Override
+                public void response(Request request, Response response, RequestException e) {
+                }
+            });
+
+            legacyKey = String.format("%s\0%s\0%s", request.method().name(), request.url(), "");
+            legacyStack = new CallbackStack(Bridge.client().config().mProgressInterval);
+            legacyStack.push(new Callback() {
+                @Override
+                public void response(Request request, Response response, RequestException e) {
+                }
+            }, request);
+            synchronized (LEGACY_LOCK) {
+                LEGACY_MAP.put(legacyKey, legacyStack);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            Bridge.client().fireCallbacks(request, null, null);
+            synchronized (LEGACY_LOCK) {
+                LEGACY_MAP.remove(legacyKey);
+            }
+        }
+    }
+
+    @Benchmark
+    public void concurrentRegistry(InFlight inFlight) {
+        inFlight.current = (inFlight.current + 4096) % (1024 * 1024);
+        Bridge.client().fireProgress(inFlight.request, inFlight.current, 1024 * 1024);
+    }
+
+    @Benchmark
+    public void globalLock(InFlight inFlight) {
+        inFlight.current = (inFlight.current + 4096) % (1024 * 1024);
+        final Request request = inFlight.request;
+        synchronized (LEGACY_LOCK) {
+            final String key = String.format("%s\0%s\0%s", request.method().name(), request.url(), "");
+            final CallbackStack cbs = LEGACY_MAP.get(key);
+            if (cbs != null)
+                cbs.fireAllProgress(request, inFlight.current, 1024 * 1024);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.afollestad.bridge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Building and looking up request keys. {@link #formatKey()} is the String.format() key that
+ * CallbackStack.createKey() used to build on every progress update, for comparison.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+@State(Scope.Benchmark)
+public class RequestKeyBenchmark extends BaseBenchmark {
+
+    private RequestBuilder mBuilder;
+    private Request mRequest;
+    private final Map<RequestKey, Object> mKeys = new HashMap<>();
+    private final Map<String, Object> mStringKeys = new HashMap<>();
+
+    @Setup
+    public void setup() {
+        mBuilder = Bridge.client()
+                .post("http://someurl.com/users/%d", 42)
+                .header("Authorization", "Bearer abcdef")
+                .body("{\"name\": \"Aidan\", \"age\": 20}");
+        mRequest = new Request(mBuilder);
+        for (int i = 0; i < 64; i++) {
+            final Request request = new Request(Bridge.client().get("http://someurl.com/items/%d", i));
+            mKeys.put(request.key(), request);
+            mStringKeys.put(formatKey(request), request);
+        }
+        mKeys.put(mRequest.key(), mRequest);
+        mStringKeys.put(formatKey(mRequest), mRequest);
+    }
+
+    private static String formatKey(Request req) {
+        return String.format("%s\0%s\0%s", req.method().name(), req.url(),
+                req.builder().mBody != null ? req.builder().mBody.length + "" : "");
+    }
+
+    @Benchmark
+    public RequestKey createKey() {
+        return new RequestKey(mBuilder);
+    }
+
+    @Benchmark
+    public String formatKey() {
+        return formatKey(mRequest);
+    }
+
+    /**
+     * What a progress update costs now: the key is computed once per request.
+     */
+    @Benchmark
+    public Object lookup() {
+        return mKeys.get(mRequest.key());
+    }
+
+    @Benchmark
+    public Object formatKeyLookup() {
+        return mStringKeys.get(formatKey(mRequest));
+    }
+}
@@ -0,0 +1,300 @@
+package com.afollestad.bridge;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives Bridge against a {@link LoadTestServer} at increasing concurrency and reports throughput, latency,
+ * allocation and thread counts for each method. Options, all optional, are passed as --name=value:
+ * <ul>
+ * <li>methods: comma separated, GET,POST,PUT,DELETE by default.</li>
+ * <li>concurrency: comma separated levels, 1,4,16,64 by default.</li>
+ * <li>duration / warmup: seconds to measure and warm up each level, 10 and 2 by default.</li>
+ * <li>size: response body bytes, 1024 by default. body: request body bytes for POST and PUT, 1024 by default.</li>
+ * <li>delay: server delay in milliseconds. chunked: true for chunked responses. error: server error rate.</li>
+ * <li>async: true to use request(Callback) on Bridge's worker pool instead of synchronous requests
+ * on the load test's own threads.</li>
+ * <li>maxRequests / maxRequestsPerHost / poolSize: override Bridge's limits, e.g. --poolSize=4,16.</li>
+ * <li>transport: urlconnection (the default) or nio, to use a {@link NioTransport} with one I/O thread.</li>
+ * <li>reuse: the max number of idle connections per host, to keep connections alive between requests.</li>
+ * </ul>
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class LoadTest {
+
+    private static final class Result {
+
+        final long[] latencies;
+        final long errors;
+        final long elapsedNanos;
+        final long allocatedBytes;
+        final int peakThreads;
+        final int poolSize;
+
+        Result(long[] latencies, long errors, long elapsedNanos, long allocatedBytes, int peakThreads, int poolSize) {
+            this.latencies = latencies;
+            this.errors = errors;
+            this.elapsedNanos = elapsedNanos;
+            this.allocatedBytes = allocatedBytes;
+            this.peakThreads = peakThreads;
+            this.poolSize = poolSize;
+        }
+
+        double percentileMillis(double percentile) {
+            if (latencies.length == 0) return 0;
+            final int index = (int) Math.min(latencies.length - 1, Math.ceil(latencies.length * percentile / 100d) - 1);
+            return latencies[Math.max(0, index)] / 1000000d;
+        }
+    }
+
+    // Appends latencies without boxing, one instance per thread
+    private static final class Recorder {
+
+        long[] values = new long[1024];
+        int count;
+
+        void record(long nanos) {
+            if (count == values.length)
+                values = Arrays.copyOf(values, count * 2);
+            values[count++] = nanos;
+        }
+
+        static long[] merge(List<Recorder> recorders) {
+            int total = 0;
+            for (Recorder r : recorders) total += r.count;
+            final long[] merged = new long[total];
+            int offset = 0;
+            for (Recorder r : recorders) {
+                System.arraycopy(r.values, 0, merged, offset, r.count);
+                offset += r.count;
+            }
+            Arrays.sort(merged);
+            return merged;
+        }
+    }
+
+    private final Map<String, String> mOptions;
+    private final String mQuery;
+    private final byte[] mRequestBody;
+    private final AtomicLong mSequence = new AtomicLong();
+    private String mBaseUrl;
+
+    private LoadTest(Map<String, String> options) {
+        mOptions = options;
+        mQuery = String.format(Locale.US, "size=%d&delay=%d&chunked=%s&error=%s",
+                intOption("size", 1024), intOption("delay", 0), option("chunked", "false"), option("error", "0"));
+        mRequestBody = new byte[intOption("body", 1024)];
+    }
+
+    private String option(String name, String defaultValue) {
+        final String value = mOptions.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(option(name, String.valueOf(defaultValue)));
+    }
+
+    private RequestBuilder newRequest(Method method) {
+        // A unique URL per request, so duplicate avoidance and caching don't hide the work
+        final String url = mBaseUrl + "?" + mQuery + "&n=" + mSequence.incrementAndGet();
+        final Bridge bridge = Bridge.client();
+        switch (method) {
+            case POST:
+                return bridge.post(url).body(mRequestBody).memoryCache(false);
+            case PUT:
+                return bridge.put(url).body(mRequestBody).memoryCache(false);
+            case DELETE:
+                return bridge.delete(url).memoryCache(false);
+            default:
+                return bridge.get(url).memoryCache(false);
+        }
+    }
+
+    private static long allocatedBytes() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) return -1;
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled())
+            return -1;
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+
+    private Result runSync(final Method method, int concurrency, long warmupNanos, long durationNanos)
+            throws InterruptedException {
+        final long start = System.nanoTime();
+        final long measureFrom = start + warmupNanos;
+        final long measureUntil = measureFrom + durationNanos;
+        final List<Recorder> recorders = new ArrayList<>();
+        final AtomicLong errors = new AtomicLong();
+        final CountDownLatch warm = new CountDownLatch(concurrency);
+        final CountDownLatch done = new CountDownLatch(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            final Recorder recorder = new Recorder();
+            recorders.add(recorder);
+            final Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    boolean warmedUp = false;
+                    try {
+                        while (true) {
+                            final long now = System.nanoTime();
+                            if (!warmedUp && now >= measureFrom) {
+                                warmedUp = true;
+                                warm.countDown();
+                            }
+                            if (now >= measureUntil) break;
+                            final long begin = System.nanoTime();
+                            boolean failed;
+                            try {
+                                failed = !newRequest(method).response().isSuccess();
+                            } catch (RequestException e) {
+                                failed = true;
+                            }
+                            if (begin >= measureFrom) {
+                                recorder.record(System.nanoTime() - begin);
+                                if (failed) errors.incrementAndGet();
+                            }
+                        }
+                    } finally {
+                        if (!warmedUp) warm.countDown();
+                        done.countDown();
+                    }
+                }
+            }, "LoadTest #" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        warm.await();
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+        final long allocatedBefore = allocatedBytes();
+        done.await();
+        final long allocatedAfter = allocatedBytes();
+        return new Result(Recorder.merge(recorders), errors.get(), durationNanos,
+                allocatedBefore >= 0 ? allocatedAfter - allocatedBefore : -1,
+                ManagementFactory.getThreadMXBean().getPeakThreadCount(), Bridge.client().poolStats().poolSize());
+    }
+
+    private Result runAsync(Method method, int concurrency, long warmupNanos, long durationNanos)
+            throws InterruptedException {
+        final Semaphore inFlight = new Semaphore(concurrency);
+        final Recorder recorder = new Recorder();
+        final AtomicLong errors = new AtomicLong();
+        final long measureFrom = System.nanoTime() + warmupNanos;
+        final long measureUntil = measureFrom + durationNanos;
+        long allocatedBefore = -1;
+        boolean warmedUp = false;
+        while (System.nanoTime() < measureUntil) {
+            if (!warmedUp && System.nanoTime() >= measureFrom) {
+                warmedUp = true;
+                ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+                allocatedBefore = allocatedBytes();
+            }
+            if (!inFlight.tryAcquire(100, TimeUnit.MILLISECONDS))
+                continue;
+            final long begin = System.nanoTime();
+            newRequest(method).request(new Callback() {
+                @Override
+                public void response(Request request, Response response, RequestException e) {
+                    // Callbacks are delivered on a single "main" thread, like on Android
+                    if (begin >= measureFrom && begin < measureUntil) {
+                        recorder.record(System.nanoTime() - begin);
+                        if (e != null || !response.isSuccess()) errors.incrementAndGet();
+                    }
+                    inFlight.release();
+                }
+            });
+        }
+        inFlight.acquire(concurrency);
+        final long allocatedAfter = allocatedBytes();
+        final long[] latencies;
+        synchronized (recorder) {
+            latencies = Recorder.merge(java.util.Collections.singletonList(recorder));
+        }
+        return new Result(latencies, errors.get(), durationNanos,
+                allocatedBefore >= 0 ? allocatedAfter - allocatedBefore : -1,
+                ManagementFactory.getThreadMXBean().getPeakThreadCount(), Bridge.client().poolStats().poolSize());
+    }
+
+    private void run() throws Exception {
+        final LoadTestServer server = new LoadTestServer();
+        server.start();
+        mBaseUrl = server.url();
+
+        final Config config = Bridge.client().config();
+        if (mOptions.containsKey("maxRequests"))
+            config.maxRequests(intOption("maxRequests", 0));
+        if (mOptions.containsKey("maxRequestsPerHost"))
+            config.maxRequestsPerHost(intOption("maxRequestsPerHost", 0));
+        if (mOptions.containsKey("poolSize")) {
+            final String[] sizes = option("poolSize", "").split(",");
+            config.poolSize(Integer.parseInt(sizes[0]), Integer.parseInt(sizes[sizes.length - 1]));
+        }
+
+        final int reuse = intOption("reuse", 0);
+        final UrlConnectionTransport urlConnection = new UrlConnectionTransport().reuseConnections(reuse);
+        NioTransport nio = null;
+        if (option("transport", "urlconnection").equalsIgnoreCase("nio")) {
+            nio = new NioTransport().reuseConnections(reuse, 60000);
+            config.transport(nio);
+        } else {
+            config.transport(urlConnection);
+        }
+
+        final boolean async = Boolean.parseBoolean(option("async", "false"));
+        final long warmupNanos = TimeUnit.SECONDS.toNanos(intOption("warmup", 2));
+        final long durationNanos = TimeUnit.SECONDS.toNanos(intOption("duration", 10));
+
+        System.out.printf(Locale.US, "Bridge load test against %s (%s, %s requests, %s, %s)%n", mBaseUrl, mQuery,
+                async ? "async" : "synchronous", nio != null ? "NioTransport" : "UrlConnectionTransport",
+                reuse > 0 ? "reusing connections" : "a connection per request");
+        System.out.printf(Locale.US, "%-7s %6s %10s %9s %9s %8s %12s %8s %6s%n",
+                "method", "conc", "req/s", "p50 ms", "p99 ms", "errors", "alloc/req", "threads", "pool");
+        for (String name : option("methods", "GET,POST,PUT,DELETE").split(",")) {
+            final Method method = Method.valueOf(name.trim().toUpperCase(Locale.US));
+            for (String level : option("concurrency", "1,4,16,64").split(",")) {
+                final int concurrency = Integer.parseInt(level.trim());
+                final Result result = async
+                        ? runAsync(method, concurrency, warmupNanos, durationNanos)
+                        : runSync(method, concurrency, warmupNanos, durationNanos);
+                final int count = result.latencies.length;
+                System.out.printf(Locale.US, "%-7s %6d %10.1f %9.2f %9.2f %8d %12s %8d %6d%n",
+                        method.name(), concurrency, count * 1e9 / result.elapsedNanos,
+                        result.percentileMillis(50), result.percentileMillis(99), result.errors,
+                        result.allocatedBytes >= 0 && count > 0 ? (result.allocatedBytes / count) + " B" : "n/a",
+                        result.peakThreads, result.poolSize);
+            }
+        }
+
+        System.out.printf(Locale.US, "Connections: %s%n",
+                nio != null ? nio.connectionStats() : urlConnection.connectionStats());
+        Bridge.cleanup();
+        if (nio != null) nio.close();
+        server.stop();
+    }
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("="))
+                throw new IllegalArgumentException("Options must look like --name=value: " + arg);
+            final int equals = arg.indexOf('=');
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        new LoadTest(options).run();
+    }
+}
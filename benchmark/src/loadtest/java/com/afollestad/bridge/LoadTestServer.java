@@ -0,0 +1,126 @@
+package com.afollestad.bridge;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An in-process HTTP server on the loopback interface. Every response is shaped by query parameters:
+ * <ul>
+ * <li>size: the number of body bytes to send, 1024 by default.</li>
+ * <li>delay: milliseconds to wait before responding, 0 by default.</li>
+ * <li>chunked: true to use chunked transfer encoding instead of a Content-Length.</li>
+ * <li>error: the probability (0 to 1) of responding with a 500 instead.</li>
+ * </ul>
+ * Request bodies are read and discarded.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class LoadTestServer {
+
+    private static final byte[] BODY = new byte[1024 * 1024];
+
+    static {
+        // Otherwise Nagle's algorithm and delayed ACKs add ~40 ms to small responses, which would dwarf Bridge
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        for (int i = 0; i < BODY.length; i++)
+            BODY[i] = (byte) ('a' + i % 26);
+    }
+
+    private final HttpServer mServer;
+    private final ExecutorService mExecutor;
+    private final Random mRandom = new Random();
+
+    public LoadTestServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        mExecutor = Executors.newCachedThreadPool();
+        mServer.setExecutor(mExecutor);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    respond(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    public void start() {
+        mServer.start();
+    }
+
+    public void stop() {
+        mServer.stop(0);
+        mExecutor.shutdownNow();
+    }
+
+    public String url() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/";
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        final InputStream is = exchange.getRequestBody();
+        final byte[] discard = new byte[8192];
+        while (is.read(discard) != -1) {
+            // Drain the request body
+        }
+
+        final String query = exchange.getRequestURI().getRawQuery();
+        final int size = Math.min(BODY.length, intParam(query, "size", 1024));
+        final int delay = intParam(query, "delay", 0);
+        final boolean chunked = "true".equals(param(query, "chunked"));
+        final String error = param(query, "error");
+        final double errorRate = error != null ? Double.parseDouble(error) : 0;
+
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        final boolean fail;
+        synchronized (mRandom) {
+            fail = errorRate > 0 && mRandom.nextDouble() < errorRate;
+        }
+        exchange.getResponseHeaders().add("Content-Type", "text/plain");
+        if (fail) {
+            final byte[] message = "Internal Server Error".getBytes("UTF-8");
+            exchange.sendResponseHeaders(500, message.length);
+            exchange.getResponseBody().write(message);
+            return;
+        }
+        exchange.sendResponseHeaders(200, chunked ? 0 : (size == 0 ? -1 : size));
+        final OutputStream os = exchange.getResponseBody();
+        os.write(BODY, 0, size);
+        os.close();
+    }
+
+    private static String param(String query, String name) {
+        if (query == null) return null;
+        for (String pair : query.split("&")) {
+            final int equals = pair.indexOf('=');
+            if (equals > 0 && pair.substring(0, equals).equals(name))
+                return pair.substring(equals + 1);
+        }
+        return null;
+    }
+
+    private static int intParam(String query, String name, int defaultValue) {
+        final String value = param(query, name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+}
@@ -0,0 +1,19 @@
+package android.content;
+
+import android.content.res.AssetFileDescriptor;
+import android.net.Uri;
+
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+
+/**
+ * JVM stand-in for Android's ContentResolver.
+ */
+public abstract class ContentResolver {
+
+    public abstract InputStream openInputStream(Uri uri) throws FileNotFoundException;
+
+    public abstract AssetFileDescriptor openAssetFileDescriptor(Uri uri, String mode) throws FileNotFoundException;
+
+    public abstract String getType(Uri uri);
+}
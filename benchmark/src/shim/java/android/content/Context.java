@@ -0,0 +1,13 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * JVM stand-in for Android's Context.
+ */
+public abstract class Context {
+
+    public abstract ContentResolver getContentResolver();
+
+    public abstract File getCacheDir();
+}
@@ -0,0 +1,18 @@
+package android.content.res;
+
+import java.io.IOException;
+
+/**
+ * JVM stand-in for Android's AssetFileDescriptor.
+ */
+public class AssetFileDescriptor {
+
+    public static final long UNKNOWN_LENGTH = -1;
+
+    public long getLength() {
+        return UNKNOWN_LENGTH;
+    }
+
+    public void close() throws IOException {
+    }
+}
@@ -0,0 +1,45 @@
+package android.graphics;
+
+/**
+ * JVM stand-in for Android's Bitmap. Bitmaps can't be decoded on the JVM, so none are ever created.
+ */
+public final class Bitmap {
+
+    public enum Config {
+        ALPHA_8, RGB_565, ARGB_4444, ARGB_8888
+    }
+
+    private Bitmap() {
+    }
+
+    public int getWidth() {
+        return 0;
+    }
+
+    public int getHeight() {
+        return 0;
+    }
+
+    public Config getConfig() {
+        return Config.ARGB_8888;
+    }
+
+    public int getByteCount() {
+        return 0;
+    }
+
+    public int getAllocationByteCount() {
+        return 0;
+    }
+
+    public boolean isMutable() {
+        return false;
+    }
+
+    public boolean isRecycled() {
+        return true;
+    }
+
+    public void recycle() {
+    }
+}
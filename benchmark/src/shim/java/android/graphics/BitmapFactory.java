@@ -0,0 +1,39 @@
+package android.graphics;
+
+import java.io.InputStream;
+
+/**
+ * JVM stand-in for Android's BitmapFactory. Decoding isn't supported on the JVM.
+ */
+public final class BitmapFactory {
+
+    public static class Options {
+        public boolean inJustDecodeBounds;
+        public int inSampleSize;
+        public Bitmap.Config inPreferredConfig;
+        public Bitmap inBitmap;
+        public boolean inMutable;
+        public int outWidth;
+        public int outHeight;
+        public String outMimeType;
+    }
+
+    public static Bitmap decodeStream(InputStream is) {
+        return decodeStream(is, null, null);
+    }
+
+    public static Bitmap decodeStream(InputStream is, Rect outPadding, Options opts) {
+        throw new UnsupportedOperationException("Bitmaps can't be decoded on the JVM.");
+    }
+
+    public static Bitmap decodeByteArray(byte[] data, int offset, int length) {
+        return decodeByteArray(data, offset, length, null);
+    }
+
+    public static Bitmap decodeByteArray(byte[] data, int offset, int length, Options opts) {
+        throw new UnsupportedOperationException("Bitmaps can't be decoded on the JVM.");
+    }
+
+    private BitmapFactory() {
+    }
+}
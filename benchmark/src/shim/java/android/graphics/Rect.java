@@ -0,0 +1,7 @@
+package android.graphics;
+
+/**
+ * JVM stand-in for Android's Rect.
+ */
+public final class Rect {
+}
@@ -0,0 +1,46 @@
+package android.net;
+
+import java.io.File;
+import java.net.URI;
+
+/**
+ * JVM stand-in for Android's Uri, backed by java.net.URI.
+ */
+public abstract class Uri {
+
+    private static final class JavaUri extends Uri {
+
+        private final URI mUri;
+
+        JavaUri(URI uri) {
+            mUri = uri;
+        }
+
+        @Override
+        public String getScheme() {
+            return mUri.getScheme();
+        }
+
+        @Override
+        public String getPath() {
+            return mUri.getPath();
+        }
+
+        @Override
+        public String toString() {
+            return mUri.toString();
+        }
+    }
+
+    public static Uri fromFile(File file) {
+        return new JavaUri(file.toURI());
+    }
+
+    public static Uri parse(String uriString) {
+        return new JavaUri(URI.create(uriString));
+    }
+
+    public abstract String getScheme();
+
+    public abstract String getPath();
+}
@@ -0,0 +1,19 @@
+package android.os;
+
+/**
+ * JVM stand-in for Android's Build, reporting the newest API level Bridge checks for.
+ */
+public final class Build {
+
+    public static final class VERSION {
+        public static final int SDK_INT = 22;
+    }
+
+    public static final class VERSION_CODES {
+        public static final int HONEYCOMB = 11;
+        public static final int KITKAT = 19;
+    }
+
+    private Build() {
+    }
+}
@@ -0,0 +1,51 @@
+package android.os;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JVM stand-in for Android's Handler. Every Handler posts to one shared thread that plays the part of the
+ * main thread.
+ */
+public class Handler {
+
+    private static final ScheduledExecutorService MAIN = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "main");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final Map<Runnable, ScheduledFuture<?>> mPending = new WeakHashMap<>();
+
+    public Handler() {
+    }
+
+    public boolean post(Runnable r) {
+        return postDelayed(r, 0);
+    }
+
+    public boolean postDelayed(Runnable r, long delayMillis) {
+        final ScheduledFuture<?> future = MAIN.schedule(r, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+        synchronized (mPending) {
+            mPending.put(r, future);
+        }
+        return true;
+    }
+
+    public void removeCallbacks(Runnable r) {
+        final ScheduledFuture<?> future;
+        synchronized (mPending) {
+            future = mPending.remove(r);
+        }
+        if (future != null)
+            future.cancel(false);
+    }
+}
@@ -0,0 +1,18 @@
+package android.os;
+
+/**
+ * JVM stand-in for Android's SystemClock.
+ */
+public final class SystemClock {
+
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    public static long uptimeMillis() {
+        return elapsedRealtime();
+    }
+
+    private SystemClock() {
+    }
+}
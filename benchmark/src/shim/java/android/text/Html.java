@@ -0,0 +1,43 @@
+package android.text;
+
+/**
+ * JVM stand-in for Android's Html, which doesn't parse any markup.
+ */
+public final class Html {
+
+    private static final class PlainSpanned implements Spanned {
+
+        private final String mText;
+
+        PlainSpanned(String text) {
+            mText = text;
+        }
+
+        @Override
+        public int length() {
+            return mText.length();
+        }
+
+        @Override
+        public char charAt(int index) {
+            return mText.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return mText.subSequence(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return mText;
+        }
+    }
+
+    public static Spanned fromHtml(String source) {
+        return new PlainSpanned(source);
+    }
+
+    private Html() {
+    }
+}
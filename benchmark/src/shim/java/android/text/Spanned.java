@@ -0,0 +1,7 @@
+package android.text;
+
+/**
+ * JVM stand-in for Android's Spanned.
+ */
+public interface Spanned extends CharSequence {
+}
@@ -8,6 +8,7 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 /**
  * @author Aidan Follestad (afollestad)
@@ -22,9 +23,17 @@ interface AsResults {
 
     Bitmap asBitmap();
 
+    Bitmap asBitmap(int targetWidth, int targetHeight) throws ResponseException;
+
     JSONObject asJsonObject() throws ResponseException;
 
     JSONArray asJsonArray() throws ResponseException;
 
+    <T> T as(Class<T> cls) throws ResponseException;
+
+    <T> List<T> asList(Class<T> cls) throws ResponseException;
+
+    <T> void asList(Class<T> cls, ElementCallback<T> callback) throws ResponseException;
+
     void asFile(File destination) throws IOException;
 }
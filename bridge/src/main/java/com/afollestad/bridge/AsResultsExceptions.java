@@ -7,6 +7,7 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.File;
+import java.util.List;
 
 /**
  * A version of {@link AsResults} that throws exceptions for all methods. Used in {@link RequestBuilder}.
@@ -23,9 +24,17 @@ interface AsResultsExceptions {
 
     Bitmap asBitmap() throws Exception;
 
+    Bitmap asBitmap(int targetWidth, int targetHeight) throws Exception;
+
     JSONObject asJsonObject() throws Exception;
 
     JSONArray asJsonArray() throws Exception;
 
+    <T> T as(Class<T> cls) throws Exception;
+
+    <T> List<T> asList(Class<T> cls) throws Exception;
+
+    <T> void asList(Class<T> cls, ElementCallback<T> callback) throws Exception;
+
     void asFile(File destination) throws Exception;
 }
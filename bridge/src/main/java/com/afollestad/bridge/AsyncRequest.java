@@ -0,0 +1,87 @@
+package com.afollestad.bridge;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Executes a Request on Bridge's worker pool and fires the callbacks registered for it. With an
+ * {@link AsyncTransport}, the worker is free again while the response is on its way.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class AsyncRequest implements Runnable {
+
+    private final Request mRequest;
+    protected final String mHost;
+    protected Priority mPriority;
+    protected long mSequence;
+    protected boolean mRunning;
+
+    public AsyncRequest(Request request) {
+        mRequest = request;
+        mPriority = request.builder().mPriority;
+        String host;
+        try {
+            host = new URL(request.url()).getHost();
+        } catch (MalformedURLException e) {
+            host = "";
+        }
+        mHost = host;
+    }
+
+    public Request request() {
+        return mRequest;
+    }
+
+    @Override
+    public void run() {
+        if (mRequest.builder().mTransport instanceof AsyncTransport) {
+            try {
+                // Completed by whichever worker handles the response
+                mRequest.makeRequestAsync(this);
+            } catch (RuntimeException e) {
+                mRequest.builder().mContext.scheduler().finished(this);
+                throw e;
+            }
+            return;
+        }
+        RequestException error = null;
+        try {
+            mRequest.makeRequest();
+        } catch (RequestException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            mRequest.builder().mContext.scheduler().finished(this);
+            throw e;
+        }
+        complete(error);
+    }
+
+    /**
+     * Fires the callbacks once the request is done, and frees its place in the scheduler.
+     */
+    public void complete(RequestException error) {
+        final Bridge context = mRequest.builder().mContext;
+        try {
+            if (mRequest.mCancelCallbackFired) return;
+            context.fireCallbacks(mRequest, error == null ? mRequest.response() : null, error);
+        } finally {
+            context.scheduler().finished(this);
+        }
+    }
+
+    public void reject(Exception reason) {
+        final Bridge context = mRequest.builder().mContext;
+        Log.d(this, "Rejected %s: %s", mRequest, reason.getMessage());
+        try {
+            if (mRequest.mCancelCallbackFired) return;
+            final RequestException error = new RequestException(mRequest, reason);
+            final EventListener listener = mRequest.builder().mEventListener;
+            if (listener != null)
+                listener.failed(mRequest, System.nanoTime(), error);
+            context.fireCallbacks(mRequest, null, error);
+        } finally {
+            context.scheduler().finished(this);
+        }
+    }
+}
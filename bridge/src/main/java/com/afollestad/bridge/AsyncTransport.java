@@ -0,0 +1,22 @@
+package com.afollestad.bridge;
+
+import android.support.annotation.NonNull;
+
+/**
+ * A {@link Transport} that can send a request without holding the calling thread while the response is on its
+ * way. Bridge uses {@link #enqueue(TransportRequest, TransportCallback)} for async requests, so the number of
+ * slow responses in flight at once is bounded by {@link Config#maxRequests(int)} rather than the size of the
+ * worker pool.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public interface AsyncTransport extends Transport {
+
+    /**
+     * Starts sending the request and returns without waiting for the response. The callback is called exactly
+     * once, on one of the transport's own threads, or before this returns if the request fails right away.
+     * Returns false, without calling the callback, if the request can't be sent this way; Bridge then sends it
+     * with {@link #execute(TransportRequest)}.
+     */
+    boolean enqueue(@NonNull TransportRequest request, @NonNull TransportCallback callback);
+}
@@ -0,0 +1,223 @@
+package com.afollestad.bridge;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Runs a group of requests with bounded parallelism and delivers all of their results to a single
+ * {@link BatchCallback}. Created with {@link Bridge#batch()}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class Batch {
+
+    private final Bridge mContext;
+    private final Object LOCK = new Object();
+    private final List<RequestBuilder> mBuilders = new ArrayList<>();
+    private final List<Callback> mItemCallbacks = new ArrayList<>();
+    private int mParallelism = 4;
+    private boolean mFailFast;
+    private Object mTag;
+
+    private BatchCallback mCallback;
+    private Response[] mResponses;
+    private RequestException[] mErrors;
+    private int mNextIndex;
+    private int mFinishedCount;
+    private boolean mStopped;
+    private boolean mForceCancel;
+    private boolean mDelivered;
+
+    protected Batch(Bridge context) {
+        mContext = context;
+    }
+
+    public Batch add(@NonNull RequestBuilder request) {
+        return add(request, null);
+    }
+
+    /**
+     * Adds a request to the batch. The optional callback receives this request's progress and response
+     * as soon as it finishes, before the batch as a whole finishes.
+     */
+    public Batch add(@NonNull RequestBuilder request, @Nullable Callback callback) {
+        synchronized (LOCK) {
+            if (mCallback != null)
+                throw new IllegalStateException("Requests can't be added to a batch that has already started.");
+            mBuilders.add(request);
+            mItemCallbacks.add(callback);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the max number of requests from this batch that are in flight at once. Defaults to 4. Requests
+     * are still subject to the global and per-host limits of {@link Config}.
+     */
+    public Batch parallelism(int parallelism) {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("The parallelism must be greater than 0.");
+        mParallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * If true, the first request that fails or gets an unsuccessful response cancels the rest of the batch.
+     * By default, all requests run and all of their results are collected.
+     */
+    public Batch failFast(boolean failFast) {
+        mFailFast = failFast;
+        return this;
+    }
+
+    /**
+     * Tags the batch. {@link Bridge#cancelAll(Object)} with this tag cancels the whole batch, including requests
+     * that haven't started yet. The requests keep their own tags.
+     */
+    public Batch tag(@Nullable Object tag) {
+        mTag = tag;
+        return this;
+    }
+
+    public Object tag() {
+        return mTag;
+    }
+
+    public int size() {
+        synchronized (LOCK) {
+            return mBuilders.size();
+        }
+    }
+
+    public Batch request(@NonNull BatchCallback callback) {
+        final List<RequestBuilder> toStart;
+        synchronized (LOCK) {
+            if (mCallback != null)
+                throw new IllegalStateException("This batch has already been started.");
+            mCallback = callback;
+            final int size = mBuilders.size();
+            mResponses = new Response[size];
+            mErrors = new RequestException[size];
+            if (size == 0) {
+                callback.response(this, mResponses, mErrors);
+                return this;
+            }
+            mContext.registerBatch(this);
+            toStart = new ArrayList<>();
+            while (mNextIndex < size && mNextIndex < mParallelism)
+                toStart.add(mBuilders.get(mNextIndex++));
+        }
+        for (int i = 0; i < toStart.size(); i++)
+            start(i);
+        return this;
+    }
+
+    // Returns true if any request in this batch matches the filter of Bridge#cancelAll(Method, String)
+    protected boolean matches(@Nullable Method method, @NonNull Pattern urlPattern) {
+        synchronized (LOCK) {
+            for (RequestBuilder builder : mBuilders) {
+                if ((method == null || builder.mMethod == method) && urlPattern.matcher(builder.mUrl).find())
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    private void start(final int index) {
+        final Callback callback = new Callback() {
+            @Override
+            public void response(Request request, Response response, RequestException e) {
+                final Callback itemCallback = mItemCallbacks.get(index);
+                if (itemCallback != null)
+                    itemCallback.response(request, response, e);
+                onFinished(index, response, e);
+            }
+
+            @Override
+            public void progress(Request request, Progress progress) {
+                final Callback itemCallback = mItemCallbacks.get(index);
+                if (itemCallback != null)
+                    itemCallback.progress(request, progress);
+            }
+        };
+        // Identifies the batch's own callbacks, so cancelling the batch leaves other requests alone
+        callback.mBatch = this;
+        mBuilders.get(index).request(callback);
+        final boolean stopped;
+        final boolean force;
+        synchronized (LOCK) {
+            stopped = mStopped;
+            force = mForceCancel;
+        }
+        // The batch may have been cancelled while this request was being started
+        if (stopped)
+            mContext.cancelBatch(this, force);
+    }
+
+    private void onFinished(int index, Response response, RequestException error) {
+        int next = -1;
+        boolean failed = false;
+        synchronized (LOCK) {
+            mResponses[index] = response;
+            mErrors[index] = error;
+            mFinishedCount++;
+            if (mFailFast && !mStopped && (error != null || response == null || !response.isSuccess())) {
+                stop();
+                failed = true;
+            }
+            if (!mStopped && mNextIndex < mBuilders.size())
+                next = mNextIndex++;
+        }
+        if (failed)
+            mContext.cancelBatch(this, false);
+        if (next != -1)
+            start(next);
+        else
+            deliverIfFinished();
+    }
+
+    /**
+     * Cancels every request in this batch that hasn't finished yet. The batch callback still receives the
+     * results of requests that already finished.
+     */
+    public void cancel() {
+        cancel(false);
+    }
+
+    /**
+     * @param force If true, requests that were made with {@code cancellable(false)} are cancelled too.
+     */
+    public void cancel(boolean force) {
+        synchronized (LOCK) {
+            if (mCallback == null || mStopped) return;
+            mForceCancel = force;
+            stop();
+        }
+        mContext.cancelBatch(this, force);
+        deliverIfFinished();
+    }
+
+    // Marks the requests that haven't started as cancelled, so none are started after this. Must hold LOCK.
+    private void stop() {
+        mStopped = true;
+        for (int i = mNextIndex; i < mBuilders.size(); i++) {
+            mErrors[i] = new RequestException(new Request(mBuilders.get(i)));
+            mFinishedCount++;
+        }
+        mNextIndex = mBuilders.size();
+    }
+
+    private void deliverIfFinished() {
+        synchronized (LOCK) {
+            if (mDelivered || mFinishedCount < mBuilders.size())
+                return;
+            mDelivered = true;
+        }
+        mContext.unregisterBatch(this);
+        mCallback.response(this, mResponses, mErrors);
+    }
+}
@@ -0,0 +1,16 @@
+package com.afollestad.bridge;
+
+/**
+ * Receives the results of a {@link Batch} once all of its requests have finished or been cancelled.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public abstract class BatchCallback {
+
+    /**
+     * Both arrays are in the order requests were added to the batch. For each request, either its response
+     * or its error is set. Requests that were never started because the batch was cancelled or failed fast
+     * have a cancellation error.
+     */
+    public abstract void response(Batch batch, Response[] responses, RequestException[] errors);
+}
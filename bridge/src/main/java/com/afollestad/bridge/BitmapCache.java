@@ -0,0 +1,105 @@
+package com.afollestad.bridge;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A process-wide LRU cache of decoded bitmaps, keyed by URL and target size, and bounded by the
+ * number of bytes the bitmaps use.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class BitmapCache {
+
+    private final long mMaxSize;
+    private final LinkedHashMap<String, Bitmap> mEntries;
+    private long mSize;
+    private long mHitCount;
+    private long mMissCount;
+
+    protected BitmapCache(long maxSize) {
+        mMaxSize = maxSize;
+        mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    protected static String createKey(String url, int targetWidth, int targetHeight, Bitmap.Config config) {
+        return url + '\0' + targetWidth + 'x' + targetHeight + '\0' + config.name();
+    }
+
+    /**
+     * Looks up a bitmap that was decoded from a URL at a target size, using the default Bitmap.Config.
+     */
+    public Bitmap get(@NonNull String url, int targetWidth, int targetHeight) {
+        return get(createKey(url, targetWidth, targetHeight, Bridge.client().config().mBitmapConfig));
+    }
+
+    public synchronized Bitmap get(@NonNull String key) {
+        final Bitmap bitmap = mEntries.get(key);
+        if (bitmap == null || bitmap.isRecycled()) {
+            if (bitmap != null)
+                remove(key);
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return bitmap;
+    }
+
+    public synchronized void put(@NonNull String key, @NonNull Bitmap bitmap) {
+        final long size = bitmap.getByteCount();
+        if (size > mMaxSize) return;
+        final Bitmap previous = mEntries.put(key, bitmap);
+        if (previous != null)
+            mSize -= previous.getByteCount();
+        mSize += size;
+        final Iterator<Map.Entry<String, Bitmap>> iter = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && iter.hasNext()) {
+            final Bitmap eldest = iter.next().getValue();
+            iter.remove();
+            // Evicted bitmaps may still be displayed, so they're left to the garbage collector
+            // rather than being handed to the BitmapPool.
+            mSize -= eldest.getByteCount();
+        }
+    }
+
+    public synchronized void remove(@NonNull String key) {
+        final Bitmap bitmap = mEntries.remove(key);
+        if (bitmap != null)
+            mSize -= bitmap.getByteCount();
+    }
+
+    public synchronized boolean contains(@NonNull Bitmap bitmap) {
+        return mEntries.containsValue(bitmap);
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public long maxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized long hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long missCount() {
+        return mMissCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d/%d bytes, %d bitmaps, hits: %d, misses: %d",
+                mSize, mMaxSize, mEntries.size(), mHitCount, mMissCount);
+    }
+}
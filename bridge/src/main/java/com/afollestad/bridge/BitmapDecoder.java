@@ -0,0 +1,97 @@
+package com.afollestad.bridge;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes images at a reduced size. The dimensions are read first, then the image is decoded with
+ * the largest power-of-two sample size that keeps it at least as big as the target size.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class BitmapDecoder {
+
+    // How much of a stream can be read while looking for the image's dimensions
+    private static final int MARK_LIMIT = 1024 * 1024;
+
+    /**
+     * A target dimension of 0 or less means that dimension isn't constrained.
+     */
+    public static int calculateSampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sampleSize = 1;
+        if (width <= 0 || height <= 0 || (targetWidth <= 0 && targetHeight <= 0))
+            return sampleSize;
+        while (true) {
+            final int nextWidth = width / (sampleSize * 2);
+            final int nextHeight = height / (sampleSize * 2);
+            if ((targetWidth > 0 && nextWidth < targetWidth) || (targetHeight > 0 && nextHeight < targetHeight))
+                break;
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static BitmapFactory.Options decodeOptions(BitmapFactory.Options bounds, int targetWidth,
+                                                       int targetHeight, Bitmap.Config config, BitmapPool pool) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = calculateSampleSize(bounds.outWidth, bounds.outHeight, targetWidth, targetHeight);
+        options.inPreferredConfig = config;
+        // Mutable bitmaps can be handed to the BitmapPool once they're no longer displayed
+        options.inMutable = true;
+        if (pool != null && bounds.outWidth > 0 && bounds.outHeight > 0) {
+            final int sampleSize = options.inSampleSize;
+            final int width = (bounds.outWidth + sampleSize - 1) / sampleSize;
+            final int height = (bounds.outHeight + sampleSize - 1) / sampleSize;
+            options.inBitmap = pool.get(width, height, sampleSize, config);
+        }
+        return options;
+    }
+
+    public static Bitmap decode(byte[] data, int targetWidth, int targetHeight, Bitmap.Config config, BitmapPool pool) {
+        if (data == null || data.length == 0) return null;
+        final BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, bounds);
+        final BitmapFactory.Options options = decodeOptions(bounds, targetWidth, targetHeight, config, pool);
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) throw e;
+            // The pooled bitmap couldn't be reused for this image after all
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    /**
+     * Decodes directly from a stream, without holding the whole compressed image in memory.
+     */
+    public static Bitmap decode(InputStream is, int targetWidth, int targetHeight, Bitmap.Config config, BitmapPool pool) throws IOException {
+        if (is == null) return null;
+        final BufferedInputStream bis = new BufferedInputStream(is, 1024 * 16);
+        bis.mark(MARK_LIMIT);
+        final BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeStream(bis, null, bounds);
+        bis.reset();
+        final BitmapFactory.Options options = decodeOptions(bounds, targetWidth, targetHeight, config, pool);
+        try {
+            return BitmapFactory.decodeStream(bis, null, options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) throw e;
+            // The pooled bitmap couldn't be reused, retry if the decoder hasn't read past the mark yet
+            pool.put(options.inBitmap);
+            options.inBitmap = null;
+            bis.reset();
+            return BitmapFactory.decodeStream(bis, null, options);
+        }
+    }
+
+    private BitmapDecoder() {
+    }
+}
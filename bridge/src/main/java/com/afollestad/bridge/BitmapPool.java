@@ -0,0 +1,117 @@
+package com.afollestad.bridge;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.annotation.NonNull;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * A pool of bitmaps that are no longer displayed, whose memory is reused when decoding new images
+ * (see BitmapFactory.Options.inBitmap). Bounded by the number of bytes the pooled bitmaps use.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class BitmapPool {
+
+    private final long mMaxSize;
+    private final LinkedList<Bitmap> mBitmaps;
+    private long mSize;
+    private long mHitCount;
+    private long mMissCount;
+
+    protected BitmapPool(long maxSize) {
+        mMaxSize = maxSize;
+        mBitmaps = new LinkedList<>();
+    }
+
+    private static long sizeOf(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+            return bitmap.getAllocationByteCount();
+        return bitmap.getByteCount();
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.ALPHA_8) return 1;
+        else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) return 2;
+        return 4;
+    }
+
+    /**
+     * Hands a bitmap over to the pool. The bitmap must not be used (or displayed) by the caller afterwards.
+     */
+    public synchronized void put(@NonNull Bitmap bitmap) {
+        if (bitmap.isRecycled() || !bitmap.isMutable()) return;
+        final long size = sizeOf(bitmap);
+        if (size > mMaxSize) return;
+        mBitmaps.addFirst(bitmap);
+        mSize += size;
+        while (mSize > mMaxSize) {
+            final Bitmap eldest = mBitmaps.removeLast();
+            mSize -= sizeOf(eldest);
+            eldest.recycle();
+        }
+    }
+
+    /**
+     * Removes and returns a bitmap that can be passed as inBitmap to decode an image of the given size, or null.
+     */
+    protected synchronized Bitmap get(int width, int height, int sampleSize, Bitmap.Config config) {
+        final boolean kitKat = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        if (!kitKat && sampleSize != 1) {
+            // Older versions can only reuse bitmaps for images that aren't downsampled
+            mMissCount++;
+            return null;
+        }
+        final long needed = (long) width * height * bytesPerPixel(config);
+        final Iterator<Bitmap> iter = mBitmaps.iterator();
+        while (iter.hasNext()) {
+            final Bitmap candidate = iter.next();
+            final boolean fits;
+            if (kitKat) fits = candidate.getAllocationByteCount() >= needed;
+            else fits = candidate.getWidth() == width && candidate.getHeight() == height
+                    && candidate.getConfig() == config;
+            if (fits) {
+                iter.remove();
+                mSize -= sizeOf(candidate);
+                mHitCount++;
+                return candidate;
+            }
+        }
+        mMissCount++;
+        return null;
+    }
+
+    public synchronized void clear() {
+        for (Bitmap bitmap : mBitmaps)
+            bitmap.recycle();
+        mBitmaps.clear();
+        mSize = 0;
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public long maxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * The number of decodes that reused a pooled bitmap instead of allocating a new one.
+     */
+    public synchronized long hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long missCount() {
+        return mMissCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d/%d bytes, %d bitmaps, hits: %d, misses: %d",
+                mSize, mMaxSize, mBitmaps.size(), mHitCount, mMissCount);
+    }
+}
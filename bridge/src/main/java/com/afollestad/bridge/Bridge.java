@@ -5,9 +5,19 @@ import android.support.annotation.Nullable;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 /**
@@ -18,61 +28,253 @@ public class Bridge {
     private static Bridge mBridge;
     private static Config mConfig;
 
-    protected static final Object LOCK = new Object();
+    // Requests in flight. Each stack guards its own callbacks, so progress and completion of
+    // unrelated requests never contend on a shared lock.
+    private final ConcurrentMap<RequestKey, CallbackStack> mRequestMap = new ConcurrentHashMap<>(16, 0.75f, 16);
 
-    private Map<String, CallbackStack> mRequestMap;
+    private final Set<Batch> mBatches = Collections.newSetFromMap(new ConcurrentHashMap<Batch, Boolean>());
 
-    protected boolean pushCallback(Request request, Callback callback) {
-        synchronized (LOCK) {
-            if (mRequestMap == null)
-                mRequestMap = new HashMap<>();
-            final String key = CallbackStack.createKey(request);
-            CallbackStack cbs = mRequestMap.get(key);
-            if (cbs != null) {
-                Log.d(this, "Pushing callback to EXISTING stack for %s", key);
-                cbs.push(callback, request);
-                return false;
+    private final Object mPoolLock = new Object();
+    private ThreadPoolExecutor mExecutor;
+    private final AtomicLong mRejectedCount = new AtomicLong();
+    private final Scheduler mScheduler = new Scheduler(this);
+    private BufferPool mBufferPool;
+    private DiskCache mDiskCache;
+    private MemoryCache mMemoryCache;
+    private BitmapCache mBitmapCache;
+    private BitmapPool mBitmapPool;
+
+    private static final class WorkerFactory implements ThreadFactory {
+
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            final Thread thread = new Thread(r, "Bridge #" + mCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    private final class RejectionHandler implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            mRejectedCount.incrementAndGet();
+            if (r instanceof Continuation) {
+                // Can't be dropped, and running it on the calling I/O thread would stall the response it reads
+                final Thread thread = new Thread(r, "Bridge overflow");
+                thread.setDaemon(true);
+                thread.start();
+                return;
+            } else if (executor.isShutdown()) {
+                reject(r, new RejectedExecutionException("Bridge's worker pool has been shut down."));
+                return;
+            }
+            switch (config().mRejectionPolicy) {
+                case CALLER_RUNS:
+                    // Running it on the UI thread would block it for the whole network call
+                    if (Util.isMainThread()) {
+                        reject(r, new RejectedExecutionException(
+                                "Bridge's worker pool is saturated, and the main thread can't run requests."));
+                    } else r.run();
+                    break;
+                case DISCARD_OLDEST:
+                    final Runnable oldest = executor.getQueue().poll();
+                    if (oldest != null)
+                        reject(oldest, new RejectedExecutionException("Discarded to make room for a newer request."));
+                    executor.execute(r);
+                    break;
+                default:
+                    reject(r, new RejectedExecutionException("Bridge's worker pool is saturated."));
+                    break;
+            }
+        }
+
+        private void reject(Runnable r, RejectedExecutionException e) {
+            if (r instanceof AsyncRequest) {
+                ((AsyncRequest) r).reject(e);
             } else {
-                Log.d(this, "Pushing callback to NEW stack for %s", key);
-                cbs = new CallbackStack();
-                cbs.push(callback, request);
-                mRequestMap.put(key, cbs);
-                return true;
+                // Cancellation tasks must never be dropped
+                Log.d(Bridge.this, "Running rejected task on the calling thread: %s", e.getMessage());
+                r.run();
             }
         }
     }
 
-    protected void fireProgress(Request request, int current, int total) {
-        synchronized (LOCK) {
-            if (mRequestMap == null) return;
-            final String key = CallbackStack.createKey(request);
-            final CallbackStack cbs = mRequestMap.get(key);
-            if (cbs != null)
-                cbs.fireAllProgress(request, current, total);
+    /**
+     * A request that's continuing on a worker after an {@link AsyncTransport} delivered its response.
+     */
+    private static final class Continuation implements Runnable {
+
+        private final Runnable mTask;
+
+        public Continuation(Runnable task) {
+            mTask = task;
+        }
+
+        @Override
+        public void run() {
+            mTask.run();
         }
     }
 
-    protected void fireCallbacks(Request request, Response response, RequestException error) {
-        synchronized (LOCK) {
-            final String key = CallbackStack.createKey(request);
-            Log.d(this, "Attempting to fire callbacks for %s", key);
-            if (mRequestMap == null) {
-                Log.d(this, "Request map is null, can't fire callbacks.");
-                return;
+    /**
+     * Runs the rest of a request on a worker, called from an {@link AsyncTransport}'s I/O thread. Unlike other
+     * tasks, it's never run on the calling thread when the pool is saturated.
+     */
+    protected void resume(Runnable task) {
+        executor().execute(new Continuation(task));
+    }
+
+    protected ThreadPoolExecutor executor() {
+        synchronized (mPoolLock) {
+            if (mExecutor == null) {
+                final Config cf = config();
+                mExecutor = new ThreadPoolExecutor(cf.mPoolCoreSize, cf.mPoolMaxSize,
+                        cf.mPoolKeepAlive, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<Runnable>(cf.mPoolQueueCapacity),
+                        new WorkerFactory(), new RejectionHandler());
+                mExecutor.allowCoreThreadTimeOut(true);
             }
-            final CallbackStack cbs = mRequestMap.get(key);
-            if (cbs != null) {
-                Log.d(this, "Firing %d callback(s) for %s", cbs.size(), key);
-                cbs.fireAll(response, error);
-                mRequestMap.remove(key);
-                if (mRequestMap.size() == 0)
-                    mRequestMap = null;
-            } else {
-                Log.d(this, "No callback stack found for %s", key);
+            return mExecutor;
+        }
+    }
+
+    /**
+     * Returns the pool of I/O buffers shared by all requests, along with its hit/miss counters.
+     */
+    @NonNull
+    public BufferPool bufferPool() {
+        synchronized (mPoolLock) {
+            if (mBufferPool == null)
+                mBufferPool = new BufferPool(config().mBufferPoolSize);
+            return mBufferPool;
+        }
+    }
+
+    /**
+     * Returns the disk cache, along with its hit/miss/revalidate counters, or null if it's not
+     * enabled in the {@link Config}.
+     */
+    @Nullable
+    public DiskCache diskCache() {
+        synchronized (mPoolLock) {
+            if (mDiskCache == null && config().mCacheDirectory != null)
+                mDiskCache = new DiskCache(config().mCacheDirectory, config().mCacheMaxSize);
+            return mDiskCache;
+        }
+    }
+
+    /**
+     * Returns the memory cache, along with its hit/miss counters, or null if it's not enabled in the {@link Config}.
+     */
+    @Nullable
+    public MemoryCache memoryCache() {
+        synchronized (mPoolLock) {
+            if (mMemoryCache == null && config().mMemoryCacheSize > 0)
+                mMemoryCache = new MemoryCache(config().mMemoryCacheSize);
+            return mMemoryCache;
+        }
+    }
+
+    /**
+     * Returns the bitmap cache, or null if it's not enabled in the {@link Config}.
+     */
+    @Nullable
+    public BitmapCache bitmapCache() {
+        synchronized (mPoolLock) {
+            if (mBitmapCache == null && config().mBitmapCacheSize > 0)
+                mBitmapCache = new BitmapCache(config().mBitmapCacheSize);
+            return mBitmapCache;
+        }
+    }
+
+    /**
+     * Returns the pool of reusable bitmaps, or null if it's not enabled in the {@link Config}.
+     */
+    @Nullable
+    public BitmapPool bitmapPool() {
+        synchronized (mPoolLock) {
+            if (mBitmapPool == null && config().mBitmapPoolSize > 0)
+                mBitmapPool = new BitmapPool(config().mBitmapPoolSize);
+            return mBitmapPool;
+        }
+    }
+
+    protected Scheduler scheduler() {
+        return mScheduler;
+    }
+
+    /**
+     * Returns a snapshot of the worker pool that runs async requests, useful for detecting saturation.
+     */
+    @NonNull
+    public PoolStats poolStats() {
+        synchronized (mPoolLock) {
+            return new PoolStats(mExecutor, mScheduler.queuedCount(), config().mPoolQueueCapacity,
+                    mRejectedCount.get());
+        }
+    }
+
+    /**
+     * Counts a request that the scheduler handed to the {@link RejectionPolicy} because its queue was full.
+     */
+    protected void onRejected() {
+        mRejectedCount.incrementAndGet();
+    }
+
+    protected boolean pushCallback(Request request, Callback callback) {
+        final RequestKey key = request.key();
+        while (true) {
+            CallbackStack cbs = mRequestMap.get(key);
+            if (cbs == null) {
+                final CallbackStack newStack = new CallbackStack(config().mProgressInterval, config().mCallbackExecutor);
+                newStack.push(callback, request);
+                cbs = mRequestMap.putIfAbsent(key, newStack);
+                if (cbs == null) {
+                    Log.d(this, "Pushed callback to NEW stack for %s", key);
+                    return true;
+                }
+            }
+            if (cbs.push(callback, request)) {
+                Log.d(this, "Pushed callback to EXISTING stack for %s", key);
+                final Request driver = cbs.driver();
+                // A duplicate with a higher priority bumps the request that will actually run
+                if (request.priority().compareTo(driver.priority()) < 0)
+                    mScheduler.reprioritize(driver, request.priority());
+                return false;
             }
+            // The stack was fired or cancelled after we looked it up, it's on its way out of the map
+            mRequestMap.remove(key, cbs);
         }
     }
 
+    protected void fireProgress(Request request, long current, long total) {
+        final CallbackStack cbs = mRequestMap.get(request.key());
+        if (cbs != null)
+            cbs.fireAllProgress(request, current, total);
+    }
+
+    protected void fireCallbacks(Request request, Response response, RequestException error) {
+        final RequestKey key = request.key();
+        final CallbackStack cbs = mRequestMap.remove(key);
+        if (cbs != null) {
+            Log.d(this, "Firing %d callback(s) for %s", cbs.size(), key);
+            cbs.fireAll(response, error);
+        } else {
+            Log.d(this, "No callback stack found for %s", key);
+        }
+    }
+
+    protected void registerBatch(Batch batch) {
+        mBatches.add(batch);
+    }
+
+    protected void unregisterBatch(Batch batch) {
+        mBatches.remove(batch);
+    }
+
     private Bridge() {
         mConfig = new Config();
     }
@@ -91,7 +293,7 @@ public class Bridge {
         return mConfig;
     }
 
-    private String processUrl(String url, @Nullable Object... formatArgs) {
+    protected String processUrl(String url, @Nullable Object... formatArgs) {
         if (formatArgs != null) {
             for (int i = 0; i < formatArgs.length; i++) {
                 if (formatArgs[i] instanceof String) {
@@ -123,36 +325,37 @@ public class Bridge {
         return new RequestBuilder(processUrl(url, formatArgs), Method.DELETE, this);
     }
 
+    /**
+     * Creates a group of requests that run with bounded parallelism and deliver their results together.
+     */
+    public Batch batch() {
+        return new Batch(this);
+    }
+
     public void cancelAll(@Nullable final Method method, @NonNull final String urlRegex) {
         cancelAll(method, urlRegex, false);
     }
 
     public void cancelAll(@Nullable final Method method, @NonNull final String urlRegex, final boolean force) {
-        new Thread(new Runnable() {
+        final Pattern pattern = Pattern.compile(urlRegex);
+        for (Batch batch : mBatches) {
+            if (batch.matches(method, pattern))
+                batch.cancel(force);
+        }
+        executor().execute(new Runnable() {
             @Override
             public void run() {
-                synchronized (LOCK) {
-                    if (mRequestMap == null) return;
-                    final Pattern pattern = Pattern.compile(urlRegex);
-                    final Iterator<Map.Entry<String, CallbackStack>> iter = mRequestMap.entrySet().iterator();
-                    while (iter.hasNext()) {
-                        final Map.Entry<String, CallbackStack> entry = iter.next();
-                        final String[] splitKey = entry.getKey().split("\0");
-                        final String keyMethod = splitKey[0];
-                        final String keyUrl = splitKey[1];
-
-                        if (method != null && !keyMethod.equals(method.name()))
-                            continue;
-                        else if (!pattern.matcher(keyUrl).find())
-                            continue;
-                        mRequestMap.get(entry.getKey()).cancelAll(null, force);
-                        iter.remove();
-                    }
-                    if (mRequestMap.size() == 0)
-                        mRequestMap = null;
+                for (Map.Entry<RequestKey, CallbackStack> entry : mRequestMap.entrySet()) {
+                    final RequestKey key = entry.getKey();
+                    if (method != null && key.method() != method)
+                        continue;
+                    else if (!pattern.matcher(key.url()).find())
+                        continue;
+                    if (entry.getValue().cancelAll(null, force))
+                        mRequestMap.remove(entry.getKey(), entry.getValue());
                 }
             }
-        }).start();
+        });
     }
 
     public void cancelAll(final Object tag) {
@@ -160,22 +363,32 @@ public class Bridge {
     }
 
     public void cancelAll(final Object tag, final boolean force) {
-        new Thread(new Runnable() {
+        for (Batch batch : mBatches) {
+            if (tag == null || tag.equals(batch.tag()))
+                batch.cancel(force);
+        }
+        executor().execute(new Runnable() {
             @Override
             public void run() {
-                synchronized (LOCK) {
-                    if (mRequestMap == null) return;
-                    final Iterator<Map.Entry<String, CallbackStack>> iter = mRequestMap.entrySet().iterator();
-                    while (iter.hasNext()) {
-                        final Map.Entry<String, CallbackStack> entry = iter.next();
-                        if (entry.getValue().cancelAll(tag, force))
-                            iter.remove();
-                    }
-                    if (mRequestMap.size() == 0)
-                        mRequestMap = null;
+                for (Map.Entry<RequestKey, CallbackStack> entry : mRequestMap.entrySet()) {
+                    if (entry.getValue().cancelAll(tag, force))
+                        mRequestMap.remove(entry.getKey(), entry.getValue());
                 }
             }
-        }).start();
+        });
+    }
+
+    // Cancels the requests a batch started, but not other requests that share their tag or URL
+    protected void cancelBatch(final Batch batch, final boolean force) {
+        executor().execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Map.Entry<RequestKey, CallbackStack> entry : mRequestMap.entrySet()) {
+                    if (entry.getValue().cancelBatch(batch, force))
+                        mRequestMap.remove(entry.getKey(), entry.getValue());
+                }
+            }
+        });
     }
 
     public void cancelAll() {
@@ -183,28 +396,47 @@ public class Bridge {
     }
 
     public void cancelAll(final boolean force) {
-        new Thread(new Runnable() {
+        for (Batch batch : mBatches)
+            batch.cancel(force);
+        executor().execute(new Runnable() {
             @Override
             public void run() {
-                synchronized (LOCK) {
-                    if (mRequestMap == null) return;
-                    final Iterator<Map.Entry<String, CallbackStack>> iter = mRequestMap.entrySet().iterator();
-                    while (iter.hasNext()) {
-                        final Map.Entry<String, CallbackStack> entry = iter.next();
-                        if (entry.getValue().cancelAll(null, force))
-                            iter.remove();
-                    }
-                    if (mRequestMap.size() == 0)
-                        mRequestMap = null;
+                for (Map.Entry<RequestKey, CallbackStack> entry : mRequestMap.entrySet()) {
+                    if (entry.getValue().cancelAll(null, force))
+                        mRequestMap.remove(entry.getKey(), entry.getValue());
                 }
             }
-        }).start();
+        });
     }
 
     public void destroy() {
         mConfig.destroy();
         mConfig = null;
         cancelAll();
+        synchronized (mPoolLock) {
+            if (mExecutor != null) {
+                // Already queued work, including the cancellation above, still runs
+                mExecutor.shutdown();
+                mExecutor = null;
+            }
+            if (mBufferPool != null) {
+                mBufferPool.clear();
+                mBufferPool = null;
+            }
+            mDiskCache = null;
+            if (mMemoryCache != null) {
+                mMemoryCache.clear();
+                mMemoryCache = null;
+            }
+            if (mBitmapCache != null) {
+                mBitmapCache.clear();
+                mBitmapCache = null;
+            }
+            if (mBitmapPool != null) {
+                mBitmapPool.clear();
+                mBitmapPool = null;
+            }
+        }
         Log.d(this, "Bridge singleton was destroyed.");
     }
 
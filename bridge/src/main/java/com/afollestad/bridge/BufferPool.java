@@ -0,0 +1,124 @@
+package com.afollestad.bridge;
+
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe pool of byte arrays shared by all of Bridge's I/O paths. Arrays are grouped into
+ * power-of-two size classes, and the total size of the arrays held by the pool is capped.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class BufferPool {
+
+    private static final int MIN_CLASS_SHIFT = 10; // 1 KB
+    private static final int MAX_CLASS_SHIFT = 20; // 1 MB
+
+    private final ArrayDeque<byte[]>[] mClasses;
+    private final long mMaxRetainedBytes;
+    private final AtomicLong mRetainedBytes = new AtomicLong();
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    protected BufferPool(long maxRetainedBytes) {
+        mMaxRetainedBytes = maxRetainedBytes;
+        mClasses = new ArrayDeque[MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1];
+        for (int i = 0; i < mClasses.length; i++)
+            mClasses[i] = new ArrayDeque<>();
+    }
+
+    private static int classIndex(int size) {
+        if (size <= 1 << MIN_CLASS_SHIFT) return 0;
+        final int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        if (shift > MAX_CLASS_SHIFT) return -1;
+        return shift - MIN_CLASS_SHIFT;
+    }
+
+    /**
+     * Returns an array that's at least {@code minSize} bytes long. The array may be bigger than
+     * requested, and its content is undefined.
+     */
+    @NonNull
+    public byte[] get(int minSize) {
+        final int index = classIndex(minSize);
+        if (index == -1) {
+            mMissCount.incrementAndGet();
+            return new byte[minSize];
+        }
+        final ArrayDeque<byte[]> pool = mClasses[index];
+        byte[] buffer;
+        synchronized (pool) {
+            buffer = pool.poll();
+        }
+        if (buffer != null) {
+            mRetainedBytes.addAndGet(-buffer.length);
+            mHitCount.incrementAndGet();
+            return buffer;
+        }
+        mMissCount.incrementAndGet();
+        return new byte[1 << (index + MIN_CLASS_SHIFT)];
+    }
+
+    /**
+     * Returns an array to the pool. Arrays that didn't come from {@link #get(int)}, or that don't fit
+     * within the pool's size limit, are left to the garbage collector.
+     */
+    public void recycle(byte[] buffer) {
+        if (buffer == null) return;
+        final int index = classIndex(buffer.length);
+        if (index == -1 || buffer.length != 1 << (index + MIN_CLASS_SHIFT))
+            return;
+        if (mRetainedBytes.addAndGet(buffer.length) > mMaxRetainedBytes) {
+            mRetainedBytes.addAndGet(-buffer.length);
+            return;
+        }
+        final ArrayDeque<byte[]> pool = mClasses[index];
+        synchronized (pool) {
+            pool.push(buffer);
+        }
+    }
+
+    /**
+     * Drops every array held by the pool.
+     */
+    public void clear() {
+        for (ArrayDeque<byte[]> pool : mClasses) {
+            synchronized (pool) {
+                for (byte[] buffer : pool)
+                    mRetainedBytes.addAndGet(-buffer.length);
+                pool.clear();
+            }
+        }
+    }
+
+    /**
+     * The number of times {@link #get(int)} was served by a previously recycled array.
+     */
+    public long hitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * The number of times {@link #get(int)} had to allocate a new array.
+     */
+    public long missCount() {
+        return mMissCount.get();
+    }
+
+    public long retainedBytes() {
+        return mRetainedBytes.get();
+    }
+
+    public long maxRetainedBytes() {
+        return mMaxRetainedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits: %d, misses: %d, retained: %d/%d bytes",
+                hitCount(), missCount(), retainedBytes(), mMaxRetainedBytes);
+    }
+}
@@ -0,0 +1,147 @@
+package com.afollestad.bridge;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Parses the caching headers of a response (Cache-Control, Expires, Date, Age, ETag, Last-Modified).
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class CacheControl {
+
+    public final boolean noStore;
+    public final boolean noCache;
+    // public, s-maxage or must-revalidate, which let a response to an authorized request be stored
+    public final boolean shared;
+    public final long maxAgeMillis;
+    public final long ageMillis;
+    public final Date date;
+    public final String etag;
+    public final String lastModified;
+
+    private CacheControl(boolean noStore, boolean noCache, boolean shared, long maxAgeMillis, long ageMillis,
+                         Date date, String etag, String lastModified) {
+        this.noStore = noStore;
+        this.noCache = noCache;
+        this.shared = shared;
+        this.maxAgeMillis = maxAgeMillis;
+        this.ageMillis = ageMillis;
+        this.date = date;
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    public static CacheControl parse(Map<String, List<String>> headers) {
+        boolean noStore = false;
+        boolean noCache = false;
+        boolean shared = false;
+        long maxAge = -1;
+        final String cacheControl = header(headers, "Cache-Control");
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase(Locale.US);
+                if (directive.equals("no-store")) {
+                    noStore = true;
+                } else if (directive.equals("no-cache")) {
+                    noCache = true;
+                } else if (directive.equals("public") || directive.equals("must-revalidate")
+                        || directive.startsWith("s-maxage=")) {
+                    shared = true;
+                } else if (directive.startsWith("max-age=")) {
+                    try {
+                        maxAge = Long.parseLong(directive.substring("max-age=".length()).trim()) * 1000;
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+        }
+        final Date date = parseDate(header(headers, "Date"));
+        if (maxAge == -1) {
+            // Fall back to Expires relative to the server's Date
+            final Date expires = parseDate(header(headers, "Expires"));
+            if (expires != null) {
+                final long served = date != null ? date.getTime() : System.currentTimeMillis();
+                maxAge = Math.max(0, expires.getTime() - served);
+            }
+        }
+        long age = 0;
+        final String ageValue = header(headers, "Age");
+        if (ageValue != null) {
+            try {
+                age = Math.max(0, Long.parseLong(ageValue.trim()) * 1000);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return new CacheControl(noStore, noCache, shared, maxAge, age, date,
+                header(headers, "ETag"), header(headers, "Last-Modified"));
+    }
+
+    public boolean hasValidator() {
+        return etag != null || lastModified != null;
+    }
+
+    /**
+     * Returns true if a response with these headers may be stored at all.
+     *
+     * @param authorized Whether the request had an Authorization header, which keeps its response out of the
+     *                   cache unless the response explicitly allows it (RFC 7234 section 3.2).
+     */
+    public boolean isStorable(Map<String, List<String>> headers, boolean authorized) {
+        if (noStore || (authorized && !shared)) return false;
+        final String vary = header(headers, "Vary");
+        if (vary != null && vary.trim().equals("*")) return false;
+        return maxAgeMillis > 0 || hasValidator();
+    }
+
+    /**
+     * Returns how old the response is now, in milliseconds, as described in RFC 7234 section 4.2.3. Accounts
+     * for the Age the response already had when it arrived, and for the server's clock through its Date.
+     *
+     * @param sentAt     When the request was sent, in milliseconds since the epoch.
+     * @param receivedAt When the response arrived.
+     */
+    public long currentAge(long sentAt, long receivedAt) {
+        final long apparentAge = date != null ? Math.max(0, receivedAt - date.getTime()) : 0;
+        final long correctedAge = ageMillis + (receivedAt - sentAt);
+        final long initialAge = Math.max(apparentAge, correctedAge);
+        return initialAge + (System.currentTimeMillis() - receivedAt);
+    }
+
+    /**
+     * Returns true if a response with these headers, requested at {@code sentAt} and received at
+     * {@code receivedAt}, can be used without revalidation.
+     */
+    public boolean isFresh(long sentAt, long receivedAt) {
+        if (noCache || maxAgeMillis <= 0) return false;
+        return currentAge(sentAt, receivedAt) < maxAgeMillis;
+    }
+
+    public static String header(Map<String, List<String>> headers, String name) {
+        if (headers == null) return null;
+        for (Map.Entry<String, List<String>> entry : headers.entrySet()) {
+            if (entry.getKey() != null && entry.getKey().equalsIgnoreCase(name)) {
+                final List<String> values = entry.getValue();
+                if (values == null || values.isEmpty()) return null;
+                return values.get(0);
+            }
+        }
+        return null;
+    }
+
+    protected static Date parseDate(String value) {
+        if (value == null) return null;
+        final SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(value);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+}
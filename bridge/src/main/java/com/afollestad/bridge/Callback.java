@@ -7,9 +7,24 @@ public abstract class Callback {
 
     protected boolean isCancellable;
     protected Object mTag;
+    protected Batch mBatch;
 
     public abstract void response(Request request, Response response, RequestException e);
 
+    /**
+     * Byte counts over 2 GB are capped at Integer.MAX_VALUE here, use {@link #progress(Request, Progress)}
+     * for large transfers.
+     */
     public void progress(Request request, int current, int total, int percent) {
     }
+
+    /**
+     * Receives progress updates at most once per {@link Config#progressInterval(long)}, including transfer rate
+     * and ETA. The final update is always delivered. By default this calls
+     * {@link #progress(Request, int, int, int)}.
+     */
+    public void progress(Request request, Progress progress) {
+        progress(request, (int) Math.min(progress.current(), Integer.MAX_VALUE),
+                (int) Math.min(progress.total(), Integer.MAX_VALUE), progress.percent());
+    }
 }
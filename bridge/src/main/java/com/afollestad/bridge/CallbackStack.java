@@ -1,30 +1,62 @@
 package com.afollestad.bridge;
 
 import android.os.Handler;
+import android.os.SystemClock;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Aidan Follestad (afollestad)
  */
 final class CallbackStack {
 
-    public static String createKey(Request req) {
-        return String.format("%s\0%s\0%s", req.method().name(), req.url(),
-                req.builder().mBody != null ? req.builder().mBody.length + "" : "");
-    }
-
     private final Object LOCK = new Object();
     private List<Callback> mCallbacks;
     private Request mDriverRequest;
-    private int mPercent = -1;
     private Handler mHandler;
+    private ScheduledExecutorService mExecutor;
+    // The only delayed task is the progress dispatch, so this is all there is to remove
+    private ScheduledFuture<?> mDelayed;
+
+    private final long mProgressInterval;
+    private Request mProgressRequest;
+    private long mCurrent;
+    private long mTotal;
+    private long mDispatchedCurrent = -1;
+    private long mProgressStart = -1;
+    private long mProgressStartBytes;
+    private long mLastDispatch;
+    private boolean mProgressPending;
 
-    public CallbackStack() {
+    public CallbackStack(long progressInterval, ScheduledExecutorService executor) {
         mCallbacks = new ArrayList<>();
-        mHandler = new Handler();
+        if (executor != null) mExecutor = executor;
+        else mHandler = new Handler();
+        mProgressInterval = progressInterval;
+    }
+
+    private void post(Runnable runnable) {
+        if (mExecutor != null) mExecutor.execute(runnable);
+        else mHandler.post(runnable);
+    }
+
+    private void postDelayed(Runnable runnable, long delay) {
+        if (mExecutor != null) mDelayed = mExecutor.schedule(runnable, delay, TimeUnit.MILLISECONDS);
+        else mHandler.postDelayed(runnable, delay);
+    }
+
+    private void removeCallbacks(Runnable runnable) {
+        if (mHandler != null) {
+            mHandler.removeCallbacks(runnable);
+        } else if (mDelayed != null) {
+            mDelayed.cancel(false);
+            mDelayed = null;
+        }
     }
 
     public int size() {
@@ -34,27 +66,46 @@ final class CallbackStack {
         }
     }
 
-    public void push(Callback callback, Request request) {
+    /**
+     * Returns false if this stack has already been fired or cancelled, in which case the callback wasn't added.
+     */
+    public boolean push(Callback callback, Request request) {
         synchronized (LOCK) {
             if (mCallbacks == null)
-                throw new IllegalStateException("This stack has already been fired or cancelled.");
+                return false;
             callback.isCancellable = request.isCancellable();
             callback.mTag = request.builder().mTag;
             mCallbacks.add(callback);
             if (mDriverRequest == null)
                 mDriverRequest = request;
+            return true;
+        }
+    }
+
+    public Request driver() {
+        synchronized (LOCK) {
+            return mDriverRequest;
         }
     }
 
     public void fireAll(final Response response, final RequestException error) {
         synchronized (LOCK) {
+            // Already cancelled, the callbacks were told then
             if (mCallbacks == null)
-                throw new IllegalStateException("This stack has already been fired.");
+                return;
+            // Deliver a pending progress update before the response, not after it
+            if (mProgressPending) {
+                removeCallbacks(mProgressDispatch);
+                postProgress(createProgress(SystemClock.elapsedRealtime()));
+            }
             for (final Callback cb : mCallbacks) {
-                mHandler.post(new Runnable() {
+                post(new Runnable() {
                     @Override
                     public void run() {
                         cb.response(mDriverRequest, response, error);
+                        final EventListener listener = mDriverRequest.builder().mEventListener;
+                        if (listener != null)
+                            listener.callbackDispatched(mDriverRequest, System.nanoTime());
                     }
                 });
             }
@@ -63,39 +114,92 @@ final class CallbackStack {
         }
     }
 
-    public void fireAllProgress(final Request request, final int current, final int total) {
+    /**
+     * Records the latest progress of the request. Updates are coalesced so that at most one is posted to the
+     * main thread per progress interval, each carrying the latest values.
+     */
+    public void fireAllProgress(Request request, long current, long total) {
+        final long now = SystemClock.elapsedRealtime();
         synchronized (LOCK) {
+            // Progress can race with completion or cancellation, there's nobody left to tell
             if (mCallbacks == null)
-                throw new IllegalStateException("This stack has already been fired.");
-            int newPercent = (int) (((float) current / (float) total) * 100f);
-            if (newPercent != mPercent) {
-                mPercent = newPercent;
-                synchronized (LOCK) {
-                    for (final Callback cb : mCallbacks) {
-                        mHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                cb.progress(request, current, total, mPercent);
-                            }
-                        });
-                    }
-                }
+                return;
+            if (mProgressStart < 0) {
+                mProgressStart = now;
+                mProgressStartBytes = current;
+            }
+            mProgressRequest = request;
+            mCurrent = current;
+            mTotal = total;
+            if (mProgressPending || current == mDispatchedCurrent)
+                return;
+            mProgressPending = true;
+            final long delay = mLastDispatch + mProgressInterval - now;
+            if (delay > 0)
+                postDelayed(mProgressDispatch, delay);
+            else post(mProgressDispatch);
+        }
+    }
+
+    private final Runnable mProgressDispatch = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (LOCK) {
+                mProgressPending = false;
+                if (mCallbacks == null || mCurrent == mDispatchedCurrent)
+                    return;
+                final long now = SystemClock.elapsedRealtime();
+                mLastDispatch = now;
+                postProgress(createProgress(now));
             }
         }
+    };
+
+    private Progress createProgress(long now) {
+        final long elapsed = now - mProgressStart;
+        final long bytesPerSecond = elapsed > 0 ? (mCurrent - mProgressStartBytes) * 1000L / elapsed : 0;
+        mProgressPending = false;
+        mDispatchedCurrent = mCurrent;
+        return new Progress(mCurrent, mTotal, bytesPerSecond);
+    }
+
+    private void postProgress(final Progress progress) {
+        final Request request = mProgressRequest;
+        for (final Callback cb : mCallbacks) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    cb.progress(request, progress);
+                }
+            });
+        }
     }
 
     public boolean cancelAll(Object tag, boolean force) {
+        return cancel(tag, null, force);
+    }
+
+    /**
+     * Cancels only the callbacks that a batch registered, leaving callbacks of other requests for the same URL.
+     */
+    public boolean cancelBatch(Batch batch, boolean force) {
+        return cancel(null, batch, force);
+    }
+
+    private boolean cancel(Object tag, Batch batch, boolean force) {
         synchronized (LOCK) {
             if (mCallbacks == null)
-                throw new IllegalStateException("This stack has already been cancelled.");
+                return false;
             final Iterator<Callback> callIter = mCallbacks.iterator();
             while (callIter.hasNext()) {
                 final Callback callback = callIter.next();
                 if (tag != null && !tag.equals(callback.mTag))
                     continue;
+                else if (batch != null && callback.mBatch != batch)
+                    continue;
                 if (callback.isCancellable || force) {
                     callIter.remove();
-                    mHandler.post(new Runnable() {
+                    post(new Runnable() {
                         @Override
                         public void run() {
                             callback.response(mDriverRequest, null, new RequestException(mDriverRequest));
@@ -0,0 +1,87 @@
+package com.afollestad.bridge;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Handles gzip/deflate content encoding for response and request bodies.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Compression {
+
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    public static boolean isSupported(String contentEncoding) {
+        if (contentEncoding == null) return false;
+        final String encoding = contentEncoding.trim().toLowerCase(Locale.US);
+        return encoding.equals("gzip") || encoding.equals("x-gzip") || encoding.equals("deflate");
+    }
+
+    /**
+     * Wraps a stream in a decoder for its Content-Encoding. Returns the stream as-is if it isn't encoded,
+     * or if it's empty (e.g. a 204, a HEAD request, or Content-Length: 0), which has no encoded header to read.
+     */
+    public static InputStream decode(String contentEncoding, InputStream is) throws IOException {
+        if (is == null || !isSupported(contentEncoding)) return is;
+        final int bufferSize = Bridge.client().config().mBufferSize;
+        final PushbackInputStream pis = new PushbackInputStream(is, 2);
+        final byte[] header = new byte[2];
+        int read = 0;
+        while (read < 2) {
+            final int count = pis.read(header, read, 2 - read);
+            if (count == -1) break;
+            read += count;
+        }
+        if (read == 0) return pis;
+        pis.unread(header, 0, read);
+        if (!contentEncoding.trim().toLowerCase(Locale.US).equals("deflate"))
+            return new GZIPInputStream(pis, bufferSize);
+
+        // "deflate" is supposed to be zlib wrapped, but some servers send raw deflate data
+        final boolean zlib = read == 2 && (header[0] & 0x0F) == 8
+                && (((header[0] & 0xFF) << 8) | (header[1] & 0xFF)) % 31 == 0;
+        return new InflaterInputStream(pis, new Inflater(!zlib), bufferSize);
+    }
+
+    /**
+     * Returns a copy of the response headers without Content-Encoding and Content-Length, which no longer
+     * describe a body that was decoded.
+     */
+    public static Map<String, List<String>> stripEncoding(Map<String, List<String>> headers) {
+        final Map<String, List<String>> result = new LinkedHashMap<>(headers.size());
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            final String name = header.getKey();
+            if (name != null && (name.equalsIgnoreCase("Content-Encoding") || name.equalsIgnoreCase("Content-Length")))
+                continue;
+            result.put(name, header.getValue());
+        }
+        return result;
+    }
+
+    public static byte[] gzip(byte[] data) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(32, data.length / 4));
+        GZIPOutputStream os = null;
+        try {
+            os = new GZIPOutputStream(bos);
+            os.write(data);
+            os.finish();
+            return bos.toByteArray();
+        } finally {
+            Util.closeQuietly(os);
+        }
+    }
+
+    private Compression() {
+    }
+}
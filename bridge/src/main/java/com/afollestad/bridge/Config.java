@@ -1,10 +1,13 @@
 package com.afollestad.bridge;
 
+import android.graphics.Bitmap;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * @author Aidan Follestad (afollestad)
@@ -22,7 +25,28 @@ public final class Config {
     protected int mConnectTimeout = 10000;
     protected int mReadTimeout = 15000;
     protected int mBufferSize = 1024 * 4;
+    protected long mProgressInterval = 16;
     protected boolean mLogging = false;
+    protected int mPoolCoreSize = 4;
+    protected int mPoolMaxSize = 8;
+    protected int mPoolQueueCapacity = 128;
+    protected long mPoolKeepAlive = 30000;
+    protected RejectionPolicy mRejectionPolicy = RejectionPolicy.ABORT;
+    protected int mMaxRequests = 4;
+    protected int mMaxRequestsPerHost = 2;
+    protected long mBufferPoolSize = 1024 * 256;
+    protected File mCacheDirectory;
+    protected long mCacheMaxSize;
+    protected long mMemoryCacheSize;
+    protected Bitmap.Config mBitmapConfig = Bitmap.Config.ARGB_8888;
+    protected long mBitmapCacheSize;
+    protected long mBitmapPoolSize;
+    protected boolean mCompressResponses = true;
+    protected int mCompressionThreshold = -1;
+    protected RetryPolicy mRetryPolicy;
+    protected EventListener mEventListener;
+    protected Transport mTransport = new UrlConnectionTransport();
+    protected ScheduledExecutorService mCallbackExecutor;
 
     public Config host(@Nullable String host) {
         mHost = host;
@@ -62,8 +86,207 @@ public final class Config {
         return this;
     }
 
+    /**
+     * Sets the policy used to retry failed requests. Requests aren't retried by default.
+     */
+    public Config retryPolicy(@Nullable RetryPolicy policy) {
+        mRetryPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Sets a listener that receives lifecycle events and timings of every request, e.g. a {@link MetricsListener}.
+     * Applies to requests created after this is called.
+     */
+    public Config eventListener(@Nullable EventListener listener) {
+        mEventListener = listener != null ? new SafeEventListener(listener) : null;
+        return this;
+    }
+
+    /**
+     * Sets the {@link Transport} that sends requests over the wire. Defaults to a {@link UrlConnectionTransport}.
+     * Applies to requests created after this is called.
+     */
+    public Config transport(@NonNull Transport transport) {
+        mTransport = transport;
+        return this;
+    }
+
+    /**
+     * Sets the minimum number of milliseconds between progress updates for a request. Updates in between are
+     * coalesced into one, and the final update is always delivered. Defaults to 16, about one frame.
+     */
+    public Config progressInterval(long interval) {
+        if (interval < 0)
+            throw new IllegalArgumentException("The progress interval must be 0 or greater.");
+        mProgressInterval = interval;
+        return this;
+    }
+
+    /**
+     * Enables an on-disk cache for GET requests. Responses are stored if their headers allow it, fresh
+     * entries are served without contacting the server, and stale entries are revalidated with the server
+     * using their ETag or Last-Modified header. Pass null to disable the cache. Takes effect when the cache
+     * is first used.
+     */
+    public Config cache(@Nullable File directory, long maxSize) {
+        if (directory != null && maxSize <= 0)
+            throw new IllegalArgumentException("The cache size must be greater than 0.");
+        mCacheDirectory = directory;
+        mCacheMaxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * Enables an in-memory cache for GET responses, sized by the number of bytes they hold. Entries expire
+     * after their Cache-Control max-age, unless a request overrides it with {@link RequestBuilder#memoryCacheTtl(long)}.
+     * Pass 0 to disable the cache. Takes effect when the cache is first used.
+     */
+    public Config memoryCache(long maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("The memory cache size must be greater than or equal to 0.");
+        mMemoryCacheSize = maxSize;
+        return this;
+    }
+
+    /**
+     * Sets the pixel format used when decoding downsampled bitmaps, e.g. RGB_565 to halve their memory usage.
+     */
+    public Config bitmapConfig(@NonNull Bitmap.Config config) {
+        mBitmapConfig = config;
+        return this;
+    }
+
+    /**
+     * Enables a process-wide cache of bitmaps decoded with {@code asBitmap(int, int)}, keyed by URL and target
+     * size and sized by the bytes the bitmaps use. Pass 0 to disable the cache. Takes effect when the cache
+     * is first used.
+     */
+    public Config bitmapCache(long maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("The bitmap cache size must be greater than or equal to 0.");
+        mBitmapCacheSize = maxSize;
+        return this;
+    }
+
+    /**
+     * Enables a pool of bitmaps whose memory is reused by {@code asBitmap(int, int)}. Bitmaps are added to
+     * the pool with {@link BitmapPool#put(Bitmap)}. Pass 0 to disable the pool. Takes effect when the pool
+     * is first used.
+     */
+    public Config bitmapPool(long maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("The bitmap pool size must be greater than or equal to 0.");
+        mBitmapPoolSize = maxSize;
+        return this;
+    }
+
+    /**
+     * Sets whether or not requests advertise gzip/deflate support with an Accept-Encoding header. Compressed
+     * responses are decoded transparently either way. Enabled by default.
+     */
+    public Config compressResponses(boolean enabled) {
+        mCompressResponses = enabled;
+        return this;
+    }
+
+    /**
+     * Gzips request bodies that are at least {@code minSize} bytes, and sets their Content-Encoding.
+     * Pass -1 to disable request compression, which is the default. Only use this with servers that
+     * accept compressed request bodies.
+     */
+    public Config compressRequests(int minSize) {
+        if (minSize < -1)
+            throw new IllegalArgumentException("The compression threshold must be -1 (disabled) or greater.");
+        mCompressionThreshold = minSize;
+        return this;
+    }
+
+    /**
+     * Sets how many bytes worth of I/O buffers are kept around for reuse between requests.
+     * Takes effect when the buffer pool is first used.
+     */
+    public Config bufferPoolSize(long maxRetainedBytes) {
+        if (maxRetainedBytes < 0)
+            throw new IllegalArgumentException("The buffer pool size must be greater than or equal to 0.");
+        mBufferPoolSize = maxRetainedBytes;
+        return this;
+    }
+
+    /**
+     * Sets the size of the worker pool used for async requests and cancellation. The core threads
+     * are kept alive while there's work to do, extra threads (up to the max size) are only started
+     * when the queue is full. Takes effect when the pool is first used.
+     */
+    public Config poolSize(int coreSize, int maxSize) {
+        if (coreSize <= 0)
+            throw new IllegalArgumentException("The core pool size must be greater than 0.");
+        else if (maxSize < coreSize)
+            throw new IllegalArgumentException("The max pool size must be greater than or equal to the core pool size.");
+        mPoolCoreSize = coreSize;
+        mPoolMaxSize = maxSize;
+        return this;
+    }
+
+    /**
+     * Sets how many async requests can wait to start, for a free connection slot (see {@link #maxRequests(int)})
+     * or a free worker thread. Requests beyond this are handled by the {@link RejectionPolicy}.
+     */
+    public Config poolQueueCapacity(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("The pool queue capacity must be greater than 0.");
+        mPoolQueueCapacity = capacity;
+        return this;
+    }
+
+    /**
+     * Sets how long, in milliseconds, an idle worker thread waits for new work before it's terminated.
+     */
+    public Config poolKeepAlive(long keepAlive) {
+        if (keepAlive <= 0)
+            throw new IllegalArgumentException("The pool keep alive must be greater than 0.");
+        mPoolKeepAlive = keepAlive;
+        return this;
+    }
+
+    public Config rejectionPolicy(@NonNull RejectionPolicy policy) {
+        mRejectionPolicy = policy;
+        return this;
+    }
+
+    /**
+     * Sets how many async requests may be running at once. Requests beyond this limit wait in a queue,
+     * ordered by {@link Priority}, without opening a connection.
+     */
+    public Config maxRequests(int max) {
+        if (max <= 0)
+            throw new IllegalArgumentException("The max number of requests must be greater than 0.");
+        mMaxRequests = max;
+        return this;
+    }
+
+    /**
+     * Sets how many async requests to the same host may be running at once.
+     */
+    public Config maxRequestsPerHost(int max) {
+        if (max <= 0)
+            throw new IllegalArgumentException("The max number of requests per host must be greater than 0.");
+        mMaxRequestsPerHost = max;
+        return this;
+    }
+
+    /**
+     * Delivers callbacks with an executor rather than posting them to the main thread. Used by unit tests,
+     * which run without a Looper. Progress updates that the progress interval holds back are scheduled on it.
+     */
+    Config callbackExecutor(@Nullable ScheduledExecutorService executor) {
+        mCallbackExecutor = executor;
+        return this;
+    }
+
     protected void destroy() {
         mHost = null;
+        mCacheDirectory = null;
         mDefaultHeaders.clear();
         mDefaultHeaders = null;
         mBufferSize = 0;
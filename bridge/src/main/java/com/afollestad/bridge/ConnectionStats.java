@@ -0,0 +1,77 @@
+package com.afollestad.bridge;
+
+/**
+ * An immutable snapshot of how a {@link Transport} has been using connections, returned by
+ * {@link UrlConnectionTransport#connectionStats()}, {@link NioTransport#connectionStats()} and
+ * {@link Http2Transport#connectionStats()}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class ConnectionStats {
+
+    private final long mOpenedCount;
+    private final long mReusedCount;
+    private final long mReleasedCount;
+    private final long mDiscardedCount;
+    private final int mIdleCount;
+
+    protected ConnectionStats(long openedCount, long reusedCount, long releasedCount, long discardedCount, int idleCount) {
+        mOpenedCount = openedCount;
+        mReusedCount = reusedCount;
+        mReleasedCount = releasedCount;
+        mDiscardedCount = discardedCount;
+        mIdleCount = idleCount;
+    }
+
+    /**
+     * The number of requests that opened a new connection, or -1 if the transport can't tell. HttpURLConnection
+     * doesn't say whether it reused a socket from the platform's pool.
+     */
+    public long openedCount() {
+        return mOpenedCount;
+    }
+
+    /**
+     * The number of requests that were sent over an idle connection from the pool, or -1 if the transport can't tell.
+     */
+    public long reusedCount() {
+        return mReusedCount;
+    }
+
+    /**
+     * The number of connections that were handed back to the pool after their response was complete.
+     */
+    public long releasedCount() {
+        return mReleasedCount;
+    }
+
+    /**
+     * The number of connections that were closed after a request, because reuse is disabled, the server
+     * asked for it, or the response wasn't read to the end.
+     */
+    public long discardedCount() {
+        return mDiscardedCount;
+    }
+
+    /**
+     * The number of idle connections in the pool, or -1 if the transport can't tell.
+     */
+    public int idleCount() {
+        return mIdleCount;
+    }
+
+    /**
+     * The fraction of requests that reused a connection, from 0 to 1, or -1 if the transport can't tell.
+     */
+    public double reuseRatio() {
+        if (mOpenedCount < 0 || mReusedCount < 0) return -1;
+        final long total = mOpenedCount + mReusedCount;
+        return total == 0 ? 0 : (double) mReusedCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("opened: %d, reused: %d, released: %d, discarded: %d, idle: %d",
+                mOpenedCount, mReusedCount, mReleasedCount, mDiscardedCount, mIdleCount);
+    }
+}
@@ -0,0 +1,49 @@
+package com.afollestad.bridge;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read from the stream it wraps, e.g. compressed bytes read off the wire.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class CountingInputStream extends FilterInputStream {
+
+    private long mCount;
+
+    public CountingInputStream(InputStream is) {
+        super(is);
+    }
+
+    public long count() {
+        return mCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = super.read();
+        if (b != -1) mCount++;
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        final int read = super.read(buffer, offset, count);
+        if (read > 0) mCount += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        final long skipped = super.skip(byteCount);
+        if (skipped > 0) mCount += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
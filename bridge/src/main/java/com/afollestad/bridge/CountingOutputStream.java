@@ -0,0 +1,36 @@
+package com.afollestad.bridge;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Counts the bytes written to the stream it wraps.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class CountingOutputStream extends FilterOutputStream {
+
+    private long mCount;
+
+    public CountingOutputStream(OutputStream os) {
+        super(os);
+    }
+
+    public long count() {
+        return mCount;
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+        out.write(oneByte);
+        mCount++;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int count) throws IOException {
+        // FilterOutputStream would write one byte at a time
+        out.write(buffer, offset, count);
+        mCount += count;
+    }
+}
@@ -0,0 +1,458 @@
+package com.afollestad.bridge;
+
+import android.support.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An on-disk LRU cache of GET response bodies and headers, bounded by the total size of its files.
+ * Each entry is stored as two files named after a hash of its URL: {@code <hash>.0} holds the status
+ * and headers, {@code <hash>.1} holds the body.
+ * <p>
+ * If a response has a Vary header, the values the request had for the headers it names are stored with it,
+ * and the entry is only used for requests with the same values. A request with different values replaces it.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class DiskCache {
+
+    private static final int VERSION = 2;
+    private static final String META_SUFFIX = ".0";
+    private static final String BODY_SUFFIX = ".1";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    protected static final class Entry {
+
+        public final String url;
+        public final int code;
+        public final String message;
+        public final Map<String, List<String>> headers;
+        // Lower case name -> value of the request headers named by Vary, null if the request didn't have it
+        public final Map<String, String> varyHeaders;
+        public final long sentAt;
+        public final long receivedAt;
+        public final File body;
+
+        protected Entry(String url, int code, String message, Map<String, List<String>> headers,
+                        Map<String, String> varyHeaders, long sentAt, long receivedAt, File body) {
+            this.url = url;
+            this.code = code;
+            this.message = message;
+            this.headers = headers;
+            this.varyHeaders = varyHeaders;
+            this.sentAt = sentAt;
+            this.receivedAt = receivedAt;
+            this.body = body;
+        }
+
+        public CacheControl cacheControl() {
+            return CacheControl.parse(headers);
+        }
+
+        public boolean isFresh() {
+            return cacheControl().isFresh(sentAt, receivedAt);
+        }
+
+        public Response toResponse() throws IOException {
+            final byte[] data = Util.readEntireStream(new FileInputStream(body), (int) body.length());
+            return new Response(data, url, code, message, headers);
+        }
+    }
+
+    private final File mDirectory;
+    private final long mMaxSize;
+    private final LinkedHashMap<String, Long> mIndex;
+    private long mSize;
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mRevalidateCount = new AtomicLong();
+
+    protected DiskCache(@NonNull File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+        mIndex = new LinkedHashMap<>(16, 0.75f, true);
+        //noinspection ResultOfMethodCallIgnored
+        mDirectory.mkdirs();
+        loadIndex();
+    }
+
+    private void loadIndex() {
+        final File[] files = mDirectory.listFiles();
+        if (files == null) return;
+        final List<File> metaFiles = new ArrayList<>();
+        for (File fi : files) {
+            if (fi.getName().endsWith(TEMP_SUFFIX)) {
+                // Left over from a write that was interrupted
+                //noinspection ResultOfMethodCallIgnored
+                fi.delete();
+            } else if (fi.getName().endsWith(META_SUFFIX)) {
+                metaFiles.add(fi);
+            }
+        }
+        // The meta file is touched on each read, so this restores the LRU order
+        Collections.sort(metaFiles, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                final long left = lhs.lastModified();
+                final long right = rhs.lastModified();
+                return left < right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+        for (File meta : metaFiles) {
+            final String name = meta.getName();
+            final String hash = name.substring(0, name.length() - META_SUFFIX.length());
+            final File body = new File(mDirectory, hash + BODY_SUFFIX);
+            if (!body.exists()) {
+                //noinspection ResultOfMethodCallIgnored
+                meta.delete();
+                continue;
+            }
+            final long size = meta.length() + body.length();
+            mIndex.put(hash, size);
+            mSize += size;
+        }
+        trim();
+    }
+
+    private static String hash(String key) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("MD5");
+            final byte[] hash = digest.digest(key.getBytes("UTF-8"));
+            final StringBuilder result = new StringBuilder(hash.length * 2);
+            for (byte b : hash)
+                result.append(String.format("%02x", b & 0xFF));
+            return result.toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            // Should never happen
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the entry for the URL, or null if there isn't one or it was stored for a request whose headers
+     * named by Vary had different values.
+     */
+    protected Entry get(String url, Map<String, String> requestHeaders) {
+        final String hash = hash(url);
+        final File meta = new File(mDirectory, hash + META_SUFFIX);
+        final File body = new File(mDirectory, hash + BODY_SUFFIX);
+        synchronized (this) {
+            if (mIndex.get(hash) == null)
+                return null;
+            //noinspection ResultOfMethodCallIgnored
+            meta.setLastModified(System.currentTimeMillis());
+        }
+        DataInputStream is = null;
+        try {
+            is = new DataInputStream(new BufferedInputStream(new FileInputStream(meta)));
+            if (is.readInt() != VERSION)
+                throw new IOException("Unknown cache entry version.");
+            final String storedUrl = is.readUTF();
+            if (!storedUrl.equals(url))
+                return null;
+            final int code = is.readInt();
+            final String message = is.readUTF();
+            final long sentAt = is.readLong();
+            final long receivedAt = is.readLong();
+            final int varyCount = is.readInt();
+            final Map<String, String> varyHeaders = new LinkedHashMap<>(varyCount);
+            for (int i = 0; i < varyCount; i++) {
+                final String name = is.readUTF();
+                varyHeaders.put(name, is.readBoolean() ? is.readUTF() : null);
+            }
+            if (!matches(varyHeaders, requestHeaders))
+                return null;
+            final int headerCount = is.readInt();
+            final Map<String, List<String>> headers = new LinkedHashMap<>(headerCount);
+            for (int i = 0; i < headerCount; i++) {
+                final String name = is.readUTF();
+                final int valueCount = is.readInt();
+                final List<String> values = new ArrayList<>(valueCount);
+                for (int j = 0; j < valueCount; j++)
+                    values.add(is.readUTF());
+                headers.put(name, Collections.unmodifiableList(values));
+            }
+            return new Entry(storedUrl, code, message, Collections.unmodifiableMap(headers),
+                    Collections.unmodifiableMap(varyHeaders), sentAt, receivedAt, body);
+        } catch (IOException e) {
+            Log.d(this, "Unable to read cache entry for %s: %s", url, e.getMessage());
+            remove(url);
+            return null;
+        } finally {
+            Util.closeQuietly(is);
+        }
+    }
+
+    private static boolean matches(Map<String, String> varyHeaders, Map<String, String> requestHeaders) {
+        for (Map.Entry<String, String> vary : varyHeaders.entrySet()) {
+            final String value = requestHeader(requestHeaders, vary.getKey());
+            if (value == null ? vary.getValue() != null : !value.equals(vary.getValue()))
+                return false;
+        }
+        return true;
+    }
+
+    private static String requestHeader(Map<String, String> requestHeaders, String name) {
+        for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name))
+                return header.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * Picks the request headers named by the response's Vary header, which must match for the entry to be used.
+     */
+    private static Map<String, String> varyHeaders(Map<String, List<String>> headers, Map<String, String> requestHeaders) {
+        final Map<String, String> result = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (header.getKey() == null || !header.getKey().equalsIgnoreCase("Vary") || header.getValue() == null)
+                continue;
+            for (String value : header.getValue()) {
+                for (String name : value.split(",")) {
+                    name = name.trim().toLowerCase(Locale.US);
+                    if (!name.isEmpty())
+                        result.put(name, requestHeader(requestHeaders, name));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param sentAt     When the request was sent, in milliseconds since the epoch.
+     * @param receivedAt When its response arrived.
+     */
+    protected void put(String url, Map<String, String> requestHeaders, int code, String message,
+                       Map<String, List<String>> headers, byte[] data, long sentAt, long receivedAt) {
+        final String hash = hash(url);
+        File metaTemp = null;
+        File bodyTemp = null;
+        try {
+            // Unique names, so concurrent writes of the same URL can't mix their files
+            metaTemp = File.createTempFile(hash, TEMP_SUFFIX, mDirectory);
+            if (data != null)
+                bodyTemp = File.createTempFile(hash, TEMP_SUFFIX, mDirectory);
+            writeMeta(metaTemp, url, code, message, headers, varyHeaders(headers, requestHeaders), sentAt, receivedAt);
+            if (data != null) {
+                FileOutputStream os = null;
+                try {
+                    os = new FileOutputStream(bodyTemp);
+                    os.write(data);
+                } finally {
+                    Util.closeQuietly(os);
+                }
+            }
+            commit(hash, metaTemp, bodyTemp);
+        } catch (IOException e) {
+            Log.d(this, "Unable to write cache entry for %s: %s", url, e.getMessage());
+            deleteQuietly(metaTemp);
+            deleteQuietly(bodyTemp);
+        }
+    }
+
+    /**
+     * Replaces the headers of an entry after a successful revalidation, keeping its body. The entry's age
+     * starts over from the revalidation request.
+     */
+    protected Entry update(Entry entry, Map<String, List<String>> headers, long sentAt, long receivedAt) {
+        final Map<String, List<String>> merged = new LinkedHashMap<>(entry.headers);
+        // The age of the stored response starts over, only the 304's own Age and Date count
+        final Iterator<String> stored = merged.keySet().iterator();
+        while (stored.hasNext()) {
+            final String name = stored.next();
+            if (name.equalsIgnoreCase("Age") || name.equalsIgnoreCase("Date"))
+                stored.remove();
+        }
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (header.getKey() == null) continue;
+            // A 304 doesn't describe the body, so it must not change these
+            if (header.getKey().equalsIgnoreCase("Content-Length")
+                    || header.getKey().equalsIgnoreCase("Content-Encoding")
+                    || header.getKey().equalsIgnoreCase("Transfer-Encoding"))
+                continue;
+            final Iterator<String> names = merged.keySet().iterator();
+            while (names.hasNext()) {
+                if (header.getKey().equalsIgnoreCase(names.next()))
+                    names.remove();
+            }
+            merged.put(header.getKey(), header.getValue());
+        }
+        final String hash = hash(entry.url);
+        File metaTemp = null;
+        try {
+            metaTemp = File.createTempFile(hash, TEMP_SUFFIX, mDirectory);
+            writeMeta(metaTemp, entry.url, entry.code, entry.message, merged, entry.varyHeaders, sentAt, receivedAt);
+            commit(hash, metaTemp, null);
+        } catch (IOException e) {
+            Log.d(this, "Unable to update cache entry for %s: %s", entry.url, e.getMessage());
+            deleteQuietly(metaTemp);
+        }
+        return new Entry(entry.url, entry.code, entry.message, Collections.unmodifiableMap(merged),
+                entry.varyHeaders, sentAt, receivedAt, entry.body);
+    }
+
+    private void writeMeta(File destination, String url, int code, String message, Map<String, List<String>> headers,
+                           Map<String, String> varyHeaders, long sentAt, long receivedAt) throws IOException {
+        DataOutputStream os = null;
+        try {
+            os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(destination)));
+            os.writeInt(VERSION);
+            os.writeUTF(url);
+            os.writeInt(code);
+            os.writeUTF(message != null ? message : "");
+            os.writeLong(sentAt);
+            os.writeLong(receivedAt);
+            os.writeInt(varyHeaders.size());
+            for (Map.Entry<String, String> vary : varyHeaders.entrySet()) {
+                os.writeUTF(vary.getKey());
+                os.writeBoolean(vary.getValue() != null);
+                if (vary.getValue() != null)
+                    os.writeUTF(vary.getValue());
+            }
+            int headerCount = 0;
+            for (String name : headers.keySet()) {
+                if (name != null) headerCount++;
+            }
+            os.writeInt(headerCount);
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if (header.getKey() == null) continue;
+                os.writeUTF(header.getKey());
+                final List<String> values = header.getValue() != null ? header.getValue() : Collections.<String>emptyList();
+                os.writeInt(values.size());
+                for (String value : values)
+                    os.writeUTF(value != null ? value : "");
+            }
+            os.flush();
+        } finally {
+            Util.closeQuietly(os);
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        if (file != null) {
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+    }
+
+    private synchronized void commit(String hash, File metaTemp, File bodyTemp) throws IOException {
+        final File meta = new File(mDirectory, hash + META_SUFFIX);
+        final File body = new File(mDirectory, hash + BODY_SUFFIX);
+        if (bodyTemp != null && !bodyTemp.renameTo(body))
+            throw new IOException("Unable to commit " + body.getName());
+        if (!metaTemp.renameTo(meta))
+            throw new IOException("Unable to commit " + meta.getName());
+        final long size = meta.length() + body.length();
+        final Long previous = mIndex.put(hash, size);
+        if (previous != null)
+            mSize -= previous;
+        mSize += size;
+        trim();
+    }
+
+    protected synchronized void remove(String url) {
+        removeHash(hash(url));
+    }
+
+    private void removeHash(String hash) {
+        final Long size = mIndex.remove(hash);
+        if (size != null)
+            mSize -= size;
+        //noinspection ResultOfMethodCallIgnored
+        new File(mDirectory, hash + META_SUFFIX).delete();
+        //noinspection ResultOfMethodCallIgnored
+        new File(mDirectory, hash + BODY_SUFFIX).delete();
+    }
+
+    private void trim() {
+        final Iterator<Map.Entry<String, Long>> iter = mIndex.entrySet().iterator();
+        while (mSize > mMaxSize && iter.hasNext()) {
+            final Map.Entry<String, Long> eldest = iter.next();
+            iter.remove();
+            mSize -= eldest.getValue();
+            //noinspection ResultOfMethodCallIgnored
+            new File(mDirectory, eldest.getKey() + META_SUFFIX).delete();
+            //noinspection ResultOfMethodCallIgnored
+            new File(mDirectory, eldest.getKey() + BODY_SUFFIX).delete();
+        }
+    }
+
+    /**
+     * Deletes every entry in the cache.
+     */
+    public synchronized void clear() {
+        for (String hash : new ArrayList<>(mIndex.keySet()))
+            removeHash(hash);
+        mSize = 0;
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public long maxSize() {
+        return mMaxSize;
+    }
+
+    public File directory() {
+        return mDirectory;
+    }
+
+    protected void onHit() {
+        mHitCount.incrementAndGet();
+    }
+
+    protected void onMiss() {
+        mMissCount.incrementAndGet();
+    }
+
+    protected void onRevalidate() {
+        mRevalidateCount.incrementAndGet();
+    }
+
+    /**
+     * The number of requests served from the cache without contacting the server.
+     */
+    public long hitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * The number of cacheable requests that had to be fetched from the server in full.
+     */
+    public long missCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * The number of stale entries that the server confirmed were still valid (304 Not Modified).
+     */
+    public long revalidateCount() {
+        return mRevalidateCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s, %d/%d bytes, hits: %d, misses: %d, revalidated: %d", mDirectory.getPath(),
+                size(), mMaxSize, hitCount(), missCount(), revalidateCount());
+    }
+}
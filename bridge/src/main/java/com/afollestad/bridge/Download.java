@@ -0,0 +1,195 @@
+package com.afollestad.bridge;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Streams a response body straight to a file. The body is written to a partial file next to the
+ * destination, along with the validators (ETag/Last-Modified) that were sent with it, so an interrupted
+ * download can resume with a Range request the next time it's made.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Download {
+
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "last-modified";
+    private static final String KEY_LENGTH = "length";
+
+    private final File mDestination;
+    private final File mPartFile;
+    private final File mMetaFile;
+    private long mOffset;
+    private String mRequestedEtag;
+
+    public Download(File destination) {
+        mDestination = destination;
+        mPartFile = new File(destination.getPath() + ".part");
+        mMetaFile = new File(destination.getPath() + ".part.meta");
+    }
+
+    public File destination() {
+        return mDestination;
+    }
+
+    /**
+     * Adds Range and If-Range headers to the request if a partial download can be resumed.
+     */
+    public void prepare(Map<String, String> headers) {
+        mOffset = 0;
+        mRequestedEtag = null;
+        if (!mPartFile.exists() || mPartFile.length() == 0)
+            return;
+        final Properties meta = readMeta();
+        if (meta == null) return;
+
+        final String etag = meta.getProperty(KEY_ETAG);
+        final String lastModified = meta.getProperty(KEY_LAST_MODIFIED);
+        final long length = Long.parseLong(meta.getProperty(KEY_LENGTH, "-1"));
+        final String validator;
+        if (etag != null && !etag.startsWith("W/")) {
+            // Weak ETags can't be used with If-Range
+            validator = etag;
+            mRequestedEtag = etag;
+        } else validator = lastModified;
+        if (validator == null || (length != -1 && mPartFile.length() >= length)) {
+            Log.d(this, "Can't resume %s, starting over.", mDestination.getPath());
+            return;
+        }
+
+        mOffset = mPartFile.length();
+        Log.d(this, "Resuming %s from byte %d", mDestination.getPath(), mOffset);
+        headers.put("Range", "bytes=" + mOffset + "-");
+        headers.put("If-Range", validator);
+    }
+
+    /**
+     * Writes the response body to the destination file, appending to the partial file if the
+     * server honored the Range request.
+     */
+    public void transfer(Request request, TransportResponse response) throws IOException, RequestException {
+        final String etag = response.header("ETag");
+        if (response.code() == HttpURLConnection.HTTP_PARTIAL) {
+            final long start = parseRangeStart(response.header("Content-Range"));
+            if (start != mOffset || (mRequestedEtag != null && etag != null && !mRequestedEtag.equals(etag))) {
+                discard();
+                throw new IOException("The server returned a partial response that doesn't match " + mPartFile.getName());
+            }
+        } else {
+            // The server ignored the range, or the resource changed since the partial download started
+            mOffset = 0;
+        }
+
+        final long contentLength = response.contentLength();
+        final long total = contentLength != -1 ? mOffset + contentLength : -1;
+        writeMeta(etag, response.header("Last-Modified"), total);
+        final InputStream is = response.body();
+
+        final Bridge context = request.builder().mContext;
+        RandomAccessFile file = null;
+        byte[] buffer = null;
+        try {
+            file = new RandomAccessFile(mPartFile, "rw");
+            final FileChannel channel = file.getChannel();
+            channel.truncate(mOffset);
+            channel.position(mOffset);
+
+            buffer = context.bufferPool().get(request.builder().mBufferSize);
+            final ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+            long written = mOffset;
+            if (total > 0)
+                context.fireProgress(request, written, total);
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                request.checkCancelled();
+                wrapper.clear();
+                wrapper.limit(read);
+                while (wrapper.hasRemaining())
+                    channel.write(wrapper);
+                written += read;
+                if (total > 0)
+                    context.fireProgress(request, written, total);
+            }
+            channel.force(false);
+            // Some stacks report a dropped connection as the end of the body, the partial file is kept to resume
+            if (total > 0 && written < total)
+                throw new IOException(String.format("The connection closed after %d of %d bytes.", written, total));
+            if (total <= 0)
+                context.fireProgress(request, 100, 100);
+            request.onResponseEnd(written - mOffset);
+        } finally {
+            Util.closeQuietly(file);
+            context.bufferPool().recycle(buffer);
+        }
+
+        if (mDestination.exists() && !mDestination.delete())
+            throw new IOException("Unable to replace " + mDestination.getPath());
+        if (!mPartFile.renameTo(mDestination))
+            throw new IOException("Unable to move " + mPartFile.getName() + " to " + mDestination.getPath());
+        //noinspection ResultOfMethodCallIgnored
+        mMetaFile.delete();
+        Log.d(this, "Downloaded %s", mDestination.getPath());
+    }
+
+    /**
+     * Deletes any partial download, the next attempt will start from the beginning.
+     */
+    public void discard() {
+        //noinspection ResultOfMethodCallIgnored
+        mPartFile.delete();
+        //noinspection ResultOfMethodCallIgnored
+        mMetaFile.delete();
+        mOffset = 0;
+    }
+
+    private static long parseRangeStart(String contentRange) {
+        // e.g. "bytes 200-1000/67589"
+        if (contentRange == null) return -1;
+        try {
+            final int start = contentRange.indexOf(' ') + 1;
+            final int end = contentRange.indexOf('-', start);
+            return Long.parseLong(contentRange.substring(start, end).trim());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private Properties readMeta() {
+        if (!mMetaFile.exists()) return null;
+        FileInputStream is = null;
+        try {
+            is = new FileInputStream(mMetaFile);
+            final Properties meta = new Properties();
+            meta.load(is);
+            return meta;
+        } catch (Exception e) {
+            Log.d(this, "Unable to read %s: %s", mMetaFile.getPath(), e.getMessage());
+            return null;
+        } finally {
+            Util.closeQuietly(is);
+        }
+    }
+
+    private void writeMeta(String etag, String lastModified, long length) throws IOException {
+        final Properties meta = new Properties();
+        if (etag != null) meta.setProperty(KEY_ETAG, etag);
+        if (lastModified != null) meta.setProperty(KEY_LAST_MODIFIED, lastModified);
+        meta.setProperty(KEY_LENGTH, Long.toString(length));
+        FileOutputStream os = null;
+        try {
+            os = new FileOutputStream(mMetaFile);
+            meta.store(os, null);
+        } finally {
+            Util.closeQuietly(os);
+        }
+    }
+}
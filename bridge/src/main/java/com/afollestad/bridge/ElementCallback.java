@@ -0,0 +1,13 @@
+package com.afollestad.bridge;
+
+/**
+ * Receives the elements of a JSON array one at a time, as they're decoded by
+ * {@link Response#asList(Class, ElementCallback)} or {@link RequestBuilder#asList(Class, ElementCallback)}.
+ * Elements are delivered on the thread doing the decoding.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public abstract class ElementCallback<T> {
+
+    public abstract void element(T element);
+}
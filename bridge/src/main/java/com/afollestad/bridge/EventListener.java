@@ -0,0 +1,78 @@
+package com.afollestad.bridge;
+
+/**
+ * Receives lifecycle events of every request, for measuring where time is spent. Set with
+ * {@link Config#eventListener(EventListener)}. Timestamps come from {@link System#nanoTime()}.
+ * <p>
+ * Events are delivered on the thread that caused them, usually one of Bridge's worker threads, so
+ * implementations must be thread safe and quick. {@link MetricsListener} is a built-in implementation
+ * that aggregates timings per host.
+ * <p>
+ * Connect, header and request body events are reported by the {@link Transport}. HttpURLConnection sends
+ * request headers lazily, so with the default transport {@link #requestHeadersEnd(Request, long)} is reported
+ * when the body starts being written, or right before waiting for the response of a request without a body.
+ * Requests served from a cache have no connect, header or body events.
+ * <p>
+ * Exceptions thrown by a listener are logged and otherwise ignored, they never fail the request.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public abstract class EventListener {
+
+    /**
+     * An async request was handed to the scheduler.
+     */
+    public void requestQueued(Request request, long nanoTime) {
+    }
+
+    /**
+     * A worker started executing the request, or a synchronous request was made.
+     */
+    public void requestStart(Request request, long nanoTime) {
+    }
+
+    public void connectStart(Request request, long nanoTime) {
+    }
+
+    public void connectEnd(Request request, long nanoTime) {
+    }
+
+    public void requestHeadersEnd(Request request, long nanoTime) {
+    }
+
+    public void requestBodyEnd(Request request, long nanoTime, long byteCount) {
+    }
+
+    public void responseHeadersEnd(Request request, long nanoTime, int code) {
+    }
+
+    /**
+     * The first response of the call arrived, i.e. the transport returned its status line and headers. Reported
+     * once per call, even if the request is retried, and also for responses without a body.
+     */
+    public void responseFirstByte(Request request, long nanoTime) {
+    }
+
+    /**
+     * The response body was read completely. For a streaming response, this is when its stream hits the end
+     * or is closed. The byte count is what was read off the wire, before decompression.
+     */
+    public void responseBodyEnd(Request request, long nanoTime, long byteCount) {
+    }
+
+    /**
+     * The request produced a response, including any retries. The body of a streaming response may still be
+     * unread.
+     */
+    public void requestEnd(Request request, long nanoTime) {
+    }
+
+    public void callbackDispatched(Request request, long nanoTime) {
+    }
+
+    public void cancelled(Request request, long nanoTime) {
+    }
+
+    public void failed(Request request, long nanoTime, RequestException error) {
+    }
+}
@@ -0,0 +1,379 @@
+package com.afollestad.bridge;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK header compression for HTTP/2, as described by RFC 7541. A connection has one {@link Encoder} for the
+ * headers it sends and one {@link Decoder} for the headers it receives, each used by one thread at a time.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Hpack {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /**
+     * Every entry's size counts 32 bytes of overhead on top of its name and value.
+     */
+    private static final int ENTRY_OVERHEAD = 32;
+
+    public static final int DEFAULT_TABLE_SIZE = 4096;
+
+    private static final String[][] STATIC_TABLE = {
+            {":authority", ""},
+            {":method", "GET"},
+            {":method", "POST"},
+            {":path", "/"},
+            {":path", "/index.html"},
+            {":scheme", "http"},
+            {":scheme", "https"},
+            {":status", "200"},
+            {":status", "204"},
+            {":status", "206"},
+            {":status", "304"},
+            {":status", "400"},
+            {":status", "404"},
+            {":status", "500"},
+            {"accept-charset", ""},
+            {"accept-encoding", "gzip, deflate"},
+            {"accept-language", ""},
+            {"accept-ranges", ""},
+            {"accept", ""},
+            {"access-control-allow-origin", ""},
+            {"age", ""},
+            {"allow", ""},
+            {"authorization", ""},
+            {"cache-control", ""},
+            {"content-disposition", ""},
+            {"content-encoding", ""},
+            {"content-language", ""},
+            {"content-length", ""},
+            {"content-location", ""},
+            {"content-range", ""},
+            {"content-type", ""},
+            {"cookie", ""},
+            {"date", ""},
+            {"etag", ""},
+            {"expect", ""},
+            {"expires", ""},
+            {"from", ""},
+            {"host", ""},
+            {"if-match", ""},
+            {"if-modified-since", ""},
+            {"if-none-match", ""},
+            {"if-range", ""},
+            {"if-unmodified-since", ""},
+            {"last-modified", ""},
+            {"link", ""},
+            {"location", ""},
+            {"max-forwards", ""},
+            {"proxy-authenticate", ""},
+            {"proxy-authorization", ""},
+            {"range", ""},
+            {"referer", ""},
+            {"refresh", ""},
+            {"retry-after", ""},
+            {"server", ""},
+            {"set-cookie", ""},
+            {"strict-transport-security", ""},
+            {"transfer-encoding", ""},
+            {"user-agent", ""},
+            {"vary", ""},
+            {"via", ""},
+            {"www-authenticate", ""}
+    };
+
+    // Name -> the first static index with that name
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+
+    static {
+        for (int i = STATIC_TABLE.length - 1; i >= 0; i--)
+            STATIC_NAMES.put(STATIC_TABLE[i][0], i + 1);
+    }
+
+    private Hpack() {
+    }
+
+    /**
+     * The dynamic table, shared in shape by the encoder and decoder. Index 1 is the newest entry.
+     */
+    private static class Table {
+
+        // Oldest first, so adding an entry doesn't shift the others
+        private final List<String[]> mEntries = new ArrayList<>();
+        private int mSize;
+        private int mMaxSize = DEFAULT_TABLE_SIZE;
+
+        public int count() {
+            return mEntries.size();
+        }
+
+        public String[] get(int index) {
+            return mEntries.get(mEntries.size() - index);
+        }
+
+        public void add(String name, String value) {
+            final int size = entrySize(name, value);
+            if (size > mMaxSize) {
+                // An entry bigger than the table empties it and isn't added
+                mEntries.clear();
+                mSize = 0;
+                return;
+            }
+            evict(mMaxSize - size);
+            mEntries.add(new String[]{name, value});
+            mSize += size;
+        }
+
+        public void setMaxSize(int maxSize) {
+            mMaxSize = maxSize;
+            evict(maxSize);
+        }
+
+        private void evict(int targetSize) {
+            int evicted = 0;
+            while (mSize > targetSize) {
+                final String[] entry = mEntries.get(evicted++);
+                mSize -= entrySize(entry[0], entry[1]);
+            }
+            if (evicted > 0)
+                mEntries.subList(0, evicted).clear();
+        }
+
+        private static int entrySize(String name, String value) {
+            return name.length() + value.length() + ENTRY_OVERHEAD;
+        }
+    }
+
+    public static class Encoder {
+
+        private final Table mTable = new Table();
+        private final ByteArrayOutputStream mOut = new ByteArrayOutputStream(256);
+        private int mPendingMaxSize = -1;
+        private int mSmallestMaxSize = Integer.MAX_VALUE;
+
+        /**
+         * Called when the peer changes its SETTINGS_HEADER_TABLE_SIZE. The change is signaled at the start of
+         * the next header block.
+         */
+        public void setMaxTableSize(int maxSize) {
+            mPendingMaxSize = maxSize;
+            mSmallestMaxSize = Math.min(mSmallestMaxSize, maxSize);
+        }
+
+        /**
+         * Encodes a header block. Names must already be lowercase. The returned array is owned by the caller.
+         */
+        public byte[] encode(List<String[]> headers) {
+            mOut.reset();
+            if (mPendingMaxSize >= 0) {
+                // If the size shrank and grew again, the decoder must see the smallest size first
+                if (mSmallestMaxSize < mPendingMaxSize)
+                    writeInt(mSmallestMaxSize, 5, 0x20);
+                writeInt(mPendingMaxSize, 5, 0x20);
+                mTable.setMaxSize(mPendingMaxSize);
+                mPendingMaxSize = -1;
+                mSmallestMaxSize = Integer.MAX_VALUE;
+            }
+            for (String[] header : headers)
+                encodeHeader(header[0], header[1]);
+            return mOut.toByteArray();
+        }
+
+        private void encodeHeader(String name, String value) {
+            int nameIndex = -1;
+            final Integer staticIndex = STATIC_NAMES.get(name);
+            if (staticIndex != null) {
+                nameIndex = staticIndex;
+                for (int i = staticIndex; i <= STATIC_TABLE.length && STATIC_TABLE[i - 1][0].equals(name); i++) {
+                    if (STATIC_TABLE[i - 1][1].equals(value)) {
+                        writeInt(i, 7, 0x80);
+                        return;
+                    }
+                }
+            }
+            for (int i = 1; i <= mTable.count(); i++) {
+                final String[] entry = mTable.get(i);
+                if (entry[0].equals(name)) {
+                    if (entry[1].equals(value)) {
+                        writeInt(STATIC_TABLE.length + i, 7, 0x80);
+                        return;
+                    }
+                    if (nameIndex == -1)
+                        nameIndex = STATIC_TABLE.length + i;
+                }
+            }
+
+            if (isSensitive(name)) {
+                // Never indexed, so intermediaries don't compress credentials either
+                writeLiteral(nameIndex, name, value, 4, 0x10);
+            } else if (isVolatile(name)) {
+                writeLiteral(nameIndex, name, value, 4, 0x00);
+            } else {
+                writeLiteral(nameIndex, name, value, 6, 0x40);
+                mTable.add(name, value);
+            }
+        }
+
+        private void writeLiteral(int nameIndex, String name, String value, int prefixBits, int pattern) {
+            if (nameIndex > 0) {
+                writeInt(nameIndex, prefixBits, pattern);
+            } else {
+                mOut.write(pattern);
+                writeString(name);
+            }
+            writeString(value);
+        }
+
+        private void writeString(String value) {
+            final byte[] data = value.getBytes(ISO_8859_1);
+            final int huffmanLength = Huffman.encodedLength(data);
+            if (huffmanLength < data.length) {
+                writeInt(huffmanLength, 7, 0x80);
+                Huffman.encode(data, mOut);
+            } else {
+                writeInt(data.length, 7, 0x00);
+                mOut.write(data, 0, data.length);
+            }
+        }
+
+        private void writeInt(int value, int prefixBits, int pattern) {
+            final int max = (1 << prefixBits) - 1;
+            if (value < max) {
+                mOut.write(pattern | value);
+                return;
+            }
+            mOut.write(pattern | max);
+            value -= max;
+            while (value >= 0x80) {
+                mOut.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mOut.write(value);
+        }
+
+        private static boolean isSensitive(String name) {
+            return name.equals("authorization") || name.equals("proxy-authorization") || name.equals("cookie");
+        }
+
+        // Headers that change on nearly every request, and would only churn the table
+        private static boolean isVolatile(String name) {
+            return name.equals(":path") || name.equals("content-length") || name.equals("range")
+                    || name.equals("if-none-match") || name.equals("if-modified-since");
+        }
+    }
+
+    public static class Decoder {
+
+        private final Table mTable = new Table();
+        private final int mMaxTableSize;
+        private byte[] mData;
+        private int mPos;
+        private int mLimit;
+
+        /**
+         * @param maxTableSize The SETTINGS_HEADER_TABLE_SIZE advertised to the peer.
+         */
+        public Decoder(int maxTableSize) {
+            mMaxTableSize = maxTableSize;
+            mTable.setMaxSize(maxTableSize);
+        }
+
+        /**
+         * Decodes a complete header block into name and value pairs, in order.
+         */
+        public List<String[]> decode(byte[] data, int offset, int length) throws IOException {
+            mData = data;
+            mPos = offset;
+            mLimit = offset + length;
+            final List<String[]> headers = new ArrayList<>();
+            boolean headerSeen = false;
+            try {
+                while (mPos < mLimit) {
+                    final int b = mData[mPos] & 0xFF;
+                    if ((b & 0x80) != 0) {
+                        final String[] entry = lookup(readInt(7));
+                        headers.add(entry);
+                        headerSeen = true;
+                    } else if ((b & 0x40) != 0) {
+                        final String[] header = readLiteral(6);
+                        mTable.add(header[0], header[1]);
+                        headers.add(header);
+                        headerSeen = true;
+                    } else if ((b & 0x20) != 0) {
+                        if (headerSeen)
+                            throw new ProtocolException("A dynamic table size update follows a header.");
+                        final int size = readInt(5);
+                        if (size > mMaxTableSize)
+                            throw new ProtocolException("Dynamic table size " + size + " exceeds " + mMaxTableSize);
+                        mTable.setMaxSize(size);
+                    } else {
+                        // Without indexing (0000) and never indexed (0001) decode the same way
+                        headers.add(readLiteral(4));
+                        headerSeen = true;
+                    }
+                }
+            } finally {
+                mData = null;
+            }
+            return headers;
+        }
+
+        private String[] lookup(int index) throws ProtocolException {
+            if (index <= 0)
+                throw new ProtocolException("Invalid header index " + index);
+            if (index <= STATIC_TABLE.length)
+                return STATIC_TABLE[index - 1];
+            final int dynamicIndex = index - STATIC_TABLE.length;
+            if (dynamicIndex > mTable.count())
+                throw new ProtocolException("Invalid header index " + index);
+            return mTable.get(dynamicIndex);
+        }
+
+        private String[] readLiteral(int prefixBits) throws IOException {
+            final int nameIndex = readInt(prefixBits);
+            final String name = nameIndex == 0 ? readString() : lookup(nameIndex)[0];
+            return new String[]{name, readString()};
+        }
+
+        private String readString() throws IOException {
+            if (mPos >= mLimit)
+                throw new ProtocolException("A header block ends in the middle of a string.");
+            final boolean huffman = (mData[mPos] & 0x80) != 0;
+            final int length = readInt(7);
+            if (length > mLimit - mPos)
+                throw new ProtocolException("A header string is longer than its header block.");
+            final String value = huffman
+                    ? new String(Huffman.decode(mData, mPos, length), ISO_8859_1)
+                    : new String(mData, mPos, length, ISO_8859_1);
+            mPos += length;
+            return value;
+        }
+
+        private int readInt(int prefixBits) throws ProtocolException {
+            final int max = (1 << prefixBits) - 1;
+            int value = mData[mPos++] & max;
+            if (value < max)
+                return value;
+            for (int shift = 0; shift < 28; shift += 7) {
+                if (mPos >= mLimit)
+                    throw new ProtocolException("A header block ends in the middle of an integer.");
+                final int b = mData[mPos++] & 0xFF;
+                value += (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0)
+                        break;
+                    return value;
+                }
+            }
+            throw new ProtocolException("A header integer is too large.");
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.afollestad.bridge;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Parses an HTTP/1.1 response incrementally, from whatever bytes have arrived so far. The head (status line
+ * and headers) is parsed by {@link #parseHead(ByteBuffer)}; after that, {@link #bodyAvailable(ByteBuffer)}
+ * strips the body's framing (Content-Length, chunked, or until the connection closes) and reports how many
+ * body bytes can be copied out of the buffer.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Http1Parser {
+
+    private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /**
+     * Sorts the status line (a null name) first, and matches header names case-insensitively.
+     */
+    static final Comparator<String> NAME_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String lhs, String rhs) {
+            if (lhs == null) return rhs == null ? 0 : -1;
+            else if (rhs == null) return 1;
+            return lhs.compareToIgnoreCase(rhs);
+        }
+    };
+
+    private static final int STATE_STATUS = 0;
+    private static final int STATE_HEADERS = 1;
+    private static final int STATE_BODY_FIXED = 2;
+    private static final int STATE_BODY_UNTIL_CLOSE = 3;
+    private static final int STATE_CHUNK_SIZE = 4;
+    private static final int STATE_CHUNK_DATA = 5;
+    private static final int STATE_CHUNK_END = 6;
+    private static final int STATE_TRAILERS = 7;
+    private static final int STATE_DONE = 8;
+
+    private int mState = STATE_STATUS;
+    private byte[] mLine = new byte[256];
+    private int mLineLength;
+    private long mRemaining;
+
+    private boolean mHttp11;
+    private boolean mKeepAlive;
+    private int mCode;
+    private String mMessage;
+    private Map<String, List<String>> mHeaders;
+    private String mLastName;
+
+    public int code() {
+        return mCode;
+    }
+
+    public String message() {
+        return mMessage;
+    }
+
+    public Map<String, List<String>> headers() {
+        return mHeaders;
+    }
+
+    /**
+     * Whether the connection can carry another request after this response, per its version, its Connection
+     * header, and how its body is framed.
+     */
+    public boolean isKeepAlive() {
+        return mKeepAlive;
+    }
+
+    public boolean isComplete() {
+        return mState == STATE_DONE;
+    }
+
+    /**
+     * Consumes the response head from the buffer. Returns true once it's complete, interim (1xx) responses
+     * are skipped. Returns false if more bytes are needed, in which case the whole buffer was consumed.
+     */
+    public boolean parseHead(ByteBuffer in) throws IOException {
+        while (mState == STATE_STATUS || mState == STATE_HEADERS) {
+            final String line = readLine(in);
+            if (line == null) return false;
+            if (mState == STATE_STATUS) {
+                parseStatusLine(line);
+            } else if (line.isEmpty()) {
+                if (mCode >= 100 && mCode < 200) {
+                    // e.g. 100 Continue, the real response follows
+                    mState = STATE_STATUS;
+                    continue;
+                }
+                startBody();
+            } else {
+                parseHeader(line);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Consumes body framing from the buffer, and returns how many body bytes are available at its position.
+     * The caller copies some of them and reports how many with {@link #consumed(int)}. Returns 0 if more
+     * bytes are needed or the body is complete.
+     */
+    public int bodyAvailable(ByteBuffer in) throws IOException {
+        while (true) {
+            switch (mState) {
+                case STATE_BODY_FIXED:
+                case STATE_CHUNK_DATA:
+                    return (int) Math.min(in.remaining(), mRemaining);
+                case STATE_BODY_UNTIL_CLOSE:
+                    return in.remaining();
+                case STATE_CHUNK_SIZE: {
+                    final String line = readLine(in);
+                    if (line == null) return 0;
+                    final int extension = line.indexOf(';');
+                    final String size = (extension != -1 ? line.substring(0, extension) : line).trim();
+                    try {
+                        mRemaining = Long.parseLong(size, 16);
+                    } catch (NumberFormatException e) {
+                        throw new ProtocolException("Invalid chunk size: " + line);
+                    }
+                    if (mRemaining < 0)
+                        throw new ProtocolException("Invalid chunk size: " + line);
+                    mState = mRemaining == 0 ? STATE_TRAILERS : STATE_CHUNK_DATA;
+                    break;
+                }
+                case STATE_CHUNK_END: {
+                    final String line = readLine(in);
+                    if (line == null) return 0;
+                    if (!line.isEmpty())
+                        throw new ProtocolException("Expected the end of a chunk: " + line);
+                    mState = STATE_CHUNK_SIZE;
+                    break;
+                }
+                case STATE_TRAILERS: {
+                    final String line = readLine(in);
+                    if (line == null) return 0;
+                    if (line.isEmpty())
+                        mState = STATE_DONE;
+                    break;
+                }
+                default:
+                    return 0;
+            }
+        }
+    }
+
+    /**
+     * Reports that {@code count} body bytes, out of those returned by {@link #bodyAvailable(ByteBuffer)}, were
+     * copied out of the buffer.
+     */
+    public void consumed(int count) {
+        if (mState == STATE_BODY_FIXED) {
+            mRemaining -= count;
+            if (mRemaining == 0) mState = STATE_DONE;
+        } else if (mState == STATE_CHUNK_DATA) {
+            mRemaining -= count;
+            if (mRemaining == 0) mState = STATE_CHUNK_END;
+        }
+    }
+
+    /**
+     * Called when the server closes the connection. Throws if the response wasn't complete yet.
+     */
+    public void endOfInput() throws IOException {
+        if (mState == STATE_BODY_UNTIL_CLOSE)
+            mState = STATE_DONE;
+        else if (mState != STATE_DONE)
+            throw new ProtocolException("The server closed the connection before the response was complete.");
+    }
+
+    private void parseStatusLine(String line) throws IOException {
+        // e.g. "HTTP/1.1 200 OK", the reason phrase is optional
+        if (!line.startsWith("HTTP/1.") || line.length() < 12 || line.charAt(8) != ' ')
+            throw new ProtocolException("Unexpected status line: " + line);
+        try {
+            mCode = Integer.parseInt(line.substring(9, 12));
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Unexpected status line: " + line);
+        }
+        mMessage = line.length() > 13 ? line.substring(13) : "";
+        mHttp11 = !line.startsWith("HTTP/1.0");
+        mHeaders = new TreeMap<>(NAME_ORDER);
+        final List<String> statusLine = new ArrayList<>(1);
+        statusLine.add(line);
+        mHeaders.put(null, statusLine);
+        mLastName = null;
+        mState = STATE_HEADERS;
+    }
+
+    private void parseHeader(String line) throws IOException {
+        if ((line.charAt(0) == ' ' || line.charAt(0) == '\t') && mLastName != null) {
+            // An obsolete folded line continues the previous header's value
+            final List<String> values = mHeaders.get(mLastName);
+            final int last = values.size() - 1;
+            values.set(last, values.get(last) + " " + line.trim());
+            return;
+        }
+        final int colon = line.indexOf(':');
+        if (colon <= 0)
+            throw new ProtocolException("Unexpected header: " + line);
+        final String name = line.substring(0, colon).trim();
+        List<String> values = mHeaders.get(name);
+        if (values == null) {
+            values = new ArrayList<>(1);
+            mHeaders.put(name, values);
+        }
+        values.add(line.substring(colon + 1).trim());
+        mLastName = name;
+    }
+
+    private void startBody() throws IOException {
+        final List<String> connection = mHeaders.get("Connection");
+        final String options = connection != null ? connection.toString().toLowerCase(Locale.US) : "";
+        mKeepAlive = mHttp11 ? !options.contains("close") : options.contains("keep-alive");
+        if (mCode == 204 || mCode == 304) {
+            mState = STATE_DONE;
+            return;
+        }
+        final List<String> transferEncoding = mHeaders.get("Transfer-Encoding");
+        if (transferEncoding != null && !transferEncoding.isEmpty()
+                && transferEncoding.get(transferEncoding.size() - 1).toLowerCase(Locale.US).contains("chunked")) {
+            mState = STATE_CHUNK_SIZE;
+            return;
+        }
+        final List<String> contentLength = mHeaders.get("Content-Length");
+        if (contentLength != null && !contentLength.isEmpty()) {
+            try {
+                mRemaining = Long.parseLong(contentLength.get(0).trim());
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Invalid Content-Length: " + contentLength.get(0));
+            }
+            if (mRemaining < 0)
+                throw new ProtocolException("Invalid Content-Length: " + contentLength.get(0));
+            mState = mRemaining == 0 ? STATE_DONE : STATE_BODY_FIXED;
+            return;
+        }
+        // The end of the body is the end of the connection
+        mKeepAlive = false;
+        mState = STATE_BODY_UNTIL_CLOSE;
+    }
+
+    /**
+     * Returns the next line without its line break, or null if the buffer ran out first. A partial line is
+     * kept until the rest of it arrives.
+     */
+    private String readLine(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            final byte b = in.get();
+            if (b == '\n') {
+                int length = mLineLength;
+                if (length > 0 && mLine[length - 1] == '\r') length--;
+                mLineLength = 0;
+                return new String(mLine, 0, length, LATIN_1);
+            }
+            if (mLineLength == mLine.length) {
+                if (mLine.length >= MAX_LINE_LENGTH)
+                    throw new ProtocolException("A line of the response is longer than " + MAX_LINE_LENGTH + " bytes.");
+                final byte[] grown = new byte[mLine.length * 2];
+                System.arraycopy(mLine, 0, grown, 0, mLineLength);
+                mLine = grown;
+            }
+            mLine[mLineLength++] = b;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,799 @@
+package com.afollestad.bridge;
+
+import android.os.SystemClock;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One HTTP/2 connection over plain TCP, started with prior knowledge (RFC 7540 section 3.4). Requests are
+ * multiplexed onto it as {@link Http2Stream}s: callers write their own HEADERS and DATA frames under a shared
+ * write lock, and a reader thread parses incoming frames and hands them to the stream they belong to.
+ * <p>
+ * Control frames (acks, WINDOW_UPDATE, RST_STREAM, GOAWAY) are queued rather than written under the write
+ * lock, and sent by whichever thread next gets the lock without waiting for it. The reader thread never
+ * waits for the write lock, so it keeps reading even while a caller is stuck writing to a server that's busy
+ * writing to us.
+ * <p>
+ * Locks are always taken in the order mWriteLock, then this.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Http2Connection implements Runnable {
+
+    /**
+     * Thrown for a stream the server didn't process, because it refused it or was going away. These are
+     * safe to retry on another connection.
+     */
+    static final class RefusedStreamException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public RefusedStreamException(String message) {
+            super(message);
+        }
+    }
+
+    private static final int TYPE_DATA = 0x0;
+    private static final int TYPE_HEADERS = 0x1;
+    private static final int TYPE_RST_STREAM = 0x3;
+    private static final int TYPE_SETTINGS = 0x4;
+    private static final int TYPE_PUSH_PROMISE = 0x5;
+    private static final int TYPE_PING = 0x6;
+    private static final int TYPE_GOAWAY = 0x7;
+    private static final int TYPE_WINDOW_UPDATE = 0x8;
+    private static final int TYPE_CONTINUATION = 0x9;
+
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+
+    private static final int ERROR_NO_ERROR = 0x0;
+    private static final int ERROR_FRAME_SIZE_ERROR = 0x6;
+    private static final int ERROR_REFUSED_STREAM = 0x7;
+    private static final int ERROR_CANCEL = 0x8;
+
+    private static final String PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n";
+    private static final int FRAME_HEADER_LENGTH = 9;
+    private static final int DEFAULT_WINDOW = 65535;
+    /**
+     * The largest frame either side may send until told otherwise, this connection never raises it.
+     */
+    private static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+    /**
+     * How many response body bytes the server may send on a stream before the caller has read them.
+     */
+    protected static final int STREAM_WINDOW = 256 * 1024;
+    /**
+     * How many response body bytes the server may send on all streams together before they're acknowledged.
+     */
+    private static final int CONNECTION_WINDOW = 16 * 1024 * 1024;
+    /**
+     * How often the reader thread wakes up to check if the connection has been idle too long.
+     */
+    private static final int IDLE_CHECK_INTERVAL = 1000;
+    private static final long CANCEL_CHECK_INTERVAL = 100;
+    private static final long CLOSE_TIMEOUT = 1000;
+
+    /**
+     * host:port, a connection only carries requests for the same route.
+     */
+    protected final String mRoute;
+    private final Http2Transport mTransport;
+    private final Socket mSocket;
+    private final InputStream mIn;
+    private final long mKeepAlive;
+
+    // Guarded by mWriteLock
+    private final ReentrantLock mWriteLock = new ReentrantLock();
+    private final OutputStream mOut;
+    private final byte[] mWriteHeader = new byte[FRAME_HEADER_LENGTH];
+    private final Hpack.Encoder mEncoder = new Hpack.Encoder();
+
+    // Guarded by itself
+    private final ArrayDeque<byte[]> mControlFrames = new ArrayDeque<>();
+
+    // Only touched on the reader thread
+    private final byte[] mReadHeader = new byte[FRAME_HEADER_LENGTH];
+    private final byte[] mReadBuffer = new byte[DEFAULT_MAX_FRAME_SIZE];
+    private final Hpack.Decoder mDecoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+    private final ByteArrayOutputStream mHeaderBlock = new ByteArrayOutputStream();
+    private int mHeaderBlockStream;
+    private boolean mHeaderBlockEndsStream;
+    private int mReceivedUnacked;
+
+    // Guarded by this
+    private final Map<Integer, Http2Stream> mStreams = new HashMap<>();
+    private int mNextStreamId = 1;
+    private int mReserved;
+    private int mMaxConcurrentStreams = Integer.MAX_VALUE;
+    private int mInitialWindow = DEFAULT_WINDOW;
+    private int mMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private int mPendingTableSize = -1;
+    private long mSendWindow = DEFAULT_WINDOW;
+    private long mIdleSince = SystemClock.elapsedRealtime();
+    private boolean mShutdown;
+    private IOException mError;
+
+    private Http2Connection(Http2Transport transport, Socket socket, String route, long keepAlive) throws IOException {
+        mTransport = transport;
+        mSocket = socket;
+        mRoute = route;
+        mKeepAlive = keepAlive;
+        mIn = socket.getInputStream();
+        mOut = new BufferedOutputStream(socket.getOutputStream(), DEFAULT_MAX_FRAME_SIZE + FRAME_HEADER_LENGTH);
+    }
+
+    /**
+     * Connects and sends the connection preface. The server's SETTINGS are applied as they arrive; requests
+     * can be sent right away.
+     */
+    public static Http2Connection open(Http2Transport transport, InetSocketAddress address, String route,
+                                       int connectTimeout, long keepAlive) throws IOException {
+        final Socket socket = new Socket();
+        final Http2Connection connection;
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(address, connectTimeout);
+            socket.setSoTimeout(IDLE_CHECK_INTERVAL);
+            connection = new Http2Connection(transport, socket, route, keepAlive);
+            connection.writePreface();
+        } catch (IOException e) {
+            Util.closeQuietly(socket);
+            throw e;
+        }
+        final Thread reader = new Thread(connection, "Bridge HTTP/2 " + route);
+        reader.setDaemon(true);
+        reader.start();
+        return connection;
+    }
+
+    private void writePreface() throws IOException {
+        mWriteLock.lock();
+        try {
+            for (int i = 0; i < PREFACE.length(); i++)
+                mOut.write(PREFACE.charAt(i));
+            writeFrameHeader(12, TYPE_SETTINGS, 0, 0);
+            writeSetting(SETTINGS_ENABLE_PUSH, 0);
+            writeSetting(SETTINGS_INITIAL_WINDOW_SIZE, STREAM_WINDOW);
+            writeFrameHeader(4, TYPE_WINDOW_UPDATE, 0, 0);
+            writeInt(CONNECTION_WINDOW - DEFAULT_WINDOW);
+            mOut.flush();
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    /**
+     * Whether new streams can be started, false once the connection is shutting down or has failed.
+     */
+    public synchronized boolean isUsable() {
+        return !mShutdown;
+    }
+
+    public synchronized boolean isIdle() {
+        return mStreams.isEmpty() && mReserved == 0;
+    }
+
+    /**
+     * Starts a stream by sending its HEADERS, waiting first if the server's limit on concurrent streams has
+     * been reached.
+     *
+     * @param headers Pseudo-headers first, all names lowercase.
+     * @param weight  The stream's priority weight between 1 and 256, or 0 to send no priority.
+     */
+    public Http2Stream newStream(TransportRequest request, List<String[]> headers, boolean endStream,
+                                 BufferPool pool, int weight) throws IOException {
+        synchronized (this) {
+            while (!mShutdown && mStreams.size() + mReserved >= mMaxConcurrentStreams)
+                await(request);
+            if (mShutdown)
+                throw new RefusedStreamException("The connection is shutting down.");
+            mReserved++;
+        }
+        try {
+            mWriteLock.lock();
+            try {
+                final Http2Stream stream;
+                final int tableSize;
+                synchronized (this) {
+                    if (mShutdown)
+                        throw new RefusedStreamException("The connection is shutting down.");
+                    stream = new Http2Stream(this, mNextStreamId, request, pool, mInitialWindow);
+                    stream.mRequestEnded = endStream;
+                    mStreams.put(stream.mId, stream);
+                    mNextStreamId += 2;
+                    // Stream IDs can't be reused, a connection that runs out of them stops taking new streams
+                    if (mNextStreamId < 0) mShutdown = true;
+                    tableSize = mPendingTableSize;
+                    mPendingTableSize = -1;
+                }
+                if (tableSize != -1)
+                    mEncoder.setMaxTableSize(tableSize);
+                try {
+                    writeHeaders(stream.mId, mEncoder.encode(headers), endStream, weight);
+                    mOut.flush();
+                } catch (IOException e) {
+                    writeFailed();
+                    throw e;
+                }
+                return stream;
+            } finally {
+                unlockWrites();
+            }
+        } finally {
+            synchronized (this) {
+                mReserved--;
+            }
+        }
+    }
+
+    private void writeHeaders(int streamId, byte[] block, boolean endStream, int weight) throws IOException {
+        final int prefix = weight > 0 ? 5 : 0;
+        final int maxFrameSize;
+        synchronized (this) {
+            maxFrameSize = mMaxFrameSize;
+        }
+        int length = Math.min(block.length, maxFrameSize - prefix);
+        int flags = endStream ? FLAG_END_STREAM : 0;
+        if (length == block.length) flags |= FLAG_END_HEADERS;
+        if (weight > 0) flags |= FLAG_PRIORITY;
+        writeFrameHeader(prefix + length, TYPE_HEADERS, flags, streamId);
+        if (weight > 0) {
+            // No dependency, not exclusive
+            writeInt(0);
+            mOut.write(weight - 1);
+        }
+        mOut.write(block, 0, length);
+        for (int offset = length; offset < block.length; offset += length) {
+            length = Math.min(block.length - offset, maxFrameSize);
+            writeFrameHeader(length, TYPE_CONTINUATION,
+                    offset + length == block.length ? FLAG_END_HEADERS : 0, streamId);
+            mOut.write(block, offset, length);
+        }
+    }
+
+    /**
+     * Writes request body bytes as DATA frames, waiting for the server to open its flow control windows
+     * as needed. Returns false if the bytes were dropped, because the stream has already ended.
+     */
+    public boolean writeData(Http2Stream stream, byte[] data, int offset, int length, boolean endStream)
+            throws IOException {
+        while (true) {
+            int count;
+            synchronized (this) {
+                while (true) {
+                    if (mStreams.get(stream.mId) != stream)
+                        return false;
+                    count = (int) Math.min(Math.min(length, mMaxFrameSize),
+                            Math.min(mSendWindow, stream.mSendWindow));
+                    if (count > 0 || length == 0) break;
+                    await(stream.request());
+                }
+                mSendWindow -= count;
+                stream.mSendWindow -= count;
+                if (endStream && count == length)
+                    stream.mRequestEnded = true;
+            }
+            final boolean last = endStream && count == length;
+            mWriteLock.lock();
+            try {
+                writeFrameHeader(count, TYPE_DATA, last ? FLAG_END_STREAM : 0, stream.mId);
+                mOut.write(data, offset, count);
+                if (count == length)
+                    mOut.flush();
+            } catch (IOException e) {
+                writeFailed();
+                throw e;
+            } finally {
+                unlockWrites();
+            }
+            offset += count;
+            length -= count;
+            if (length == 0) return true;
+        }
+    }
+
+    /**
+     * Lets the server send more on a stream, or on the connection for stream 0.
+     */
+    public void writeWindowUpdate(int streamId, int increment) {
+        writeControlFrame(TYPE_WINDOW_UPDATE, 0, streamId, intPayload(increment));
+    }
+
+    /**
+     * Resets a stream that's no longer wanted. Does nothing if it already ended.
+     */
+    public void cancel(Http2Stream stream) {
+        if (removeStream(stream.mId) == null) return;
+        mTransport.onStreamEnded(false);
+        writeReset(stream.mId, ERROR_CANCEL);
+    }
+
+    private void writeReset(int streamId, int errorCode) {
+        writeControlFrame(TYPE_RST_STREAM, 0, streamId, intPayload(errorCode));
+    }
+
+    /**
+     * Queues a control frame, and sends it right away unless another thread is writing, which then sends
+     * it once it's done. Never waits for the write lock.
+     */
+    private void writeControlFrame(int type, int flags, int streamId, byte[] payload) {
+        final byte[] frame = new byte[FRAME_HEADER_LENGTH + payload.length];
+        frame[0] = (byte) (payload.length >>> 16);
+        frame[1] = (byte) (payload.length >>> 8);
+        frame[2] = (byte) payload.length;
+        frame[3] = (byte) type;
+        frame[4] = (byte) flags;
+        frame[5] = (byte) (streamId >>> 24);
+        frame[6] = (byte) (streamId >>> 16);
+        frame[7] = (byte) (streamId >>> 8);
+        frame[8] = (byte) streamId;
+        System.arraycopy(payload, 0, frame, FRAME_HEADER_LENGTH, payload.length);
+        synchronized (mControlFrames) {
+            mControlFrames.add(frame);
+        }
+        flushControlFrames();
+    }
+
+    /**
+     * Releases the write lock, then sends the control frames that were queued while it was held.
+     */
+    private void unlockWrites() {
+        mWriteLock.unlock();
+        flushControlFrames();
+    }
+
+    private void flushControlFrames() {
+        while (true) {
+            synchronized (mControlFrames) {
+                if (mControlFrames.isEmpty()) return;
+            }
+            // Whoever holds the lock calls this again after releasing it
+            if (!mWriteLock.tryLock()) return;
+            try {
+                writeControlFrames();
+            } finally {
+                mWriteLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Writes out the queued control frames, the caller holds the write lock.
+     */
+    private void writeControlFrames() {
+        try {
+            byte[] frame;
+            while (true) {
+                synchronized (mControlFrames) {
+                    frame = mControlFrames.poll();
+                }
+                if (frame == null) break;
+                mOut.write(frame);
+            }
+            mOut.flush();
+        } catch (IOException e) {
+            synchronized (mControlFrames) {
+                mControlFrames.clear();
+            }
+            writeFailed();
+        }
+    }
+
+    /**
+     * Gives the control frames that are still queued, such as a GOAWAY saying why the connection is closed, a
+     * moment to be sent if another thread is in the middle of a write.
+     */
+    private void sendQueuedBeforeClose() {
+        synchronized (mControlFrames) {
+            if (mControlFrames.isEmpty()) return;
+        }
+        try {
+            if (!mWriteLock.tryLock(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            writeControlFrames();
+        } finally {
+            mWriteLock.unlock();
+        }
+    }
+
+    private static byte[] intPayload(int value) {
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    private void writeFrameHeader(int length, int type, int flags, int streamId) throws IOException {
+        final byte[] header = mWriteHeader;
+        header[0] = (byte) (length >>> 16);
+        header[1] = (byte) (length >>> 8);
+        header[2] = (byte) length;
+        header[3] = (byte) type;
+        header[4] = (byte) flags;
+        header[5] = (byte) (streamId >>> 24);
+        header[6] = (byte) (streamId >>> 16);
+        header[7] = (byte) (streamId >>> 8);
+        header[8] = (byte) streamId;
+        mOut.write(header);
+    }
+
+    private void writeSetting(int id, int value) throws IOException {
+        mOut.write(id >>> 8);
+        mOut.write(id);
+        writeInt(value);
+    }
+
+    private void writeInt(int value) throws IOException {
+        mOut.write(value >>> 24);
+        mOut.write(value >>> 16);
+        mOut.write(value >>> 8);
+        mOut.write(value);
+    }
+
+    /**
+     * A failed write leaves a partial frame on the socket, so the connection can't be used any further.
+     * Closing the socket makes the reader thread fail the other streams.
+     */
+    private void writeFailed() {
+        synchronized (this) {
+            mShutdown = true;
+        }
+        Util.closeQuietly(mSocket);
+    }
+
+    private void await(TransportRequest request) throws IOException {
+        if (request.isCancelled())
+            throw new IOException("The request was cancelled.");
+        else if (mError != null)
+            throw mError;
+        try {
+            wait(CANCEL_CHECK_INTERVAL);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private synchronized Http2Stream removeStream(int streamId) {
+        final Http2Stream stream = mStreams.remove(streamId);
+        if (stream != null && mStreams.isEmpty())
+            mIdleSince = SystemClock.elapsedRealtime();
+        notifyAll();
+        return stream;
+    }
+
+    /**
+     * Closes the socket, failing any streams that are still in progress.
+     */
+    public void close() {
+        synchronized (this) {
+            mShutdown = true;
+        }
+        Util.closeQuietly(mSocket);
+    }
+
+    // Reader thread
+
+    @Override
+    public void run() {
+        IOException error = null;
+        try {
+            while (readFrame()) {
+            }
+        } catch (IOException e) {
+            error = e;
+        }
+
+        final List<Http2Stream> streams;
+        synchronized (this) {
+            mShutdown = true;
+            mError = error != null ? error : new IOException("The connection was closed.");
+            streams = new ArrayList<>(mStreams.values());
+            mStreams.clear();
+            notifyAll();
+        }
+        for (Http2Stream stream : streams) {
+            mTransport.onStreamEnded(false);
+            stream.fail(mError);
+        }
+        sendQueuedBeforeClose();
+        Util.closeQuietly(mSocket);
+        mTransport.onClosed(this);
+    }
+
+    /**
+     * Reads and handles one frame, returns false once the connection should be closed quietly.
+     */
+    private boolean readFrame() throws IOException {
+        if (!readFully(mReadHeader, FRAME_HEADER_LENGTH)) return false;
+        final int length = ((mReadHeader[0] & 0xFF) << 16) | ((mReadHeader[1] & 0xFF) << 8) | (mReadHeader[2] & 0xFF);
+        final int type = mReadHeader[3] & 0xFF;
+        final int flags = mReadHeader[4] & 0xFF;
+        final int streamId = readInt(mReadHeader, 5) & 0x7FFFFFFF;
+        if (length > DEFAULT_MAX_FRAME_SIZE)
+            throw new ProtocolException("Frame of " + length + " bytes exceeds the max frame size.");
+        if (!readFully(mReadBuffer, length)) return false;
+        if (mHeaderBlockStream != 0 && (type != TYPE_CONTINUATION || streamId != mHeaderBlockStream))
+            throw new ProtocolException("Expected a CONTINUATION frame for stream " + mHeaderBlockStream);
+
+        switch (type) {
+            case TYPE_DATA:
+                onData(streamId, flags, length);
+                break;
+            case TYPE_HEADERS:
+                onHeaders(streamId, flags, length);
+                break;
+            case TYPE_CONTINUATION:
+                if (mHeaderBlockStream == 0)
+                    throw new ProtocolException("Unexpected CONTINUATION frame.");
+                mHeaderBlock.write(mReadBuffer, 0, length);
+                if ((flags & FLAG_END_HEADERS) != 0)
+                    onHeaderBlock(streamId, mHeaderBlockEndsStream);
+                break;
+            case TYPE_RST_STREAM:
+                checkLength(type, length == 4, length);
+                onReset(streamId, readInt(mReadBuffer, 0));
+                break;
+            case TYPE_SETTINGS:
+                if ((flags & FLAG_ACK) == 0)
+                    onSettings(length);
+                else checkLength(type, length == 0, length);
+                break;
+            case TYPE_PING:
+                checkLength(type, length == 8, length);
+                if ((flags & FLAG_ACK) == 0) {
+                    final byte[] payload = new byte[8];
+                    System.arraycopy(mReadBuffer, 0, payload, 0, 8);
+                    writeControlFrame(TYPE_PING, FLAG_ACK, 0, payload);
+                }
+                break;
+            case TYPE_GOAWAY:
+                // The last stream ID and error code, then optional debug data
+                checkLength(type, length >= 8, length);
+                return onGoAway(readInt(mReadBuffer, 0) & 0x7FFFFFFF);
+            case TYPE_WINDOW_UPDATE:
+                checkLength(type, length == 4, length);
+                onWindowUpdate(streamId, readInt(mReadBuffer, 0) & 0x7FFFFFFF);
+                break;
+            case TYPE_PUSH_PROMISE:
+                throw new ProtocolException("The server sent PUSH_PROMISE, but push is disabled.");
+            default:
+                // PRIORITY and unknown frame types are ignored
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * A control frame with the wrong length is a connection error (RFC 7540 section 4.2), the server is told
+     * why with a GOAWAY before the connection is closed.
+     */
+    private void checkLength(int type, boolean valid, int length) throws ProtocolException {
+        if (valid) return;
+        final byte[] payload = new byte[8];
+        System.arraycopy(intPayload(ERROR_FRAME_SIZE_ERROR), 0, payload, 4, 4);
+        writeControlFrame(TYPE_GOAWAY, 0, 0, payload);
+        throw new ProtocolException("Invalid length " + length + " for a frame of type " + type);
+    }
+
+    private void onData(int streamId, int flags, int length) throws IOException {
+        int offset = 0;
+        int dataLength = length;
+        if ((flags & FLAG_PADDED) != 0) {
+            final int padding = length > 0 ? mReadBuffer[0] & 0xFF : 0;
+            if (padding >= length)
+                throw new ProtocolException("DATA frame padding exceeds its length.");
+            offset = 1;
+            dataLength = length - 1 - padding;
+        }
+        // The connection window is replenished as frames arrive, each stream's as the caller reads its body
+        mReceivedUnacked += length;
+        if (mReceivedUnacked >= CONNECTION_WINDOW / 2) {
+            writeWindowUpdate(0, mReceivedUnacked);
+            mReceivedUnacked = 0;
+        }
+        final boolean endStream = (flags & FLAG_END_STREAM) != 0;
+        final Http2Stream stream;
+        synchronized (this) {
+            stream = mStreams.get(streamId);
+        }
+        // Streams that were already cancelled are ignored
+        if (stream == null) return;
+        stream.onData(mReadBuffer, offset, dataLength, length - dataLength, endStream);
+        if (endStream) onStreamEnded(stream);
+    }
+
+    private void onHeaders(int streamId, int flags, int length) throws IOException {
+        int offset = 0;
+        int end = length;
+        if ((flags & FLAG_PADDED) != 0) {
+            final int padding = length > 0 ? mReadBuffer[0] & 0xFF : 0;
+            offset = 1;
+            end = length - padding;
+        }
+        if ((flags & FLAG_PRIORITY) != 0)
+            offset += 5;
+        if (offset > end)
+            throw new ProtocolException("HEADERS frame padding exceeds its length.");
+        mHeaderBlock.reset();
+        mHeaderBlock.write(mReadBuffer, offset, end - offset);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            onHeaderBlock(streamId, (flags & FLAG_END_STREAM) != 0);
+        } else {
+            mHeaderBlockStream = streamId;
+            mHeaderBlockEndsStream = (flags & FLAG_END_STREAM) != 0;
+        }
+    }
+
+    private void onHeaderBlock(int streamId, boolean endStream) throws IOException {
+        mHeaderBlockStream = 0;
+        // Always decoded, even for a cancelled stream, since decoding updates the dynamic table
+        final byte[] block = mHeaderBlock.toByteArray();
+        final List<String[]> headers = mDecoder.decode(block, 0, block.length);
+        final Http2Stream stream;
+        synchronized (this) {
+            stream = mStreams.get(streamId);
+        }
+        if (stream == null) return;
+        stream.onHeaders(headers, endStream);
+        if (endStream) onStreamEnded(stream);
+    }
+
+    private void onStreamEnded(Http2Stream stream) {
+        final boolean requestEnded;
+        synchronized (this) {
+            requestEnded = stream.mRequestEnded;
+        }
+        removeStream(stream.mId);
+        mTransport.onStreamEnded(true);
+        // The server responded before reading the whole request, it won't want the rest
+        if (!requestEnded)
+            writeReset(stream.mId, ERROR_NO_ERROR);
+    }
+
+    private void onReset(int streamId, int errorCode) {
+        final Http2Stream stream = removeStream(streamId);
+        if (stream == null) return;
+        mTransport.onStreamEnded(false);
+        stream.fail(errorCode == ERROR_REFUSED_STREAM
+                ? new RefusedStreamException("The server refused the stream.")
+                : new IOException("The server reset the stream, error code " + errorCode));
+    }
+
+    private void onSettings(int length) throws IOException {
+        checkLength(TYPE_SETTINGS, length % 6 == 0, length);
+        synchronized (this) {
+            for (int offset = 0; offset < length; offset += 6) {
+                final int id = ((mReadBuffer[offset] & 0xFF) << 8) | (mReadBuffer[offset + 1] & 0xFF);
+                final int value = readInt(mReadBuffer, offset + 2);
+                switch (id) {
+                    case SETTINGS_HEADER_TABLE_SIZE:
+                        // The encoder belongs to the write lock, it picks this up before the next HEADERS
+                        mPendingTableSize = Math.min(value, Hpack.DEFAULT_TABLE_SIZE);
+                        break;
+                    case SETTINGS_MAX_CONCURRENT_STREAMS:
+                        mMaxConcurrentStreams = value;
+                        break;
+                    case SETTINGS_INITIAL_WINDOW_SIZE:
+                        if (value < 0)
+                            throw new ProtocolException("Invalid initial window size " + value);
+                        for (Http2Stream stream : mStreams.values())
+                            stream.mSendWindow += value - mInitialWindow;
+                        mInitialWindow = value;
+                        break;
+                    case SETTINGS_MAX_FRAME_SIZE:
+                        if (value < DEFAULT_MAX_FRAME_SIZE || value > 0xFFFFFF)
+                            throw new ProtocolException("Invalid max frame size " + value);
+                        mMaxFrameSize = value;
+                        break;
+                    default:
+                        break;
+                }
+            }
+            notifyAll();
+        }
+        writeControlFrame(TYPE_SETTINGS, FLAG_ACK, 0, new byte[0]);
+    }
+
+    /**
+     * Streams after the last one the server processed never reached it, they fail so they're retried elsewhere.
+     */
+    private boolean onGoAway(int lastStreamId) {
+        final List<Http2Stream> refused = new ArrayList<>();
+        final boolean idle;
+        synchronized (this) {
+            mShutdown = true;
+            final Iterator<Http2Stream> streams = mStreams.values().iterator();
+            while (streams.hasNext()) {
+                final Http2Stream stream = streams.next();
+                if (stream.mId > lastStreamId) {
+                    refused.add(stream);
+                    streams.remove();
+                }
+            }
+            idle = mStreams.isEmpty();
+            notifyAll();
+        }
+        for (Http2Stream stream : refused) {
+            mTransport.onStreamEnded(false);
+            stream.fail(new RefusedStreamException("The server is shutting down the connection."));
+        }
+        return !idle;
+    }
+
+    private void onWindowUpdate(int streamId, int increment) {
+        synchronized (this) {
+            if (streamId == 0) {
+                mSendWindow += increment;
+            } else {
+                final Http2Stream stream = mStreams.get(streamId);
+                if (stream != null)
+                    stream.mSendWindow += increment;
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Reads exactly {@code length} bytes. The socket times out regularly so an idle connection can be
+     * noticed; returns false if that happens and the connection should be closed.
+     */
+    private boolean readFully(byte[] buffer, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            final int count;
+            try {
+                count = mIn.read(buffer, read, length - read);
+            } catch (SocketTimeoutException e) {
+                if (shouldClose()) return false;
+                continue;
+            }
+            if (count == -1)
+                throw new EOFException("The server closed the connection.");
+            read += count;
+        }
+        return true;
+    }
+
+    private synchronized boolean shouldClose() {
+        if (!mStreams.isEmpty() || mReserved > 0) return false;
+        if (mShutdown || SystemClock.elapsedRealtime() - mIdleSince >= mKeepAlive) {
+            mShutdown = true;
+            return true;
+        }
+        return false;
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 24) | ((buffer[offset + 1] & 0xFF) << 16)
+                | ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+    }
+}
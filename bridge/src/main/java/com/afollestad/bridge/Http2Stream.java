@@ -0,0 +1,344 @@
+package com.afollestad.bridge;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * One request/response multiplexed over an {@link Http2Connection}. The caller's thread writes the request
+ * body and waits on this object's monitor for the response; the connection's reader thread fills in the
+ * response head and queues body bytes into pooled buffers. Body bytes are acknowledged to the server as
+ * they're read, so a slow reader holds back its own stream rather than the whole connection.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Http2Stream extends TransportResponse {
+
+    /**
+     * How often a waiting caller checks if its request was cancelled or timed out.
+     */
+    private static final long CANCEL_CHECK_INTERVAL = 100;
+
+    protected final int mId;
+    private final Http2Connection mConnection;
+    private final TransportRequest mRequest;
+    private final BufferPool mPool;
+    private final BodyStream mBodyStream = new BodyStream();
+
+    // Guarded by the connection
+    protected long mSendWindow;
+    protected boolean mRequestEnded;
+
+    // Guarded by this
+    private final ArrayDeque<ByteBuffer> mBody = new ArrayDeque<>();
+    private long mBodyBytes;
+    private long mReceivedBytes;
+    private int mUnacked;
+    private int mCode;
+    private Map<String, List<String>> mHeaders;
+    private long mLastActivity;
+    private boolean mEnded;
+    private boolean mClosed;
+    private IOException mError;
+
+    public Http2Stream(Http2Connection connection, int id, TransportRequest request, BufferPool pool,
+                       int sendWindow) {
+        mConnection = connection;
+        mId = id;
+        mRequest = request;
+        mPool = pool;
+        mSendWindow = sendWindow;
+        mLastActivity = SystemClock.elapsedRealtime();
+    }
+
+    public TransportRequest request() {
+        return mRequest;
+    }
+
+    // Caller thread
+
+    public synchronized void awaitHead() throws IOException {
+        // The read timeout starts once the request is sent, however long its body took
+        mLastActivity = SystemClock.elapsedRealtime();
+        while (mHeaders == null) {
+            checkError();
+            await();
+        }
+    }
+
+    /**
+     * Returns a stream that writes the request body as DATA frames of up to {@code bufferSize} bytes.
+     * Closing it ends the request.
+     */
+    public OutputStream bodySink(int bufferSize) {
+        return new BodySink(bufferSize);
+    }
+
+    private void checkError() throws IOException {
+        if (mError != null)
+            throw mError;
+        else if (mClosed)
+            throw new IOException("The response was closed.");
+    }
+
+    private void await() throws IOException {
+        if (mRequest.isCancelled())
+            throw new IOException("The request was cancelled.");
+        else if (SystemClock.elapsedRealtime() - mLastActivity >= mRequest.readTimeout())
+            throw new SocketTimeoutException("Read timed out");
+        try {
+            wait(CANCEL_CHECK_INTERVAL);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    // Reader thread
+
+    protected synchronized void onHeaders(List<String[]> headers, boolean endStream) {
+        mLastActivity = SystemClock.elapsedRealtime();
+        if (mHeaders == null) {
+            String status = null;
+            for (String[] header : headers) {
+                if (header[0].equals(":status"))
+                    status = header[1];
+            }
+            int code = -1;
+            try {
+                if (status != null) code = Integer.parseInt(status);
+            } catch (NumberFormatException ignored) {
+            }
+            if (code < 100 || code > 999) {
+                mError = new ProtocolException("Invalid :status " + status);
+                notifyAll();
+                return;
+            } else if (code < 200 && !endStream) {
+                // Informational responses like 100 Continue aren't passed on
+                return;
+            }
+            final Map<String, List<String>> map = new TreeMap<>(Http1Parser.NAME_ORDER);
+            map.put(null, Collections.singletonList("HTTP/2 " + code));
+            for (String[] header : headers) {
+                if (header[0].startsWith(":")) continue;
+                List<String> values = map.get(header[0]);
+                if (values == null) {
+                    values = new ArrayList<>(1);
+                    map.put(header[0], values);
+                }
+                values.add(header[1]);
+            }
+            mCode = code;
+            mHeaders = Collections.unmodifiableMap(map);
+        }
+        // Trailers after the body are dropped
+        if (endStream) mEnded = true;
+        notifyAll();
+    }
+
+    /**
+     * @param overhead Padding bytes that counted against the window, but aren't part of the body.
+     */
+    protected synchronized void onData(byte[] data, int offset, int length, int overhead, boolean endStream) {
+        mLastActivity = SystemClock.elapsedRealtime();
+        mUnacked += overhead;
+        mReceivedBytes += length;
+        if (endStream) mEnded = true;
+        // Nobody will read the body of a closed stream
+        if (mClosed) return;
+        while (length > 0) {
+            ByteBuffer tail = mBody.peekLast();
+            if (tail == null || tail.limit() == tail.capacity()) {
+                tail = ByteBuffer.wrap(mPool.get(mRequest.bufferSize()));
+                tail.limit(0);
+                mBody.add(tail);
+            }
+            final int copy = Math.min(length, tail.capacity() - tail.limit());
+            System.arraycopy(data, offset, tail.array(), tail.limit(), copy);
+            tail.limit(tail.limit() + copy);
+            mBodyBytes += copy;
+            offset += copy;
+            length -= copy;
+        }
+        notifyAll();
+    }
+
+    protected synchronized void fail(IOException e) {
+        if (mError == null && !mEnded)
+            mError = e;
+        notifyAll();
+    }
+
+    // TransportResponse
+
+    @Override
+    public int code() {
+        return mCode;
+    }
+
+    @Override
+    public String message() {
+        // HTTP/2 has no reason phrases
+        return "";
+    }
+
+    @NonNull
+    @Override
+    public Map<String, List<String>> headers() {
+        return mHeaders;
+    }
+
+    @NonNull
+    @Override
+    public InputStream body() {
+        return mBodyStream;
+    }
+
+    @Override
+    public void close() {
+        final boolean complete;
+        synchronized (this) {
+            if (mClosed) return;
+            mClosed = true;
+            for (ByteBuffer buffer : mBody)
+                mPool.recycle(buffer.array());
+            mBody.clear();
+            mBodyBytes = 0;
+            // Servers often send END_STREAM in an empty frame after the body, there's no need to reset for that
+            final long contentLength = mHeaders != null && mError == null ? contentLength() : -1;
+            complete = mEnded || (contentLength >= 0 && mReceivedBytes >= contentLength);
+            notifyAll();
+        }
+        // Resets the stream if the response hadn't ended yet
+        if (!complete) mConnection.cancel(this);
+    }
+
+    private final class BodyStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            final int read = read(b, 0, 1);
+            return read == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+            if (count == 0) return 0;
+            int acknowledge = 0;
+            final int read;
+            synchronized (Http2Stream.this) {
+                while (mBodyBytes == 0) {
+                    checkError();
+                    if (mEnded) return -1;
+                    await();
+                }
+                final ByteBuffer head = mBody.peek();
+                read = Math.min(count, head.remaining());
+                head.get(buffer, offset, read);
+                if (!head.hasRemaining() && (head.limit() == head.capacity() || mBody.size() > 1)) {
+                    mBody.poll();
+                    mPool.recycle(head.array());
+                }
+                mBodyBytes -= read;
+                mUnacked += read;
+                if (mUnacked >= Http2Connection.STREAM_WINDOW / 2 && !mEnded) {
+                    acknowledge = mUnacked;
+                    mUnacked = 0;
+                }
+            }
+            if (acknowledge > 0)
+                mConnection.writeWindowUpdate(mId, acknowledge);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            synchronized (Http2Stream.this) {
+                return (int) Math.min(mBodyBytes, Integer.MAX_VALUE);
+            }
+        }
+
+        @Override
+        public void close() {
+            Http2Stream.this.close();
+        }
+    }
+
+    private final class BodySink extends OutputStream {
+
+        private final int mBufferSize;
+        private byte[] mBuffer;
+        private int mCount;
+        private boolean mSinkClosed;
+        // Set once the server has responded, it doesn't want the rest of the body
+        private boolean mDropped;
+
+        public BodySink(int bufferSize) {
+            mBufferSize = bufferSize;
+        }
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            write(new byte[]{(byte) oneByte}, 0, 1);
+        }
+
+        @Override
+        public void write(@NonNull byte[] data, int offset, int count) throws IOException {
+            if (mSinkClosed)
+                throw new IOException("The request body was already written.");
+            while (count > 0) {
+                if (mBuffer == null) {
+                    mBuffer = mPool.get(mBufferSize);
+                    mCount = 0;
+                }
+                final int copy = Math.min(count, mBuffer.length - mCount);
+                System.arraycopy(data, offset, mBuffer, mCount, copy);
+                mCount += copy;
+                offset += copy;
+                count -= copy;
+                if (mCount == mBuffer.length)
+                    send(false);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (mCount > 0) send(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mSinkClosed) return;
+            mSinkClosed = true;
+            send(true);
+        }
+
+        private void send(boolean endStream) throws IOException {
+            final byte[] buffer = mBuffer;
+            final int count = mCount;
+            mBuffer = null;
+            mCount = 0;
+            try {
+                if (!mDropped)
+                    mDropped = !mConnection.writeData(Http2Stream.this, buffer != null ? buffer : new byte[0], 0,
+                            count, endStream);
+            } finally {
+                if (buffer != null) mPool.recycle(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.afollestad.bridge;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Transport} that speaks HTTP/2 over plain TCP, to servers known to support it (h2c with prior
+ * knowledge). Every request to a host is multiplexed as a stream over one shared connection, so a burst of
+ * requests costs one socket and one handshake instead of one each, and HPACK compresses the headers they
+ * repeat. Response bodies are flow controlled per stream, so a slow reader doesn't hold up the others.
+ * <p>
+ * A request's {@link Priority} is sent as its stream weight. Idle connections are closed after
+ * {@link #keepAlive(long)}. Redirects are followed the way HttpURLConnection follows them. HTTPS requests are
+ * delegated to a {@link UrlConnectionTransport}, since negotiating HTTP/2 over TLS needs ALPN. Call
+ * {@link #close()} to close all connections when the transport is no longer needed.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class Http2Transport extends RedirectingTransport implements Closeable {
+
+    private final Map<String, Http2Connection> mConnections = new HashMap<>();
+    // Route -> the lock held while connecting to it, so a burst of requests opens one connection
+    private final Map<String, Object> mConnectLocks = new HashMap<>();
+    private final AtomicInteger mOpenConnections = new AtomicInteger();
+    private final AtomicLong mOpenedCount = new AtomicLong();
+    private final AtomicLong mReusedCount = new AtomicLong();
+    private final AtomicLong mReleasedCount = new AtomicLong();
+    private final AtomicLong mDiscardedCount = new AtomicLong();
+    private volatile long mKeepAlive = 5 * 60 * 1000;
+    private boolean mClosed;
+
+    /**
+     * Sets how many milliseconds a connection may sit without any requests before it's closed. Applies to
+     * connections opened afterwards. Defaults to 5 minutes.
+     */
+    public Http2Transport keepAlive(long keepAlive) {
+        if (keepAlive <= 0)
+            throw new IllegalArgumentException("The keep alive must be greater than 0.");
+        mKeepAlive = keepAlive;
+        return this;
+    }
+
+    /**
+     * The number of sockets that are currently open, whether or not they're carrying requests.
+     */
+    public int openConnections() {
+        return mOpenConnections.get();
+    }
+
+    /**
+     * Opened and reused count requests that opened a connection and requests that were multiplexed onto one
+     * that was already open. Released and discarded count streams that completed, and streams that were reset
+     * or failed. Idle counts open connections that aren't carrying any requests.
+     */
+    public ConnectionStats connectionStats() {
+        int idleCount = 0;
+        synchronized (mConnections) {
+            for (Http2Connection connection : mConnections.values()) {
+                if (connection.isIdle()) idleCount++;
+            }
+        }
+        return new ConnectionStats(mOpenedCount.get(), mReusedCount.get(), mReleasedCount.get(),
+                mDiscardedCount.get(), idleCount);
+    }
+
+    @Override
+    protected Http2Stream send(TransportRequest request, URL url, Method method, Map<String, String> headers,
+                               boolean sendBody) throws IOException {
+        return send(request, url, method, headers, sendBody, false);
+    }
+
+    private Http2Stream send(TransportRequest request, URL url, Method method, Map<String, String> headers,
+                             boolean sendBody, boolean retried) throws IOException {
+        final int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        final String route = url.getHost().toLowerCase(Locale.US) + ":" + port;
+        request.onConnectStart();
+        final Http2Connection connection = connection(url.getHost(), port, route, request.connectTimeout());
+        request.onConnectEnd();
+
+        Http2Stream stream = null;
+        try {
+            stream = connection.newStream(request, headers(url, method, headers,
+                    sendBody ? request.contentLength() : -1, sendBody), !sendBody,
+                    request.request().builder().mContext.bufferPool(), weight(request.request().priority()));
+            request.onRequestHeadersEnd();
+            if (sendBody) {
+                final OutputStream os = stream.bodySink(request.bufferSize());
+                request.writeBody(os);
+                os.close();
+            }
+            stream.awaitHead();
+            return stream;
+        } catch (IOException e) {
+            if (stream != null) stream.close();
+            // The server never saw a refused stream, so even a POST can be sent again
+            if (e instanceof Http2Connection.RefusedStreamException && !retried && !request.isCancelled()
+                    && (!sendBody || request.bodyBytes() != null)) {
+                Log.d(this, "Retrying %s on a new stream: %s", request, e.getMessage());
+                return send(request, url, method, headers, sendBody, true);
+            }
+            throw e;
+        }
+    }
+
+    private Http2Connection connection(String host, int port, String route, int connectTimeout)
+            throws IOException {
+        final Object lock;
+        synchronized (mConnections) {
+            final Http2Connection existing = usableConnection(route);
+            if (existing != null) {
+                mReusedCount.incrementAndGet();
+                return existing;
+            }
+            Object connectLock = mConnectLocks.get(route);
+            if (connectLock == null) {
+                connectLock = new Object();
+                mConnectLocks.put(route, connectLock);
+            }
+            lock = connectLock;
+        }
+        synchronized (lock) {
+            synchronized (mConnections) {
+                // Another request may have connected while this one waited
+                final Http2Connection existing = usableConnection(route);
+                if (existing != null) {
+                    mReusedCount.incrementAndGet();
+                    return existing;
+                }
+            }
+            // Resolving the host blocks, so it happens outside of the lock on all connections
+            final InetSocketAddress address = new InetSocketAddress(host, port);
+            if (address.isUnresolved())
+                throw new UnknownHostException(host);
+            final Http2Connection connection = Http2Connection.open(this, address, route, connectTimeout, mKeepAlive);
+            mOpenConnections.incrementAndGet();
+            mOpenedCount.incrementAndGet();
+            synchronized (mConnections) {
+                if (mClosed) {
+                    connection.close();
+                    throw new IOException("The transport was closed.");
+                }
+                mConnections.put(route, connection);
+            }
+            return connection;
+        }
+    }
+
+    private Http2Connection usableConnection(String route) throws IOException {
+        if (mClosed)
+            throw new IOException("The transport was closed.");
+        final Http2Connection connection = mConnections.get(route);
+        return connection != null && connection.isUsable() ? connection : null;
+    }
+
+    private static List<String[]> headers(URL url, Method method, Map<String, String> headers,
+                                          long contentLength, boolean sendBody) {
+        final List<String[]> result = new ArrayList<>(headers.size() + 5);
+        String path = url.getPath().isEmpty() ? "/" : url.getPath();
+        if (url.getQuery() != null)
+            path += "?" + url.getQuery();
+        String authority = url.getHost();
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort())
+            authority += ":" + url.getPort();
+        result.add(new String[]{":method", method.name()});
+        result.add(new String[]{":scheme", "http"});
+        result.add(new String[]{":authority", authority});
+        result.add(new String[]{":path", path});
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            final String name = header.getKey().toLowerCase(Locale.US);
+            // Connection-specific headers aren't allowed in HTTP/2, and Host is replaced by :authority
+            if (name.equals("host") || name.equals("connection") || name.equals("keep-alive")
+                    || name.equals("proxy-connection") || name.equals("transfer-encoding")
+                    || name.equals("upgrade") || name.equals("te") || name.equals("content-length"))
+                continue;
+            result.add(new String[]{name, header.getValue()});
+        }
+        if (sendBody && contentLength >= 0)
+            result.add(new String[]{"content-length", Long.toString(contentLength)});
+        else if (!sendBody && (method == Method.POST || method == Method.PUT))
+            result.add(new String[]{"content-length", "0"});
+        return result;
+    }
+
+    /**
+     * Maps a request's priority to an HTTP/2 stream weight, 0 for the default weight.
+     */
+    private static int weight(Priority priority) {
+        switch (priority) {
+            case IMMEDIATE:
+                return 256;
+            case HIGH:
+                return 64;
+            case LOW:
+                return 4;
+            case PREFETCH:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    protected void onStreamEnded(boolean complete) {
+        if (complete) mReleasedCount.incrementAndGet();
+        else mDiscardedCount.incrementAndGet();
+    }
+
+    protected void onClosed(Http2Connection connection) {
+        mOpenConnections.decrementAndGet();
+        synchronized (mConnections) {
+            if (mConnections.get(connection.mRoute) == connection)
+                mConnections.remove(connection.mRoute);
+        }
+    }
+
+    /**
+     * Closes all connections. Requests that are still in progress fail.
+     */
+    @Override
+    public void close() {
+        final List<Http2Connection> connections;
+        synchronized (mConnections) {
+            mClosed = true;
+            connections = new ArrayList<>(mConnections.values());
+            mConnections.clear();
+        }
+        for (Http2Connection connection : connections)
+            connection.close();
+    }
+}
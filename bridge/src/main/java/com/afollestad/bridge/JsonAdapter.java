@@ -0,0 +1,461 @@
+package com.afollestad.bridge;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads one type of value from a {@link JsonTokenizer}. Objects are mapped field by field: a class's fields are
+ * looked up through reflection once, and the resulting adapter is cached for every later response.
+ * <p>
+ * Supported are primitives and their boxes, Strings, enums (by name), arrays, Lists and Collections, Maps with
+ * String keys, Object (as Maps, Lists, Strings, Longs, Doubles and Booleans), and classes with a no-argument
+ * constructor, whose non-static, non-transient fields are matched to JSON names exactly. Unknown names are
+ * skipped, and null leaves a primitive field at its default.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+abstract class JsonAdapter<T> {
+
+    private static final Map<Type, JsonAdapter<?>> CACHE = new ConcurrentHashMap<>();
+
+    public abstract T read(JsonTokenizer reader) throws IOException, JSONException;
+
+    @SuppressWarnings("unchecked")
+    public static <T> JsonAdapter<T> get(Class<T> cls) {
+        return (JsonAdapter<T>) get((Type) cls);
+    }
+
+    public static JsonAdapter<?> get(Type type) {
+        JsonAdapter<?> adapter = CACHE.get(type);
+        if (adapter == null) {
+            // Racing threads may both build an adapter, they're equivalent so either one is kept
+            adapter = create(type);
+            CACHE.put(type, adapter);
+        }
+        return adapter;
+    }
+
+    private static JsonAdapter<?> create(Type type) {
+        if (type instanceof WildcardType)
+            return get(((WildcardType) type).getUpperBounds()[0]);
+        else if (type instanceof TypeVariable)
+            return get(Object.class);
+        else if (type instanceof GenericArrayType)
+            return new ArrayAdapter(((GenericArrayType) type).getGenericComponentType());
+        else if (type instanceof ParameterizedType) {
+            final ParameterizedType parameterized = (ParameterizedType) type;
+            final Class<?> raw = (Class<?>) parameterized.getRawType();
+            final Type[] arguments = parameterized.getActualTypeArguments();
+            if (Map.class.isAssignableFrom(raw)) {
+                if (rawType(arguments[0]) != String.class && rawType(arguments[0]) != Object.class)
+                    throw new IllegalArgumentException("Can't decode JSON into " + type + ", keys must be Strings.");
+                checkContainer(raw, LinkedHashMap.class);
+                return new MapAdapter(arguments[1]);
+            } else if (Collection.class.isAssignableFrom(raw)) {
+                checkContainer(raw, ArrayList.class);
+                return new ListAdapter(arguments[0]);
+            }
+            return get(raw);
+        }
+
+        final Class<?> cls = (Class<?>) type;
+        if (cls == String.class)
+            return new StringAdapter();
+        else if (cls == int.class || cls == Integer.class)
+            return new IntAdapter();
+        else if (cls == long.class || cls == Long.class)
+            return new LongAdapter();
+        else if (cls == double.class || cls == Double.class)
+            return new DoubleAdapter();
+        else if (cls == float.class || cls == Float.class)
+            return new FloatAdapter();
+        else if (cls == boolean.class || cls == Boolean.class)
+            return new BooleanAdapter();
+        else if (cls == short.class || cls == Short.class)
+            return new ShortAdapter();
+        else if (cls == byte.class || cls == Byte.class)
+            return new ByteAdapter();
+        else if (cls == char.class || cls == Character.class)
+            return new CharAdapter();
+        else if (cls == Object.class)
+            return new ValueAdapter();
+        else if (cls.isEnum())
+            return new EnumAdapter(cls);
+        else if (cls.isArray())
+            return new ArrayAdapter(cls.getComponentType());
+        else if (Map.class.isAssignableFrom(cls)) {
+            checkContainer(cls, LinkedHashMap.class);
+            return new MapAdapter(Object.class);
+        } else if (Collection.class.isAssignableFrom(cls)) {
+            checkContainer(cls, ArrayList.class);
+            return new ListAdapter(Object.class);
+        } else if (cls.isInterface() || Modifier.isAbstract(cls.getModifiers()))
+            throw new IllegalArgumentException("Can't decode JSON into " + cls.getName() + ", it's abstract.");
+        return objectAdapter(cls);
+    }
+
+    private static <T> ObjectAdapter<T> objectAdapter(Class<T> cls) {
+        return new ObjectAdapter<>(cls);
+    }
+
+    /**
+     * Maps and collections are always decoded into a LinkedHashMap or ArrayList, the declared type must accept one.
+     */
+    private static void checkContainer(Class<?> declared, Class<?> implementation) {
+        if (!declared.isAssignableFrom(implementation))
+            throw new IllegalArgumentException("Can't decode JSON into " + declared.getName()
+                    + ", use " + implementation.getSimpleName() + " or one of its interfaces.");
+    }
+
+    /**
+     * Returns true, having consumed it, if the next value is null.
+     */
+    protected static boolean nextIsNull(JsonTokenizer reader) throws IOException, JSONException {
+        if (reader.peek() != JsonTokenizer.Token.NULL) return false;
+        reader.nextNull();
+        return true;
+    }
+
+    private static final class StringAdapter extends JsonAdapter<String> {
+        @Override
+        public String read(JsonTokenizer reader) throws IOException, JSONException {
+            if (nextIsNull(reader)) return null;
+            // Booleans are accepted too, as their literal text
+            if (reader.peek() == JsonTokenizer.Token.BOOLEAN)
+                return String.valueOf(reader.nextBoolean());
+            return reader.nextString();
+        }
+    }
+
+    private static final class IntAdapter extends JsonAdapter<Integer> {
+        @Override
+        public Integer read(JsonTokenizer reader) throws IOException, JSONException {
+            return nextIsNull(reader) ? null : reader.nextInt();
+        }
+    }
+
+    private static final class LongAdapter extends JsonAdapter<Long> {
+        @Override
+        public Long read(JsonTokenizer reader) throws IOException, JSONException {
+            return nextIsNull(reader) ? null : reader.nextLong();
+        }
+    }
+
+    private static final class DoubleAdapter extends JsonAdapter<Double> {
+        @Override
+        public Double read(JsonTokenizer reader) throws IOException, JSONException {
+            return nextIsNull(reader) ? null : reader.nextDouble();
+        }
+    }
+
+    private static final class FloatAdapter extends JsonAdapter<Float> {
+        @Override
+        public Float read(JsonTokenizer reader) throws IOException, JSONException {
+            return nextIsNull(reader) ? null : (float) reader.nextDouble();
+        }
+    }
+
+    private static final class BooleanAdapter extends JsonAdapter<Boolean> {
+        @Override
+        public Boolean read(JsonTokenizer reader) throws IOException, JSONException {
+            return nextIsNull(reader) ? null : reader.nextBoolean();
+        }
+    }
+
+    private static final class ShortAdapter extends JsonAdapter<Short> {
+        @Override
+        public Short read(JsonTokenizer reader) throws IOException, JSONException {
+            if (nextIsNull(reader)) return null;
+            final int value = reader.nextInt();
+            if (value != (short) value) throw new JSONException("Expected a short but was " + value);
+            return (short) value;
+        }
+    }
+
+    private static final class ByteAdapter extends JsonAdapter<Byte> {
+        @Override
+        public Byte read(JsonTokenizer reader) throws IOException, JSONException {
+            if (nextIsNull(reader)) return null;
+            final int value = reader.nextInt();
+            if (value != (byte) value) throw new JSONException("Expected a byte but was " + value);
+            return (byte) value;
+        }
+    }
+
+    private static final class CharAdapter extends JsonAdapter<Character> {
+        @Override
+        public Character read(JsonTokenizer reader) throws IOException, JSONException {
+            if (nextIsNull(reader)) return null;
+            final String value = reader.nextString();
+            if (value.length() != 1) throw new JSONException("Expected a char but was \"" + value + "\"");
+            return value.charAt(0);
+        }
+    }
+
+    private static final class EnumAdapter extends JsonAdapter<Enum<?>> {
+
+        private final Map<String, Enum<?>> mConstants = new HashMap<>();
+        private final Class<?> mType;
+
+        public EnumAdapter(Class<?> type) {
+            mType = type;
+            for (Object constant : type.getEnumConstants()) {
+                final Enum<?> value = (Enum<?>) constant;
+                mConstants.put(value.name(), value);
+            }
+        }
+
+        @Override
+        public Enum<?> read(JsonTokenizer reader) throws IOException, JSONException {
+            if (nextIsNull(reader)) return null;
+            final String name = reader.nextString();
+            final Enum<?> value = mConstants.get(name);
+            if (value == null)
+                throw new JSONException(name + " isn't a constant of " + mType.getName());
+            return value;
+        }
+    }
+
+    private static final class ArrayAdapter extends JsonAdapter<Object> {
+
+        private final Class<?> mComponentType;
+        private final Type mComponentGenericType;
+
+        public ArrayAdapter(Type componentType) {
+            mComponentGenericType = componentType;
+            mComponentType = rawType(componentType);
+        }
+
+        @Override
+        public Object read(JsonTokenizer reader) throws IOException, JSONException {
+            if (nextIsNull(reader)) return null;
+            final JsonAdapter<?> adapter = get(mComponentGenericType);
+            final List<Object> values = new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNext())
+                values.add(adapter.read(reader));
+            reader.endArray();
+            final Object array = Array.newInstance(mComponentType, values.size());
+            for (int i = 0; i < values.size(); i++) {
+                final Object value = values.get(i);
+                if (value == null && mComponentType.isPrimitive())
+                    throw new JSONException("null can't be an element of a " + mComponentType + " array.");
+                Array.set(array, i, value);
+            }
+            return array;
+        }
+    }
+
+    private static final class ListAdapter extends JsonAdapter<List<Object>> {
+
+        private final Type mElementType;
+
+        public ListAdapter(Type elementType) {
+            mElementType = elementType;
+        }
+
+        @Override
+        public List<Object> read(JsonTokenizer reader) throws IOException, JSONException {
+            if (nextIsNull(reader)) return null;
+            final JsonAdapter<?> adapter = get(mElementType);
+            final List<Object> values = new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNext())
+                values.add(adapter.read(reader));
+            reader.endArray();
+            return values;
+        }
+    }
+
+    private static final class MapAdapter extends JsonAdapter<Map<String, Object>> {
+
+        private final Type mValueType;
+
+        public MapAdapter(Type valueType) {
+            mValueType = valueType;
+        }
+
+        @Override
+        public Map<String, Object> read(JsonTokenizer reader) throws IOException, JSONException {
+            if (nextIsNull(reader)) return null;
+            final JsonAdapter<?> adapter = get(mValueType);
+            final Map<String, Object> values = new LinkedHashMap<>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final String name = reader.nextName();
+                values.put(name, adapter.read(reader));
+            }
+            reader.endObject();
+            return values;
+        }
+    }
+
+    /**
+     * Reads any value into plain Java types, for fields declared as Object.
+     */
+    private static final class ValueAdapter extends JsonAdapter<Object> {
+        @Override
+        public Object read(JsonTokenizer reader) throws IOException, JSONException {
+            switch (reader.peek()) {
+                case BEGIN_OBJECT:
+                    final Map<String, Object> map = new LinkedHashMap<>();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        final String name = reader.nextName();
+                        map.put(name, read(reader));
+                    }
+                    reader.endObject();
+                    return map;
+                case BEGIN_ARRAY:
+                    final List<Object> list = new ArrayList<>();
+                    reader.beginArray();
+                    while (reader.hasNext())
+                        list.add(read(reader));
+                    reader.endArray();
+                    return list;
+                case NUMBER:
+                    final String number = reader.nextString();
+                    try {
+                        return Long.parseLong(number);
+                    } catch (NumberFormatException e) {
+                        try {
+                            return Double.parseDouble(number);
+                        } catch (NumberFormatException e2) {
+                            throw new JSONException("Invalid number " + number);
+                        }
+                    }
+                case BOOLEAN:
+                    return reader.nextBoolean();
+                case NULL:
+                    reader.nextNull();
+                    return null;
+                default:
+                    return reader.nextString();
+            }
+        }
+    }
+
+    private static final class ObjectAdapter<T> extends JsonAdapter<T> {
+
+        private final Constructor<T> mConstructor;
+        private final Map<String, FieldBinding> mFields = new HashMap<>();
+
+        public ObjectAdapter(Class<T> cls) {
+            try {
+                mConstructor = cls.getDeclaredConstructor();
+                mConstructor.setAccessible(true);
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException("Can't decode JSON into " + cls.getName()
+                        + ", it needs a constructor without arguments.");
+            }
+            for (Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    final int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic())
+                        continue;
+                    // A subclass's field hides a superclass field with the same name
+                    if (mFields.containsKey(field.getName()))
+                        continue;
+                    field.setAccessible(true);
+                    mFields.put(field.getName(), new FieldBinding(field));
+                }
+            }
+        }
+
+        @Override
+        public T read(JsonTokenizer reader) throws IOException, JSONException {
+            if (nextIsNull(reader)) return null;
+            final T instance;
+            try {
+                instance = mConstructor.newInstance();
+            } catch (Exception e) {
+                throw new IllegalStateException("Failed to create " + mConstructor.getDeclaringClass().getName(), e);
+            }
+            reader.beginObject();
+            while (reader.hasNext()) {
+                final FieldBinding binding = mFields.get(reader.nextName());
+                if (binding == null)
+                    reader.skipValue();
+                else binding.read(reader, instance);
+            }
+            reader.endObject();
+            return instance;
+        }
+    }
+
+    /**
+     * Sets one field. Primitive fields are set without boxing.
+     */
+    private static final class FieldBinding {
+
+        private final Field mField;
+        private final Class<?> mType;
+        // Resolved on first use, so classes that refer to themselves don't recurse while being built
+        private volatile JsonAdapter<?> mAdapter;
+
+        public FieldBinding(Field field) {
+            mField = field;
+            mType = field.getType();
+        }
+
+        public void read(JsonTokenizer reader, Object instance) throws IOException, JSONException {
+            try {
+                if (mType.isPrimitive()) {
+                    // null leaves the default value
+                    if (nextIsNull(reader)) return;
+                    if (mType == int.class)
+                        mField.setInt(instance, reader.nextInt());
+                    else if (mType == long.class)
+                        mField.setLong(instance, reader.nextLong());
+                    else if (mType == double.class)
+                        mField.setDouble(instance, reader.nextDouble());
+                    else if (mType == boolean.class)
+                        mField.setBoolean(instance, reader.nextBoolean());
+                    else if (mType == float.class)
+                        mField.setFloat(instance, (float) reader.nextDouble());
+                    else mField.set(instance, adapter().read(reader));
+                    return;
+                }
+                mField.set(instance, adapter().read(reader));
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            } catch (JSONException e) {
+                throw new JSONException(mField.getName() + ": " + e.getMessage());
+            }
+        }
+
+        private JsonAdapter<?> adapter() {
+            JsonAdapter<?> adapter = mAdapter;
+            if (adapter == null)
+                mAdapter = adapter = get(mField.getGenericType());
+            return adapter;
+        }
+    }
+
+    private static Class<?> rawType(Type type) {
+        if (type instanceof Class)
+            return (Class<?>) type;
+        else if (type instanceof ParameterizedType)
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        else if (type instanceof GenericArrayType)
+            return Array.newInstance(rawType(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        return Object.class;
+    }
+}
@@ -0,0 +1,474 @@
+package com.afollestad.bridge;
+
+import org.json.JSONException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A pull tokenizer for JSON (RFC 7159), reading UTF-8 bytes straight from a response body, either a buffered
+ * array or the connection's stream. Only the current token is ever held in memory, so a large body can be
+ * mapped to objects without building a String or a JSONObject tree first.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class JsonTokenizer implements Closeable {
+
+    public enum Token {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // What the tokenizer is in the middle of, one entry per nesting level
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_ARRAY = 2;
+    private static final int NONEMPTY_ARRAY = 3;
+    private static final int EMPTY_OBJECT = 4;
+    private static final int DANGLING_NAME = 5;
+    private static final int NONEMPTY_OBJECT = 6;
+
+    private final InputStream mIn;
+    private final BufferPool mPool;
+    private byte[] mBuffer;
+    private int mPos;
+    private int mLimit;
+    private long mOffset;
+    private int[] mStack = new int[32];
+    private int mDepth;
+    private Token mPeeked;
+    private final StringBuilder mString = new StringBuilder(64);
+
+    /**
+     * Reads a buffered body in place.
+     */
+    public JsonTokenizer(byte[] data) {
+        mIn = null;
+        mPool = null;
+        mBuffer = data;
+        mLimit = data.length;
+        mStack[mDepth++] = EMPTY_DOCUMENT;
+    }
+
+    /**
+     * Reads from a stream through a buffer taken from the pool, which is returned on {@link #close()}.
+     */
+    public JsonTokenizer(InputStream in, BufferPool pool) {
+        mIn = in;
+        mPool = pool;
+        mBuffer = pool.get(BUFFER_SIZE);
+        mStack[mDepth++] = EMPTY_DOCUMENT;
+    }
+
+    public Token peek() throws IOException, JSONException {
+        if (mPeeked != null) return mPeeked;
+        final int context = mStack[mDepth - 1];
+        int c;
+        switch (context) {
+            case EMPTY_ARRAY:
+                mStack[mDepth - 1] = NONEMPTY_ARRAY;
+                c = nextNonWhitespace();
+                if (c == ']') return mPeeked = Token.END_ARRAY;
+                mPos--;
+                break;
+            case NONEMPTY_ARRAY:
+                c = nextNonWhitespace();
+                if (c == ']') return mPeeked = Token.END_ARRAY;
+                else if (c != ',') throw syntaxError("Expected ',' or ']'");
+                break;
+            case EMPTY_OBJECT:
+            case NONEMPTY_OBJECT:
+                mStack[mDepth - 1] = DANGLING_NAME;
+                c = nextNonWhitespace();
+                if (context == NONEMPTY_OBJECT) {
+                    if (c == '}') return mPeeked = Token.END_OBJECT;
+                    else if (c != ',') throw syntaxError("Expected ',' or '}'");
+                    c = nextNonWhitespace();
+                } else if (c == '}') {
+                    return mPeeked = Token.END_OBJECT;
+                }
+                if (c != '"') throw syntaxError("Expected a name");
+                return mPeeked = Token.NAME;
+            case DANGLING_NAME:
+                mStack[mDepth - 1] = NONEMPTY_OBJECT;
+                if (nextNonWhitespace() != ':') throw syntaxError("Expected ':'");
+                break;
+            case EMPTY_DOCUMENT:
+                mStack[mDepth - 1] = NONEMPTY_DOCUMENT;
+                break;
+            default:
+                if (nextNonWhitespaceOrEnd() != -1)
+                    throw syntaxError("Unexpected data after the top-level value");
+                return mPeeked = Token.END_DOCUMENT;
+        }
+
+        c = nextNonWhitespace();
+        switch (c) {
+            case '{':
+                return mPeeked = Token.BEGIN_OBJECT;
+            case '[':
+                return mPeeked = Token.BEGIN_ARRAY;
+            case '"':
+                return mPeeked = Token.STRING;
+            case 't':
+            case 'f':
+                mPos--;
+                return mPeeked = Token.BOOLEAN;
+            case 'n':
+                mPos--;
+                return mPeeked = Token.NULL;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    mPos--;
+                    return mPeeked = Token.NUMBER;
+                }
+                throw syntaxError("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    public void beginObject() throws IOException, JSONException {
+        expect(Token.BEGIN_OBJECT);
+        push(EMPTY_OBJECT);
+    }
+
+    public void endObject() throws IOException, JSONException {
+        expect(Token.END_OBJECT);
+        mDepth--;
+    }
+
+    public void beginArray() throws IOException, JSONException {
+        expect(Token.BEGIN_ARRAY);
+        push(EMPTY_ARRAY);
+    }
+
+    public void endArray() throws IOException, JSONException {
+        expect(Token.END_ARRAY);
+        mDepth--;
+    }
+
+    /**
+     * Whether the current object or array has another element.
+     */
+    public boolean hasNext() throws IOException, JSONException {
+        final Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public String nextName() throws IOException, JSONException {
+        expect(Token.NAME);
+        return readString();
+    }
+
+    /**
+     * Reads a string, or the literal text of a number.
+     */
+    public String nextString() throws IOException, JSONException {
+        final Token token = peek();
+        if (token == Token.STRING) {
+            mPeeked = null;
+            return readString();
+        } else if (token == Token.NUMBER) {
+            mPeeked = null;
+            return readNumber();
+        }
+        throw typeError("a string", token);
+    }
+
+    public boolean nextBoolean() throws IOException, JSONException {
+        final Token token = peek();
+        if (token != Token.BOOLEAN) throw typeError("a boolean", token);
+        mPeeked = null;
+        if (mBuffer[mPos] == 't') {
+            readLiteral("true");
+            return true;
+        }
+        readLiteral("false");
+        return false;
+    }
+
+    public void nextNull() throws IOException, JSONException {
+        final Token token = peek();
+        if (token != Token.NULL) throw typeError("null", token);
+        mPeeked = null;
+        readLiteral("null");
+    }
+
+    /**
+     * Reads a number, or a string that contains one, as many APIs quote large numbers.
+     */
+    public long nextLong() throws IOException, JSONException {
+        final String value = nextNumber();
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            final double asDouble = parseDouble(value);
+            final long asLong = (long) asDouble;
+            if (asLong != asDouble) throw syntaxError("Expected a long but was " + value);
+            return asLong;
+        }
+    }
+
+    public int nextInt() throws IOException, JSONException {
+        final long value = nextLong();
+        if (value != (int) value) throw syntaxError("Expected an int but was " + value);
+        return (int) value;
+    }
+
+    public double nextDouble() throws IOException, JSONException {
+        return parseDouble(nextNumber());
+    }
+
+    private String nextNumber() throws IOException, JSONException {
+        final Token token = peek();
+        if (token != Token.NUMBER && token != Token.STRING) throw typeError("a number", token);
+        return nextString();
+    }
+
+    private double parseDouble(String value) throws JSONException {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw syntaxError("Expected a number but was " + value);
+        }
+    }
+
+    /**
+     * Skips the next value, including everything nested in it.
+     */
+    public void skipValue() throws IOException, JSONException {
+        int depth = 0;
+        do {
+            final Token token = peek();
+            switch (token) {
+                case BEGIN_OBJECT:
+                    beginObject();
+                    depth++;
+                    break;
+                case BEGIN_ARRAY:
+                    beginArray();
+                    depth++;
+                    break;
+                case END_OBJECT:
+                    endObject();
+                    depth--;
+                    break;
+                case END_ARRAY:
+                    endArray();
+                    depth--;
+                    break;
+                case NAME:
+                    nextName();
+                    break;
+                case STRING:
+                case NUMBER:
+                    nextString();
+                    break;
+                case BOOLEAN:
+                    nextBoolean();
+                    break;
+                case NULL:
+                    nextNull();
+                    break;
+                default:
+                    throw syntaxError("Unexpected end of input");
+            }
+        } while (depth > 0);
+    }
+
+    /**
+     * Makes sure nothing but whitespace follows the top-level value.
+     */
+    public void endDocument() throws IOException, JSONException {
+        expect(Token.END_DOCUMENT);
+    }
+
+    @Override
+    public void close() {
+        if (mPool != null && mBuffer != null) {
+            mPool.recycle(mBuffer);
+            mBuffer = null;
+        }
+        Util.closeQuietly(mIn);
+    }
+
+    private void expect(Token expected) throws IOException, JSONException {
+        final Token token = peek();
+        if (token != expected) throw typeError(expected.name(), token);
+        mPeeked = null;
+    }
+
+    private void push(int context) {
+        if (mDepth == mStack.length) {
+            final int[] stack = new int[mDepth * 2];
+            System.arraycopy(mStack, 0, stack, 0, mDepth);
+            mStack = stack;
+        }
+        mStack[mDepth++] = context;
+    }
+
+    /**
+     * Makes sure at least {@code count} bytes are buffered, returns false if the input ends first.
+     */
+    private boolean fill(int count) throws IOException {
+        if (mLimit - mPos >= count) return true;
+        if (mIn == null) return false;
+        if (mPos > 0) {
+            mOffset += mPos;
+            System.arraycopy(mBuffer, mPos, mBuffer, 0, mLimit - mPos);
+            mLimit -= mPos;
+            mPos = 0;
+        }
+        while (mLimit < count) {
+            final int read = mIn.read(mBuffer, mLimit, mBuffer.length - mLimit);
+            if (read == -1) return false;
+            mLimit += read;
+        }
+        return true;
+    }
+
+    private int nextNonWhitespaceOrEnd() throws IOException {
+        while (mPos < mLimit || fill(1)) {
+            final int c = mBuffer[mPos++];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+                return c;
+        }
+        return -1;
+    }
+
+    private int nextNonWhitespace() throws IOException, JSONException {
+        final int c = nextNonWhitespaceOrEnd();
+        if (c == -1) throw syntaxError("Unexpected end of input");
+        return c;
+    }
+
+    private void readLiteral(String literal) throws IOException, JSONException {
+        final int length = literal.length();
+        if (!fill(length)) throw syntaxError("Unexpected end of input");
+        for (int i = 0; i < length; i++) {
+            if (mBuffer[mPos + i] != literal.charAt(i))
+                throw syntaxError("Expected " + literal);
+        }
+        mPos += length;
+    }
+
+    private String readNumber() throws IOException, JSONException {
+        mString.setLength(0);
+        while (mPos < mLimit || fill(1)) {
+            final int c = mBuffer[mPos];
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E') {
+                mString.append((char) c);
+                mPos++;
+            } else {
+                break;
+            }
+        }
+        return mString.toString();
+    }
+
+    /**
+     * Reads the rest of a string whose opening quote was already consumed, decoding UTF-8 and escapes.
+     */
+    private String readString() throws IOException, JSONException {
+        final StringBuilder string = mString;
+        string.setLength(0);
+        while (true) {
+            // Copies runs of ASCII without any checks beyond the terminators
+            int start = mPos;
+            while (mPos < mLimit) {
+                final byte b = mBuffer[mPos];
+                if (b == '"' || b == '\\' || b < 0x20) break;
+                mPos++;
+            }
+            for (int i = start; i < mPos; i++)
+                string.append((char) mBuffer[i]);
+            if (mPos == mLimit) {
+                if (!fill(1)) throw syntaxError("Unterminated string");
+                continue;
+            }
+
+            final int b = mBuffer[mPos++];
+            if (b == '"') {
+                return string.toString();
+            } else if (b == '\\') {
+                readEscape(string);
+            } else if (b >= 0 && b < 0x20) {
+                throw syntaxError("Unescaped control character in a string");
+            } else {
+                readMultiByte(b & 0xFF, string);
+            }
+        }
+    }
+
+    private void readEscape(StringBuilder string) throws IOException, JSONException {
+        if (!fill(1)) throw syntaxError("Unterminated escape sequence");
+        final int c = mBuffer[mPos++];
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                string.append((char) c);
+                break;
+            case 'b':
+                string.append('\b');
+                break;
+            case 'f':
+                string.append('\f');
+                break;
+            case 'n':
+                string.append('\n');
+                break;
+            case 'r':
+                string.append('\r');
+                break;
+            case 't':
+                string.append('\t');
+                break;
+            case 'u':
+                if (!fill(4)) throw syntaxError("Unterminated escape sequence");
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    final int digit = Character.digit(mBuffer[mPos++], 16);
+                    if (digit == -1) throw syntaxError("Invalid \\u escape sequence");
+                    value = (value << 4) | digit;
+                }
+                string.append((char) value);
+                break;
+            default:
+                throw syntaxError("Invalid escape sequence \\" + (char) c);
+        }
+    }
+
+    private void readMultiByte(int lead, StringBuilder string) throws IOException, JSONException {
+        final int extra;
+        int codePoint;
+        if ((lead & 0xE0) == 0xC0) {
+            extra = 1;
+            codePoint = lead & 0x1F;
+        } else if ((lead & 0xF0) == 0xE0) {
+            extra = 2;
+            codePoint = lead & 0x0F;
+        } else if ((lead & 0xF8) == 0xF0) {
+            extra = 3;
+            codePoint = lead & 0x07;
+        } else {
+            throw syntaxError("Invalid UTF-8");
+        }
+        if (!fill(extra)) throw syntaxError("Unterminated string");
+        for (int i = 0; i < extra; i++) {
+            final int b = mBuffer[mPos++];
+            if ((b & 0xC0) != 0x80) throw syntaxError("Invalid UTF-8");
+            codePoint = (codePoint << 6) | (b & 0x3F);
+        }
+        string.appendCodePoint(codePoint);
+    }
+
+    private JSONException typeError(String expected, Token actual) {
+        return syntaxError("Expected " + expected + " but was " + actual);
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at byte " + (mOffset + mPos));
+    }
+}
@@ -0,0 +1,81 @@
+package com.afollestad.bridge;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of durations with exponentially sized buckets: bucket 0 holds durations under 1 millisecond,
+ * and bucket n holds durations from 2^(n-1) up to 2^n milliseconds. Percentiles are reported as the upper
+ * bound of the bucket they fall in.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKET_COUNT = 24;
+
+    private final long[] mBuckets;
+    private long mCount;
+    private long mTotalNanos;
+    private long mMaxNanos;
+
+    protected LatencyHistogram() {
+        mBuckets = new long[BUCKET_COUNT];
+    }
+
+    private LatencyHistogram(LatencyHistogram other) {
+        mBuckets = Arrays.copyOf(other.mBuckets, BUCKET_COUNT);
+        mCount = other.mCount;
+        mTotalNanos = other.mTotalNanos;
+        mMaxNanos = other.mMaxNanos;
+    }
+
+    protected LatencyHistogram copy() {
+        return new LatencyHistogram(this);
+    }
+
+    protected void record(long nanos) {
+        if (nanos < 0) return;
+        final long millis = nanos / 1000000L;
+        final int bucket = millis == 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(millis));
+        mBuckets[bucket]++;
+        mCount++;
+        mTotalNanos += nanos;
+        if (nanos > mMaxNanos)
+            mMaxNanos = nanos;
+    }
+
+    public long count() {
+        return mCount;
+    }
+
+    public long meanMillis() {
+        return mCount > 0 ? mTotalNanos / mCount / 1000000L : 0;
+    }
+
+    public long maxMillis() {
+        return mMaxNanos / 1000000L;
+    }
+
+    /**
+     * @param percentile Between 0 and 100, e.g. 99 for the p99.
+     */
+    public long percentileMillis(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("The percentile must be between 0 and 100.");
+        if (mCount == 0) return 0;
+        final long target = Math.max(1, (long) Math.ceil(mCount * percentile / 100d));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets[i];
+            if (seen >= target)
+                return Math.min(1L << i, Math.max(1, maxMillis()));
+        }
+        return maxMillis();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count: %d, mean: %d ms, p50: %d ms, p99: %d ms, max: %d ms",
+                mCount, meanMillis(), percentileMillis(50), percentileMillis(99), maxMillis());
+    }
+}
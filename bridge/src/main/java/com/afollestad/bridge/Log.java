@@ -7,8 +7,8 @@ final class Log {
 
     private static String getTag(Object context) {
         if (context instanceof String) return (String) context;
-        final Class cls;
-        if (context instanceof Class) cls = (Class) context;
+        final Class<?> cls;
+        if (context instanceof Class) cls = (Class<?>) context;
         else cls = context.getClass();
         return cls.getSimpleName();
     }
@@ -0,0 +1,152 @@
+package com.afollestad.bridge;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory LRU cache of complete responses, bounded by the approximate number of bytes they hold
+ * rather than the number of entries. Keyed the same way in-flight requests are.
+ * <p>
+ * The cache keeps its own copy of each body, and every hit gets a new Response with a copy of that, so
+ * nothing a caller does with a response (or the array returned by {@link Response#asBytes()}) can change
+ * what later requests get.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class MemoryCache {
+
+    private static final class Entry {
+
+        final String url;
+        final int code;
+        final String message;
+        final Map<String, List<String>> headers;
+        final byte[] data;
+        final long expiresAt;
+        final long size;
+
+        Entry(Response response, byte[] data, long expiresAt, long size) {
+            this.url = response.url();
+            this.code = response.code();
+            this.message = response.phrase();
+            this.headers = response.headers();
+            this.data = data;
+            this.expiresAt = expiresAt;
+            this.size = size;
+        }
+
+        Response toResponse() {
+            return new Response(data != null ? data.clone() : null, url, code, message, headers);
+        }
+    }
+
+    private final long mMaxSize;
+    private final LinkedHashMap<RequestKey, Entry> mEntries;
+    private long mSize;
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    protected MemoryCache(long maxSize) {
+        mMaxSize = maxSize;
+        mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    private static long sizeOf(Response response, byte[] data) {
+        long size = data != null ? data.length : 0;
+        // A rough estimate of the headers and bookkeeping, so small responses aren't treated as free
+        size += response.url().length() * 2 + 64;
+        final Map<String, List<String>> headers = response.headers();
+        if (headers != null)
+            size += headers.size() * 64;
+        return size;
+    }
+
+    /**
+     * Returns a new Response with its own copy of the cached body, or null if there's no fresh entry.
+     */
+    protected Response get(RequestKey key) {
+        final Entry entry;
+        synchronized (this) {
+            entry = mEntries.get(key);
+            if (entry == null) {
+                mMissCount++;
+                return null;
+            } else if (entry.expiresAt <= System.currentTimeMillis()) {
+                mEntries.remove(key);
+                mSize -= entry.size;
+                mMissCount++;
+                return null;
+            }
+            mHitCount++;
+        }
+        // Copied outside of the lock, entries never change
+        return entry.toResponse();
+    }
+
+    protected void put(RequestKey key, Response response, long ttl) {
+        if (ttl <= 0) return;
+        // Only buffered responses are stored, reading their body can't fail
+        byte[] data = response.asBytes();
+        final long size = sizeOf(response, data);
+        if (size > mMaxSize) return;
+        // The caller keeps the response it was given, the cache keeps a copy it never hands out
+        if (data != null) data = data.clone();
+        synchronized (this) {
+            final Entry previous = mEntries.put(key, new Entry(response, data, System.currentTimeMillis() + ttl, size));
+            if (previous != null)
+                mSize -= previous.size;
+            mSize += size;
+            trim();
+        }
+    }
+
+    private void trim() {
+        final Iterator<Map.Entry<RequestKey, Entry>> iter = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && iter.hasNext()) {
+            final Entry eldest = iter.next().getValue();
+            iter.remove();
+            mSize -= eldest.size;
+            mEvictionCount++;
+        }
+    }
+
+    public synchronized void remove(RequestKey key) {
+        final Entry entry = mEntries.remove(key);
+        if (entry != null)
+            mSize -= entry.size;
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    public synchronized long size() {
+        return mSize;
+    }
+
+    public long maxSize() {
+        return mMaxSize;
+    }
+
+    public synchronized long hitCount() {
+        return mHitCount;
+    }
+
+    public synchronized long missCount() {
+        return mMissCount;
+    }
+
+    public synchronized long evictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d/%d bytes, %d entries, hits: %d, misses: %d, evictions: %d",
+                mSize, mMaxSize, mEntries.size(), mHitCount, mMissCount, mEvictionCount);
+    }
+}
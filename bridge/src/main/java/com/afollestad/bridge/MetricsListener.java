@@ -0,0 +1,262 @@
+package com.afollestad.bridge;
+
+import android.support.annotation.NonNull;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * An {@link EventListener} that aggregates latency histograms and throughput per host.
+ *
+ * <pre>
+ * MetricsListener metrics = new MetricsListener();
+ * Bridge.client().config().eventListener(metrics);
+ * // Later
+ * Map&lt;String, MetricsListener.HostMetrics&gt; hosts = metrics.snapshot();
+ * </pre>
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class MetricsListener extends EventListener {
+
+    /**
+     * Metrics for one host. Instances returned from {@link #snapshot()} don't change.
+     */
+    public static final class HostMetrics {
+
+        private long mRequestCount;
+        private long mFailureCount;
+        private long mCancelCount;
+        private long mBytesSent;
+        private long mBytesReceived;
+        private long mTransferNanos;
+        private final LatencyHistogram mQueue;
+        private final LatencyHistogram mConnect;
+        private final LatencyHistogram mFirstByte;
+        private final LatencyHistogram mTotal;
+
+        HostMetrics() {
+            mQueue = new LatencyHistogram();
+            mConnect = new LatencyHistogram();
+            mFirstByte = new LatencyHistogram();
+            mTotal = new LatencyHistogram();
+        }
+
+        HostMetrics(HostMetrics other) {
+            mRequestCount = other.mRequestCount;
+            mFailureCount = other.mFailureCount;
+            mCancelCount = other.mCancelCount;
+            mBytesSent = other.mBytesSent;
+            mBytesReceived = other.mBytesReceived;
+            mTransferNanos = other.mTransferNanos;
+            mQueue = other.mQueue.copy();
+            mConnect = other.mConnect.copy();
+            mFirstByte = other.mFirstByte.copy();
+            mTotal = other.mTotal.copy();
+        }
+
+        /**
+         * The number of requests that produced a response.
+         */
+        public long requestCount() {
+            return mRequestCount;
+        }
+
+        public long failureCount() {
+            return mFailureCount;
+        }
+
+        public long cancelCount() {
+            return mCancelCount;
+        }
+
+        public long bytesSent() {
+            return mBytesSent;
+        }
+
+        public long bytesReceived() {
+            return mBytesReceived;
+        }
+
+        /**
+         * The average rate response bodies were received at, from first byte to the end of the body.
+         */
+        public long bytesPerSecond() {
+            return mTransferNanos > 0 ? mBytesReceived * 1000000000L / mTransferNanos : 0;
+        }
+
+        /**
+         * Time from being queued until a worker started the request.
+         */
+        public LatencyHistogram queueLatency() {
+            return mQueue;
+        }
+
+        public LatencyHistogram connectLatency() {
+            return mConnect;
+        }
+
+        /**
+         * Time from the start of the request until the first byte of the response body, i.e. TTFB.
+         */
+        public LatencyHistogram firstByteLatency() {
+            return mFirstByte;
+        }
+
+        /**
+         * Time from the start of the request until it produced a response.
+         */
+        public LatencyHistogram totalLatency() {
+            return mTotal;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests, %d failed, %d cancelled, %d bytes sent, %d bytes received, " +
+                            "%d bytes/sec\n  queue: %s\n  connect: %s\n  first byte: %s\n  total: %s",
+                    mRequestCount, mFailureCount, mCancelCount, mBytesSent, mBytesReceived, bytesPerSecond(),
+                    mQueue, mConnect, mFirstByte, mTotal);
+        }
+    }
+
+    private static final class Timing {
+
+        final String host;
+        long queued = -1;
+        long start = -1;
+        long connectStart = -1;
+        long firstByte = -1;
+
+        Timing(String host) {
+            this.host = host;
+        }
+    }
+
+    private final Map<String, HostMetrics> mHosts = new HashMap<>();
+    private final Map<Request, Timing> mTimings = new IdentityHashMap<>();
+
+    private static String host(Request request) {
+        try {
+            return new URL(request.url()).getHost();
+        } catch (MalformedURLException e) {
+            return "";
+        }
+    }
+
+    // Must hold this object's lock
+    private Timing timing(Request request) {
+        Timing timing = mTimings.get(request);
+        if (timing == null) {
+            timing = new Timing(host(request));
+            mTimings.put(request, timing);
+        }
+        return timing;
+    }
+
+    // Must hold this object's lock
+    private HostMetrics metrics(String host) {
+        HostMetrics metrics = mHosts.get(host);
+        if (metrics == null) {
+            metrics = new HostMetrics();
+            mHosts.put(host, metrics);
+        }
+        return metrics;
+    }
+
+    @Override
+    public synchronized void requestQueued(Request request, long nanoTime) {
+        timing(request).queued = nanoTime;
+    }
+
+    @Override
+    public synchronized void requestStart(Request request, long nanoTime) {
+        final Timing timing = timing(request);
+        timing.start = nanoTime;
+        if (timing.queued >= 0)
+            metrics(timing.host).mQueue.record(nanoTime - timing.queued);
+    }
+
+    @Override
+    public synchronized void connectStart(Request request, long nanoTime) {
+        timing(request).connectStart = nanoTime;
+    }
+
+    @Override
+    public synchronized void connectEnd(Request request, long nanoTime) {
+        final Timing timing = timing(request);
+        if (timing.connectStart >= 0)
+            metrics(timing.host).mConnect.record(nanoTime - timing.connectStart);
+    }
+
+    @Override
+    public synchronized void requestBodyEnd(Request request, long nanoTime, long byteCount) {
+        metrics(timing(request).host).mBytesSent += byteCount;
+    }
+
+    @Override
+    public synchronized void responseFirstByte(Request request, long nanoTime) {
+        final Timing timing = timing(request);
+        timing.firstByte = nanoTime;
+        if (timing.start >= 0)
+            metrics(timing.host).mFirstByte.record(nanoTime - timing.start);
+    }
+
+    @Override
+    public synchronized void responseBodyEnd(Request request, long nanoTime, long byteCount) {
+        // A streaming response can finish after requestEnd() removed its timing
+        final Timing timing = mTimings.get(request);
+        final HostMetrics metrics = metrics(timing != null ? timing.host : host(request));
+        metrics.mBytesReceived += byteCount;
+        if (timing != null && timing.firstByte >= 0)
+            metrics.mTransferNanos += nanoTime - timing.firstByte;
+    }
+
+    @Override
+    public synchronized void requestEnd(Request request, long nanoTime) {
+        final Timing timing = mTimings.remove(request);
+        if (timing == null) return;
+        final HostMetrics metrics = metrics(timing.host);
+        metrics.mRequestCount++;
+        if (timing.start >= 0)
+            metrics.mTotal.record(nanoTime - timing.start);
+    }
+
+    @Override
+    public synchronized void cancelled(Request request, long nanoTime) {
+        final Timing timing = mTimings.remove(request);
+        metrics(timing != null ? timing.host : host(request)).mCancelCount++;
+    }
+
+    @Override
+    public synchronized void failed(Request request, long nanoTime, RequestException error) {
+        final Timing timing = mTimings.remove(request);
+        metrics(timing != null ? timing.host : host(request)).mFailureCount++;
+    }
+
+    /**
+     * Returns a copy of the current metrics, keyed by host.
+     */
+    @NonNull
+    public synchronized Map<String, HostMetrics> snapshot() {
+        final Map<String, HostMetrics> snapshot = new HashMap<>(mHosts.size());
+        for (Map.Entry<String, HostMetrics> entry : mHosts.entrySet())
+            snapshot.put(entry.getKey(), new HostMetrics(entry.getValue()));
+        return snapshot;
+    }
+
+    public synchronized void reset() {
+        mHosts.clear();
+        mTimings.clear();
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, HostMetrics> entry : mHosts.entrySet())
+            sb.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,157 @@
+package com.afollestad.bridge;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link Transport} that never touches the network, for tests. Responses are enqueued ahead of time and
+ * returned in order, and every request that's made is recorded with its body.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class MockTransport implements Transport {
+
+    private final LinkedList<Object> mQueue = new LinkedList<>();
+    private final List<RecordedRequest> mRequests = new ArrayList<>();
+
+    public MockTransport enqueue(int code, @Nullable String body) {
+        try {
+            return enqueue(code, null, body != null ? body.getBytes("UTF-8") : null);
+        } catch (UnsupportedEncodingException e) {
+            // Should never happen
+            throw new RuntimeException(e);
+        }
+    }
+
+    public synchronized MockTransport enqueue(int code, @Nullable Map<String, String> headers, @Nullable byte[] body) {
+        final Map<String, List<String>> fields = new LinkedHashMap<>();
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet())
+                fields.put(header.getKey(), Collections.singletonList(header.getValue()));
+        }
+        final byte[] data = body != null ? body : new byte[0];
+        if (!containsIgnoreCase(fields, "Content-Length"))
+            fields.put("Content-Length", Collections.singletonList(Integer.toString(data.length)));
+        mQueue.add(new MockResponse(code, fields, data));
+        return this;
+    }
+
+    /**
+     * Makes the next request fail with an exception, as if the connection was lost.
+     */
+    public synchronized MockTransport enqueue(@NonNull IOException error) {
+        mQueue.add(error);
+        return this;
+    }
+
+    /**
+     * The requests that have been made so far, oldest first.
+     */
+    public synchronized List<RecordedRequest> requests() {
+        return new ArrayList<>(mRequests);
+    }
+
+    @NonNull
+    @Override
+    public TransportResponse execute(@NonNull TransportRequest request) throws IOException {
+        request.onConnectStart();
+        request.onConnectEnd();
+        request.onRequestHeadersEnd();
+        byte[] body = null;
+        if (request.hasBody()) {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            request.writeBody(bos);
+            body = bos.toByteArray();
+        }
+
+        final Object next;
+        synchronized (this) {
+            mRequests.add(new RecordedRequest(request.method(), request.url(), request.headers(), body));
+            next = mQueue.poll();
+        }
+        if (next == null)
+            throw new IOException("No responses are enqueued for " + request);
+        else if (next instanceof IOException)
+            throw (IOException) next;
+        return (MockResponse) next;
+    }
+
+    private static boolean containsIgnoreCase(Map<String, List<String>> headers, String name) {
+        for (String key : headers.keySet()) {
+            if (key.equalsIgnoreCase(name)) return true;
+        }
+        return false;
+    }
+
+    public static final class RecordedRequest {
+
+        public final Method method;
+        public final String url;
+        public final Map<String, String> headers;
+        public final byte[] body;
+
+        protected RecordedRequest(Method method, String url, Map<String, String> headers, byte[] body) {
+            this.method = method;
+            this.url = url;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %s, %d bytes", method.name(), url, body != null ? body.length : 0);
+        }
+    }
+
+    private static final class MockResponse extends TransportResponse {
+
+        private final int mCode;
+        private final Map<String, List<String>> mHeaders;
+        private final InputStream mBody;
+
+        public MockResponse(int code, Map<String, List<String>> headers, byte[] body) {
+            mCode = code;
+            mHeaders = Collections.unmodifiableMap(headers);
+            mBody = new ByteArrayInputStream(body);
+        }
+
+        @Override
+        public int code() {
+            return mCode;
+        }
+
+        @Override
+        public String message() {
+            return null;
+        }
+
+        @NonNull
+        @Override
+        public Map<String, List<String>> headers() {
+            return mHeaders;
+        }
+
+        @NonNull
+        @Override
+        public InputStream body() {
+            return mBody;
+        }
+
+        @Override
+        public void close() {
+            Util.closeQuietly(mBody);
+        }
+    }
+}
@@ -5,19 +5,50 @@ import android.support.annotation.NonNull;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * @author Aidan Follestad (afollestad)
  */
 public final class MultipartForm {
 
+    private static final class Part {
+
+        final byte[] header;
+        final byte[] content;
+        final Pipe pipe;
+
+        Part(byte[] header, byte[] content, Pipe pipe) {
+            this.header = header;
+            this.content = content;
+            this.pipe = pipe;
+        }
+    }
+
     protected final String BOUNDARY;
     private final byte[] LINE_FEED = "\r\n".getBytes();
-    private ByteArrayOutputStream mBos;
+    private List<Part> mParts;
 
     public MultipartForm() {
         BOUNDARY = String.format("------%d------", System.currentTimeMillis());
-        mBos = new ByteArrayOutputStream();
+        mParts = new ArrayList<>();
+    }
+
+    private static byte[] bytes(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // Shouldn't happen
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void checkConsumed() {
+        if (mParts == null)
+            throw new IllegalStateException("This MultipartForm is already consumed.");
     }
 
     public MultipartForm add(@NonNull String fieldName, @NonNull final File file) throws IOException {
@@ -25,56 +56,102 @@ public final class MultipartForm {
         return this;
     }
 
+    /**
+     * Adds a part whose content is read from a Pipe. The Pipe isn't read until the form is sent.
+     */
     public MultipartForm add(@NonNull String fieldName, @NonNull String fileName, @NonNull Pipe pipe) throws IOException {
-        if (mBos == null)
-            throw new IllegalStateException("This MultipartForm is already consumed.");
-        mBos.write(("--" + BOUNDARY).getBytes());
-        mBos.write(LINE_FEED);
-        mBos.write(("Content-Disposition: form-data; name=\"" + fieldName
-                + "\"; filename=\"" + fileName + "\"").getBytes());
-        mBos.write(LINE_FEED);
-        mBos.write(("Content-Type: " + pipe.contentType()).getBytes());
-        mBos.write(LINE_FEED);
-        mBos.write("Content-Transfer-Encoding: binary".getBytes());
-        mBos.write(LINE_FEED);
-        mBos.write(LINE_FEED);
-        pipe.writeTo(mBos);
-        mBos.write(LINE_FEED);
+        checkConsumed();
+        final String header = "--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"" + fieldName + "\"; filename=\"" + fileName + "\"\r\n" +
+                "Content-Type: " + pipe.contentType() + "\r\n" +
+                "Content-Transfer-Encoding: binary\r\n" +
+                "\r\n";
+        mParts.add(new Part(bytes(header), null, pipe));
         return this;
     }
 
     public MultipartForm add(@NonNull String fieldName, @NonNull Object value) {
-        if (mBos == null)
-            throw new IllegalStateException("This MultipartForm is already consumed.");
-        try {
-            mBos.write(("--" + BOUNDARY).getBytes());
-            mBos.write(LINE_FEED);
-            mBos.write(String.format("Content-Disposition: form-data; name=\"%s\"", fieldName).getBytes());
-            mBos.write(LINE_FEED);
-            mBos.write("Content-Type: text/plain; charset=utf-8".getBytes());
-            mBos.write(LINE_FEED);
-            mBos.write(LINE_FEED);
-            mBos.write((value + "").getBytes());
-            mBos.write(LINE_FEED);
-        } catch (Exception e) {
-            // Shouldn't happen
-            throw new RuntimeException(e);
-        }
+        checkConsumed();
+        final String header = "--" + BOUNDARY + "\r\n" +
+                String.format("Content-Disposition: form-data; name=\"%s\"", fieldName) + "\r\n" +
+                "Content-Type: text/plain; charset=utf-8\r\n" +
+                "\r\n";
+        mParts.add(new Part(bytes(header), bytes(value + ""), null));
         return this;
     }
 
-    protected byte[] data() {
+    private byte[] closingBoundary() {
+        return bytes(String.format("\r\n--%s--\r\n", BOUNDARY));
+    }
+
+    /**
+     * Returns the exact size of the encoded form, or -1 if one of its Pipes doesn't know its length.
+     */
+    public long contentLength() {
+        checkConsumed();
+        long length = closingBoundary().length;
+        for (Part part : mParts) {
+            length += part.header.length + LINE_FEED.length;
+            if (part.pipe != null) {
+                final long pipeLength = part.pipe.contentLength();
+                if (pipeLength < 0) return -1;
+                length += pipeLength;
+            } else {
+                length += part.content.length;
+            }
+        }
+        return length;
+    }
+
+    private void writeTo(OutputStream os) throws IOException {
+        checkConsumed();
+        final List<Part> parts = mParts;
+        mParts = null;
+        for (Part part : parts) {
+            os.write(part.header);
+            if (part.pipe != null)
+                part.pipe.writeTo(os);
+            else os.write(part.content);
+            os.write(LINE_FEED);
+        }
+        os.write(closingBoundary());
+    }
+
+    /**
+     * Returns a Pipe that writes the form's parts directly to the request body as it's sent, rather than
+     * building the whole form in memory first. If every part's size is known, the Pipe reports the form's
+     * exact length. The form is consumed once the Pipe is written.
+     */
+    public Pipe pipe() {
+        checkConsumed();
+        return new Pipe() {
+            @Override
+            public void writeTo(@NonNull OutputStream os) throws IOException {
+                MultipartForm.this.writeTo(os);
+            }
+
+            @NonNull
+            @Override
+            public String contentType() {
+                return String.format("multipart/form-data; boundary=%s", BOUNDARY);
+            }
+
+            @Override
+            public long contentLength() {
+                return mParts != null ? MultipartForm.this.contentLength() : -1;
+            }
+        };
+    }
+
+    protected byte[] data() throws IOException {
+        final long length = contentLength();
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(
+                length > 0 && length <= Integer.MAX_VALUE ? (int) length : 1024 * 8);
         try {
-            mBos.write(LINE_FEED);
-            mBos.write(String.format("--%s--", BOUNDARY).getBytes());
-            mBos.write(LINE_FEED);
-        } catch (Exception e) {
-            // Shouldn't happen
-            throw new RuntimeException(e);
+            writeTo(bos);
+            return bos.toByteArray();
+        } finally {
+            Util.closeQuietly(bos);
         }
-        final byte[] data = mBos.toByteArray();
-        Util.closeQuietly(mBos);
-        mBos = null;
-        return data;
     }
 }
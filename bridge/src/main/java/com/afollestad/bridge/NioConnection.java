@@ -0,0 +1,43 @@
+package com.afollestad.bridge;
+
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A socket owned by one of {@link NioTransport}'s I/O threads. It carries one {@link NioExchange} at a time,
+ * and sits in the transport's idle pool in between if connections are reused.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class NioConnection {
+
+    protected final NioTransport.Loop mLoop;
+    protected final SocketChannel mChannel;
+    /**
+     * host:port, connections are only reused for the same route.
+     */
+    protected final String mRoute;
+    private final AtomicBoolean mClosed = new AtomicBoolean();
+
+    // Only touched on the I/O thread
+    protected SelectionKey mKey;
+    protected NioExchange mExchange;
+    protected long mIdleSince;
+
+    public NioConnection(NioTransport.Loop loop, SocketChannel channel, String route) {
+        mLoop = loop;
+        mChannel = channel;
+        mRoute = route;
+    }
+
+    public boolean isClosed() {
+        return mClosed.get();
+    }
+
+    public void close() {
+        if (!mClosed.compareAndSet(false, true)) return;
+        Util.closeQuietly(mChannel);
+        mLoop.onClosed(this);
+    }
+}
@@ -0,0 +1,560 @@
+package com.afollestad.bridge;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One request/response over a {@link NioConnection}, driven by the connection's I/O thread. The I/O thread
+ * connects, writes what the caller enqueued, and parses the response into pooled buffers; the caller's thread
+ * only waits on this object's monitor, for the response head or for more of the body. Once the response is
+ * complete, the connection is closed or handed back to the transport's idle pool.
+ * <p>
+ * An async exchange has no caller waiting for it. The I/O thread queues the request once it's connected, and
+ * hands the response to a {@link TransportCallback} once its body is complete or as much of it is buffered as
+ * the exchange holds, so whoever reads it rarely has to wait.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class NioExchange extends TransportResponse {
+
+    /**
+     * How many bytes of the request or response may be buffered before the writer or the socket is paused.
+     */
+    private static final int MAX_BUFFERED = 64 * 1024;
+    /**
+     * How often a waiting caller checks if its request was cancelled.
+     */
+    private static final long CANCEL_CHECK_INTERVAL = 100;
+
+    private final NioConnection mConnection;
+    private final TransportRequest mRequest;
+    private final SocketChannel mChannel;
+    private final Http1Parser mParser;
+    private final BufferPool mPool;
+    private final boolean mReuse;
+    private final long mConnectDeadline;
+    private final Runnable mUpdateInterest = new Runnable() {
+        @Override
+        public void run() {
+            updateInterest();
+        }
+    };
+    private final BodyStream mBodyStream = new BodyStream();
+
+    private volatile long mLastActivity;
+
+    // Guarded by this
+    private final ArrayDeque<ByteBuffer> mWrites = new ArrayDeque<>();
+    private long mWriteBytes;
+    private final ArrayDeque<ByteBuffer> mBody = new ArrayDeque<>();
+    private long mBodyBytes;
+    private boolean mConnected;
+    private boolean mRequestComplete;
+    private boolean mHeadParsed;
+    private boolean mBodyEnded;
+    private boolean mReadPaused;
+    private boolean mUpdatePosted;
+    private boolean mClosed;
+    private boolean mChannelClosed;
+    private boolean mReleased;
+    private IOException mError;
+    private TransportCallback mCallback;
+    private byte[] mHead;
+    private boolean mSendBody;
+    private boolean mDelivered;
+
+    /**
+     * @param reuse Whether the connection may go back to the idle pool once the response is complete.
+     */
+    public NioExchange(NioConnection connection, TransportRequest request, Http1Parser parser, BufferPool pool,
+                       boolean reuse) {
+        mConnection = connection;
+        mRequest = request;
+        mChannel = connection.mChannel;
+        mParser = parser;
+        mPool = pool;
+        mReuse = reuse;
+        mConnectDeadline = SystemClock.elapsedRealtime() + request.connectTimeout();
+    }
+
+    // Caller thread
+
+    /**
+     * Makes this an async exchange, called before it's started. The head and body are queued by the I/O
+     * thread once the connection is established, and the outcome goes to the callback.
+     */
+    public synchronized void sendWhenConnected(byte[] head, boolean sendBody, TransportCallback callback) {
+        mHead = head;
+        mSendBody = sendBody;
+        mCallback = callback;
+    }
+
+    public synchronized void awaitConnected() throws IOException {
+        while (!mConnected) {
+            checkError();
+            await();
+        }
+    }
+
+    /**
+     * Called once the whole request has been enqueued. The connection can only be reused after that.
+     */
+    public synchronized void requestComplete() {
+        mRequestComplete = true;
+    }
+
+    public synchronized void awaitHead() throws IOException {
+        while (!mHeadParsed) {
+            checkError();
+            await();
+        }
+    }
+
+    /**
+     * Queues bytes to be written to the socket, taking ownership of the array. Blocks while too much
+     * is already queued.
+     */
+    public void write(byte[] data, int length) throws IOException {
+        synchronized (this) {
+            while (mWriteBytes >= MAX_BUFFERED && !mBodyEnded) {
+                checkError();
+                await();
+            }
+            queue(data, length);
+        }
+        requestUpdate();
+    }
+
+    /**
+     * Like {@link #write(byte[], int)}, but never blocks. The caller makes sure the I/O thread gets to it.
+     */
+    private synchronized void queue(byte[] data, int length) throws IOException {
+        checkError();
+        if (mBodyEnded) {
+            // The server already responded, it isn't reading the rest of the request
+            mPool.recycle(data);
+            return;
+        }
+        mWrites.add(ByteBuffer.wrap(data, 0, length));
+        mWriteBytes += length;
+        mLastActivity = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Returns a stream that writes the request body, chunk encoded if its length isn't known.
+     */
+    public OutputStream bodySink(boolean chunked, int bufferSize) {
+        return new BodySink(chunked, bufferSize, true);
+    }
+
+    private void checkError() throws IOException {
+        if (mError != null)
+            throw mError;
+        else if (mClosed)
+            throw new IOException("The response was closed.");
+    }
+
+    private void await() throws IOException {
+        if (mRequest.isCancelled())
+            throw new IOException("The request was cancelled.");
+        try {
+            wait(CANCEL_CHECK_INTERVAL);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void requestUpdate() {
+        synchronized (this) {
+            if (mUpdatePosted || mChannelClosed || mReleased) return;
+            mUpdatePosted = true;
+        }
+        mConnection.mLoop.post(mUpdateInterest);
+    }
+
+    // I/O thread
+
+    protected void onConnectable() throws IOException {
+        if (mChannel.finishConnect())
+            onConnected();
+    }
+
+    protected void onConnected() {
+        mLastActivity = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            mConnected = true;
+            notifyAll();
+        }
+        if (mCallback != null)
+            sendQueued();
+    }
+
+    /**
+     * Queues the request of an async exchange all at once, the body has to be in memory already.
+     */
+    private void sendQueued() {
+        try {
+            mRequest.onConnectEnd();
+            queue(mHead, mHead.length);
+            mRequest.onRequestHeadersEnd();
+            if (mSendBody) {
+                final OutputStream os = new BodySink(mRequest.contentLength() < 0, mRequest.bufferSize(), false);
+                mRequest.writeBody(os);
+                os.close();
+            }
+            requestComplete();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Passes the outcome of an async exchange to its callback, once there is one that can be read without
+     * waiting long: a failure, or a head along with a body that's complete or filled the buffers.
+     */
+    protected void deliver() {
+        final TransportCallback callback;
+        final IOException error;
+        synchronized (this) {
+            if (mCallback == null || mDelivered)
+                return;
+            else if (mError != null)
+                error = mError;
+            else if (mHeadParsed && (mBodyEnded || mReadPaused))
+                error = null;
+            else return;
+            mDelivered = true;
+            callback = mCallback;
+        }
+        if (error != null) {
+            close();
+            callback.onFailure(error);
+        } else {
+            callback.onResponse(this);
+        }
+    }
+
+    protected synchronized void onWritable() throws IOException {
+        ByteBuffer buffer;
+        while ((buffer = mWrites.peek()) != null) {
+            final int written = mChannel.write(buffer);
+            mWriteBytes -= written;
+            if (written > 0)
+                mLastActivity = SystemClock.elapsedRealtime();
+            if (buffer.hasRemaining()) break;
+            mWrites.poll();
+            mPool.recycle(buffer.array());
+        }
+        notifyAll();
+    }
+
+    /**
+     * Reads what's available into the I/O thread's shared buffer and parses all of it, so nothing is
+     * left in the buffer for the next exchange that uses it.
+     */
+    protected void onReadable(ByteBuffer shared) throws IOException {
+        shared.clear();
+        final int read = mChannel.read(shared);
+        if (read == -1) {
+            mParser.endOfInput();
+            onHeadParsed();
+            onBodyEnded();
+            return;
+        } else if (read == 0) {
+            return;
+        }
+        mLastActivity = SystemClock.elapsedRealtime();
+        shared.flip();
+        if (!mParser.parseHead(shared)) return;
+        onHeadParsed();
+        int available;
+        while ((available = mParser.bodyAvailable(shared)) > 0) {
+            appendBody(shared, available);
+            mParser.consumed(available);
+        }
+        if (mParser.isComplete())
+            onBodyEnded();
+    }
+
+    private synchronized void onHeadParsed() {
+        if (mHeadParsed) return;
+        mHeadParsed = true;
+        notifyAll();
+    }
+
+    private synchronized void appendBody(ByteBuffer source, int count) {
+        if (mClosed) {
+            source.position(source.position() + count);
+            return;
+        }
+        while (count > 0) {
+            ByteBuffer tail = mBody.peekLast();
+            if (tail == null || tail.limit() == tail.capacity()) {
+                // Buffers in the queue are filled up to their limit, and read from their position
+                tail = ByteBuffer.wrap(mPool.get(mRequest.bufferSize()));
+                tail.limit(0);
+                mBody.add(tail);
+            }
+            final int copy = Math.min(count, tail.capacity() - tail.limit());
+            source.get(tail.array(), tail.limit(), copy);
+            tail.limit(tail.limit() + copy);
+            mBodyBytes += copy;
+            count -= copy;
+        }
+        if (mBodyBytes >= MAX_BUFFERED)
+            mReadPaused = true;
+        notifyAll();
+    }
+
+    private void onBodyEnded() {
+        final boolean release;
+        synchronized (this) {
+            mBodyEnded = true;
+            // A request that's still being written, e.g. after an early error response, leaves the connection unusable
+            release = mReuse && !mChannelClosed && mRequestComplete && mWrites.isEmpty() && mParser.isKeepAlive();
+            mReleased = release;
+            notifyAll();
+        }
+        // The socket is released as soon as the response is in, whether or not the body was consumed yet
+        if (release) mConnection.mLoop.release(mConnection);
+        else closeChannel();
+    }
+
+    protected void updateInterest() {
+        int ops = 0;
+        final SelectionKey key = mConnection.mKey;
+        synchronized (this) {
+            mUpdatePosted = false;
+            // The connection may have moved on to another exchange
+            if (mConnection.mExchange != this || key == null || !key.isValid()) return;
+            if (!mConnected) {
+                ops = SelectionKey.OP_CONNECT;
+            } else {
+                if (!mWrites.isEmpty()) ops |= SelectionKey.OP_WRITE;
+                if (!mReadPaused && !mBodyEnded) ops |= SelectionKey.OP_READ;
+            }
+        }
+        try {
+            key.interestOps(ops);
+        } catch (CancelledKeyException ignored) {
+            // The channel was closed in the meantime
+        }
+    }
+
+    protected void checkTimeout(long now) {
+        final String timeout;
+        synchronized (this) {
+            if (mBodyEnded || mError != null || mClosed)
+                return;
+            // Nobody is waiting on an async exchange to notice that it was cancelled
+            else if (mCallback != null && !mDelivered && mRequest.isCancelled())
+                timeout = null;
+            else if (!mConnected && now >= mConnectDeadline)
+                timeout = "Connect timed out";
+            else if (mConnected && !mReadPaused && now - mLastActivity >= mRequest.readTimeout())
+                timeout = "Read timed out";
+            else return;
+        }
+        fail(timeout != null ? new SocketTimeoutException(timeout) : new IOException("The request was cancelled."));
+    }
+
+    protected void fail(IOException e) {
+        synchronized (this) {
+            if (mError == null && !mBodyEnded)
+                mError = e;
+            notifyAll();
+        }
+        closeChannel();
+        deliver();
+    }
+
+    private void closeChannel() {
+        synchronized (this) {
+            if (mChannelClosed || mReleased) return;
+            mChannelClosed = true;
+            for (ByteBuffer buffer : mWrites)
+                mPool.recycle(buffer.array());
+            mWrites.clear();
+            mWriteBytes = 0;
+            notifyAll();
+        }
+        mConnection.mLoop.discard(mConnection);
+    }
+
+    // TransportResponse
+
+    @Override
+    public int code() {
+        return mParser.code();
+    }
+
+    @Override
+    public String message() {
+        return mParser.message();
+    }
+
+    @NonNull
+    @Override
+    public Map<String, List<String>> headers() {
+        return mParser.headers();
+    }
+
+    @NonNull
+    @Override
+    public InputStream body() {
+        return mBodyStream;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (mClosed) return;
+            mClosed = true;
+            for (ByteBuffer buffer : mBody)
+                mPool.recycle(buffer.array());
+            mBody.clear();
+            mBodyBytes = 0;
+            notifyAll();
+        }
+        closeChannel();
+    }
+
+    private final class BodyStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            final int read = read(b, 0, 1);
+            return read == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+            if (count == 0) return 0;
+            boolean resume = false;
+            final int read;
+            synchronized (NioExchange.this) {
+                while (mBodyBytes == 0) {
+                    checkError();
+                    if (mBodyEnded) return -1;
+                    await();
+                }
+                final ByteBuffer head = mBody.peek();
+                read = Math.min(count, head.remaining());
+                head.get(buffer, offset, read);
+                if (!head.hasRemaining() && (head.limit() == head.capacity() || mBody.size() > 1)) {
+                    mBody.poll();
+                    mPool.recycle(head.array());
+                }
+                mBodyBytes -= read;
+                if (mReadPaused && mBodyBytes < MAX_BUFFERED / 2) {
+                    mReadPaused = false;
+                    resume = true;
+                }
+            }
+            if (resume) requestUpdate();
+            return read;
+        }
+
+        @Override
+        public int available() {
+            synchronized (NioExchange.this) {
+                return (int) Math.min(mBodyBytes, Integer.MAX_VALUE);
+            }
+        }
+
+        @Override
+        public void close() {
+            NioExchange.this.close();
+        }
+    }
+
+    private final class BodySink extends OutputStream {
+
+        private final boolean mChunked;
+        private final int mBufferSize;
+        private final boolean mBlocking;
+        private byte[] mBuffer;
+        private int mCount;
+        private boolean mSinkClosed;
+
+        /**
+         * @param blocking Whether writes wait while too much is queued, which they mustn't on the I/O thread.
+         */
+        public BodySink(boolean chunked, int bufferSize, boolean blocking) {
+            mChunked = chunked;
+            mBufferSize = bufferSize;
+            mBlocking = blocking;
+        }
+
+        @Override
+        public void write(int oneByte) throws IOException {
+            write(new byte[]{(byte) oneByte}, 0, 1);
+        }
+
+        @Override
+        public void write(@NonNull byte[] data, int offset, int count) throws IOException {
+            if (mSinkClosed)
+                throw new IOException("The request body was already written.");
+            while (count > 0) {
+                if (mBuffer == null) {
+                    mBuffer = mPool.get(mBufferSize);
+                    mCount = 0;
+                }
+                final int copy = Math.min(count, mBuffer.length - mCount);
+                System.arraycopy(data, offset, mBuffer, mCount, copy);
+                mCount += copy;
+                offset += copy;
+                count -= copy;
+                if (mCount == mBuffer.length)
+                    flush();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (mBuffer == null || mCount == 0) return;
+            final byte[] buffer = mBuffer;
+            final int count = mCount;
+            mBuffer = null;
+            if (mChunked)
+                writeAscii(Integer.toHexString(count) + "\r\n");
+            enqueue(buffer, count);
+            if (mChunked)
+                writeAscii("\r\n");
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mSinkClosed) return;
+            flush();
+            mSinkClosed = true;
+            if (mChunked)
+                writeAscii("0\r\n\r\n");
+        }
+
+        private void writeAscii(String value) throws IOException {
+            final byte[] bytes = value.getBytes("US-ASCII");
+            enqueue(bytes, bytes.length);
+        }
+
+        private void enqueue(byte[] data, int length) throws IOException {
+            if (mBlocking) NioExchange.this.write(data, length);
+            else queue(data, length);
+        }
+    }
+}
@@ -0,0 +1,543 @@
+package com.afollestad.bridge;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Transport} that speaks HTTP/1.1 over non-blocking sockets. All sockets are multiplexed onto a few
+ * I/O threads, each running a Selector, which connect, write requests and parse responses incrementally into
+ * pooled buffers. A thread making a request only waits for the response; it doesn't block in socket I/O, and
+ * async requests don't wait at all (see {@link AsyncTransport}), so a slow response costs a socket and its
+ * buffered bytes rather than a thread.
+ * <p>
+ * By default each request uses its own connection, see {@link #reuseConnections(int, long)} to keep them
+ * alive. Redirects are followed the way HttpURLConnection follows them. HTTPS requests are delegated to a
+ * {@link UrlConnectionTransport}. Call {@link #close()} to stop the I/O threads when the transport is no
+ * longer needed.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class NioTransport extends RedirectingTransport implements Closeable {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final long TIMEOUT_CHECK_INTERVAL = 250;
+
+    private final int mThreadCount;
+    private final AtomicInteger mNextLoop = new AtomicInteger();
+    private final AtomicInteger mOpenConnections = new AtomicInteger();
+    private final AtomicLong mOpenedCount = new AtomicLong();
+    private final AtomicLong mReusedCount = new AtomicLong();
+    private final AtomicLong mReleasedCount = new AtomicLong();
+    private final AtomicLong mDiscardedCount = new AtomicLong();
+    private final Map<String, ArrayDeque<NioConnection>> mIdle = new HashMap<>();
+    private int mIdleCount;
+    private volatile int mMaxIdlePerHost;
+    private volatile long mKeepAlive = 5 * 60 * 1000;
+    private Loop[] mLoops;
+    private volatile boolean mClosed;
+
+    public NioTransport() {
+        this(1);
+    }
+
+    /**
+     * @param threadCount The number of I/O threads, one or two is enough for thousands of connections.
+     */
+    public NioTransport(int threadCount) {
+        if (threadCount <= 0)
+            throw new IllegalArgumentException("The thread count must be greater than 0.");
+        mThreadCount = threadCount;
+    }
+
+    /**
+     * Keeps connections open after their response is complete, up to {@code maxIdlePerHost} per host, so later
+     * requests to the same host skip the TCP handshake. Idle connections are closed after {@code keepAlive}
+     * milliseconds. Pass 0 to close connections after every request, which is the default.
+     */
+    public NioTransport reuseConnections(int maxIdlePerHost, long keepAlive) {
+        if (maxIdlePerHost < 0)
+            throw new IllegalArgumentException("The max number of idle connections must be 0 or greater.");
+        else if (keepAlive <= 0)
+            throw new IllegalArgumentException("The keep alive must be greater than 0.");
+        mMaxIdlePerHost = maxIdlePerHost;
+        mKeepAlive = keepAlive;
+        if (maxIdlePerHost == 0) evictAll();
+        return this;
+    }
+
+    /**
+     * The number of sockets that are currently open, in use or idle.
+     */
+    public int openConnections() {
+        return mOpenConnections.get();
+    }
+
+    public ConnectionStats connectionStats() {
+        final int idleCount;
+        synchronized (mIdle) {
+            idleCount = mIdleCount;
+        }
+        return new ConnectionStats(mOpenedCount.get(), mReusedCount.get(), mReleasedCount.get(),
+                mDiscardedCount.get(), idleCount);
+    }
+
+    @Override
+    protected NioExchange send(TransportRequest request, URL url, Method method, Map<String, String> headers,
+                               boolean sendBody) throws IOException {
+        return exchange(request, url, method, headers, sendBody, false);
+    }
+
+    private NioExchange exchange(TransportRequest request, URL url, Method method, Map<String, String> headers,
+                                 boolean sendBody, boolean forceNew) throws IOException {
+        final boolean reuse = mMaxIdlePerHost > 0;
+        final NioConnection idle = forceNew ? null : takeIdle(route(url));
+        final NioExchange exchange = open(request, url, idle, reuse, null, false, null);
+        try {
+            exchange.awaitConnected();
+            request.onConnectEnd();
+            final byte[] head = head(url, method, headers, sendBody ? request.contentLength() : -1, sendBody, reuse);
+            exchange.write(head, head.length);
+            request.onRequestHeadersEnd();
+            if (sendBody) {
+                final OutputStream os = exchange.bodySink(request.contentLength() < 0, request.bufferSize());
+                request.writeBody(os);
+                os.close();
+            }
+            exchange.requestComplete();
+            exchange.awaitHead();
+        } catch (IOException e) {
+            exchange.close();
+            // The server may have closed an idle connection just as it was taken from the pool
+            if (idle != null && !request.isCancelled() && !(e instanceof SocketTimeoutException)
+                    && (!sendBody || request.bodyBytes() != null)) {
+                Log.d(this, "Retrying %s on a new connection: %s", request, e.getMessage());
+                return exchange(request, url, method, headers, sendBody, true);
+            }
+            throw e;
+        }
+        return exchange;
+    }
+
+    /**
+     * Sends requests whose body is already in memory without waiting on the calling thread, which only
+     * resolves the host and opens the socket. The I/O thread writes the request and reads the response, so
+     * an async request only takes up a worker while its response is being consumed.
+     */
+    @Override
+    protected boolean sendAsync(TransportRequest request, URL url, Method method, Map<String, String> headers,
+                                boolean sendBody, TransportCallback callback) {
+        // A Pipe writes on its caller's thread, which would be the I/O thread
+        if (sendBody && request.bodyBytes() == null)
+            return false;
+        exchangeAsync(request, url, method, headers, sendBody, false, callback);
+        return true;
+    }
+
+    private void exchangeAsync(final TransportRequest request, final URL url, final Method method,
+                               final Map<String, String> headers, final boolean sendBody, boolean forceNew,
+                               final TransportCallback callback) {
+        final boolean reuse = mMaxIdlePerHost > 0;
+        final byte[] head;
+        try {
+            head = head(url, method, headers, sendBody ? request.contentLength() : -1, sendBody, reuse);
+        } catch (IOException e) {
+            callback.onFailure(e);
+            return;
+        }
+        final NioConnection idle = forceNew ? null : takeIdle(route(url));
+        final TransportCallback retrying = idle == null ? callback : new TransportCallback() {
+            @Override
+            public void onResponse(@NonNull TransportResponse response) {
+                callback.onResponse(response);
+            }
+
+            @Override
+            public void onFailure(@NonNull IOException e) {
+                // The server may have closed an idle connection just as it was taken from the pool
+                if (request.isCancelled() || e instanceof SocketTimeoutException) {
+                    callback.onFailure(e);
+                    return;
+                }
+                Log.d(NioTransport.this, "Retrying %s on a new connection: %s", request, e.getMessage());
+                // Opening a connection may block, so it isn't done on the I/O thread
+                request.request().builder().mContext.resume(new Runnable() {
+                    @Override
+                    public void run() {
+                        exchangeAsync(request, url, method, headers, sendBody, true, callback);
+                    }
+                });
+            }
+        };
+        try {
+            open(request, url, idle, reuse, head, sendBody, retrying);
+        } catch (IOException e) {
+            callback.onFailure(e);
+        }
+    }
+
+    /**
+     * Starts an exchange on the idle connection, or on a new one if it's null. An async exchange is started
+     * with the head it sends once it's connected, and the callback that receives its response.
+     */
+    private NioExchange open(TransportRequest request, URL url, NioConnection idle, boolean reuse, byte[] head,
+                             boolean sendBody, TransportCallback callback) throws IOException {
+        final BufferPool pool = request.request().builder().mContext.bufferPool();
+        request.onConnectStart();
+        if (idle != null) {
+            mReusedCount.incrementAndGet();
+            final NioExchange exchange = new NioExchange(idle, request, new Http1Parser(), pool, reuse);
+            if (callback != null)
+                exchange.sendWhenConnected(head, sendBody, callback);
+            idle.mLoop.attach(idle, exchange);
+            return exchange;
+        }
+
+        // Resolving the host blocks, so it's done here rather than on an I/O thread
+        final int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        final InetSocketAddress address = new InetSocketAddress(url.getHost(), port);
+        if (address.isUnresolved())
+            throw new UnknownHostException(url.getHost());
+        final SocketChannel channel = SocketChannel.open();
+        final boolean connected;
+        try {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            connected = channel.connect(address);
+        } catch (IOException e) {
+            Util.closeQuietly(channel);
+            throw e;
+        }
+        mOpenConnections.incrementAndGet();
+        mOpenedCount.incrementAndGet();
+        final NioConnection connection = new NioConnection(loop(), channel, route(url));
+        final NioExchange exchange = new NioExchange(connection, request, new Http1Parser(), pool, reuse);
+        if (callback != null)
+            exchange.sendWhenConnected(head, sendBody, callback);
+        connection.mLoop.register(connection, exchange, connected);
+        return exchange;
+    }
+
+    private static String route(URL url) {
+        final int port = url.getPort() != -1 ? url.getPort() : url.getDefaultPort();
+        return url.getHost().toLowerCase(Locale.US) + ":" + port;
+    }
+
+    private static byte[] head(URL url, Method method, Map<String, String> headers, long contentLength,
+                               boolean sendBody, boolean keepAlive) throws IOException {
+        final StringBuilder head = new StringBuilder(256);
+        final String path = url.getPath().isEmpty() ? "/" : url.getPath();
+        head.append(method.name()).append(' ').append(path);
+        if (url.getQuery() != null)
+            head.append('?').append(url.getQuery());
+        head.append(" HTTP/1.1\r\nHost: ").append(url.getHost());
+        if (url.getPort() != -1 && url.getPort() != url.getDefaultPort())
+            head.append(':').append(url.getPort());
+        head.append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            final String name = header.getKey();
+            if (name.equalsIgnoreCase("Host") || name.equalsIgnoreCase("Connection")
+                    || name.equalsIgnoreCase("Content-Length") || name.equalsIgnoreCase("Transfer-Encoding"))
+                continue;
+            head.append(name).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (sendBody) {
+            if (contentLength >= 0)
+                head.append("Content-Length: ").append(contentLength).append("\r\n");
+            else head.append("Transfer-Encoding: chunked\r\n");
+        } else if (method == Method.POST || method == Method.PUT) {
+            head.append("Content-Length: 0\r\n");
+        }
+        if (!keepAlive)
+            head.append("Connection: close\r\n");
+        head.append("\r\n");
+        return head.toString().getBytes("ISO-8859-1");
+    }
+
+    /**
+     * Takes the most recently used idle connection to the route, which is the least likely to have been
+     * closed by the server.
+     */
+    private NioConnection takeIdle(String route) {
+        synchronized (mIdle) {
+            final ArrayDeque<NioConnection> connections = mIdle.get(route);
+            if (connections == null) return null;
+            NioConnection connection;
+            while ((connection = connections.pollLast()) != null) {
+                mIdleCount--;
+                if (!connection.isClosed()) break;
+            }
+            if (connections.isEmpty())
+                mIdle.remove(route);
+            return connection;
+        }
+    }
+
+    private boolean offerIdle(NioConnection connection) {
+        synchronized (mIdle) {
+            if (mClosed) return false;
+            ArrayDeque<NioConnection> connections = mIdle.get(connection.mRoute);
+            if (connections == null) {
+                connections = new ArrayDeque<>();
+                mIdle.put(connection.mRoute, connections);
+            }
+            if (connections.size() >= mMaxIdlePerHost) return false;
+            connections.add(connection);
+            mIdleCount++;
+            return true;
+        }
+    }
+
+    /**
+     * Removes an idle connection from the pool, returns false if it was taken by a request in the meantime.
+     */
+    private boolean removeIdle(NioConnection connection) {
+        synchronized (mIdle) {
+            final ArrayDeque<NioConnection> connections = mIdle.get(connection.mRoute);
+            if (connections == null || !connections.remove(connection)) return false;
+            mIdleCount--;
+            if (connections.isEmpty())
+                mIdle.remove(connection.mRoute);
+            return true;
+        }
+    }
+
+    private void evictAll() {
+        final List<NioConnection> evicted = new ArrayList<>();
+        synchronized (mIdle) {
+            for (ArrayDeque<NioConnection> connections : mIdle.values())
+                evicted.addAll(connections);
+            mIdle.clear();
+            mIdleCount = 0;
+        }
+        for (NioConnection connection : evicted)
+            connection.close();
+    }
+
+    private synchronized Loop loop() throws IOException {
+        if (mClosed)
+            throw new IOException("The transport was closed.");
+        if (mLoops == null) {
+            mLoops = new Loop[mThreadCount];
+            for (int i = 0; i < mThreadCount; i++) {
+                mLoops[i] = new Loop(Selector.open());
+                final Thread thread = new Thread(mLoops[i], "Bridge NIO #" + (i + 1));
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+        return mLoops[(mNextLoop.getAndIncrement() & Integer.MAX_VALUE) % mLoops.length];
+    }
+
+    /**
+     * Stops the I/O threads. Requests that are still in progress fail.
+     */
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        evictAll();
+        if (mLoops == null) return;
+        for (Loop loop : mLoops)
+            loop.close();
+        mLoops = null;
+    }
+
+    /**
+     * An I/O thread. Exchanges are registered with its Selector, and everything that touches their
+     * SelectionKeys runs here.
+     */
+    final class Loop implements Runnable {
+
+        private final Selector mSelector;
+        private final ConcurrentLinkedQueue<Runnable> mTasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer mReadBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private volatile boolean mLoopClosed;
+
+        public Loop(Selector selector) {
+            mSelector = selector;
+        }
+
+        public void post(Runnable task) {
+            mTasks.add(task);
+            if (mLoopClosed) runTasks();
+            else mSelector.wakeup();
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = mTasks.poll()) != null)
+                task.run();
+        }
+
+        /**
+         * Registers a new connection with this thread's Selector, and starts its first exchange.
+         */
+        public void register(final NioConnection connection, final NioExchange exchange, final boolean connected) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mLoopClosed) {
+                        exchange.fail(new IOException("The transport was closed."));
+                        return;
+                    }
+                    try {
+                        connection.mExchange = exchange;
+                        connection.mKey = connection.mChannel.register(mSelector,
+                                connected ? 0 : SelectionKey.OP_CONNECT, connection);
+                        if (connected) exchange.onConnected();
+                        exchange.updateInterest();
+                    } catch (IOException e) {
+                        exchange.fail(e);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Starts an exchange on a connection that was taken from the idle pool.
+         */
+        public void attach(final NioConnection connection, final NioExchange exchange) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mLoopClosed || connection.isClosed()) {
+                        exchange.fail(new IOException("The connection was closed."));
+                        return;
+                    }
+                    connection.mExchange = exchange;
+                    exchange.onConnected();
+                    exchange.updateInterest();
+                }
+            });
+        }
+
+        /**
+         * Called on this thread when an exchange is done with its connection, and the connection can be reused.
+         */
+        public void release(NioConnection connection) {
+            connection.mExchange = null;
+            connection.mIdleSince = SystemClock.elapsedRealtime();
+            if (!offerIdle(connection)) {
+                discard(connection);
+                return;
+            }
+            mReleasedCount.incrementAndGet();
+            try {
+                // An idle connection only becomes readable when the server closes it
+                connection.mKey.interestOps(SelectionKey.OP_READ);
+            } catch (CancelledKeyException e) {
+                removeIdle(connection);
+            }
+        }
+
+        /**
+         * Closes a connection after an exchange that couldn't release it.
+         */
+        public void discard(NioConnection connection) {
+            if (connection.isClosed()) return;
+            mDiscardedCount.incrementAndGet();
+            connection.close();
+        }
+
+        public void onClosed(NioConnection connection) {
+            mOpenConnections.decrementAndGet();
+        }
+
+        public void close() {
+            mLoopClosed = true;
+            mSelector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long nextTimeoutCheck = 0;
+            while (!mLoopClosed) {
+                try {
+                    mSelector.select(TIMEOUT_CHECK_INTERVAL);
+                } catch (IOException e) {
+                    Log.e(NioTransport.this, "Selector failed: %s", e.getMessage());
+                    break;
+                }
+                runTasks();
+
+                final Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    final SelectionKey key = keys.next();
+                    keys.remove();
+                    final NioConnection connection = (NioConnection) key.attachment();
+                    final NioExchange exchange = connection.mExchange;
+                    if (exchange == null) {
+                        // Data or EOF on an idle connection means the server closed it. If it was just taken
+                        // from the pool, the exchange that took it finds out when it's attached.
+                        if (removeIdle(connection))
+                            connection.close();
+                        else if (key.isValid())
+                            key.interestOps(0);
+                        continue;
+                    }
+                    try {
+                        if (key.isValid() && key.isConnectable())
+                            exchange.onConnectable();
+                        if (key.isValid() && key.isWritable())
+                            exchange.onWritable();
+                        if (key.isValid() && key.isReadable())
+                            exchange.onReadable(mReadBuffer);
+                        exchange.updateInterest();
+                        exchange.deliver();
+                    } catch (IOException e) {
+                        exchange.fail(e);
+                    } catch (CancelledKeyException ignored) {
+                        // The exchange was closed by its caller
+                    }
+                }
+
+                final long now = SystemClock.elapsedRealtime();
+                if (now >= nextTimeoutCheck) {
+                    for (SelectionKey key : new ArrayList<>(mSelector.keys())) {
+                        final NioConnection connection = (NioConnection) key.attachment();
+                        final NioExchange exchange = connection.mExchange;
+                        if (exchange != null)
+                            exchange.checkTimeout(now);
+                        else if (now - connection.mIdleSince >= mKeepAlive && removeIdle(connection))
+                            connection.close();
+                    }
+                    nextTimeoutCheck = now + TIMEOUT_CHECK_INTERVAL;
+                }
+            }
+
+            for (SelectionKey key : new ArrayList<>(mSelector.keys())) {
+                final NioConnection connection = (NioConnection) key.attachment();
+                if (connection.mExchange != null)
+                    connection.mExchange.fail(new IOException("The transport was closed."));
+                else connection.close();
+            }
+            runTasks();
+            try {
+                mSelector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
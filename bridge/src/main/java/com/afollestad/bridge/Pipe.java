@@ -22,6 +22,13 @@ public abstract class Pipe {
     @NonNull
     public abstract String contentType();
 
+    /**
+     * Returns the number of bytes this Pipe will write, or -1 if that isn't known ahead of time.
+     */
+    public long contentLength() {
+        return -1;
+    }
+
     /**
      * Creates a Pipe that reads a Uri (file:// or content://) into the Pipe.
      */
@@ -40,6 +47,13 @@ public abstract class Pipe {
      * Creates a Pipe that reads an InputStream and transfers the content into the Pipe.
      */
     public static Pipe forStream(@NonNull InputStream is, @NonNull String contentType) {
-        return new TransferPipe(is, contentType);
+        return new TransferPipe(is, contentType, -1);
+    }
+
+    /**
+     * Creates a Pipe that reads an InputStream of a known length and transfers the content into the Pipe.
+     */
+    public static Pipe forStream(@NonNull InputStream is, @NonNull String contentType, long contentLength) {
+        return new TransferPipe(is, contentType, contentLength);
     }
 }
\ No newline at end of file
@@ -0,0 +1,102 @@
+package com.afollestad.bridge;
+
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * An immutable snapshot of the state of Bridge's worker pool.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class PoolStats {
+
+    private final int mActiveCount;
+    private final int mPoolSize;
+    private final int mLargestPoolSize;
+    private final int mMaxPoolSize;
+    private final int mQueuedCount;
+    private final int mQueueRemaining;
+    private final long mCompletedCount;
+    private final long mRejectedCount;
+
+    protected PoolStats(ThreadPoolExecutor executor, int queuedRequests, int queueCapacity, long rejectedCount) {
+        if (executor != null) {
+            mActiveCount = executor.getActiveCount();
+            mPoolSize = executor.getPoolSize();
+            mLargestPoolSize = executor.getLargestPoolSize();
+            mMaxPoolSize = executor.getMaximumPoolSize();
+            mQueuedCount = queuedRequests + executor.getQueue().size();
+            mCompletedCount = executor.getCompletedTaskCount();
+        } else {
+            mActiveCount = 0;
+            mPoolSize = 0;
+            mLargestPoolSize = 0;
+            mMaxPoolSize = 0;
+            mQueuedCount = queuedRequests;
+            mCompletedCount = 0;
+        }
+        mQueueRemaining = Math.max(0, queueCapacity - queuedRequests);
+        mRejectedCount = rejectedCount;
+    }
+
+    /**
+     * The number of worker threads that are currently executing a task.
+     */
+    public int activeCount() {
+        return mActiveCount;
+    }
+
+    /**
+     * The number of worker threads that currently exist, busy or idle.
+     */
+    public int poolSize() {
+        return mPoolSize;
+    }
+
+    public int largestPoolSize() {
+        return mLargestPoolSize;
+    }
+
+    public int maxPoolSize() {
+        return mMaxPoolSize;
+    }
+
+    /**
+     * The number of requests waiting to start, for a free connection slot or a free worker thread.
+     */
+    public int queuedCount() {
+        return mQueuedCount;
+    }
+
+    /**
+     * How many more requests can be queued before the {@link RejectionPolicy} applies.
+     */
+    public int queueRemaining() {
+        return mQueueRemaining;
+    }
+
+    public long completedCount() {
+        return mCompletedCount;
+    }
+
+    /**
+     * The number of tasks that were handed to the configured {@link RejectionPolicy}.
+     */
+    public long rejectedCount() {
+        return mRejectedCount;
+    }
+
+    /**
+     * Returns true if the queue can't accept more requests, meaning the next async request that can't
+     * start right away will be rejected.
+     */
+    public boolean isSaturated() {
+        return mQueueRemaining == 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("active: %d/%d, pool: %d (largest %d), queued: %d (%d remaining), completed: %d, rejected: %d",
+                mActiveCount, mMaxPoolSize, mPoolSize, mLargestPoolSize, mQueuedCount, mQueueRemaining,
+                mCompletedCount, mRejectedCount);
+    }
+}
@@ -0,0 +1,111 @@
+package com.afollestad.bridge;
+
+import android.support.annotation.NonNull;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An OutputStream that collects data in chunks borrowed from a {@link BufferPool}, rather than a single
+ * array that's repeatedly grown and copied. If the final size is known up front, data is written into an
+ * array of exactly that size, which is handed out by {@link #toByteArray()} without another copy. That's
+ * only trusted up to {@link #MAX_EXACT_LENGTH}, a wrong or hostile Content-Length can't allocate more
+ * than that before any data has arrived.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class PooledByteArrayOutputStream extends OutputStream {
+
+    private static final int MAX_EXACT_LENGTH = 1024 * 1024;
+
+    private final BufferPool mPool;
+    private final int mChunkSize;
+    private final List<byte[]> mChunks;
+    private byte[] mExact;
+    private byte[] mCurrent;
+    private int mCurrentCount;
+    private int mCount;
+
+    public PooledByteArrayOutputStream(BufferPool pool, int chunkSize, int expectedLength) {
+        mPool = pool;
+        mChunkSize = chunkSize;
+        mChunks = new ArrayList<>();
+        // Bigger data is still collected in chunks, which grow with what's actually written
+        if (expectedLength > 0 && expectedLength <= MAX_EXACT_LENGTH) {
+            mExact = new byte[expectedLength];
+            mCurrent = mExact;
+        }
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    private void nextChunk() {
+        if (mCurrent != null)
+            mChunks.add(mCurrent);
+        mCurrent = mPool.get(mChunkSize);
+        mCurrentCount = 0;
+    }
+
+    @Override
+    public void write(int oneByte) {
+        if (mCurrent == null || mCurrentCount == mCurrent.length)
+            nextChunk();
+        mCurrent[mCurrentCount++] = (byte) oneByte;
+        mCount++;
+    }
+
+    @Override
+    public void write(@NonNull byte[] buffer, int offset, int count) {
+        while (count > 0) {
+            if (mCurrent == null || mCurrentCount == mCurrent.length)
+                nextChunk();
+            final int toCopy = Math.min(count, mCurrent.length - mCurrentCount);
+            System.arraycopy(buffer, offset, mCurrent, mCurrentCount, toCopy);
+            mCurrentCount += toCopy;
+            mCount += toCopy;
+            offset += toCopy;
+            count -= toCopy;
+        }
+    }
+
+    /**
+     * Returns everything written so far. Don't write to the stream after calling this.
+     */
+    public byte[] toByteArray() {
+        if (mExact != null && mCurrent == mExact && mCurrentCount == mExact.length) {
+            // The expected length was accurate, hand over the array as-is
+            final byte[] result = mExact;
+            mExact = null;
+            mCurrent = null;
+            mCurrentCount = 0;
+            return result;
+        }
+        final byte[] result = new byte[mCount];
+        int position = 0;
+        for (byte[] chunk : mChunks) {
+            System.arraycopy(chunk, 0, result, position, chunk.length);
+            position += chunk.length;
+        }
+        if (mCurrent != null)
+            System.arraycopy(mCurrent, 0, result, position, mCurrentCount);
+        return result;
+    }
+
+    @Override
+    public void close() {
+        for (byte[] chunk : mChunks) {
+            if (chunk != mExact)
+                mPool.recycle(chunk);
+        }
+        mChunks.clear();
+        if (mCurrent != null && mCurrent != mExact)
+            mPool.recycle(mCurrent);
+        mCurrent = null;
+        mExact = null;
+        mCurrentCount = 0;
+        mCount = 0;
+    }
+}
@@ -0,0 +1,17 @@
+package com.afollestad.bridge;
+
+/**
+ * The order in which queued async requests are started, from first to last.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public enum Priority {
+    /**
+     * Starts right away, ignoring the concurrency limits configured in {@link Config}.
+     */
+    IMMEDIATE,
+    HIGH,
+    NORMAL,
+    LOW,
+    PREFETCH
+}
@@ -0,0 +1,67 @@
+package com.afollestad.bridge;
+
+/**
+ * A snapshot of a request's progress, delivered to {@link Callback#progress(Request, Progress)}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class Progress {
+
+    private final long mCurrent;
+    private final long mTotal;
+    private final int mPercent;
+    private final long mBytesPerSecond;
+    private final long mEtaMillis;
+
+    protected Progress(long current, long total, long bytesPerSecond) {
+        mCurrent = current;
+        mTotal = total;
+        mPercent = total > 0 ? (int) (current * 100.0 / total) : 0;
+        mBytesPerSecond = bytesPerSecond;
+        if (bytesPerSecond > 0 && total > 0)
+            mEtaMillis = Math.max(0, total - current) * 1000L / bytesPerSecond;
+        else mEtaMillis = current >= total ? 0 : -1;
+    }
+
+    /**
+     * The number of bytes transferred so far.
+     */
+    public long current() {
+        return mCurrent;
+    }
+
+    /**
+     * The total number of bytes, usually taken from the Content-Length header.
+     */
+    public long total() {
+        return mTotal;
+    }
+
+    public int percent() {
+        return mPercent;
+    }
+
+    /**
+     * The average transfer rate since the first progress update, or 0 if it isn't known yet.
+     */
+    public long bytesPerSecond() {
+        return mBytesPerSecond;
+    }
+
+    /**
+     * The estimated time remaining at the average transfer rate, or -1 if it isn't known yet.
+     */
+    public long etaMillis() {
+        return mEtaMillis;
+    }
+
+    public boolean isComplete() {
+        return mTotal > 0 && mCurrent >= mTotal;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d bytes (%d%%), %d bytes/sec, ETA %d ms",
+                mCurrent, mTotal, mPercent, mBytesPerSecond, mEtaMillis);
+    }
+}
@@ -0,0 +1,176 @@
+package com.afollestad.bridge;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The base of transports that speak HTTP themselves rather than through HttpURLConnection. Follows redirects
+ * the way HttpURLConnection follows them, and delegates HTTPS requests to a {@link UrlConnectionTransport}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+abstract class RedirectingTransport implements AsyncTransport {
+
+    private static final int MAX_REDIRECTS = 20;
+
+    private final Transport mFallback = new UrlConnectionTransport();
+
+    /**
+     * Where a request goes next: its first hop, or where a redirect points to.
+     */
+    private static final class Hop {
+
+        final URL mUrl;
+        final Method mMethod;
+        final Map<String, String> mHeaders;
+        final boolean mSendBody;
+        final int mRedirects;
+
+        Hop(URL url, Method method, Map<String, String> headers, boolean sendBody, int redirects) {
+            mUrl = url;
+            mMethod = method;
+            mHeaders = headers;
+            mSendBody = sendBody;
+            mRedirects = redirects;
+        }
+    }
+
+    @NonNull
+    @Override
+    public TransportResponse execute(@NonNull TransportRequest request) throws IOException {
+        final URL url = new URL(request.url());
+        if (!"http".equalsIgnoreCase(url.getProtocol()))
+            return mFallback.execute(request);
+
+        Hop hop = new Hop(url, request.method(), request.headers(), request.hasBody(), 0);
+        while (true) {
+            final TransportResponse response = send(request, hop.mUrl, hop.mMethod, hop.mHeaders, hop.mSendBody);
+            final Hop next;
+            try {
+                next = redirect(hop, response);
+            } catch (IOException e) {
+                response.close();
+                throw e;
+            }
+            if (next == null)
+                return response;
+            response.close();
+            hop = next;
+        }
+    }
+
+    @Override
+    public boolean enqueue(@NonNull TransportRequest request, @NonNull TransportCallback callback) {
+        final URL url;
+        try {
+            url = new URL(request.url());
+        } catch (IOException e) {
+            callback.onFailure(e);
+            return true;
+        }
+        return "http".equalsIgnoreCase(url.getProtocol())
+                && enqueue(request, new Hop(url, request.method(), request.headers(), request.hasBody(), 0), callback);
+    }
+
+    private boolean enqueue(final TransportRequest request, final Hop hop, final TransportCallback callback) {
+        return sendAsync(request, hop.mUrl, hop.mMethod, hop.mHeaders, hop.mSendBody, new TransportCallback() {
+            @Override
+            public void onResponse(@NonNull TransportResponse response) {
+                final Hop next;
+                try {
+                    next = redirect(hop, response);
+                } catch (IOException e) {
+                    response.close();
+                    callback.onFailure(e);
+                    return;
+                }
+                if (next == null) {
+                    callback.onResponse(response);
+                    return;
+                }
+                response.close();
+                // Resolving the next host may block, which mustn't happen on an I/O thread
+                request.request().builder().mContext.resume(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (enqueue(request, next, callback)) return;
+                        try {
+                            callback.onResponse(send(request, next.mUrl, next.mMethod, next.mHeaders,
+                                    next.mSendBody));
+                        } catch (IOException e) {
+                            callback.onFailure(e);
+                        }
+                    }
+                });
+            }
+
+            @Override
+            public void onFailure(@NonNull IOException e) {
+                callback.onFailure(e);
+            }
+        });
+    }
+
+    /**
+     * Returns the hop a response redirects to, or null if it's the response to return. Throws like
+     * HttpURLConnection once there were too many redirects, which usually means they go in circles.
+     */
+    private static Hop redirect(Hop hop, TransportResponse response) throws IOException {
+        final int code = response.code();
+        final String location = response.header("Location");
+        if (code < 300 || code > 308 || code == 304 || code == 305 || code == 306 || location == null)
+            return null;
+        final URL target = new URL(hop.mUrl, location);
+        // Like HttpURLConnection, redirects that change the protocol aren't followed
+        if (!target.getProtocol().equalsIgnoreCase(hop.mUrl.getProtocol()))
+            return null;
+        if (hop.mSendBody || code == 303) {
+            // A body can't be sent again, and 303 always means the redirect should be fetched with GET
+            if (code == 307 || code == 308)
+                return null;
+            checkRedirects(hop);
+            return new Hop(target, Method.GET, withoutBodyHeaders(hop.mHeaders), false, hop.mRedirects + 1);
+        }
+        checkRedirects(hop);
+        return new Hop(target, hop.mMethod, hop.mHeaders, hop.mSendBody, hop.mRedirects + 1);
+    }
+
+    private static void checkRedirects(Hop hop) throws ProtocolException {
+        if (hop.mRedirects == MAX_REDIRECTS)
+            throw new ProtocolException("Server redirected too many times");
+    }
+
+    /**
+     * Sends a single request over plain HTTP and waits for the response head, without following redirects.
+     * The body is only sent if {@code sendBody} is true, it isn't sent again after a redirect.
+     */
+    protected abstract TransportResponse send(TransportRequest request, URL url, Method method,
+                                              Map<String, String> headers, boolean sendBody) throws IOException;
+
+    /**
+     * Like {@link #send(TransportRequest, URL, Method, Map, boolean)}, but returns without waiting for the
+     * response head, which is passed to the callback on an I/O thread. Returns false, without calling the
+     * callback, if the request can't be sent this way, which is what transports that don't override it do.
+     */
+    protected boolean sendAsync(TransportRequest request, URL url, Method method, Map<String, String> headers,
+                                boolean sendBody, TransportCallback callback) {
+        return false;
+    }
+
+    private static Map<String, String> withoutBodyHeaders(Map<String, String> headers) {
+        final Map<String, String> result = new LinkedHashMap<>(headers);
+        final Iterator<String> names = result.keySet().iterator();
+        while (names.hasNext()) {
+            final String name = names.next();
+            if (name.equalsIgnoreCase("Content-Type") || name.equalsIgnoreCase("Content-Encoding"))
+                names.remove();
+        }
+        return result;
+    }
+}
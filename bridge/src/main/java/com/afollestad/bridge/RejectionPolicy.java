@@ -0,0 +1,23 @@
+package com.afollestad.bridge;
+
+/**
+ * Decides what happens to an async request when Bridge's request queue is full, see
+ * {@link Config#poolQueueCapacity(int)}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public enum RejectionPolicy {
+    /**
+     * The rejected request fails immediately, its callbacks receive a RequestException.
+     */
+    ABORT,
+    /**
+     * The rejected request runs on the thread that submitted it. On the main thread, which can't make network
+     * calls, it fails like it would with {@link #ABORT}.
+     */
+    CALLER_RUNS,
+    /**
+     * The oldest queued request fails to make room for the rejected request.
+     */
+    DISCARD_OLDEST
+}
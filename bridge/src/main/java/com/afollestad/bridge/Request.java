@@ -1,11 +1,14 @@
 package com.afollestad.bridge;
 
-import java.io.ByteArrayOutputStream;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * @author Aidan Follestad (afollestad)
@@ -13,9 +16,13 @@ import java.net.URL;
 public final class Request {
 
     private final RequestBuilder mBuilder;
-    private boolean isCancelled;
+    private volatile boolean isCancelled;
     protected boolean mCancelCallbackFired;
     private Response mResponse;
+    protected AsyncRequest mTask;
+    private RequestKey mKey;
+    private final Object mRetryLock = new Object();
+    private boolean mFirstByteFired;
 
     protected Request(RequestBuilder builder) {
         mBuilder = builder;
@@ -25,96 +32,470 @@ public final class Request {
         return mBuilder;
     }
 
+    /**
+     * Computed the first time it's needed, the builder must not change after that.
+     */
+    protected synchronized RequestKey key() {
+        if (mKey == null)
+            mKey = new RequestKey(mBuilder);
+        return mKey;
+    }
+
     protected Request makeRequest() throws RequestException {
+        final EventListener listener = mBuilder.mEventListener;
+        if (listener != null)
+            listener.requestStart(this, System.nanoTime());
         try {
-            URL url = new URL(mBuilder.mUrl);
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            execute();
+        } catch (RequestException e) {
+            onEnd(e);
+            throw e;
+        }
+        onEnd(null);
+        return this;
+    }
+
+    /**
+     * Like {@link #makeRequest()}, but with an {@link AsyncTransport} no thread waits while the response is on
+     * its way. The task is completed on a worker once the request is done, which may be before this returns.
+     */
+    protected void makeRequestAsync(AsyncRequest task) {
+        final EventListener listener = mBuilder.mEventListener;
+        if (listener != null)
+            listener.requestStart(this, System.nanoTime());
+        if (fromMemoryCache()) {
+            onEnd(null);
+            task.complete(null);
+            return;
+        }
+        attemptAsync(task, 1);
+    }
+
+    private void onEnd(RequestException error) {
+        final EventListener listener = mBuilder.mEventListener;
+        if (listener == null) return;
+        if (error == null) listener.requestEnd(this, System.nanoTime());
+        else if (error.isCancelled()) listener.cancelled(this, System.nanoTime());
+        else listener.failed(this, System.nanoTime(), error);
+    }
+
+    private MemoryCache memoryCache() {
+        return mBuilder.mMethod == Method.GET && mBuilder.mDownload == null
+                && mBuilder.mMemoryCache ? mBuilder.mContext.memoryCache() : null;
+    }
+
+    private boolean fromMemoryCache() {
+        final MemoryCache memoryCache = memoryCache();
+        if (memoryCache == null) return false;
+        final Response cached = memoryCache.get(key());
+        if (cached == null) return false;
+        Log.d(this, "Serving %s from the memory cache.", mBuilder.mUrl);
+        mResponse = cached;
+        return true;
+    }
+
+    private void execute() throws RequestException {
+        if (fromMemoryCache()) return;
+        int attempt = 0;
+        RequestException error;
+        do {
+            attempt++;
+            error = null;
             try {
-                conn.setReadTimeout(mBuilder.mReadTimeout);
-                conn.setConnectTimeout(mBuilder.mConnectTimeout);
-                conn.setRequestMethod(mBuilder.mMethod.name());
-                conn.setInstanceFollowRedirects(true);
-
-                if (mBuilder.mHeaders != null && mBuilder.mHeaders.size() > 0) {
-                    for (final String key : mBuilder.mHeaders.keySet()) {
-                        final Object value = mBuilder.mHeaders.get(key);
-                        conn.setRequestProperty(key, value + "");
+                final Attempt prepared = prepare();
+                if (prepared != null)
+                    respond(prepared, send(prepared));
+            } catch (RequestException e) {
+                error = e;
+            }
+        } while (retry(attempt, error));
+    }
+
+    private void attemptAsync(final AsyncRequest task, final int attempt) {
+        final Attempt prepared;
+        try {
+            prepared = prepare();
+        } catch (RequestException e) {
+            afterAttempt(task, attempt, e);
+            return;
+        }
+        if (prepared == null) {
+            afterAttempt(task, attempt, null);
+            return;
+        }
+        prepared.mSentAt = System.currentTimeMillis();
+        final boolean enqueued = ((AsyncTransport) mBuilder.mTransport).enqueue(prepared.mRequest,
+                new TransportCallback() {
+                    @Override
+                    public void onResponse(@NonNull final TransportResponse response) {
+                        mBuilder.mContext.resume(new Runnable() {
+                            @Override
+                            public void run() {
+                                RequestException error = null;
+                                try {
+                                    respond(prepared, response);
+                                } catch (RequestException e) {
+                                    error = e;
+                                }
+                                afterAttempt(task, attempt, error);
+                            }
+                        });
                     }
-                }
-                conn.setDoInput(true);
 
-                checkCancelled();
-                if (mBuilder.mPipe != null || mBuilder.mBody != null) {
-                    conn.setDoOutput(true);
-                    OutputStream os = null;
+                    @Override
+                    public void onFailure(@NonNull final IOException e) {
+                        mBuilder.mContext.resume(new Runnable() {
+                            @Override
+                            public void run() {
+                                afterAttempt(task, attempt, wrap(e));
+                            }
+                        });
+                    }
+                });
+        if (enqueued) return;
+        // E.g. HTTPS or a streamed body, which the transport can only send while this thread waits
+        RequestException error = null;
+        try {
+            respond(prepared, send(prepared));
+        } catch (RequestException e) {
+            error = e;
+        }
+        afterAttempt(task, attempt, error);
+    }
+
+    private void afterAttempt(AsyncRequest task, int attempt, RequestException error) {
+        try {
+            if (retry(attempt, error)) {
+                attemptAsync(task, attempt + 1);
+                return;
+            }
+        } catch (RequestException e) {
+            error = e;
+        }
+        onEnd(error);
+        task.complete(error);
+    }
+
+    /**
+     * Decides what happens after an attempt, which failed if error isn't null. Returns true once it's time
+     * to try again, after the delay of the {@link RetryPolicy}. Otherwise the request is done: it either
+     * throws the error, or returns false with the final response in place.
+     */
+    private boolean retry(int attempt, RequestException error) throws RequestException {
+        if (error != null && error.isCancelled()) throw error;
+        final RetryPolicy retryPolicy = mBuilder.mRetryPolicy;
+        final Response response = error == null ? mResponse : null;
+        final Exception cause = error != null && error.getCause() instanceof Exception
+                ? (Exception) error.getCause() : null;
+        if (retryPolicy == null || !retryPolicy.shouldRetry(this, response, cause, attempt)) {
+            if (error != null) throw error;
+            if (mResponse != null)
+                mResponse.mAttempts = attempt;
+            putInMemoryCache();
+            return false;
+        }
+        final long delay = retryPolicy.delay(response, attempt);
+        Log.d(this, "Attempt %d of %s %s failed, retrying in %d ms.", attempt,
+                mBuilder.mMethod.name(), mBuilder.mUrl, delay);
+        if (response != null)
+            response.close();
+        mResponse = null;
+        awaitRetry(delay);
+        return true;
+    }
+
+    private void putInMemoryCache() {
+        final MemoryCache memoryCache = memoryCache();
+        if (memoryCache != null && mResponse != null && !mResponse.isStreaming()
+                && mResponse.code() == HttpURLConnection.HTTP_OK) {
+            long ttl = mBuilder.mMemoryCacheTtl;
+            if (ttl < 0) {
+                final CacheControl cacheControl = CacheControl.parse(mResponse.headers());
+                final long now = System.currentTimeMillis();
+                // Whatever age the response already has counts against its max-age
+                ttl = cacheControl.noStore || cacheControl.noCache ? 0
+                        : cacheControl.maxAgeMillis - cacheControl.currentAge(now, now);
+            }
+            memoryCache.put(key(), mResponse, ttl);
+        }
+    }
+
+    /**
+     * What an attempt at the request sends, and what's needed to handle its response.
+     */
+    private static final class Attempt {
+
+        final TransportRequest mRequest;
+        final DiskCache mCache;
+        final DiskCache.Entry mCached;
+        final Map<String, String> mCacheHeaders;
+        long mSentAt;
+
+        Attempt(TransportRequest request, DiskCache cache, DiskCache.Entry cached, Map<String, String> cacheHeaders) {
+            mRequest = request;
+            mCache = cache;
+            mCached = cached;
+            mCacheHeaders = cacheHeaders;
+        }
+    }
+
+    /**
+     * Gets an attempt ready to send, or returns null if it was served from the disk cache.
+     */
+    private Attempt prepare() throws RequestException {
+        try {
+            final Map<String, String> headers = new LinkedHashMap<>();
+            if (mBuilder.mHeaders != null) {
+                for (final Map.Entry<String, Object> header : mBuilder.mHeaders.entrySet())
+                    headers.put(header.getKey(), header.getValue() + "");
+            }
+            if (!hasHeader("Accept-Encoding")) {
+                // Range requests for downloads must refer to the unencoded content
+                if (mBuilder.mDownload != null)
+                    headers.put("Accept-Encoding", "identity");
+                else if (mBuilder.mCompressResponses)
+                    headers.put("Accept-Encoding", Compression.ACCEPT_ENCODING);
+            }
+
+            final DiskCache cache = mBuilder.mMethod == Method.GET && mBuilder.mDownload == null
+                    ? mBuilder.mContext.diskCache() : null;
+            DiskCache.Entry cached = null;
+            if (cache != null) {
+                // Looked up with the headers as they'll be sent, since the response may Vary on them
+                cached = cache.get(mBuilder.mUrl, headers);
+                if (cached != null && cached.isFresh()) {
                     try {
-                        os = conn.getOutputStream();
-                        if (mBuilder.mPipe != null) {
-                            mBuilder.mPipe.writeTo(os);
-                        } else {
-                            os.write(mBuilder.mBody);
-                        }
-                        os.flush();
-                    } finally {
-                        Util.closeQuietly(os);
+                        mResponse = cached.toResponse();
+                        Log.d(this, "Serving %s from the disk cache.", mBuilder.mUrl);
+                        cache.onHit();
+                        return null;
+                    } catch (IOException e) {
+                        // The body was trimmed or replaced after the headers were read, fetch it instead
+                        Log.d(this, "Unable to read the cached body of %s: %s", mBuilder.mUrl, e.getMessage());
+                        cache.remove(mBuilder.mUrl);
+                        cached = null;
                     }
                 }
+            }
+            // The conditional headers below don't take part in Vary
+            final Map<String, String> cacheHeaders = cache != null ? new LinkedHashMap<>(headers) : null;
+            if (cached != null) {
+                // The cached entry is stale, ask the server if it's still valid
+                final CacheControl cacheControl = cached.cacheControl();
+                if (cacheControl.etag != null)
+                    headers.put("If-None-Match", cacheControl.etag);
+                if (cacheControl.lastModified != null)
+                    headers.put("If-Modified-Since", cacheControl.lastModified);
+            }
+            if (mBuilder.mDownload != null)
+                mBuilder.mDownload.prepare(headers);
 
-                checkCancelled();
-                byte[] data = null;
-                InputStream is = null;
-                ByteArrayOutputStream bos = null;
-                try {
-                    is = conn.getInputStream();
-                    bos = new ByteArrayOutputStream();
-                    byte[] buf = new byte[Bridge.client().config().mBufferSize];
-                    int read;
-                    int totalRead = 0;
-                    int totalAvailable;
-                    if (conn.getHeaderField("Content-Length") != null)
-                        totalAvailable = Integer.parseInt(conn.getHeaderField("Content-Length"));
-                    else totalAvailable = is.available();
-                    if (totalAvailable != 0)
-                        mBuilder.mContext.fireProgress(Request.this, 0, totalAvailable);
-                    while ((read = is.read(buf)) != -1) {
-                        checkCancelled();
-                        bos.write(buf, 0, read);
-                        totalRead += read;
-                        if (totalAvailable != 0)
-                            mBuilder.mContext.fireProgress(Request.this, totalRead, totalAvailable);
+            byte[] body = mBuilder.mBody;
+            long bodyLength = -1;
+            boolean compress = false;
+            if (mBuilder.mPipe != null || body != null) {
+                bodyLength = mBuilder.mPipe != null ? mBuilder.mPipe.contentLength() : body.length;
+                final int threshold = mBuilder.mCompressionThreshold;
+                // A Pipe of unknown length is assumed to be worth compressing
+                compress = threshold >= 0 && (bodyLength < 0 || bodyLength >= threshold);
+                if (compress) {
+                    headers.put("Content-Encoding", "gzip");
+                    if (mBuilder.mPipe == null) {
+                        body = Compression.gzip(body);
+                        bodyLength = body.length;
+                    } else bodyLength = -1;
+                }
+            }
+
+            checkCancelled();
+            return new Attempt(new TransportRequest(this, headers, body, mBuilder.mPipe,
+                    compress && mBuilder.mPipe != null, bodyLength), cache, cached, cacheHeaders);
+        } catch (Exception e) {
+            throw wrap(e);
+        }
+    }
+
+    private TransportResponse send(Attempt attempt) throws RequestException {
+        attempt.mSentAt = System.currentTimeMillis();
+        try {
+            return mBuilder.mTransport.execute(attempt.mRequest);
+        } catch (Exception e) {
+            throw wrap(e);
+        }
+    }
+
+    /**
+     * Handles the response to an attempt, and closes it unless it's streamed.
+     */
+    private void respond(Attempt attempt, TransportResponse response) throws RequestException {
+        final EventListener listener = mBuilder.mEventListener;
+        final DiskCache cache = attempt.mCache;
+        final DiskCache.Entry cached = attempt.mCached;
+        boolean keepOpen = false;
+        try {
+            final long receivedAt = System.currentTimeMillis();
+            checkCancelled();
+            final int code = response.code();
+            if (listener != null) {
+                final long now = System.nanoTime();
+                // Once per call, retries don't restart the time to first byte
+                if (!mFirstByteFired) {
+                    mFirstByteFired = true;
+                    listener.responseFirstByte(this, now);
+                }
+                listener.responseHeadersEnd(this, now, code);
+            }
+            if (cache != null) {
+                if (cached != null && code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                    Log.d(this, "Revalidated %s in the disk cache.", mBuilder.mUrl);
+                    cache.onRevalidate();
+                    try {
+                        mResponse = cache.update(cached, response.headers(), attempt.mSentAt, receivedAt).toResponse();
+                    } catch (IOException e) {
+                        // A 304 means nothing without the body, so the entry goes and the next request fetches it in full
+                        cache.remove(mBuilder.mUrl);
+                        throw e;
                     }
-                    if (totalAvailable == 0)
-                        mBuilder.mContext.fireProgress(Request.this, 100, 100);
-                    data = bos.toByteArray();
-                } finally {
-                    Util.closeQuietly(is);
-                    Util.closeQuietly(bos);
+                    return;
                 }
+                cache.onMiss();
+            }
 
-                checkCancelled();
-                mResponse = new Response(data, url(), conn);
-            } catch (Exception fnf) {
+            final String encoding = response.header("Content-Encoding");
+            final boolean decode = Compression.isSupported(encoding);
+            final Map<String, List<String>> responseHeaders = decode
+                    ? Compression.stripEncoding(response.headers()) : response.headers();
+            if (code >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                if (mBuilder.mDownload != null && code == 416)
+                    mBuilder.mDownload.discard();
+                byte[] data;
                 InputStream es = null;
                 try {
-                    es = conn.getErrorStream();
-                    mResponse = new Response(Util.readEntireStream(es), url(), conn);
-                } catch (IOException e3) {
-                    mResponse = new Response(null, url(), conn);
+                    es = Compression.decode(encoding, response.body());
+                    data = Util.readEntireStream(es);
+                } catch (IOException e) {
+                    data = null;
                 } finally {
                     Util.closeQuietly(es);
                 }
+                mResponse = new Response(data, url(), code, response.message(), responseHeaders);
+                return;
+            } else if (mBuilder.mStream) {
+                final long contentLength = response.contentLength();
+                final long totalAvailable = contentLength > 0 ? contentLength : 0;
+                // Progress is counted against the encoded bytes, which is what Content-Length describes
+                final InputStream stream = Compression.decode(encoding, new ResponseStream(this, response, totalAvailable));
+                mResponse = new Response(url(), code, response.message(), responseHeaders, stream,
+                        mBuilder.mContext.bufferPool());
+                // The connection is released when the Response's stream is closed
+                keepOpen = true;
+                return;
+            } else if (mBuilder.mDownload != null) {
+                mBuilder.mDownload.transfer(this, response);
+                checkCancelled();
+                mResponse = new Response(null, url(), code, response.message(), responseHeaders);
+                mResponse.mFile = mBuilder.mDownload.destination();
+                return;
+            }
+
+            byte[] data = null;
+            InputStream is = null;
+            PooledByteArrayOutputStream bos = null;
+            final BufferPool pool = mBuilder.mContext.bufferPool();
+            byte[] buf = null;
+            try {
+                // Progress is counted against the encoded bytes, which is what Content-Length describes
+                final CountingInputStream raw = new CountingInputStream(response.body());
+                is = Compression.decode(encoding, raw);
+                int read;
+                long totalAvailable;
+                final long contentLength = response.contentLength();
+                if (contentLength >= 0) {
+                    totalAvailable = contentLength;
+                    bos = new PooledByteArrayOutputStream(pool, mBuilder.mBufferSize,
+                            decode ? -1 : (int) Math.min(contentLength, Integer.MAX_VALUE));
+                } else {
+                    totalAvailable = raw.available();
+                    bos = new PooledByteArrayOutputStream(pool, mBuilder.mBufferSize, -1);
+                }
+                buf = pool.get(mBuilder.mBufferSize);
+                if (totalAvailable != 0)
+                    mBuilder.mContext.fireProgress(Request.this, 0, totalAvailable);
+                while ((read = is.read(buf)) != -1) {
+                    checkCancelled();
+                    bos.write(buf, 0, read);
+                    if (totalAvailable != 0)
+                        mBuilder.mContext.fireProgress(Request.this, raw.count(), totalAvailable);
+                }
+                if (totalAvailable == 0)
+                    mBuilder.mContext.fireProgress(Request.this, 100, 100);
+                onResponseEnd(raw.count());
+                data = bos.toByteArray();
             } finally {
-                conn.disconnect();
+                Util.closeQuietly(is);
+                Util.closeQuietly(bos);
+                pool.recycle(buf);
+            }
+
+            checkCancelled();
+            mResponse = new Response(data, url(), code, response.message(), responseHeaders);
+            if (cache != null && code == HttpURLConnection.HTTP_OK) {
+                if (CacheControl.parse(responseHeaders).isStorable(responseHeaders, hasHeader("Authorization"))) {
+                    cache.put(mBuilder.mUrl, attempt.mCacheHeaders, code, mResponse.phrase(), responseHeaders, data,
+                            attempt.mSentAt, receivedAt);
+                }
             }
         } catch (Exception e) {
-            if (e instanceof RequestException)
-                throw (RequestException) e;
-            throw new RequestException(this, e);
+            throw wrap(e);
+        } finally {
+            if (!keepOpen)
+                response.close();
         }
-        return this;
     }
 
-    private void checkCancelled() throws RequestException {
+    private RequestException wrap(Exception e) {
+        if (e instanceof RequestException)
+            return (RequestException) e;
+        // A transport may abort what it's doing when the request is cancelled
+        if (isCancelled) {
+            final RequestException cancelled = new RequestException(this);
+            Log.d(this, cancelled.getMessage());
+            return cancelled;
+        }
+        return new RequestException(this, e);
+    }
+
+    protected void onResponseEnd(long byteCount) {
+        if (mBuilder.mEventListener != null)
+            mBuilder.mEventListener.responseBodyEnd(this, System.nanoTime(), byteCount);
+    }
+
+    private boolean hasHeader(String name) {
+        if (mBuilder.mHeaders == null) return false;
+        for (String key : mBuilder.mHeaders.keySet()) {
+            if (key.equalsIgnoreCase(name)) return true;
+        }
+        return false;
+    }
+
+    private void awaitRetry(long delay) throws RequestException {
+        final long retryAt = SystemClock.elapsedRealtime() + delay;
+        synchronized (mRetryLock) {
+            long remaining = delay;
+            while (!isCancelled && remaining > 0) {
+                try {
+                    mRetryLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RequestException(this, e);
+                }
+                remaining = retryAt - SystemClock.elapsedRealtime();
+            }
+        }
+        checkCancelled();
+    }
+
+    protected void checkCancelled() throws RequestException {
         if (isCancelled) {
             RequestException ex = new RequestException(this);
             Log.d(this, ex.getMessage());
@@ -122,6 +503,10 @@ public final class Request {
         }
     }
 
+    public boolean isCancelled() {
+        return isCancelled;
+    }
+
     public boolean isCancellable() {
         return builder().mCancellable;
     }
@@ -133,7 +518,28 @@ public final class Request {
     public void cancel(boolean force) {
         if (!force && !isCancellable())
             throw new IllegalStateException("This request is not cancellable.");
-        isCancelled = true;
+        synchronized (mRetryLock) {
+            isCancelled = true;
+            // Wakes up a request that's waiting to retry
+            mRetryLock.notifyAll();
+        }
+        if (mBuilder.mContext.scheduler().dequeue(this) && !mCancelCallbackFired) {
+            // The request never started, so nothing else will fire its callbacks
+            if (mBuilder.mEventListener != null)
+                mBuilder.mEventListener.cancelled(this, System.nanoTime());
+            mBuilder.mContext.fireCallbacks(this, null, new RequestException(this));
+        }
+    }
+
+    public Priority priority() {
+        return mBuilder.mPriority;
+    }
+
+    /**
+     * Changes the priority of this request. Has no effect if the request has already started.
+     */
+    public void priority(@NonNull Priority priority) {
+        mBuilder.mContext.scheduler().reprioritize(this, priority);
     }
 
     public Response response() {
@@ -10,6 +10,8 @@ import org.json.JSONObject;
 
 import java.io.File;
 import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -29,6 +31,16 @@ public final class RequestBuilder implements AsResultsExceptions {
     private Request mRequest;
     protected boolean mCancellable = true;
     protected Object mTag;
+    protected Priority mPriority = Priority.NORMAL;
+    protected boolean mStream;
+    protected Download mDownload;
+    protected boolean mMemoryCache = true;
+    protected long mMemoryCacheTtl = -1;
+    protected boolean mCompressResponses;
+    protected int mCompressionThreshold;
+    protected RetryPolicy mRetryPolicy;
+    protected EventListener mEventListener;
+    protected Transport mTransport;
 
     protected RequestBuilder(String url, Method method, Bridge context) {
         mContext = context;
@@ -39,10 +51,16 @@ public final class RequestBuilder implements AsResultsExceptions {
         mMethod = method;
 
         Config cf = Bridge.client().config();
-        mHeaders = cf.mDefaultHeaders;
+        // Copied, so headers set on one request don't leak into the defaults for every other request
+        mHeaders = new HashMap<>(cf.mDefaultHeaders);
         mConnectTimeout = cf.mConnectTimeout;
         mReadTimeout = cf.mReadTimeout;
         mBufferSize = cf.mBufferSize;
+        mCompressResponses = cf.mCompressResponses;
+        mCompressionThreshold = cf.mCompressionThreshold;
+        mRetryPolicy = cf.mRetryPolicy;
+        mEventListener = cf.mEventListener;
+        mTransport = cf.mTransport;
     }
 
     public RequestBuilder header(@NonNull String name, @NonNull Object value) {
@@ -146,6 +164,30 @@ public final class RequestBuilder implements AsResultsExceptions {
         return body(Pipe.forFile(file));
     }
 
+    /**
+     * Overrides {@link Config#compressResponses(boolean)} for this request.
+     */
+    public RequestBuilder compressResponse(boolean enabled) {
+        mCompressResponses = enabled;
+        return this;
+    }
+
+    /**
+     * Gzips the body of this request regardless of its size, or never, overriding {@link Config#compressRequests(int)}.
+     */
+    public RequestBuilder compressBody(boolean compress) {
+        mCompressionThreshold = compress ? 0 : -1;
+        return this;
+    }
+
+    /**
+     * Overrides {@link Config#retryPolicy(RetryPolicy)} for this request, pass null to disable retries.
+     */
+    public RequestBuilder retryPolicy(@Nullable RetryPolicy policy) {
+        mRetryPolicy = policy;
+        return this;
+    }
+
     public RequestBuilder cancellable(boolean cancelable) {
         mCancellable = cancelable;
         return this;
@@ -156,6 +198,44 @@ public final class RequestBuilder implements AsResultsExceptions {
         return this;
     }
 
+    /**
+     * Sets the order in which this request is started relative to other queued async requests.
+     */
+    public RequestBuilder priority(@NonNull Priority priority) {
+        mPriority = priority;
+        return this;
+    }
+
+    /**
+     * Streams the response body straight to a file rather than into memory. If the download is
+     * interrupted, the next request for the same destination resumes where it left off, as long as
+     * the server supports Range requests and the content hasn't changed.
+     */
+    public RequestBuilder download(@NonNull File destination) {
+        mDownload = new Download(destination);
+        return this;
+    }
+
+    /**
+     * Sets whether or not this request can be served from (and stored in) the memory cache, if the
+     * memory cache is enabled in the {@link Config}.
+     */
+    public RequestBuilder memoryCache(boolean enabled) {
+        mMemoryCache = enabled;
+        return this;
+    }
+
+    /**
+     * Overrides how long, in milliseconds, the response to this request stays in the memory cache.
+     * By default, the response's Cache-Control max-age is used.
+     */
+    public RequestBuilder memoryCacheTtl(long ttl) {
+        if (ttl < 0)
+            throw new IllegalArgumentException("The memory cache TTL must be greater than or equal to 0.");
+        mMemoryCacheTtl = ttl;
+        return this;
+    }
+
     public Request request() throws RequestException {
         return new Request(this).makeRequest();
     }
@@ -163,19 +243,10 @@ public final class RequestBuilder implements AsResultsExceptions {
     public Request request(Callback callback) {
         mRequest = new Request(this);
         if (mContext.pushCallback(mRequest, callback)) {
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        mRequest.makeRequest();
-                        if (mRequest.mCancelCallbackFired) return;
-                        mContext.fireCallbacks(mRequest, mRequest.response(), null);
-                    } catch (final RequestException e) {
-                        if (mRequest.mCancelCallbackFired) return;
-                        mContext.fireCallbacks(mRequest, null, e);
-                    }
-                }
-            }).start();
+            mRequest.mTask = new AsyncRequest(mRequest);
+            if (mEventListener != null)
+                mEventListener.requestQueued(mRequest, System.nanoTime());
+            mContext.scheduler().enqueue(mRequest.mTask);
         }
         return mRequest;
     }
@@ -186,6 +257,16 @@ public final class RequestBuilder implements AsResultsExceptions {
         return request().response();
     }
 
+    /**
+     * Makes the request without buffering the response body. The returned Response reads its
+     * body straight from the connection, which stays open until {@link Response#close()} is called
+     * or the Response's stream is closed.
+     */
+    public Response stream() throws RequestException {
+        mStream = true;
+        return request().response();
+    }
+
     public byte[] asBytes() throws Exception {
         return response().throwIfNotSuccess().asBytes();
     }
@@ -204,6 +285,29 @@ public final class RequestBuilder implements AsResultsExceptions {
         return response().throwIfNotSuccess().asBitmap();
     }
 
+    /**
+     * Decodes the response as a downsampled Bitmap, straight from the connection.
+     */
+    @Override
+    public Bitmap asBitmap(int targetWidth, int targetHeight) throws Exception {
+        return asBitmap(targetWidth, targetHeight, Bridge.client().config().mBitmapConfig);
+    }
+
+    public Bitmap asBitmap(int targetWidth, int targetHeight, @NonNull Bitmap.Config config) throws Exception {
+        final BitmapCache cache = mContext.bitmapCache();
+        if (cache != null) {
+            // Skip the request entirely if this image was already decoded at this size
+            final Bitmap cached = cache.get(BitmapCache.createKey(mUrl, targetWidth, targetHeight, config));
+            if (cached != null) return cached;
+        }
+        final Response response = stream();
+        try {
+            return response.throwIfNotSuccess().asBitmap(targetWidth, targetHeight, config);
+        } finally {
+            response.close();
+        }
+    }
+
     public JSONObject asJsonObject() throws Exception {
         return response().throwIfNotSuccess().asJsonObject();
     }
@@ -212,7 +316,54 @@ public final class RequestBuilder implements AsResultsExceptions {
         return response().throwIfNotSuccess().asJsonArray();
     }
 
+    /**
+     * Streams the response, unless the memory or disk cache could store it. A streamed body is never cached,
+     * so those responses are buffered instead.
+     */
+    private Response jsonResponse() throws RequestException {
+        final boolean cacheable = mMethod == Method.GET && mDownload == null
+                && ((mMemoryCache && mContext.memoryCache() != null) || mContext.diskCache() != null);
+        return cacheable ? response() : stream();
+    }
+
+    /**
+     * Decodes a JSON response into an instance of the class, straight from the connection unless it's cacheable.
+     */
+    @Override
+    public <T> T as(@NonNull Class<T> cls) throws Exception {
+        final Response response = jsonResponse();
+        try {
+            return response.throwIfNotSuccess().as(cls);
+        } finally {
+            response.close();
+        }
+    }
+
+    @Override
+    public <T> List<T> asList(@NonNull Class<T> cls) throws Exception {
+        final Response response = jsonResponse();
+        try {
+            return response.throwIfNotSuccess().asList(cls);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Decodes a JSON array response straight from the connection unless it's cacheable, handing each element
+     * to the callback as soon as it has arrived.
+     */
+    @Override
+    public <T> void asList(@NonNull Class<T> cls, @NonNull ElementCallback<T> callback) throws Exception {
+        final Response response = jsonResponse();
+        try {
+            response.throwIfNotSuccess().asList(cls, callback);
+        } finally {
+            response.close();
+        }
+    }
+
     public void asFile(File destination) throws Exception {
-        response().throwIfNotSuccess().asFile(destination);
+        download(destination).response().throwIfNotSuccess();
     }
 }
\ No newline at end of file
@@ -0,0 +1,86 @@
+package com.afollestad.bridge;
+
+import android.support.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Identifies a request for duplicate avoidance and the memory cache. Computed once per {@link Request}: two
+ * requests share a key if they have the same method, URL, headers and body. Requests that send a
+ * {@link Pipe} only share a key if they send the same Pipe instance.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class RequestKey {
+
+    private final Method mMethod;
+    private final String mUrl;
+    private final byte[] mBody;
+    private final Pipe mPipe;
+    private final String[] mHeaders;
+    private final int mHashCode;
+
+    protected RequestKey(RequestBuilder builder) {
+        mMethod = builder.mMethod;
+        mUrl = builder.mUrl;
+        mBody = builder.mBody;
+        mPipe = builder.mPipe;
+
+        if (builder.mHeaders != null && !builder.mHeaders.isEmpty()) {
+            // Sorted so that the order headers were set in doesn't matter
+            final Map<String, Object> sorted = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            sorted.putAll(builder.mHeaders);
+            mHeaders = new String[sorted.size() * 2];
+            int i = 0;
+            for (Map.Entry<String, Object> header : sorted.entrySet()) {
+                mHeaders[i++] = header.getKey().toLowerCase(Locale.US);
+                mHeaders[i++] = String.valueOf(header.getValue());
+            }
+        } else {
+            mHeaders = new String[0];
+        }
+
+        int hash = mMethod.hashCode();
+        hash = 31 * hash + mUrl.hashCode();
+        hash = 31 * hash + Arrays.hashCode(mBody);
+        hash = 31 * hash + System.identityHashCode(mPipe);
+        hash = 31 * hash + Arrays.hashCode(mHeaders);
+        mHashCode = hash;
+    }
+
+    @NonNull
+    public Method method() {
+        return mMethod;
+    }
+
+    @NonNull
+    public String url() {
+        return mUrl;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof RequestKey)) return false;
+        final RequestKey other = (RequestKey) o;
+        return mHashCode == other.mHashCode
+                && mMethod == other.mMethod
+                && mPipe == other.mPipe
+                && mUrl.equals(other.mUrl)
+                && Arrays.equals(mBody, other.mBody)
+                && Arrays.equals(mHeaders, other.mHeaders);
+    }
+
+    @Override
+    public int hashCode() {
+        return mHashCode;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s", mMethod.name(), mUrl);
+    }
+}
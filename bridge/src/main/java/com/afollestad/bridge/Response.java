@@ -2,6 +2,7 @@ package com.afollestad.bridge;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.support.annotation.NonNull;
 import android.text.Html;
 import android.text.Spanned;
 
@@ -12,10 +13,15 @@ import org.json.JSONObject;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -25,18 +31,50 @@ import java.util.Map;
 public final class Response implements AsResults {
 
     private final String mUrl;
-    private final byte[] mData;
+    private byte[] mData;
+    private InputStream mStream;
+    private BufferPool mPool;
+    protected File mFile;
     private final int mCode;
     private final String mMessage;
     private Bitmap mBitmapCache;
     private Map<String, List<String>> mHeaders;
+    protected int mAttempts = 1;
 
-    protected Response(byte[] data, String url, HttpURLConnection conn) throws IOException {
+    protected Response(byte[] data, String url, int code, String message, Map<String, List<String>> headers) {
         mData = data;
         mUrl = url;
-        mCode = conn.getResponseCode();
-        mMessage = conn.getResponseMessage();
-        mHeaders = conn.getHeaderFields();
+        mCode = code;
+        mMessage = message;
+        mHeaders = headers != null ? Collections.unmodifiableMap(headers) : null;
+    }
+
+    protected Response(String url, int code, String message, Map<String, List<String>> headers, InputStream stream,
+                       BufferPool pool) {
+        this(null, url, code, message, headers);
+        mStream = new BodyStream(stream);
+        mPool = pool;
+    }
+
+    /**
+     * The live body of a streaming response. Once it's closed, the response no longer counts as streaming.
+     */
+    private final class BodyStream extends FilterInputStream {
+
+        public BodyStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                synchronized (Response.this) {
+                    if (mStream == this) mStream = null;
+                }
+            }
+        }
     }
 
     public String url() {
@@ -51,12 +89,27 @@ public final class Response implements AsResults {
         return mMessage;
     }
 
+    /**
+     * Returns the first value of a header. Header names are case-insensitive, HTTP/2 sends them in lowercase.
+     */
     public String header(String name) {
-        return mHeaders.get(name).get(0);
+        final List<String> values = headerList(name);
+        return values != null && !values.isEmpty() ? values.get(0) : null;
     }
 
     public List<String> headerList(String name) {
-        return mHeaders.get(name);
+        if (mHeaders == null || name == null) return null;
+        final List<String> values = mHeaders.get(name);
+        if (values != null) return values;
+        for (Map.Entry<String, List<String>> header : mHeaders.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()))
+                return header.getValue();
+        }
+        return null;
+    }
+
+    public Map<String, List<String>> headers() {
+        return mHeaders;
     }
 
     public int contentLength() {
@@ -69,8 +122,16 @@ public final class Response implements AsResults {
         return header("Content-Type");
     }
 
+    /**
+     * The number of attempts it took to get this response, more than 1 if a {@link RetryPolicy} retried the request.
+     */
+    public int attempts() {
+        return mAttempts;
+    }
+
     public boolean isSuccess() {
-        return mCode == HttpURLConnection.HTTP_OK;
+        return mCode == HttpURLConnection.HTTP_OK
+                || (mFile != null && mCode == HttpURLConnection.HTTP_PARTIAL);
     }
 
     public Response throwIfNotSuccess() throws ResponseException {
@@ -78,8 +139,65 @@ public final class Response implements AsResults {
         return this;
     }
 
-    public byte[] asBytes() {
-        return mData;
+    /**
+     * Returns true if the body of this response hasn't been read from the connection yet.
+     */
+    public synchronized boolean isStreaming() {
+        return mStream != null;
+    }
+
+    /**
+     * Returns the body of this response as an InputStream. For a response made with
+     * {@link RequestBuilder#stream()}, this reads directly from the connection, and the connection
+     * stays open until the stream is closed.
+     */
+    public synchronized InputStream stream() {
+        if (mStream != null)
+            return mStream;
+        else if (mData == null)
+            return null;
+        return new ByteArrayInputStream(mData);
+    }
+
+    public ReadableByteChannel channel() {
+        final InputStream is = stream();
+        if (is == null) return null;
+        return Channels.newChannel(is);
+    }
+
+    /**
+     * Releases the connection held by a streaming response. Does nothing for a buffered response.
+     */
+    public synchronized void close() {
+        Util.closeQuietly(mStream);
+        mStream = null;
+    }
+
+    /**
+     * Reads the rest of a streaming response's body into memory, throwing if the connection fails. Does
+     * nothing for a buffered response. The as*() methods do this on first use, but report the failure as
+     * an unchecked IllegalStateException.
+     */
+    public synchronized Response buffer() throws ResponseException {
+        if (mStream != null) {
+            try {
+                mData = Util.readEntireStream(mStream);
+            } catch (IOException e) {
+                throw new ResponseException(this, e);
+            } finally {
+                mStream = null;
+            }
+        }
+        return this;
+    }
+
+    public synchronized byte[] asBytes() {
+        try {
+            // A streaming response is buffered the first time its content is requested as a whole
+            return buffer().mData;
+        } catch (ResponseException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
     }
 
     public String asString() {
@@ -111,8 +229,52 @@ public final class Response implements AsResults {
         return mBitmapCache;
     }
 
+    /**
+     * Decodes the response as a Bitmap that's downsampled to be no smaller than the target size, using the
+     * Bitmap.Config set in {@link Config#bitmapConfig(Bitmap.Config)}. A target of 0 leaves that dimension
+     * unconstrained. Unlike {@link #asBitmap()}, the result isn't cached in this Response, it's cached in
+     * the {@link BitmapCache} if that's enabled.
+     */
+    @Override
+    public Bitmap asBitmap(int targetWidth, int targetHeight) throws ResponseException {
+        return asBitmap(targetWidth, targetHeight, Bridge.client().config().mBitmapConfig);
+    }
+
+    public Bitmap asBitmap(int targetWidth, int targetHeight, @NonNull Bitmap.Config config) throws ResponseException {
+        final BitmapCache cache = Bridge.client().bitmapCache();
+        final String key = BitmapCache.createKey(mUrl, targetWidth, targetHeight, config);
+        if (cache != null) {
+            final Bitmap cached = cache.get(key);
+            if (cached != null) return cached;
+        }
+        final Bitmap bitmap = decodeBitmap(targetWidth, targetHeight, config);
+        if (cache != null && bitmap != null)
+            cache.put(key, bitmap);
+        return bitmap;
+    }
+
+    private Bitmap decodeBitmap(int targetWidth, int targetHeight, Bitmap.Config config) throws ResponseException {
+        final BitmapPool pool = Bridge.client().bitmapPool();
+        final InputStream stream;
+        synchronized (this) {
+            stream = mStream;
+            mStream = null;
+        }
+        if (stream != null) {
+            // Decode straight from the connection
+            try {
+                return BitmapDecoder.decode(stream, targetWidth, targetHeight, config, pool);
+            } catch (IOException e) {
+                throw new ResponseException(this, e);
+            } finally {
+                Util.closeQuietly(stream);
+            }
+        }
+        return BitmapDecoder.decode(asBytes(), targetWidth, targetHeight, config, pool);
+    }
+
     public JSONObject asJsonObject() throws ResponseException {
-        final String content = asString();
+        final String content = buffer().asString();
         if (content == null)
             throw new ResponseException("No content was returned in this response.");
         try {
@@ -123,7 +285,7 @@ public final class Response implements AsResults {
     }
 
     public JSONArray asJsonArray() throws ResponseException {
-        final String content = asString();
+        final String content = buffer().asString();
         if (content == null)
             throw new ResponseException("No content was returned in this response.");
         try {
@@ -133,11 +295,100 @@ public final class Response implements AsResults {
         }
     }
 
+    /**
+     * Decodes a JSON object into an instance of the class, see {@link JsonAdapter} for how fields are matched.
+     * The JSON is tokenized straight from the body bytes, or from the connection for a streaming response,
+     * without building a String or a JSONObject first.
+     */
+    @Override
+    public <T> T as(@NonNull Class<T> cls) throws ResponseException {
+        final JsonAdapter<T> adapter = JsonAdapter.get(cls);
+        final JsonTokenizer reader = jsonTokenizer();
+        try {
+            final T result = adapter.read(reader);
+            reader.endDocument();
+            return result;
+        } catch (IOException | JSONException e) {
+            throw new ResponseException(this, e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Decodes a JSON array into a list of instances of the class.
+     */
+    @Override
+    public <T> List<T> asList(@NonNull Class<T> cls) throws ResponseException {
+        final List<T> result = new ArrayList<>();
+        asList(cls, new ElementCallback<T>() {
+            @Override
+            public void element(T element) {
+                result.add(element);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Decodes a JSON array one element at a time, handing each to the callback as soon as it's read. For a
+     * streaming response, elements arrive while the rest of the body is still downloading, and only the
+     * current element is held in memory.
+     */
+    @Override
+    public <T> void asList(@NonNull Class<T> cls, @NonNull ElementCallback<T> callback) throws ResponseException {
+        final JsonAdapter<T> adapter = JsonAdapter.get(cls);
+        final JsonTokenizer reader = jsonTokenizer();
+        try {
+            reader.beginArray();
+            while (reader.hasNext())
+                callback.element(adapter.read(reader));
+            reader.endArray();
+            reader.endDocument();
+        } catch (IOException | JSONException e) {
+            throw new ResponseException(this, e);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private JsonTokenizer jsonTokenizer() throws ResponseException {
+        final InputStream stream;
+        synchronized (this) {
+            stream = mStream;
+            mStream = null;
+        }
+        if (stream != null)
+            return new JsonTokenizer(stream, mPool);
+        final byte[] data = asBytes();
+        if (data == null || data.length == 0)
+            throw new ResponseException("No content was returned in this response.");
+        return new JsonTokenizer(data);
+    }
+
+    /**
+     * Returns the file that the body was saved to, for a response made with {@link RequestBuilder#download(File)}.
+     */
+    public File file() {
+        return mFile;
+    }
+
     public void asFile(File destination) throws IOException {
+        if (mFile != null) {
+            if (!mFile.equals(destination))
+                Util.copy(mFile, destination);
+            return;
+        }
+        final byte[] data;
+        try {
+            data = buffer().mData;
+        } catch (ResponseException e) {
+            throw new IOException(e.getMessage(), e);
+        }
         FileOutputStream os = null;
         try {
             os = new FileOutputStream(destination);
-            os.write(asBytes());
+            os.write(data);
             os.flush();
         } finally {
             Util.closeQuietly(os);
@@ -146,6 +397,10 @@ public final class Response implements AsResults {
 
     @Override
     public String toString() {
+        if (mFile != null)
+            return String.format("%s, %d %s, saved to %s", mUrl, mCode, mMessage, mFile.getPath());
+        else if (isStreaming())
+            return String.format("%s, %d %s, streaming", mUrl, mCode, mMessage);
         return String.format("%s, %d %s, %d bytes", mUrl, mCode, mMessage, mData != null ? mData.length : 0);
     }
 }
\ No newline at end of file
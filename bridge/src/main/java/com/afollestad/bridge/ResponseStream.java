@@ -0,0 +1,97 @@
+package com.afollestad.bridge;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Wraps the live body of a streaming {@link Response}, firing progress as it's read and
+ * releasing the connection once it's closed.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class ResponseStream extends FilterInputStream {
+
+    private final Request mRequest;
+    private final TransportResponse mResponse;
+    private final long mTotalAvailable;
+    private long mTotalRead;
+    private boolean mClosed;
+    private boolean mEnded;
+
+    public ResponseStream(Request request, TransportResponse response, long totalAvailable) {
+        super(response.body());
+        mRequest = request;
+        mResponse = response;
+        mTotalAvailable = totalAvailable;
+        if (totalAvailable != 0)
+            fireProgress(0);
+    }
+
+    private void fireProgress(long current) {
+        mRequest.builder().mContext.fireProgress(mRequest, current, mTotalAvailable);
+    }
+
+    private void onRead(int read) throws IOException {
+        try {
+            mRequest.checkCancelled();
+        } catch (RequestException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        if (read == -1) {
+            onEnd();
+            return;
+        } else if (read == 0) {
+            return;
+        }
+        mTotalRead += read;
+        if (mTotalAvailable != 0)
+            fireProgress(mTotalRead);
+    }
+
+    private void onEnd() {
+        if (mEnded) return;
+        mEnded = true;
+        mRequest.onResponseEnd(mTotalRead);
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = super.read();
+        onRead(b != -1 ? 1 : -1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int count) throws IOException {
+        final int read = super.read(buffer, offset, count);
+        onRead(read);
+        return read;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        final long skipped = super.skip(byteCount);
+        onRead((int) Math.max(0, skipped));
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mClosed) return;
+        mClosed = true;
+        try {
+            super.close();
+        } finally {
+            mResponse.close();
+            onEnd();
+            if (mTotalAvailable == 0)
+                mRequest.builder().mContext.fireProgress(mRequest, 100, 100);
+        }
+    }
+}
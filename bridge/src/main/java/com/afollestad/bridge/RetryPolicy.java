@@ -0,0 +1,127 @@
+package com.afollestad.bridge;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Decides whether a failed attempt of a request is retried, and how long to wait first. Attempts are retried
+ * after I/O errors and responses with a retryable status code, up to a maximum number of attempts, waiting
+ * a random amount of time up to an exponentially growing backoff ("full jitter") in between. A Retry-After
+ * header on the response takes precedence over the backoff, capped at the max delay.
+ * <p>
+ * By default only requests with an idempotent method (GET, HEAD, PUT, DELETE, OPTIONS and TRACE) are retried,
+ * and requests with a {@link Pipe} body are never retried since a Pipe can only be sent once. Subclasses can
+ * override {@link #shouldRetry(Request, Response, Exception, int)} and {@link #delay(Response, int)}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class RetryPolicy {
+
+    private static final Random RANDOM = new Random();
+    private static final Set<String> IDEMPOTENT_METHODS = Collections.unmodifiableSet(new HashSet<>(
+            Arrays.asList("GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE")));
+
+    private final int mMaxAttempts;
+    private long mBaseDelay = 500;
+    private long mMaxDelay = 30000;
+    private int[] mRetryCodes = {408, 429, 500, 502, 503, 504};
+    private boolean mRetryNonIdempotent;
+
+    /**
+     * @param maxAttempts The total number of attempts, including the first one.
+     */
+    public RetryPolicy(int maxAttempts) {
+        if (maxAttempts < 1)
+            throw new IllegalArgumentException("The max number of attempts must be at least 1.");
+        mMaxAttempts = maxAttempts;
+    }
+
+    public int maxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * Sets the backoff before the first retry, which doubles on each later retry up to the max delay.
+     * Retry-After values longer than the max delay are capped at the max delay.
+     */
+    public RetryPolicy backoff(long baseDelay, long maxDelay) {
+        if (baseDelay <= 0)
+            throw new IllegalArgumentException("The base delay must be greater than 0.");
+        else if (maxDelay < baseDelay)
+            throw new IllegalArgumentException("The max delay must be at least the base delay.");
+        mBaseDelay = baseDelay;
+        mMaxDelay = maxDelay;
+        return this;
+    }
+
+    /**
+     * Sets the response codes that are retried. Defaults to 408, 429, 500, 502, 503 and 504.
+     */
+    public RetryPolicy retryOn(@NonNull int... codes) {
+        mRetryCodes = codes.clone();
+        Arrays.sort(mRetryCodes);
+        return this;
+    }
+
+    /**
+     * Allows retrying requests whose method isn't idempotent (e.g. POST), which the server may have processed
+     * before the attempt failed.
+     */
+    public RetryPolicy retryNonIdempotent(boolean retry) {
+        mRetryNonIdempotent = retry;
+        return this;
+    }
+
+    /**
+     * Returns true if the request should be tried again after an attempt ended with the given response or error.
+     *
+     * @param attempt The number of attempts made so far, starting at 1.
+     */
+    public boolean shouldRetry(@NonNull Request request, @Nullable Response response,
+                               @Nullable Exception error, int attempt) {
+        if (attempt >= mMaxAttempts || request.builder().mPipe != null)
+            return false;
+        else if (!mRetryNonIdempotent && !IDEMPOTENT_METHODS.contains(request.method().name()))
+            return false;
+        if (error != null)
+            return error instanceof IOException;
+        return response != null && Arrays.binarySearch(mRetryCodes, response.code()) >= 0;
+    }
+
+    /**
+     * Returns how many milliseconds to wait before the next attempt.
+     *
+     * @param response The response of the failed attempt, or null if it failed with an error.
+     * @param attempt  The number of attempts made so far, starting at 1.
+     */
+    public long delay(@Nullable Response response, int attempt) {
+        final long retryAfter = retryAfter(response);
+        if (retryAfter >= 0)
+            return Math.min(retryAfter, mMaxDelay);
+        final long ceiling = Math.min(mMaxDelay, mBaseDelay << Math.min(attempt - 1, 30));
+        return (long) (RANDOM.nextDouble() * ceiling);
+    }
+
+    /**
+     * Parses the Retry-After header, either delay-seconds or an HTTP date. Returns -1 if there isn't one.
+     */
+    protected static long retryAfter(@Nullable Response response) {
+        final String value = response != null ? response.header("Retry-After") : null;
+        if (value == null)
+            return -1;
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            final Date date = CacheControl.parseDate(value);
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : -1;
+        }
+    }
+}
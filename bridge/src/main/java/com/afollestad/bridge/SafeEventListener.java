@@ -0,0 +1,137 @@
+package com.afollestad.bridge;
+
+/**
+ * Wraps the {@link EventListener} set in the {@link Config}, so that a listener that throws can't fail
+ * the request it's observing.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class SafeEventListener extends EventListener {
+
+    private final EventListener mListener;
+
+    public SafeEventListener(EventListener listener) {
+        mListener = listener;
+    }
+
+    private void onError(String event, RuntimeException e) {
+        Log.e(this, "%s threw in %s: %s", mListener.getClass().getName(), event, e.toString());
+    }
+
+    @Override
+    public void requestQueued(Request request, long nanoTime) {
+        try {
+            mListener.requestQueued(request, nanoTime);
+        } catch (RuntimeException e) {
+            onError("requestQueued", e);
+        }
+    }
+
+    @Override
+    public void requestStart(Request request, long nanoTime) {
+        try {
+            mListener.requestStart(request, nanoTime);
+        } catch (RuntimeException e) {
+            onError("requestStart", e);
+        }
+    }
+
+    @Override
+    public void connectStart(Request request, long nanoTime) {
+        try {
+            mListener.connectStart(request, nanoTime);
+        } catch (RuntimeException e) {
+            onError("connectStart", e);
+        }
+    }
+
+    @Override
+    public void connectEnd(Request request, long nanoTime) {
+        try {
+            mListener.connectEnd(request, nanoTime);
+        } catch (RuntimeException e) {
+            onError("connectEnd", e);
+        }
+    }
+
+    @Override
+    public void requestHeadersEnd(Request request, long nanoTime) {
+        try {
+            mListener.requestHeadersEnd(request, nanoTime);
+        } catch (RuntimeException e) {
+            onError("requestHeadersEnd", e);
+        }
+    }
+
+    @Override
+    public void requestBodyEnd(Request request, long nanoTime, long byteCount) {
+        try {
+            mListener.requestBodyEnd(request, nanoTime, byteCount);
+        } catch (RuntimeException e) {
+            onError("requestBodyEnd", e);
+        }
+    }
+
+    @Override
+    public void responseHeadersEnd(Request request, long nanoTime, int code) {
+        try {
+            mListener.responseHeadersEnd(request, nanoTime, code);
+        } catch (RuntimeException e) {
+            onError("responseHeadersEnd", e);
+        }
+    }
+
+    @Override
+    public void responseFirstByte(Request request, long nanoTime) {
+        try {
+            mListener.responseFirstByte(request, nanoTime);
+        } catch (RuntimeException e) {
+            onError("responseFirstByte", e);
+        }
+    }
+
+    @Override
+    public void responseBodyEnd(Request request, long nanoTime, long byteCount) {
+        try {
+            mListener.responseBodyEnd(request, nanoTime, byteCount);
+        } catch (RuntimeException e) {
+            onError("responseBodyEnd", e);
+        }
+    }
+
+    @Override
+    public void requestEnd(Request request, long nanoTime) {
+        try {
+            mListener.requestEnd(request, nanoTime);
+        } catch (RuntimeException e) {
+            onError("requestEnd", e);
+        }
+    }
+
+    @Override
+    public void callbackDispatched(Request request, long nanoTime) {
+        try {
+            mListener.callbackDispatched(request, nanoTime);
+        } catch (RuntimeException e) {
+            onError("callbackDispatched", e);
+        }
+    }
+
+    @Override
+    public void cancelled(Request request, long nanoTime) {
+        try {
+            mListener.cancelled(request, nanoTime);
+        } catch (RuntimeException e) {
+            onError("cancelled", e);
+        }
+    }
+
+    @Override
+    public void failed(Request request, long nanoTime, RequestException error) {
+        try {
+            mListener.failed(request, nanoTime, error);
+        } catch (RuntimeException e) {
+            onError("failed", e);
+        }
+    }
+}
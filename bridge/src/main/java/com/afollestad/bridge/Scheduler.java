@@ -0,0 +1,237 @@
+package com.afollestad.bridge;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Queues async requests by {@link Priority} and hands them to Bridge's worker pool while
+ * capping how many connections are open in total and to each host.
+ * <p>
+ * Each host has its own queue, and the first request of every host that's below its limit is kept in a
+ * ready set, so starting, cancelling or re-prioritizing a request is O(log n) no matter how many requests
+ * are waiting on busy hosts. The number of queued requests is bounded by {@link Config#poolQueueCapacity(int)},
+ * past which the {@link RejectionPolicy} applies.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class Scheduler {
+
+    private static final Comparator<AsyncRequest> ORDER = new Comparator<AsyncRequest>() {
+        @Override
+        public int compare(AsyncRequest lhs, AsyncRequest rhs) {
+            final int byPriority = lhs.mPriority.compareTo(rhs.mPriority);
+            if (byPriority != 0) return byPriority;
+            return lhs.mSequence < rhs.mSequence ? -1 : (lhs.mSequence == rhs.mSequence ? 0 : 1);
+        }
+    };
+
+    private static final Comparator<AsyncRequest> ARRIVAL = new Comparator<AsyncRequest>() {
+        @Override
+        public int compare(AsyncRequest lhs, AsyncRequest rhs) {
+            return lhs.mSequence < rhs.mSequence ? -1 : (lhs.mSequence == rhs.mSequence ? 0 : 1);
+        }
+    };
+
+    private final Object LOCK = new Object();
+    private final Bridge mContext;
+    // Host -> its queued requests, in the order they start
+    private final Map<String, TreeSet<AsyncRequest>> mQueues = new HashMap<>();
+    // The first queued request of every host that's below its limit
+    private final TreeSet<AsyncRequest> mReady = new TreeSet<>(ORDER);
+    // Every queued request, oldest first
+    private final TreeSet<AsyncRequest> mQueued = new TreeSet<>(ARRIVAL);
+    private final Map<String, Integer> mRunningPerHost = new HashMap<>();
+    private int mRunning;
+    private long mSequence;
+
+    public Scheduler(Bridge context) {
+        mContext = context;
+    }
+
+    public void enqueue(AsyncRequest task) {
+        final List<AsyncRequest> ready = new ArrayList<>();
+        AsyncRequest rejected = null;
+        String reason = null;
+        boolean callerRuns = false;
+        synchronized (LOCK) {
+            task.mSequence = mSequence++;
+            task.mPriority = task.request().builder().mPriority;
+            if (task.mPriority == Priority.IMMEDIATE) {
+                start(task);
+                ready.add(task);
+            } else {
+                add(task);
+                promote(ready);
+                final Config cf = mContext.config();
+                if (mQueued.size() > cf.mPoolQueueCapacity) {
+                    switch (cf.mRejectionPolicy) {
+                        case CALLER_RUNS:
+                            remove(task);
+                            // Running it on the UI thread would block it for the whole network call
+                            if (Util.isMainThread()) {
+                                rejected = task;
+                                reason = "Bridge's request queue is full, and the main thread can't run requests.";
+                                break;
+                            }
+                            start(task);
+                            callerRuns = true;
+                            break;
+                        case DISCARD_OLDEST:
+                            rejected = mQueued.first();
+                            remove(rejected);
+                            reason = "Discarded to make room for a newer request.";
+                            break;
+                        default:
+                            rejected = task;
+                            remove(task);
+                            reason = "Bridge's request queue is full.";
+                            break;
+                    }
+                }
+            }
+        }
+        // Executed outside of the lock since the pool may run a task on this thread
+        execute(ready);
+        if (rejected != null) {
+            mContext.onRejected();
+            rejected.reject(new RejectedExecutionException(reason));
+        } else if (callerRuns) {
+            mContext.onRejected();
+            task.run();
+        }
+    }
+
+    /**
+     * Removes a request that hasn't started yet. Returns false if it was never queued or is already running.
+     */
+    public boolean dequeue(Request request) {
+        final AsyncRequest task = request.mTask;
+        if (task == null) return false;
+        synchronized (LOCK) {
+            return remove(task);
+        }
+    }
+
+    public void reprioritize(Request request, Priority priority) {
+        final List<AsyncRequest> ready = new ArrayList<>();
+        synchronized (LOCK) {
+            request.builder().mPriority = priority;
+            final AsyncRequest task = request.mTask;
+            if (task == null || !remove(task))
+                return;
+            task.mPriority = priority;
+            if (priority == Priority.IMMEDIATE) {
+                start(task);
+                ready.add(task);
+            } else {
+                add(task);
+                promote(ready);
+            }
+        }
+        execute(ready);
+    }
+
+    public void finished(AsyncRequest task) {
+        final List<AsyncRequest> ready = new ArrayList<>();
+        synchronized (LOCK) {
+            if (!task.mRunning) return;
+            task.mRunning = false;
+            mRunning--;
+            final Integer hostCount = mRunningPerHost.get(task.mHost);
+            if (hostCount == null || hostCount <= 1)
+                mRunningPerHost.remove(task.mHost);
+            else mRunningPerHost.put(task.mHost, hostCount - 1);
+            // The host may have just dropped below its limit
+            final TreeSet<AsyncRequest> queue = mQueues.get(task.mHost);
+            if (queue != null && hasCapacity(task.mHost))
+                mReady.add(queue.first());
+            promote(ready);
+        }
+        execute(ready);
+    }
+
+    public int queuedCount() {
+        synchronized (LOCK) {
+            return mQueued.size();
+        }
+    }
+
+    public int runningCount() {
+        synchronized (LOCK) {
+            return mRunning;
+        }
+    }
+
+    // The methods below must hold LOCK
+
+    private boolean hasCapacity(String host) {
+        final Integer hostCount = mRunningPerHost.get(host);
+        return hostCount == null || hostCount < mContext.config().mMaxRequestsPerHost;
+    }
+
+    private void add(AsyncRequest task) {
+        TreeSet<AsyncRequest> queue = mQueues.get(task.mHost);
+        if (queue == null) {
+            queue = new TreeSet<>(ORDER);
+            mQueues.put(task.mHost, queue);
+        }
+        final AsyncRequest head = queue.isEmpty() ? null : queue.first();
+        queue.add(task);
+        mQueued.add(task);
+        if (queue.first() == task && hasCapacity(task.mHost)) {
+            if (head != null) mReady.remove(head);
+            mReady.add(task);
+        }
+    }
+
+    private boolean remove(AsyncRequest task) {
+        final TreeSet<AsyncRequest> queue = mQueues.get(task.mHost);
+        if (queue == null) return false;
+        final boolean head = queue.first() == task;
+        if (!queue.remove(task)) return false;
+        mQueued.remove(task);
+        if (head) {
+            mReady.remove(task);
+            if (queue.isEmpty())
+                mQueues.remove(task.mHost);
+            else if (hasCapacity(task.mHost))
+                mReady.add(queue.first());
+        }
+        return true;
+    }
+
+    private void start(AsyncRequest task) {
+        final Integer hostCount = mRunningPerHost.get(task.mHost);
+        task.mRunning = true;
+        mRunning++;
+        mRunningPerHost.put(task.mHost, hostCount != null ? hostCount + 1 : 1);
+    }
+
+    private void promote(List<AsyncRequest> ready) {
+        final Config cf = mContext.config();
+        while (!mReady.isEmpty() && mRunning < cf.mMaxRequests) {
+            final AsyncRequest task = mReady.pollFirst();
+            // The per-host limit may have been lowered since this host was marked ready
+            if (!hasCapacity(task.mHost)) continue;
+            final TreeSet<AsyncRequest> queue = mQueues.get(task.mHost);
+            queue.pollFirst();
+            mQueued.remove(task);
+            start(task);
+            ready.add(task);
+            if (queue.isEmpty())
+                mQueues.remove(task.mHost);
+            else if (hasCapacity(task.mHost))
+                mReady.add(queue.first());
+        }
+    }
+
+    private void execute(List<AsyncRequest> ready) {
+        for (AsyncRequest task : ready)
+            mContext.executor().execute(task);
+    }
+}
@@ -13,20 +13,30 @@ class TransferPipe extends Pipe {
 
     private final InputStream mIs;
     private final String mContentType;
+    private final long mContentLength;
 
-    public TransferPipe(@NonNull InputStream is, @NonNull String contentType) {
+    public TransferPipe(@NonNull InputStream is, @NonNull String contentType, long contentLength) {
         mIs = is;
         mContentType = contentType;
+        mContentLength = contentLength;
+    }
+
+    @Override
+    public long contentLength() {
+        return mContentLength;
     }
 
     @Override
     public void writeTo(@NonNull OutputStream os) throws IOException {
+        final BufferPool pool = Bridge.client().bufferPool();
+        byte[] buffer = null;
         try {
-            byte[] buffer = new byte[Bridge.client().config().mBufferSize];
+            buffer = pool.get(Bridge.client().config().mBufferSize);
             int read;
             while ((read = mIs.read(buffer)) != -1)
                 os.write(buffer, 0, read);
         } finally {
+            pool.recycle(buffer);
             Util.closeQuietly(mIs);
         }
     }
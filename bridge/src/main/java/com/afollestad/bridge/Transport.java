@@ -0,0 +1,25 @@
+package com.afollestad.bridge;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Moves requests over the wire. Bridge prepares everything about a request (headers, caching, compression,
+ * retries, callbacks) and hands the transport a {@link TransportRequest}; the transport sends it and returns
+ * as soon as the response headers have arrived, with the body still unread.
+ * <p>
+ * The default is {@link UrlConnectionTransport}. Set another with {@link Config#transport(Transport)}, e.g. a
+ * {@link MockTransport} in tests. Implementations are used from many threads at once.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public interface Transport {
+
+    /**
+     * Sends the request and returns its response. Responses with error codes (4xx, 5xx) are returned like
+     * any other response; an IOException means no response was received. The caller closes the response.
+     */
+    @NonNull
+    TransportResponse execute(@NonNull TransportRequest request) throws IOException;
+}
@@ -0,0 +1,25 @@
+package com.afollestad.bridge;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+
+/**
+ * Receives the outcome of {@link AsyncTransport#enqueue(TransportRequest, TransportCallback)}. Both methods
+ * are usually called on one of the transport's I/O threads and must return quickly; reading a body that isn't
+ * complete yet from there would stall the thread that's receiving it.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public interface TransportCallback {
+
+    /**
+     * The response head has arrived. The receiver closes the response.
+     */
+    void onResponse(@NonNull TransportResponse response);
+
+    /**
+     * No response was received.
+     */
+    void onFailure(@NonNull IOException e);
+}
@@ -0,0 +1,146 @@
+package com.afollestad.bridge;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A request as a {@link Transport} sees it: the final method, URL, headers and body. Transports report their
+ * progress through the on*() methods, which feed Bridge's {@link EventListener}.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public final class TransportRequest {
+
+    private final Request mRequest;
+    private final Map<String, String> mHeaders;
+    private final byte[] mBody;
+    private final Pipe mPipe;
+    private final boolean mGzipPipe;
+    private final long mContentLength;
+
+    protected TransportRequest(Request request, Map<String, String> headers, byte[] body, Pipe pipe,
+                               boolean gzipPipe, long contentLength) {
+        mRequest = request;
+        mHeaders = Collections.unmodifiableMap(headers);
+        mBody = body;
+        mPipe = pipe;
+        mGzipPipe = gzipPipe;
+        mContentLength = contentLength;
+    }
+
+    @NonNull
+    public Request request() {
+        return mRequest;
+    }
+
+    @NonNull
+    public Method method() {
+        return mRequest.method();
+    }
+
+    @NonNull
+    public String url() {
+        return mRequest.url();
+    }
+
+    /**
+     * The headers to send, in order. Doesn't include Host, Content-Length, Transfer-Encoding or Connection,
+     * which are up to the transport.
+     */
+    @NonNull
+    public Map<String, String> headers() {
+        return mHeaders;
+    }
+
+    public boolean hasBody() {
+        return mBody != null || mPipe != null;
+    }
+
+    /**
+     * The number of bytes {@link #writeBody(OutputStream)} writes, or -1 if it isn't known up front and the
+     * body must be chunked.
+     */
+    public long contentLength() {
+        return mContentLength;
+    }
+
+    /**
+     * The body as an array if it's already in memory, which lets a transport skip copying. Null for a body
+     * that's streamed from a {@link Pipe}.
+     */
+    @Nullable
+    public byte[] bodyBytes() {
+        return mPipe == null ? mBody : null;
+    }
+
+    /**
+     * Writes the body to the stream, and reports it as sent to the {@link EventListener}. Doesn't close the stream.
+     */
+    public void writeBody(@NonNull OutputStream os) throws IOException {
+        final CountingOutputStream counter = new CountingOutputStream(os);
+        if (mPipe != null) {
+            if (mGzipPipe) {
+                final GZIPOutputStream gzip = new GZIPOutputStream(counter, bufferSize());
+                mPipe.writeTo(gzip);
+                gzip.finish();
+            } else {
+                mPipe.writeTo(counter);
+            }
+        } else if (mBody != null) {
+            counter.write(mBody, 0, mBody.length);
+        }
+        counter.flush();
+        onRequestBodyEnd(counter.count());
+    }
+
+    public int connectTimeout() {
+        return mRequest.builder().mConnectTimeout;
+    }
+
+    public int readTimeout() {
+        return mRequest.builder().mReadTimeout;
+    }
+
+    public int bufferSize() {
+        return mRequest.builder().mBufferSize;
+    }
+
+    public boolean isCancelled() {
+        return mRequest.isCancelled();
+    }
+
+    public void onConnectStart() {
+        final EventListener listener = mRequest.builder().mEventListener;
+        if (listener != null)
+            listener.connectStart(mRequest, System.nanoTime());
+    }
+
+    public void onConnectEnd() {
+        final EventListener listener = mRequest.builder().mEventListener;
+        if (listener != null)
+            listener.connectEnd(mRequest, System.nanoTime());
+    }
+
+    public void onRequestHeadersEnd() {
+        final EventListener listener = mRequest.builder().mEventListener;
+        if (listener != null)
+            listener.requestHeadersEnd(mRequest, System.nanoTime());
+    }
+
+    private void onRequestBodyEnd(long byteCount) {
+        final EventListener listener = mRequest.builder().mEventListener;
+        if (listener != null)
+            listener.requestBodyEnd(mRequest, System.nanoTime(), byteCount);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s", method().name(), url());
+    }
+}
@@ -0,0 +1,64 @@
+package com.afollestad.bridge;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A response as a {@link Transport} returns it: status and headers, with a body that hasn't been read yet.
+ * The body is exactly what came over the wire, still compressed if it has a Content-Encoding.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public abstract class TransportResponse implements Closeable {
+
+    public abstract int code();
+
+    @Nullable
+    public abstract String message();
+
+    /**
+     * All response headers. Names are matched case-insensitively by {@link #header(String)}.
+     */
+    @NonNull
+    public abstract Map<String, List<String>> headers();
+
+    /**
+     * The response body, which is empty rather than null if there isn't one.
+     */
+    @NonNull
+    public abstract InputStream body();
+
+    /**
+     * Releases the connection, or returns it to a pool if the transport supports that. The body can't be
+     * read after this.
+     */
+    @Override
+    public abstract void close();
+
+    @Nullable
+    public String header(@NonNull String name) {
+        for (Map.Entry<String, List<String>> header : headers().entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && header.getValue() != null && !header.getValue().isEmpty())
+                return header.getValue().get(0);
+        }
+        return null;
+    }
+
+    /**
+     * The Content-Length of the body, or -1 if it isn't known.
+     */
+    public long contentLength() {
+        final String value = header("Content-Length");
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
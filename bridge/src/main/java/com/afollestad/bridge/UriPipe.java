@@ -1,6 +1,7 @@
 package com.afollestad.bridge;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.net.Uri;
 import android.support.annotation.NonNull;
 
@@ -27,19 +28,47 @@ class UriPipe extends Pipe {
     @Override
     public void writeTo(@NonNull OutputStream os) throws IOException {
         InputStream is = null;
+        final BufferPool pool = Bridge.client().bufferPool();
+        byte[] buffer = null;
         try {
             if (mUri.getScheme() == null || mUri.getScheme().equalsIgnoreCase("file"))
                 is = new FileInputStream(mUri.getPath());
             else is = mContext.getContentResolver().openInputStream(mUri);
-            byte[] buffer = new byte[Bridge.client().config().mBufferSize];
+            buffer = pool.get(Bridge.client().config().mBufferSize);
             int read;
             while ((read = is.read(buffer)) != -1)
                 os.write(buffer, 0, read);
         } finally {
+            pool.recycle(buffer);
             Util.closeQuietly(is);
         }
     }
 
+    @Override
+    public long contentLength() {
+        if (mUri.getScheme() == null || mUri.getScheme().equalsIgnoreCase("file")) {
+            final File file = new File(mUri.getPath());
+            return file.exists() ? file.length() : -1;
+        }
+        AssetFileDescriptor fd = null;
+        try {
+            fd = mContext.getContentResolver().openAssetFileDescriptor(mUri, "r");
+            if (fd == null) return -1;
+            final long length = fd.getLength();
+            return length >= 0 ? length : -1;
+        } catch (Exception e) {
+            return -1;
+        } finally {
+            // AssetFileDescriptor is only Closeable from API 19
+            if (fd != null) {
+                try {
+                    fd.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
     @Override
     @NonNull
     public String contentType() {
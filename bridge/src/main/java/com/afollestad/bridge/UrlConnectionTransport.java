@@ -0,0 +1,293 @@
+package com.afollestad.bridge;
+
+import android.os.Build;
+import android.support.annotation.NonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The default {@link Transport}, which sends requests with the platform's HttpURLConnection.
+ * <p>
+ * By default every connection is disconnected once its response has been read, which closes the socket. With
+ * {@link #reuseConnections(int)}, responses are drained and closed instead, which lets the platform keep
+ * the socket in its pool and send the next request to the same host over it. The platform doesn't say which
+ * sockets it keeps, so the transport counts them itself: every response it lets go idle adds one to its host,
+ * and every new request to that host takes one, like the platform's pool does.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+public class UrlConnectionTransport implements Transport {
+
+    /**
+     * How much of an unread body is drained to save its connection, anything bigger costs more than a new one.
+     */
+    private static final int MAX_DRAIN = 64 * 1024;
+
+    private volatile int mMaxIdlePerHost;
+    // host:port -> the number of connections released to the platform's pool that no request has taken yet
+    private final Map<String, Integer> mIdlePerHost = new HashMap<>();
+    private final AtomicLong mReleasedCount = new AtomicLong();
+    private final AtomicLong mDiscardedCount = new AtomicLong();
+
+    /**
+     * Lets the platform reuse connections rather than disconnecting after every request, which is the default.
+     * Up to {@code maxIdlePerHost} connections per host are drained and released to the platform's pool, the
+     * rest are disconnected. The platform's own limit (the process-wide http.maxConnections system property, 5
+     * by default) still applies on top of this one. Pass 0 to disconnect after every request.
+     */
+    public UrlConnectionTransport reuseConnections(int maxIdlePerHost) {
+        if (maxIdlePerHost < 0)
+            throw new IllegalArgumentException("The max number of idle connections must be 0 or greater.");
+        mMaxIdlePerHost = maxIdlePerHost;
+        if (maxIdlePerHost == 0) {
+            synchronized (mIdlePerHost) {
+                mIdlePerHost.clear();
+            }
+        }
+        return this;
+    }
+
+    private static String hostKey(URL url) {
+        return url.getHost() + ":" + (url.getPort() != -1 ? url.getPort() : url.getDefaultPort());
+    }
+
+    /**
+     * Counts a new request to the host against its idle connections, since the platform hands it one if it can.
+     */
+    private void takeIdle(String host) {
+        synchronized (mIdlePerHost) {
+            final Integer idle = mIdlePerHost.get(host);
+            if (idle == null) return;
+            if (idle <= 1) mIdlePerHost.remove(host);
+            else mIdlePerHost.put(host, idle - 1);
+        }
+    }
+
+    /**
+     * Returns true and counts the connection if its host has room for another idle one.
+     */
+    private boolean offerIdle(String host) {
+        synchronized (mIdlePerHost) {
+            final Integer idle = mIdlePerHost.get(host);
+            final int count = idle != null ? idle : 0;
+            if (count >= mMaxIdlePerHost) return false;
+            mIdlePerHost.put(host, count + 1);
+            return true;
+        }
+    }
+
+    public ConnectionStats connectionStats() {
+        return new ConnectionStats(-1, -1, mReleasedCount.get(), mDiscardedCount.get(), -1);
+    }
+
+    @NonNull
+    @Override
+    public TransportResponse execute(@NonNull TransportRequest request) throws IOException {
+        final URL url = new URL(request.url());
+        final String host = hostKey(url);
+        final boolean reuse = mMaxIdlePerHost > 0;
+        if (reuse) takeIdle(host);
+        final HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        try {
+            conn.setReadTimeout(request.readTimeout());
+            conn.setConnectTimeout(request.connectTimeout());
+            conn.setRequestMethod(request.method().name());
+            conn.setInstanceFollowRedirects(true);
+            conn.setDoInput(true);
+            for (Map.Entry<String, String> header : request.headers().entrySet())
+                conn.setRequestProperty(header.getKey(), header.getValue());
+            if (request.hasBody()) {
+                conn.setDoOutput(true);
+                // Without a streaming mode, HttpURLConnection buffers the whole body before sending it
+                setStreamingMode(conn, request.contentLength());
+            }
+
+            request.onConnectStart();
+            conn.connect();
+            request.onConnectEnd();
+
+            if (request.hasBody()) {
+                OutputStream os = null;
+                try {
+                    os = conn.getOutputStream();
+                    request.onRequestHeadersEnd();
+                    request.writeBody(os);
+                } finally {
+                    Util.closeQuietly(os);
+                }
+            } else {
+                request.onRequestHeadersEnd();
+            }
+
+            final int code = conn.getResponseCode();
+            // getInputStream() throws for error codes, their body comes from getErrorStream()
+            final InputStream body = code >= HttpURLConnection.HTTP_BAD_REQUEST ? conn.getErrorStream() : conn.getInputStream();
+            return new ConnectionResponse(conn, code, body, reuse ? host : null,
+                    request.request().builder().mContext.bufferPool(), request.bufferSize());
+        } catch (IOException e) {
+            conn.disconnect();
+            mDiscardedCount.incrementAndGet();
+            throw e;
+        }
+    }
+
+    private static void setStreamingMode(HttpURLConnection conn, long contentLength) {
+        if (contentLength >= 0 && contentLength <= Integer.MAX_VALUE) {
+            conn.setFixedLengthStreamingMode((int) contentLength);
+        } else if (contentLength >= 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            conn.setFixedLengthStreamingMode(contentLength);
+        } else {
+            // Use the platform's default chunk size
+            conn.setChunkedStreamingMode(0);
+        }
+    }
+
+    private final class ConnectionResponse extends TransportResponse {
+
+        private final HttpURLConnection mConn;
+        private final int mCode;
+        private final InputStream mBody;
+        // Null unless the connection may be released to the platform's pool
+        private final String mHost;
+        private boolean mClosed;
+
+        public ConnectionResponse(HttpURLConnection conn, int code, InputStream body, String host,
+                                  BufferPool pool, int bufferSize) {
+            mConn = conn;
+            mCode = code;
+            mHost = host;
+            if (body == null)
+                mBody = new ByteArrayInputStream(new byte[0]);
+            else mBody = host != null ? new DrainingStream(body, pool, bufferSize) : body;
+        }
+
+        @Override
+        public int code() {
+            return mCode;
+        }
+
+        @Override
+        public String message() {
+            try {
+                return mConn.getResponseMessage();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @NonNull
+        @Override
+        public Map<String, List<String>> headers() {
+            final Map<String, List<String>> headers = mConn.getHeaderFields();
+            return headers != null ? headers : Collections.<String, List<String>>emptyMap();
+        }
+
+        @NonNull
+        @Override
+        public InputStream body() {
+            return mBody;
+        }
+
+        @Override
+        public long contentLength() {
+            return mConn.getContentLength();
+        }
+
+        @Override
+        public synchronized void close() {
+            if (mClosed) return;
+            mClosed = true;
+            if (mHost != null && offerIdle(mHost)) {
+                Util.closeQuietly(mBody);
+                if (!(mBody instanceof DrainingStream) || ((DrainingStream) mBody).isReusable()) {
+                    // The platform keeps the connection once its stream has been read to the end and closed
+                    mReleasedCount.incrementAndGet();
+                    return;
+                }
+                takeIdle(mHost);
+            } else if (mBody instanceof DrainingStream) {
+                // The host already has enough idle connections, so the rest of the body isn't worth reading
+                ((DrainingStream) mBody).closeWithoutDraining();
+            } else {
+                Util.closeQuietly(mBody);
+            }
+            mConn.disconnect();
+            mDiscardedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Reads whatever is left of the body when it's closed, since the platform only reuses a connection whose
+     * response was read to the end. Decoders such as GZIPInputStream can stop right before the end.
+     */
+    private static final class DrainingStream extends FilterInputStream {
+
+        private final BufferPool mPool;
+        private final int mBufferSize;
+        private boolean mEnded;
+        private boolean mClosed;
+        private boolean mReusable;
+
+        public DrainingStream(InputStream in, BufferPool pool, int bufferSize) {
+            super(in);
+            mPool = pool;
+            mBufferSize = bufferSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b == -1) mEnded = true;
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+            final int read = super.read(buffer, offset, count);
+            if (read == -1) mEnded = true;
+            return read;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (mClosed) return;
+            mClosed = true;
+            final byte[] buffer = mPool.get(mBufferSize);
+            try {
+                long drained = 0;
+                while (!mEnded && drained <= MAX_DRAIN) {
+                    final int read = read(buffer, 0, buffer.length);
+                    if (read > 0) drained += read;
+                }
+                super.close();
+                mReusable = mEnded;
+            } catch (IOException e) {
+                mReusable = false;
+                throw e;
+            } finally {
+                mPool.recycle(buffer);
+            }
+        }
+
+        public synchronized void closeWithoutDraining() {
+            if (mClosed) return;
+            mClosed = true;
+            Util.closeQuietly(in);
+        }
+
+        public synchronized boolean isReusable() {
+            return mReusable;
+        }
+    }
+}
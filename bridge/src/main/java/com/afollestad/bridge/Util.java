@@ -1,11 +1,16 @@
 package com.afollestad.bridge;
 
+import android.os.Looper;
+import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.FileChannel;
 
 /**
  * @author Aidan Follestad (afollestad)
@@ -22,22 +27,59 @@ public class Util {
     }
 
     public static byte[] readEntireStream(@Nullable InputStream is) throws IOException {
+        return readEntireStream(is, -1);
+    }
+
+    /**
+     * Reads a stream into a byte array. If {@code expectedLength} is known, the content is read into an
+     * array of that size without any intermediate copies.
+     */
+    public static byte[] readEntireStream(@Nullable InputStream is, int expectedLength) throws IOException {
         if (is == null) return null;
-        ByteArrayOutputStream os = null;
+        final BufferPool pool = Bridge.client().bufferPool();
+        final int bufferSize = Bridge.client().config().mBufferSize;
+        PooledByteArrayOutputStream os = null;
+        byte[] buffer = null;
         try {
-            os = new ByteArrayOutputStream();
-            byte[] buffer = new byte[Bridge.client().config().mBufferSize];
+            os = new PooledByteArrayOutputStream(pool, bufferSize, expectedLength);
+            buffer = pool.get(bufferSize);
             int read;
             while ((read = is.read(buffer)) != -1)
                 os.write(buffer, 0, read);
-            os.flush();
             return os.toByteArray();
         } finally {
             Util.closeQuietly(os);
             Util.closeQuietly(is);
+            pool.recycle(buffer);
         }
     }
 
+    public static void copy(@NonNull File source, @NonNull File destination) throws IOException {
+        FileInputStream is = null;
+        FileOutputStream os = null;
+        try {
+            is = new FileInputStream(source);
+            os = new FileOutputStream(destination);
+            final FileChannel in = is.getChannel();
+            final FileChannel out = os.getChannel();
+            long position = 0;
+            final long size = in.size();
+            while (position < size)
+                position += in.transferTo(position, size - position, out);
+        } finally {
+            Util.closeQuietly(is);
+            Util.closeQuietly(os);
+        }
+    }
+
+    /**
+     * Returns true on the main (UI) thread, where network calls aren't allowed.
+     */
+    public static boolean isMainThread() {
+        final Looper main = Looper.getMainLooper();
+        return main != null && main == Looper.myLooper();
+    }
+
     private Util() {
     }
 }
@@ -0,0 +1,186 @@
+package com.afollestad.bridge;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Aidan Follestad (afollestad)
+ */
+public class BatchTest {
+
+    /**
+     * Holds requests for URLs ending in /slow in the transport until released.
+     */
+    private static final class BlockingTransport extends MockTransport {
+
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public TransportResponse execute(TransportRequest request) throws IOException {
+            if (request.url().endsWith("/slow")) {
+                entered.countDown();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            return super.execute(request);
+        }
+    }
+
+    private static final class Results extends BatchCallback {
+
+        final CountDownLatch done = new CountDownLatch(1);
+        Response[] responses;
+        RequestException[] errors;
+
+        @Override
+        public void response(Batch batch, Response[] responses, RequestException[] errors) {
+            this.responses = responses;
+            this.errors = errors;
+            done.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("The batch never finished.", done.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private BlockingTransport mTransport;
+    private final DirectExecutor mExecutor = new DirectExecutor();
+
+    @Before
+    public void setUp() {
+        mTransport = new BlockingTransport();
+        Bridge.client().config()
+                .transport(mTransport)
+                .callbackExecutor(mExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        mTransport.release.countDown();
+        Bridge.cleanup();
+        mExecutor.shutdown();
+    }
+
+    @Test
+    public void resultsAreInOrder() throws Exception {
+        mTransport.enqueue(200, "a").enqueue(404, "b").enqueue(200, "c");
+        final Results results = new Results();
+        Bridge.client().batch()
+                .add(Bridge.client().get("http://example.com/a"))
+                .add(Bridge.client().get("http://example.com/b"))
+                .add(Bridge.client().get("http://example.com/c"))
+                .parallelism(1)
+                .request(results);
+        results.await();
+        assertEquals("a", results.responses[0].asString());
+        assertEquals(404, results.responses[1].code());
+        assertEquals("c", results.responses[2].asString());
+        for (RequestException error : results.errors)
+            assertNull(error);
+    }
+
+    @Test
+    public void failFastCancelsTheRest() throws Exception {
+        mTransport.enqueue(500, "a").enqueue(200, "b").enqueue(200, "c");
+        final Results results = new Results();
+        Bridge.client().batch()
+                .add(Bridge.client().get("http://example.com/a"))
+                .add(Bridge.client().get("http://example.com/b"))
+                .add(Bridge.client().get("http://example.com/c"))
+                .parallelism(1)
+                .failFast(true)
+                .request(results);
+        results.await();
+        assertEquals(500, results.responses[0].code());
+        assertTrue(results.errors[1].isCancelled());
+        assertTrue(results.errors[2].isCancelled());
+        assertEquals(1, mTransport.requests().size());
+    }
+
+    @Test
+    public void cancelLeavesOtherRequestsAlone() throws Exception {
+        mTransport.enqueue(200, "shared");
+        final Results results = new Results();
+        final Batch batch = Bridge.client().batch()
+                .add(Bridge.client().get("http://example.com/slow").tag("item"))
+                .add(Bridge.client().get("http://example.com/b"))
+                .parallelism(1)
+                .tag("screen")
+                .request(results);
+        assertTrue(mTransport.entered.await(10, TimeUnit.SECONDS));
+
+        // Shares the batch's tag and joins the in-flight request for the same URL
+        final CountDownLatch otherDone = new CountDownLatch(1);
+        final AtomicReference<Response> otherResponse = new AtomicReference<>();
+        Bridge.client().get("http://example.com/slow").tag("screen").request(new Callback() {
+            @Override
+            public void response(Request request, Response response, RequestException e) {
+                otherResponse.set(response);
+                otherDone.countDown();
+            }
+        });
+
+        batch.cancel();
+        results.await();
+        assertTrue(results.errors[0].isCancelled());
+        assertTrue(results.errors[1].isCancelled());
+
+        mTransport.release.countDown();
+        assertTrue(otherDone.await(10, TimeUnit.SECONDS));
+        assertNotNull(otherResponse.get());
+        assertEquals("shared", otherResponse.get().asString());
+        assertEquals(1, mTransport.requests().size());
+    }
+
+    @Test
+    public void itemsKeepTheirOwnTags() throws Exception {
+        mTransport.enqueue(200, "b");
+        final Results results = new Results();
+        Bridge.client().batch()
+                .add(Bridge.client().get("http://example.com/slow").tag("item"))
+                .add(Bridge.client().get("http://example.com/b"))
+                .parallelism(1)
+                .tag("screen")
+                .request(results);
+        assertTrue(mTransport.entered.await(10, TimeUnit.SECONDS));
+
+        // Cancels only the tagged item, the batch moves on to the next one
+        Bridge.client().cancelAll("item");
+        results.await();
+        assertTrue(results.errors[0].isCancelled());
+        assertEquals("b", results.responses[1].asString());
+    }
+
+    @Test
+    public void cancelAllCancelsBatches() throws Exception {
+        final Results results = new Results();
+        Bridge.client().batch()
+                .add(Bridge.client().get("http://example.com/slow"))
+                .add(Bridge.client().get("http://example.com/b"))
+                .add(Bridge.client().get("http://example.com/c"))
+                .parallelism(1)
+                .request(results);
+        assertTrue(mTransport.entered.await(10, TimeUnit.SECONDS));
+
+        Bridge.client().cancelAll();
+        results.await();
+        for (RequestException error : results.errors)
+            assertTrue(error.isCancelled());
+    }
+}
@@ -0,0 +1,90 @@
+package com.afollestad.bridge;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Aidan Follestad (afollestad)
+ */
+public class CompressionTest {
+
+    private MockTransport mTransport;
+
+    @Before
+    public void setUp() {
+        mTransport = new MockTransport();
+        Bridge.client().config().transport(mTransport);
+    }
+
+    @After
+    public void tearDown() {
+        Bridge.cleanup();
+    }
+
+    private static byte[] deflate(byte[] data, boolean zlib) throws Exception {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        final DeflaterOutputStream os = new DeflaterOutputStream(bos,
+                new Deflater(Deflater.DEFAULT_COMPRESSION, !zlib));
+        os.write(data);
+        os.close();
+        return bos.toByteArray();
+    }
+
+    @Test
+    public void gzipResponseIsDecoded() throws Exception {
+        mTransport.enqueue(200, Collections.singletonMap("Content-Encoding", "gzip"),
+                Compression.gzip("hello".getBytes("UTF-8")));
+        final Response response = Bridge.client().get("http://example.com/a").response();
+        assertEquals("hello", response.asString());
+        assertNull(response.header("Content-Encoding"));
+        assertEquals(Compression.ACCEPT_ENCODING, mTransport.requests().get(0).headers.get("Accept-Encoding"));
+    }
+
+    @Test
+    public void zlibAndRawDeflateAreDecoded() throws Exception {
+        mTransport.enqueue(200, Collections.singletonMap("Content-Encoding", "deflate"),
+                deflate("zlib".getBytes("UTF-8"), true));
+        mTransport.enqueue(200, Collections.singletonMap("Content-Encoding", "deflate"),
+                deflate("raw".getBytes("UTF-8"), false));
+        assertEquals("zlib", Bridge.client().get("http://example.com/a").asString());
+        assertEquals("raw", Bridge.client().get("http://example.com/b").asString());
+    }
+
+    @Test
+    public void emptyEncodedBodyIsNotDecoded() throws Exception {
+        mTransport.enqueue(204, Collections.singletonMap("Content-Encoding", "gzip"), null);
+        mTransport.enqueue(200, Collections.singletonMap("Content-Encoding", "deflate"), null);
+        assertEquals(204, Bridge.client().get("http://example.com/a").response().code());
+        assertEquals(0, Bridge.client().get("http://example.com/b").asBytes().length);
+    }
+
+    @Test
+    public void largeRequestBodiesAreCompressed() throws Exception {
+        Bridge.client().config().compressRequests(16);
+        mTransport.enqueue(200, "ok");
+        mTransport.enqueue(200, "ok");
+        final String large = "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa";
+        Bridge.client().post("http://example.com/a").body(large).request();
+        Bridge.client().post("http://example.com/a").body("small").request();
+
+        final MockTransport.RecordedRequest compressed = mTransport.requests().get(0);
+        assertEquals("gzip", compressed.headers.get("Content-Encoding"));
+        final GZIPInputStream is = new GZIPInputStream(new ByteArrayInputStream(compressed.body));
+        assertEquals(large, new String(Util.readEntireStream(is), "UTF-8"));
+
+        final MockTransport.RecordedRequest plain = mTransport.requests().get(1);
+        assertNull(plain.headers.get("Content-Encoding"));
+        assertEquals("small", new String(plain.body, "UTF-8"));
+    }
+}
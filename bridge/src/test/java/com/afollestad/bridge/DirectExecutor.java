@@ -0,0 +1,20 @@
+package com.afollestad.bridge;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * Runs callbacks right away on the thread that posts them, and delayed progress updates on a thread of its own.
+ *
+ * @author Aidan Follestad (afollestad)
+ */
+final class DirectExecutor extends ScheduledThreadPoolExecutor {
+
+    public DirectExecutor() {
+        super(1);
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        command.run();
+    }
+}
@@ -0,0 +1,110 @@
+package com.afollestad.bridge;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Aidan Follestad (afollestad)
+ */
+public class DiskCacheTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+    private MockTransport mTransport;
+
+    @Before
+    public void setUp() throws Exception {
+        mTransport = new MockTransport();
+        Bridge.client().config()
+                .transport(mTransport)
+                .cache(mFolder.newFolder("cache"), 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() {
+        Bridge.cleanup();
+    }
+
+    private static Map<String, String> headers(String... namesAndValues) {
+        final Map<String, String> headers = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2)
+            headers.put(namesAndValues[i], namesAndValues[i + 1]);
+        return headers;
+    }
+
+    @Test
+    public void freshResponseIsServedFromDisk() throws Exception {
+        mTransport.enqueue(200, headers("Cache-Control", "max-age=60"), "cached".getBytes("UTF-8"));
+        assertEquals("cached", Bridge.client().get("http://example.com/a").asString());
+        assertEquals("cached", Bridge.client().get("http://example.com/a").asString());
+        assertEquals(1, mTransport.requests().size());
+    }
+
+    @Test
+    public void varyHeadersMustMatch() throws Exception {
+        mTransport.enqueue(200, headers("Cache-Control", "max-age=60", "Vary", "Accept-Language"),
+                "english".getBytes("UTF-8"));
+        mTransport.enqueue(200, headers("Cache-Control", "max-age=60", "Vary", "Accept-Language"),
+                "french".getBytes("UTF-8"));
+        assertEquals("english", Bridge.client().get("http://example.com/a")
+                .header("Accept-Language", "en").asString());
+        assertEquals("french", Bridge.client().get("http://example.com/a")
+                .header("Accept-Language", "fr").asString());
+        assertEquals(2, mTransport.requests().size());
+    }
+
+    @Test
+    public void authorizedResponsesAreOnlyStoredWhenPublic() throws Exception {
+        mTransport.enqueue(200, headers("Cache-Control", "max-age=60"), "private".getBytes("UTF-8"));
+        mTransport.enqueue(200, headers("Cache-Control", "public, max-age=60"), "public".getBytes("UTF-8"));
+        assertEquals("private", Bridge.client().get("http://example.com/a")
+                .header("Authorization", "Bearer token").asString());
+        assertEquals("public", Bridge.client().get("http://example.com/a")
+                .header("Authorization", "Bearer token").asString());
+        assertEquals("public", Bridge.client().get("http://example.com/a")
+                .header("Authorization", "Bearer token").asString());
+        assertEquals(2, mTransport.requests().size());
+    }
+
+    @Test
+    public void ageCountsAgainstMaxAge() throws Exception {
+        mTransport.enqueue(200, headers("Cache-Control", "max-age=60", "Age", "120", "ETag", "\"v1\""),
+                "body".getBytes("UTF-8"));
+        mTransport.enqueue(304, headers("Cache-Control", "max-age=60"), null);
+        assertEquals("body", Bridge.client().get("http://example.com/a").asString());
+        // Already stale when it arrived, so it's revalidated
+        assertEquals("body", Bridge.client().get("http://example.com/a").asString());
+        // The 304 made it fresh again
+        assertEquals("body", Bridge.client().get("http://example.com/a").asString());
+
+        final List<MockTransport.RecordedRequest> requests = mTransport.requests();
+        assertEquals(2, requests.size());
+        assertEquals("\"v1\"", requests.get(1).headers.get("If-None-Match"));
+    }
+
+    @Test
+    public void entriesWithoutABodyAreFetchedAgain() throws Exception {
+        mTransport.enqueue(200, headers("Cache-Control", "max-age=60"), "old".getBytes("UTF-8"));
+        mTransport.enqueue(200, headers("Cache-Control", "max-age=60"), "new".getBytes("UTF-8"));
+        assertEquals("old", Bridge.client().get("http://example.com/a").asString());
+        // Like a trim that happens between reading an entry's headers and its body
+        for (File file : Bridge.client().diskCache().directory().listFiles()) {
+            if (file.getName().endsWith(".1"))
+                assertTrue(file.delete());
+        }
+        assertEquals("new", Bridge.client().get("http://example.com/a").asString());
+        assertEquals("new", Bridge.client().get("http://example.com/a").asString());
+        assertEquals(2, mTransport.requests().size());
+    }
+}
@@ -0,0 +1,107 @@
+package com.afollestad.bridge;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Aidan Follestad (afollestad)
+ */
+public class DownloadTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+    private MockTransport mTransport;
+
+    @Before
+    public void setUp() {
+        mTransport = new MockTransport();
+        Bridge.client().config().transport(mTransport);
+    }
+
+    @After
+    public void tearDown() {
+        Bridge.cleanup();
+    }
+
+    private static Map<String, String> headers(String... namesAndValues) {
+        final Map<String, String> headers = new HashMap<>();
+        for (int i = 0; i < namesAndValues.length; i += 2)
+            headers.put(namesAndValues[i], namesAndValues[i + 1]);
+        return headers;
+    }
+
+    private static byte[] read(File file) throws IOException {
+        final FileInputStream is = new FileInputStream(file);
+        try {
+            return Util.readEntireStream(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    @Test
+    public void truncatedBodyFailsAndResumes() throws Exception {
+        final File destination = new File(mFolder.getRoot(), "file.bin");
+        mTransport.enqueue(200, headers("ETag", "\"v1\"", "Content-Length", "10"), "01234".getBytes("UTF-8"));
+        try {
+            Bridge.client().get("http://example.com/file.bin").download(destination).request();
+            fail("A body shorter than its Content-Length must fail the download.");
+        } catch (RequestException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertFalse(destination.exists());
+
+        mTransport.enqueue(206, headers("ETag", "\"v1\"", "Content-Range", "bytes 5-9/10", "Content-Length", "5"),
+                "56789".getBytes("UTF-8"));
+        final Response response = Bridge.client().get("http://example.com/file.bin")
+                .download(destination).response();
+        assertEquals(206, response.code());
+        assertArrayEquals("0123456789".getBytes("UTF-8"), read(destination));
+
+        final List<MockTransport.RecordedRequest> requests = mTransport.requests();
+        assertNull(requests.get(0).headers.get("Range"));
+        assertEquals("bytes=5-", requests.get(1).headers.get("Range"));
+        assertEquals("\"v1\"", requests.get(1).headers.get("If-Range"));
+    }
+
+    @Test
+    public void ignoredRangeStartsOver() throws Exception {
+        final File destination = new File(mFolder.getRoot(), "file.bin");
+        mTransport.enqueue(200, headers("ETag", "\"v1\"", "Content-Length", "10"), "01234".getBytes("UTF-8"));
+        try {
+            Bridge.client().get("http://example.com/file.bin").download(destination).request();
+            fail("A body shorter than its Content-Length must fail the download.");
+        } catch (RequestException ignored) {
+        }
+
+        mTransport.enqueue(200, headers("ETag", "\"v2\""), "abcdefghij".getBytes("UTF-8"));
+        Bridge.client().get("http://example.com/file.bin").download(destination).request();
+        assertArrayEquals("abcdefghij".getBytes("UTF-8"), read(destination));
+    }
+
+    @Test
+    public void progressIsNotLimitedTo2Gb() {
+        final long total = 6L * 1024 * 1024 * 1024;
+        final Progress progress = new Progress(total / 2, total, 0);
+        assertEquals(total / 2, progress.current());
+        assertEquals(total, progress.total());
+        assertEquals(50, progress.percent());
+    }
+}
@@ -0,0 +1,102 @@
+package com.afollestad.bridge;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Aidan Follestad (afollestad)
+ */
+public class EventListenerTest {
+
+    private static final class CountingListener extends EventListener {
+
+        final AtomicInteger firstByte = new AtomicInteger();
+        final AtomicInteger headersEnd = new AtomicInteger();
+        final AtomicInteger end = new AtomicInteger();
+
+        @Override
+        public void responseHeadersEnd(Request request, long nanoTime, int code) {
+            headersEnd.incrementAndGet();
+        }
+
+        @Override
+        public void responseFirstByte(Request request, long nanoTime) {
+            firstByte.incrementAndGet();
+        }
+
+        @Override
+        public void requestEnd(Request request, long nanoTime) {
+            end.incrementAndGet();
+        }
+    }
+
+    private MockTransport mTransport;
+
+    @Before
+    public void setUp() {
+        mTransport = new MockTransport();
+        Bridge.client().config().transport(mTransport);
+    }
+
+    @After
+    public void tearDown() {
+        Bridge.cleanup();
+    }
+
+    @Test
+    public void firstByteFiresForEmptyResponses() throws Exception {
+        final CountingListener listener = new CountingListener();
+        Bridge.client().config().eventListener(listener);
+        mTransport.enqueue(204, (String) null);
+        assertEquals(204, Bridge.client().get("http://example.com/a").response().code());
+        assertEquals(1, listener.firstByte.get());
+        assertEquals(1, listener.headersEnd.get());
+    }
+
+    @Test
+    public void firstByteFiresOncePerCall() throws Exception {
+        final CountingListener listener = new CountingListener();
+        Bridge.client().config().eventListener(listener);
+        mTransport.enqueue(503, "unavailable");
+        mTransport.enqueue(200, "ok");
+        final RetryPolicy immediate = new RetryPolicy(2) {
+            @Override
+            public long delay(Response response, int attempt) {
+                return 0;
+            }
+        };
+        assertEquals("ok", Bridge.client().get("http://example.com/a").retryPolicy(immediate).asString());
+        assertEquals(1, listener.firstByte.get());
+        assertEquals(2, listener.headersEnd.get());
+    }
+
+    @Test
+    public void throwingListenerDoesNotFailTheRequest() throws Exception {
+        final CountingListener counter = new CountingListener();
+        Bridge.client().config().eventListener(new EventListener() {
+            @Override
+            public void requestStart(Request request, long nanoTime) {
+                throw new IllegalStateException("requestStart");
+            }
+
+            @Override
+            public void responseFirstByte(Request request, long nanoTime) {
+                throw new IllegalStateException("responseFirstByte");
+            }
+
+            @Override
+            public void requestEnd(Request request, long nanoTime) {
+                counter.requestEnd(request, nanoTime);
+                throw new IllegalStateException("requestEnd");
+            }
+        });
+        mTransport.enqueue(200, "ok");
+        assertEquals("ok", Bridge.client().get("http://example.com/a").asString());
+        assertEquals(1, counter.end.get());
+    }
+}
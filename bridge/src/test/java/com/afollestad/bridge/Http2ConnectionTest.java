@@ -0,0 +1,244 @@
+package com.afollestad.bridge;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Aidan Follestad (afollestad)
+ */
+public class Http2ConnectionTest {
+
+    private static final int TYPE_DATA = 0x0;
+    private static final int TYPE_HEADERS = 0x1;
+    private static final int TYPE_RST_STREAM = 0x3;
+    private static final int TYPE_SETTINGS = 0x4;
+    private static final int TYPE_PING = 0x6;
+    private static final int TYPE_GOAWAY = 0x7;
+    private static final int TYPE_WINDOW_UPDATE = 0x8;
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    // The preface, and the SETTINGS and WINDOW_UPDATE frames the client sends with it
+    private static final int CLIENT_PREFACE_LENGTH = 24 + 9 + 12 + 9 + 4;
+
+    private static final class Frame {
+
+        final int type;
+        final int flags;
+        final int streamId;
+        final byte[] payload;
+
+        Frame(int type, int flags, int streamId, byte[] payload) {
+            this.type = type;
+            this.flags = flags;
+            this.streamId = streamId;
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * A single connection HTTP/2 server that tests script frame by frame.
+     */
+    private static abstract class ScriptedServer implements Runnable {
+
+        final ServerSocket socket;
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        DataInputStream in;
+        OutputStream out;
+
+        ScriptedServer() throws IOException {
+            socket = new ServerSocket();
+            // Small buffers, so a side that stops reading soon blocks the other side's writes
+            socket.setReceiveBufferSize(64 * 1024);
+            socket.bind(null);
+            final Thread thread = new Thread(this, "ScriptedServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + socket.getLocalPort() + "/";
+        }
+
+        @Override
+        public void run() {
+            Socket client = null;
+            try {
+                client = socket.accept();
+                client.setSendBufferSize(64 * 1024);
+                in = new DataInputStream(client.getInputStream());
+                out = new BufferedOutputStream(client.getOutputStream());
+                in.readFully(new byte[CLIENT_PREFACE_LENGTH]);
+                // Lets the client send as much as it wants
+                writeFrame(TYPE_SETTINGS, 0, 0, new byte[]{0, 4, 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF});
+                writeFrame(TYPE_WINDOW_UPDATE, 0, 0, intBytes(Integer.MAX_VALUE - 65535));
+                out.flush();
+                script();
+            } catch (Throwable e) {
+                error.set(e);
+            } finally {
+                Util.closeQuietly(client);
+            }
+        }
+
+        abstract void script() throws Exception;
+
+        Frame readFrame() throws IOException {
+            final byte[] header = new byte[9];
+            in.readFully(header);
+            final int length = ((header[0] & 0xFF) << 16) | ((header[1] & 0xFF) << 8) | (header[2] & 0xFF);
+            final byte[] payload = new byte[length];
+            in.readFully(payload);
+            return new Frame(header[3] & 0xFF, header[4] & 0xFF, readInt(header, 5) & 0x7FFFFFFF, payload);
+        }
+
+        Frame readUntil(int type) throws IOException {
+            Frame frame;
+            while ((frame = readFrame()).type != type) ;
+            return frame;
+        }
+
+        void writeFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+            out.write(new byte[]{(byte) (payload.length >>> 16), (byte) (payload.length >>> 8),
+                    (byte) payload.length, (byte) type, (byte) flags});
+            out.write(intBytes(streamId));
+            out.write(payload);
+        }
+
+        void close() {
+            Util.closeQuietly(socket);
+        }
+    }
+
+    private static byte[] intBytes(int value) {
+        return new byte[]{(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    private static int readInt(byte[] buffer, int offset) {
+        return ((buffer[offset] & 0xFF) << 24) | ((buffer[offset + 1] & 0xFF) << 16)
+                | ((buffer[offset + 2] & 0xFF) << 8) | (buffer[offset + 3] & 0xFF);
+    }
+
+    private Http2Transport mTransport;
+    private ScriptedServer mServer;
+
+    @Before
+    public void setUp() {
+        mTransport = new Http2Transport();
+        Bridge.client().config().transport(mTransport);
+    }
+
+    @After
+    public void tearDown() {
+        if (mServer != null) mServer.close();
+        mTransport.close();
+        Bridge.cleanup();
+    }
+
+    /**
+     * Runs a request on another thread, so a deadlock fails the test instead of hanging it.
+     */
+    private static Response requestWithin(final RequestBuilder builder, long seconds) throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<Object> result = new AtomicReference<>();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result.set(builder.response());
+                } catch (RequestException e) {
+                    result.set(e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        assertTrue("The request never finished.", done.await(seconds, TimeUnit.SECONDS));
+        if (result.get() instanceof RequestException)
+            throw (RequestException) result.get();
+        return (Response) result.get();
+    }
+
+    @Test
+    public void pingsDuringAnUploadDoNotDeadlock() throws Exception {
+        final int pings = 512 * 1024;
+        final AtomicInteger acks = new AtomicInteger();
+        mServer = new ScriptedServer() {
+            @Override
+            void script() throws Exception {
+                // Doesn't read while it pings, so the client's upload is stuck in a socket write meanwhile
+                Thread.sleep(200);
+                for (int i = 0; i < pings; i++)
+                    writeFrame(TYPE_PING, 0, 0, new byte[8]);
+                out.flush();
+                Frame frame;
+                while (true) {
+                    frame = readFrame();
+                    if (frame.type == TYPE_PING)
+                        acks.incrementAndGet();
+                    else if (frame.type == TYPE_DATA && (frame.flags & FLAG_END_STREAM) != 0)
+                        break;
+                }
+                // :status 200 from the static table
+                writeFrame(TYPE_HEADERS, FLAG_END_HEADERS | FLAG_END_STREAM, frame.streamId,
+                        new byte[]{(byte) 0x88});
+                out.flush();
+                while (acks.get() < pings) {
+                    if (readFrame().type == TYPE_PING)
+                        acks.incrementAndGet();
+                }
+            }
+        };
+        final byte[] body = new byte[8 * 1024 * 1024];
+        final Response response = requestWithin(Bridge.client().post(mServer.url()).body(body), 30);
+        assertEquals(200, response.code());
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (acks.get() < pings && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(pings, acks.get());
+        assertNull(mServer.error.get());
+    }
+
+    @Test
+    public void badControlFrameLengthsAreFrameSizeErrors() throws Exception {
+        final AtomicInteger goAwayError = new AtomicInteger(-1);
+        mServer = new ScriptedServer() {
+            @Override
+            void script() throws Exception {
+                final Frame headers = readUntil(TYPE_HEADERS);
+                writeFrame(TYPE_RST_STREAM, 0, headers.streamId, new byte[3]);
+                out.flush();
+                goAwayError.set(readInt(readUntil(TYPE_GOAWAY).payload, 4));
+            }
+        };
+        try {
+            requestWithin(Bridge.client().get(mServer.url()), 10);
+            throw new AssertionError("The request didn't fail.");
+        } catch (RequestException e) {
+            assertTrue(e.getCause() instanceof ProtocolException);
+        }
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (goAwayError.get() == -1 && mServer.error.get() == null && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        // FRAME_SIZE_ERROR
+        assertEquals(0x6, goAwayError.get());
+    }
+}
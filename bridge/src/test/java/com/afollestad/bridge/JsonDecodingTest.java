@@ -0,0 +1,89 @@
+package com.afollestad.bridge;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Aidan Follestad (afollestad)
+ */
+public class JsonDecodingTest {
+
+    public static class Item {
+        public int id;
+        public String name;
+    }
+
+    private static final String ITEM = "{\"id\": 1, \"name\": \"one\"}";
+    private static final String ITEMS = "[{\"id\": 1, \"name\": \"one\"}, {\"id\": 2, \"name\": \"two\"}]";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+    private MockTransport mTransport;
+
+    @Before
+    public void setUp() {
+        mTransport = new MockTransport();
+        Bridge.client().config().transport(mTransport);
+    }
+
+    @After
+    public void tearDown() {
+        Bridge.cleanup();
+    }
+
+    private void enqueueCacheable(String body) throws Exception {
+        mTransport.enqueue(200, Collections.singletonMap("Cache-Control", "max-age=60"), body.getBytes("UTF-8"));
+    }
+
+    @Test
+    public void decodesObjectsAndLists() throws Exception {
+        mTransport.enqueue(200, ITEM);
+        mTransport.enqueue(200, ITEMS);
+        final Item item = Bridge.client().get("http://example.com/item").as(Item.class);
+        assertEquals(1, item.id);
+        assertEquals("one", item.name);
+        final List<Item> items = Bridge.client().get("http://example.com/items").asList(Item.class);
+        assertEquals(2, items.size());
+        assertEquals("two", items.get(1).name);
+    }
+
+    @Test
+    public void decodedResponsesAreStoredInTheMemoryCache() throws Exception {
+        Bridge.client().config().memoryCache(1024 * 1024);
+        enqueueCacheable(ITEMS);
+        assertEquals(2, Bridge.client().get("http://example.com/items").asList(Item.class).size());
+        assertEquals(2, Bridge.client().get("http://example.com/items").asList(Item.class).size());
+        assertEquals(1, mTransport.requests().size());
+    }
+
+    @Test
+    public void decodedResponsesAreStoredInTheDiskCache() throws Exception {
+        Bridge.client().config().cache(mFolder.newFolder("cache"), 1024 * 1024);
+        enqueueCacheable(ITEM);
+        assertEquals("one", Bridge.client().get("http://example.com/item").as(Item.class).name);
+        assertEquals("one", Bridge.client().get("http://example.com/item").as(Item.class).name);
+        assertEquals(1, mTransport.requests().size());
+        assertEquals(1, Bridge.client().diskCache().hitCount());
+    }
+
+    @Test
+    public void streamedResponsesUseTheirOwnBridgesPool() throws Exception {
+        mTransport.enqueue(200, ITEM);
+        final BufferPool pool = Bridge.client().bufferPool();
+        final Response response = Bridge.client().get("http://example.com/item").stream();
+        // Any client made from here on has a pool of its own
+        Bridge.cleanup();
+        final long before = pool.hitCount() + pool.missCount();
+        assertEquals("one", response.as(Item.class).name);
+        assertTrue(pool.hitCount() + pool.missCount() > before);
+    }
+}
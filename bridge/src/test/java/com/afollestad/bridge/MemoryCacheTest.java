@@ -0,0 +1,57 @@
+package com.afollestad.bridge;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+/**
+ * @author Aidan Follestad (afollestad)
+ */
+public class MemoryCacheTest {
+
+    private MockTransport mTransport;
+
+    @Before
+    public void setUp() {
+        mTransport = new MockTransport();
+        Bridge.client().config()
+                .transport(mTransport)
+                .memoryCache(1024 * 1024);
+    }
+
+    @After
+    public void tearDown() {
+        Bridge.cleanup();
+    }
+
+    @Test
+    public void everyHitGetsItsOwnResponse() throws Exception {
+        mTransport.enqueue(200, Collections.singletonMap("Cache-Control", "max-age=60"), "cached".getBytes("UTF-8"));
+        final Response first = Bridge.client().get("http://example.com/a").response();
+        final Response second = Bridge.client().get("http://example.com/a").response();
+        final Response third = Bridge.client().get("http://example.com/a").response();
+        assertEquals(1, mTransport.requests().size());
+        assertNotSame(second, third);
+        assertNotSame(second.asBytes(), third.asBytes());
+
+        // Changing one response's body doesn't leak into the cache or other hits
+        first.asBytes()[0] = 'X';
+        second.asBytes()[0] = 'Y';
+        assertEquals("cached", third.asString());
+        assertEquals("cached", Bridge.client().get("http://example.com/a").asString());
+    }
+
+    @Test
+    public void errorsAreNotCached() throws Exception {
+        mTransport.enqueue(500, Collections.singletonMap("Cache-Control", "max-age=60"), "error".getBytes("UTF-8"));
+        mTransport.enqueue(200, "ok");
+        assertEquals(500, Bridge.client().get("http://example.com/a").response().code());
+        assertEquals("ok", Bridge.client().get("http://example.com/a").asString());
+        assertEquals(2, mTransport.requests().size());
+    }
+}
@@ -0,0 +1,220 @@
+package com.afollestad.bridge;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Aidan Follestad (afollestad)
+ */
+public class NioTransportTest {
+
+    /**
+     * A server that reads each request's head, and holds the response to requests for /slow until released.
+     */
+    private static final class SlowServer implements Runnable {
+
+        final ServerSocket socket;
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger received = new AtomicInteger();
+        final AtomicInteger maxWaiting = new AtomicInteger();
+        final AtomicInteger waiting = new AtomicInteger();
+        final ConcurrentHashMap<Socket, Boolean> clients = new ConcurrentHashMap<>();
+
+        SlowServer() throws IOException {
+            socket = new ServerSocket(0);
+            final Thread thread = new Thread(this, "SlowServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        String url(String path) {
+            return "http://127.0.0.1:" + socket.getLocalPort() + path;
+        }
+
+        @Override
+        public void run() {
+            while (!socket.isClosed()) {
+                final Socket client;
+                try {
+                    client = socket.accept();
+                } catch (IOException e) {
+                    return;
+                }
+                clients.put(client, true);
+                final Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(client);
+                    }
+                });
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        private void serve(Socket client) {
+            try {
+                final String path = readHead(client.getInputStream());
+                received.incrementAndGet();
+                final String response;
+                if (path.startsWith("/redirect")) {
+                    response = "HTTP/1.1 302 Found\r\nLocation: /slow\r\nContent-Length: 0\r\n\r\n";
+                } else if (path.startsWith("/loop")) {
+                    response = "HTTP/1.1 302 Found\r\nLocation: /loop\r\nContent-Length: 0\r\n\r\n";
+                } else {
+                    if (path.startsWith("/slow")) {
+                        final int now = waiting.incrementAndGet();
+                        int max;
+                        while ((max = maxWaiting.get()) < now && !maxWaiting.compareAndSet(max, now)) ;
+                        release.await(10, TimeUnit.SECONDS);
+                        waiting.decrementAndGet();
+                    }
+                    response = "HTTP/1.1 200 OK\r\nContent-Length: 2\r\nConnection: close\r\n\r\nok";
+                }
+                final OutputStream os = client.getOutputStream();
+                os.write(response.getBytes("US-ASCII"));
+                os.flush();
+            } catch (IOException | InterruptedException ignored) {
+            } finally {
+                Util.closeQuietly(client);
+                clients.remove(client);
+            }
+        }
+
+        private static String readHead(InputStream is) throws IOException {
+            final StringBuilder head = new StringBuilder();
+            int b;
+            while ((b = is.read()) != -1) {
+                head.append((char) b);
+                if (head.length() >= 4 && head.substring(head.length() - 4).equals("\r\n\r\n"))
+                    break;
+            }
+            final String line = head.toString();
+            final int start = line.indexOf(' ') + 1;
+            return line.substring(start, line.indexOf(' ', start));
+        }
+
+        void close() {
+            release.countDown();
+            Util.closeQuietly(socket);
+            for (Socket client : clients.keySet())
+                Util.closeQuietly(client);
+        }
+    }
+
+    private static final class Results extends Callback {
+
+        final CountDownLatch done;
+        final AtomicInteger ok = new AtomicInteger();
+
+        Results(int count) {
+            done = new CountDownLatch(count);
+        }
+
+        @Override
+        public void response(Request request, Response response, RequestException e) {
+            try {
+                if (e == null && "ok".equals(response.asString()))
+                    ok.incrementAndGet();
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    private SlowServer mServer;
+    private NioTransport mTransport;
+    private final DirectExecutor mExecutor = new DirectExecutor();
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new SlowServer();
+        mTransport = new NioTransport();
+        // The worker pool keeps its default size of at most 8 threads
+        Bridge.client().config()
+                .transport(mTransport)
+                .maxRequests(100)
+                .maxRequestsPerHost(100)
+                .callbackExecutor(mExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.close();
+        mTransport.close();
+        Bridge.cleanup();
+        mExecutor.shutdown();
+    }
+
+    @Test
+    public void slowResponsesDoNotHoldWorkers() throws Exception {
+        final int count = 50;
+        final Results results = new Results(count);
+        for (int i = 0; i < count; i++)
+            Bridge.client().get(mServer.url("/slow?" + i)).request(results);
+
+        final long deadline = System.currentTimeMillis() + 20000;
+        while (mServer.waiting.get() < count && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(count, mServer.maxWaiting.get());
+        assertEquals(count, Bridge.client().scheduler().runningCount());
+
+        mServer.release.countDown();
+        assertTrue("The requests never finished.", results.done.await(10, TimeUnit.SECONDS));
+        assertEquals(count, results.ok.get());
+        // Each request leaves the scheduler right after its callback
+        while (Bridge.client().scheduler().runningCount() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, Bridge.client().scheduler().runningCount());
+    }
+
+    @Test
+    public void asyncRequestsFollowRedirects() throws Exception {
+        mServer.release.countDown();
+        final Results results = new Results(1);
+        Bridge.client().get(mServer.url("/redirect")).request(results);
+        assertTrue("The request never finished.", results.done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, results.ok.get());
+        assertEquals(2, mServer.received.get());
+    }
+
+    @Test
+    public void redirectLoopsFail() throws Exception {
+        try {
+            Bridge.client().get(mServer.url("/loop")).request();
+            fail("A redirect loop didn't fail.");
+        } catch (RequestException e) {
+            assertTrue(e.getCause() instanceof ProtocolException);
+        }
+        assertEquals(21, mServer.received.get());
+
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<RequestException> error = new AtomicReference<>();
+        Bridge.client().get(mServer.url("/loop")).request(new Callback() {
+            @Override
+            public void response(Request request, Response response, RequestException e) {
+                error.set(e);
+                done.countDown();
+            }
+        });
+        assertTrue("The request never finished.", done.await(10, TimeUnit.SECONDS));
+        assertTrue(error.get().getCause() instanceof ProtocolException);
+    }
+}
@@ -0,0 +1,36 @@
+package com.afollestad.bridge;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Aidan Follestad (afollestad)
+ */
+public class PooledByteArrayOutputStreamTest {
+
+    private MockTransport mTransport;
+
+    @Before
+    public void setUp() {
+        mTransport = new MockTransport();
+        Bridge.client().config().transport(mTransport);
+    }
+
+    @After
+    public void tearDown() {
+        Bridge.cleanup();
+    }
+
+    @Test
+    public void hugeContentLengthsAreNotAllocatedUpFront() throws Exception {
+        // Would need a 2 GB array if the header were trusted
+        mTransport.enqueue(200, Collections.singletonMap("Content-Length", Integer.toString(Integer.MAX_VALUE)),
+                "small".getBytes("UTF-8"));
+        assertEquals("small", Bridge.client().get("http://example.com/a").asString());
+    }
+}
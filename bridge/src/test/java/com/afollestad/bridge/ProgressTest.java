@@ -0,0 +1,129 @@
+package com.afollestad.bridge;
+
+import android.support.annotation.NonNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Aidan Follestad (afollestad)
+ */
+public class ProgressTest {
+
+    private static final int CHUNK = 1024;
+    private static final int CHUNKS = 200;
+    private static final long INTERVAL = 100;
+
+    /**
+     * Trickles a body out one chunk per millisecond, so reading it takes a few progress intervals.
+     */
+    private static final class SlowTransport implements Transport {
+
+        @NonNull
+        @Override
+        public TransportResponse execute(@NonNull TransportRequest request) throws IOException {
+            return new TransportResponse() {
+                private int mRead;
+
+                @Override
+                public int code() {
+                    return 200;
+                }
+
+                @Override
+                public String message() {
+                    return "OK";
+                }
+
+                @NonNull
+                @Override
+                public Map<String, List<String>> headers() {
+                    return Collections.singletonMap("Content-Length",
+                            Collections.singletonList(Integer.toString(CHUNK * CHUNKS)));
+                }
+
+                @NonNull
+                @Override
+                public InputStream body() {
+                    return new InputStream() {
+                        @Override
+                        public int read() throws IOException {
+                            throw new UnsupportedOperationException();
+                        }
+
+                        @Override
+                        public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+                            if (mRead == CHUNKS) return -1;
+                            try {
+                                Thread.sleep(1);
+                            } catch (InterruptedException e) {
+                                throw new IOException(e);
+                            }
+                            mRead++;
+                            return Math.min(count, CHUNK);
+                        }
+                    };
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    private final DirectExecutor mExecutor = new DirectExecutor();
+
+    @Before
+    public void setUp() {
+        Bridge.client().config()
+                .transport(new SlowTransport())
+                .bufferSize(CHUNK)
+                .progressInterval(INTERVAL)
+                .callbackExecutor(mExecutor);
+    }
+
+    @After
+    public void tearDown() {
+        Bridge.cleanup();
+        mExecutor.shutdown();
+    }
+
+    @Test
+    public void updatesAreCoalescedPerInterval() throws Exception {
+        final List<Progress> updates = new CopyOnWriteArrayList<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        Bridge.client().get("http://example.com/a").request(new Callback() {
+            @Override
+            public void response(Request request, Response response, RequestException e) {
+                done.countDown();
+            }
+
+            @Override
+            public void progress(Request request, Progress progress) {
+                updates.add(progress);
+            }
+        });
+        assertTrue("The request never finished.", done.await(10, TimeUnit.SECONDS));
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // One read per chunk, but at most one update per interval, plus the final one
+        assertTrue("Got " + updates.size() + " updates in " + elapsed + " ms.",
+                updates.size() >= 2 && updates.size() <= elapsed / INTERVAL + 2);
+        assertEquals(CHUNK * CHUNKS, updates.get(updates.size() - 1).current());
+    }
+}
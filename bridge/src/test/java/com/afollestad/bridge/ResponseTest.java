@@ -0,0 +1,72 @@
+package com.afollestad.bridge;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Aidan Follestad (afollestad)
+ */
+public class ResponseTest {
+
+    /**
+     * A connection that drops after the first few bytes.
+     */
+    private static InputStream failingStream() {
+        return new InputStream() {
+            private int mRead;
+
+            @Override
+            public int read() throws IOException {
+                if (mRead++ < 4) return 'a';
+                throw new IOException("Connection reset");
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        Bridge.cleanup();
+    }
+
+    private static Response streaming(InputStream stream) {
+        return new Response("http://example.com/a", 200, "OK", null, stream, Bridge.client().bufferPool());
+    }
+
+    @Test
+    public void bufferedAccessorsReadStreamingBodies() throws Exception {
+        final Response response = streaming(new ByteArrayInputStream("streamed".getBytes("UTF-8")));
+        assertTrue(response.isStreaming());
+        assertEquals("streamed", response.asString());
+        assertFalse(response.isStreaming());
+        assertEquals("streamed", response.asString());
+    }
+
+    @Test
+    public void bufferReportsAFailedConnection() throws Exception {
+        try {
+            streaming(failingStream()).buffer();
+            fail("buffer() didn't throw.");
+        } catch (ResponseException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void bufferedAccessorsReportAFailedConnectionUnchecked() {
+        try {
+            streaming(failingStream()).asString();
+            fail("asString() didn't throw.");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getCause() instanceof ResponseException);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.afollestad.bridge;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Aidan Follestad (afollestad)
+ */
+public class RetryPolicyTest {
+
+    private MockTransport mTransport;
+
+    @Before
+    public void setUp() {
+        mTransport = new MockTransport();
+        Bridge.client().config().transport(mTransport);
+    }
+
+    @After
+    public void tearDown() {
+        Bridge.cleanup();
+    }
+
+    // Retries right away, so the tests don't wait on the clock
+    private static RetryPolicy immediate(int maxAttempts) {
+        return new RetryPolicy(maxAttempts) {
+            @Override
+            public long delay(Response response, int attempt) {
+                return 0;
+            }
+        };
+    }
+
+    private static Response response(int code, String header, String value) {
+        final Map<String, List<String>> headers = Collections.singletonMap(header, Collections.singletonList(value));
+        return new Response(null, "http://example.com/a", code, null, headers);
+    }
+
+    @Test
+    public void retriesErrorCodesAndIOExceptions() throws Exception {
+        mTransport.enqueue(503, "unavailable");
+        mTransport.enqueue(new IOException("Connection reset"));
+        mTransport.enqueue(200, "ok");
+        final Response response = Bridge.client().get("http://example.com/a")
+                .retryPolicy(immediate(3)).response();
+        assertEquals("ok", response.asString());
+        assertEquals(3, response.attempts());
+    }
+
+    @Test
+    public void givesUpAfterMaxAttempts() throws Exception {
+        mTransport.enqueue(503, "unavailable");
+        mTransport.enqueue(503, "unavailable");
+        mTransport.enqueue(200, "ok");
+        final Response response = Bridge.client().get("http://example.com/a")
+                .retryPolicy(immediate(2)).response();
+        assertEquals(503, response.code());
+        assertEquals(2, mTransport.requests().size());
+    }
+
+    @Test
+    public void onlyIdempotentMethodsAreRetried() throws Exception {
+        mTransport.enqueue(503, "unavailable");
+        assertEquals(503, Bridge.client().post("http://example.com/a")
+                .retryPolicy(immediate(3)).response().code());
+
+        mTransport.enqueue(503, "unavailable");
+        mTransport.enqueue(200, "ok");
+        assertEquals(200, Bridge.client().put("http://example.com/a")
+                .retryPolicy(immediate(3)).response().code());
+
+        mTransport.enqueue(503, "unavailable");
+        mTransport.enqueue(200, "ok");
+        assertEquals(200, Bridge.client().post("http://example.com/a")
+                .retryPolicy(immediate(3).retryNonIdempotent(true)).response().code());
+        assertEquals(5, mTransport.requests().size());
+    }
+
+    @Test
+    public void retryAfterIsCaseInsensitiveAndCapped() throws Exception {
+        final RetryPolicy policy = new RetryPolicy(3).backoff(100, 1000);
+        final Request request = new Request(Bridge.client().get("http://example.com/a"));
+        final Response response = response(503, "retry-after", "120");
+        assertTrue(policy.shouldRetry(request, response, null, 1));
+        assertEquals(1000, policy.delay(response, 1));
+    }
+
+    @Test
+    public void backoffStaysBelowTheCeiling() {
+        final RetryPolicy policy = new RetryPolicy(10).backoff(100, 1000);
+        for (int attempt = 1; attempt < 10; attempt++) {
+            final long delay = policy.delay(null, attempt);
+            assertTrue(delay >= 0 && delay <= Math.min(1000, 100 << (attempt - 1)));
+        }
+        assertFalse(policy.shouldRetry(new Request(Bridge.client().get("http://example.com/a")),
+                null, new IOException(), 10));
+    }
+}
@@ -0,0 +1,140 @@
+package com.afollestad.bridge;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Aidan Follestad (afollestad)
+ */
+public class UrlConnectionTransportTest {
+
+    private static final int BODY_SIZE = 32 * 1024;
+
+    /**
+     * Answers every request on a connection with the same body, until the client closes it.
+     */
+    private static final class KeepAliveServer implements Runnable {
+
+        final ServerSocket socket;
+
+        KeepAliveServer() throws IOException {
+            socket = new ServerSocket(0);
+            final Thread thread = new Thread(this, "KeepAliveServer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        String url() {
+            return "http://127.0.0.1:" + socket.getLocalPort() + "/";
+        }
+
+        @Override
+        public void run() {
+            while (!socket.isClosed()) {
+                final Socket client;
+                try {
+                    client = socket.accept();
+                } catch (IOException e) {
+                    return;
+                }
+                final Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(client);
+                    }
+                });
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+
+        private void serve(Socket client) {
+            try {
+                final InputStream is = client.getInputStream();
+                final OutputStream os = client.getOutputStream();
+                final byte[] body = new byte[BODY_SIZE];
+                Arrays.fill(body, (byte) 'a');
+                while (skipHead(is)) {
+                    os.write(("HTTP/1.1 200 OK\r\nContent-Length: " + BODY_SIZE + "\r\n\r\n").getBytes("US-ASCII"));
+                    os.write(body);
+                    os.flush();
+                }
+            } catch (IOException ignored) {
+            } finally {
+                Util.closeQuietly(client);
+            }
+        }
+
+        private static boolean skipHead(InputStream is) throws IOException {
+            int matched = 0;
+            int b;
+            while ((b = is.read()) != -1) {
+                matched = b == (matched % 2 == 0 ? '\r' : '\n') ? matched + 1 : (b == '\r' ? 1 : 0);
+                if (matched == 4) return true;
+            }
+            return false;
+        }
+
+        void close() {
+            Util.closeQuietly(socket);
+        }
+    }
+
+    private KeepAliveServer mServer;
+    private UrlConnectionTransport mTransport;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new KeepAliveServer();
+        mTransport = new UrlConnectionTransport().reuseConnections(5);
+        Bridge.client().config().transport(mTransport);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.close();
+        Bridge.cleanup();
+    }
+
+    @Test
+    public void unreadBodiesAreDrainedWithPooledBuffers() throws Exception {
+        final BufferPool pool = Bridge.client().bufferPool();
+        for (int i = 0; i < 3; i++) {
+            final Response response = Bridge.client().get(mServer.url()).stream();
+            assertEquals('a', response.stream().read());
+            response.close();
+        }
+        assertEquals(3, mTransport.connectionStats().releasedCount());
+        assertEquals(0, mTransport.connectionStats().discardedCount());
+        // Every drain after the first reuses the buffer the one before it returned
+        assertTrue(pool.hitCount() >= 2);
+    }
+
+    @Test
+    public void onlyUpToTheMaxIdleConnectionsPerHostAreReleased() throws Exception {
+        mTransport.reuseConnections(1);
+        // Both are open at once, so they use two connections
+        final Response first = Bridge.client().get(mServer.url()).stream();
+        final Response second = Bridge.client().get(mServer.url()).stream();
+        first.close();
+        second.close();
+        assertEquals(1, mTransport.connectionStats().releasedCount());
+        assertEquals(1, mTransport.connectionStats().discardedCount());
+
+        // The next request takes the idle connection, which makes room for it again
+        Bridge.client().get(mServer.url()).stream().close();
+        assertEquals(2, mTransport.connectionStats().releasedCount());
+        assertEquals(1, mTransport.connectionStats().discardedCount());
+    }
+}
@@ -9,6 +9,16 @@ import com.afollestad.bridge.Bridge;
  */
 public class App extends Application {
 
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // Use up to 1/8th of the available heap for decoded thumbnails
+        Bridge.client().config()
+                .bitmapCache(Runtime.getRuntime().maxMemory() / 8)
+                // Thumbnails BridgeImageView stops displaying are reused for new decodes
+                .bitmapPool(1024 * 1024 * 4);
+    }
+
     @Override
     public void onTerminate() {
         super.onTerminate();
@@ -1,23 +1,31 @@
 package com.afollestad.bridgesample;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.net.Uri;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.widget.ImageView;
 
+import com.afollestad.bridge.BitmapCache;
+import com.afollestad.bridge.BitmapPool;
 import com.afollestad.bridge.Bridge;
 import com.afollestad.bridge.Callback;
 import com.afollestad.bridge.Request;
 import com.afollestad.bridge.RequestException;
 import com.afollestad.bridge.Response;
+import com.afollestad.bridge.ResponseException;
 
 /**
- * Recycles its Bitmap when detached from the window (Activity)
+ * Loads thumbnails sized to the view through async requests, once the view has been measured, and hands
+ * the bitmaps it stops displaying back to Bridge's BitmapPool.
  *
  * @author Aidan Follestad (afollestad)
  */
 public class BridgeImageView extends ImageView {
 
+    private static final String TAG = "BridgeImageView";
+
     public BridgeImageView(Context context) {
         super(context);
     }
@@ -32,6 +40,8 @@ public class BridgeImageView extends ImageView {
 
     private boolean mCancelable = true;
     private Object mTag;
+    private Uri mUri;
+    private Bitmap mBitmap;
 
     public void setImageURI(Uri uri, boolean cancelable, Object tag) {
         mCancelable = cancelable;
@@ -41,16 +51,77 @@ public class BridgeImageView extends ImageView {
 
     @Override
     public void setImageURI(Uri uri) {
+        mUri = uri;
+        setBitmap(null);
+        // Before layout the size is 0, so the load waits for onSizeChanged()
+        if (uri != null && getWidth() > 0 && getHeight() > 0)
+            load();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        if (mUri != null && w > 0 && h > 0 && (w != oldw || h != oldh))
+            load();
+    }
+
+    private void load() {
+        final BitmapCache cache = Bridge.client().bitmapCache();
+        final String url = mUri.toString();
+        final int width = getWidth();
+        final int height = getHeight();
+        if (cache != null) {
+            // Rebinding a row that was already loaded doesn't need a request
+            final Bitmap cached = cache.get(url, width, height);
+            if (cached != null) {
+                setBitmap(cached);
+                return;
+            }
+        }
+        // Rows showing the same image share one request, and cancelAll() stops them all
         Bridge.client()
-                .get(uri.toString())
+                .get(url)
                 .cancellable(mCancelable)
                 .tag(mTag)
                 .request(new Callback() {
                     @Override
                     public void response(Request request, Response response, RequestException e) {
-                        if (response != null)
-                            setImageBitmap(response.asBitmap());
+                        // The view was rebound or resized while this was loading
+                        if (mUri == null || !url.equals(mUri.toString())
+                                || width != getWidth() || height != getHeight())
+                            return;
+                        if (e != null) {
+                            if (!e.isCancelled())
+                                Log.e(TAG, "Failed to load " + url + ": " + e.getMessage());
+                            return;
+                        } else if (!response.isSuccess()) {
+                            return;
+                        }
+                        try {
+                            // Downsampled to the view, reusing pooled bitmaps. The first row to decode a
+                            // size puts it in the BitmapCache, the rest of the rows sharing it get it from there.
+                            setBitmap(response.asBitmap(width, height));
+                        } catch (ResponseException e2) {
+                            Log.e(TAG, "Failed to decode " + url + ": " + e2.getMessage());
+                        }
                     }
                 });
     }
+
+    private void setBitmap(Bitmap bitmap) {
+        if (bitmap == mBitmap) return;
+        final Bitmap previous = mBitmap;
+        mBitmap = bitmap;
+        setImageBitmap(bitmap);
+        if (previous != null)
+            release(previous);
+    }
+
+    private static void release(Bitmap bitmap) {
+        final BitmapPool pool = Bridge.client().bitmapPool();
+        final BitmapCache cache = Bridge.client().bitmapCache();
+        // Cached bitmaps may be displayed by other rows, so only the ones this view owns are pooled
+        if (pool != null && (cache == null || !cache.contains(bitmap)))
+            pool.put(bitmap);
+    }
 }